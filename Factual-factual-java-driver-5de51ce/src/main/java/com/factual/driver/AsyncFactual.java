@@ -0,0 +1,153 @@
+package com.factual.driver;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+
+/**
+ * Runs requests of a {@link Factual} client asynchronously, each as a blocking
+ * call on an executor. By default the executor runs each request on its own
+ * virtual thread where the JDK supports it; see {@link FactualExecutors}.
+ * <p>
+ * Requests fail the same way as their blocking counterparts: a failed future's
+ * cause is the {@link FactualApiException} the blocking call would have
+ * thrown.
+ * 
+ * <pre>
+ * AsyncFactual async = new AsyncFactual(factual);
+ * ListenableFuture&lt;ReadResponse&gt; resp = async.fetch(&quot;places&quot;, new Query().search(&quot;coffee&quot;));
+ * ...
+ * async.shutdown();
+ * </pre>
+ */
+public class AsyncFactual {
+  private final Factual factual;
+  private final ExecutorService executor;
+
+
+  /**
+   * Constructor. Runs requests on a new
+   * {@link FactualExecutors#newVirtualThreadExecutor() virtual thread
+   * executor}.
+   * 
+   * @param factual
+   *          the client to run requests with.
+   */
+  public AsyncFactual(Factual factual) {
+    this(factual, FactualExecutors.newVirtualThreadExecutor());
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param factual
+   *          the client to run requests with.
+   * @param executor
+   *          the executor to run requests on.
+   */
+  public AsyncFactual(Factual factual, ExecutorService executor) {
+    this.factual = factual;
+    this.executor = executor;
+  }
+
+  /**
+   * @see Factual#fetch(String, Query)
+   */
+  public ListenableFuture<ReadResponse> fetch(final String tableName, final Query query) {
+    return submit(new Callable<ReadResponse>() {
+      @Override
+      public ReadResponse call() {
+        return factual.fetch(tableName, query);
+      }
+    });
+  }
+
+  /**
+   * @see Factual#fetch(String, FacetQuery)
+   */
+  public ListenableFuture<FacetResponse> fetch(final String tableName, final FacetQuery facet) {
+    return submit(new Callable<FacetResponse>() {
+      @Override
+      public FacetResponse call() {
+        return factual.fetch(tableName, facet);
+      }
+    });
+  }
+
+  /**
+   * @see Factual#fetch(String, ResolveQuery)
+   */
+  public ListenableFuture<ReadResponse> fetch(final String tableName, final ResolveQuery query) {
+    return submit(new Callable<ReadResponse>() {
+      @Override
+      public ReadResponse call() {
+        return factual.fetch(tableName, query);
+      }
+    });
+  }
+
+  /**
+   * @see Factual#schema(String)
+   */
+  public ListenableFuture<SchemaResponse> schema(final String tableName) {
+    return submit(new Callable<SchemaResponse>() {
+      @Override
+      public SchemaResponse call() {
+        return factual.schema(tableName);
+      }
+    });
+  }
+
+  /**
+   * @see Factual#geopulse(Geopulse)
+   */
+  public ListenableFuture<ReadResponse> geopulse(final Geopulse geopulse) {
+    return submit(new Callable<ReadResponse>() {
+      @Override
+      public ReadResponse call() {
+        return factual.geopulse(geopulse);
+      }
+    });
+  }
+
+  /**
+   * @see Factual#reverseGeocode(Point)
+   */
+  public ListenableFuture<ReadResponse> reverseGeocode(final Point point) {
+    return submit(new Callable<ReadResponse>() {
+      @Override
+      public ReadResponse call() {
+        return factual.reverseGeocode(point);
+      }
+    });
+  }
+
+  /**
+   * @see Factual#get(String, Map)
+   */
+  public ListenableFuture<String> get(final String path, final Map<String, Object> params) {
+    return submit(new Callable<String>() {
+      @Override
+      public String call() {
+        return factual.get(path, params);
+      }
+    });
+  }
+
+  /**
+   * Stops accepting requests. Requests already submitted still complete.
+   */
+  public void shutdown() {
+    executor.shutdown();
+  }
+
+  private <T> ListenableFuture<T> submit(Callable<T> call) {
+    ListenableFutureTask<T> task = new ListenableFutureTask<T>(call);
+    executor.execute(task);
+    return task;
+  }
+
+}
@@ -0,0 +1,285 @@
+package com.factual.driver;
+
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Collects single reads from many threads into multi requests, in the style of
+ * DataLoader. The first read of a batch opens a short window; reads from any
+ * thread join it until the window closes or the batch is full, and the batch
+ * is then sent to Factual as one multi request. Each caller gets back its own
+ * typed response.
+ * <p>
+ * Identical reads within one batch are sent once, and share their response.
+ * Reads through an AutoBatcher do not use the client's {@link QueryCache} or
+ * {@link ResolveCache}.
+ *
+ * <pre>
+ * AutoBatcher batcher = new AutoBatcher(factual).windowMillis(5);
+ * // on each of many request threads:
+ * Map&lt;String, Object&gt; place = batcher.resolve(new ResolveQuery().add(&quot;name&quot;, name));
+ * </pre>
+ */
+public class AutoBatcher {
+  public static final long DEFAULT_WINDOW_MILLIS = 5;
+  private final Factual factual;
+  private volatile long windowMillis = DEFAULT_WINDOW_MILLIS;
+  private volatile int batchSize = MultiPublisher.DEFAULT_BATCH_SIZE;
+  private Window window = null;
+
+
+  /**
+   * Constructor.
+   *
+   * @param factual
+   *          the Factual client to send multi requests with.
+   */
+  public AutoBatcher(Factual factual) {
+    this.factual = factual;
+  }
+
+  /**
+   * @param windowMillis
+   *          how long the first read of a batch waits for others to join it.
+   *          The default is 5.
+   * @return this AutoBatcher
+   */
+  public AutoBatcher windowMillis(long windowMillis) {
+    this.windowMillis = windowMillis;
+    return this;
+  }
+
+  /**
+   * @param batchSize
+   *          the amount of reads to send per multi request; a full batch is
+   *          sent at once. The default is {@link MultiPublisher#DEFAULT_BATCH_SIZE}.
+   * @return this AutoBatcher
+   */
+  public AutoBatcher batchSize(int batchSize) {
+    this.batchSize = batchSize;
+    return this;
+  }
+
+  /**
+   * Runs a read <tt>query</tt> against the specified Factual table, as part of
+   * the next multi request, waiting for its response.
+   *
+   * @param tableName
+   *          the name of the table you wish to query (e.g., "places")
+   * @param query
+   *          the read query to run against <tt>table</tt>.
+   * @return the response of running <tt>query</tt> against Factual.
+   */
+  public ReadResponse fetch(String tableName, Query query) {
+    return get(queueFetch(tableName, query));
+  }
+
+  /**
+   * Runs a <tt>facet</tt> read against the specified Factual table, as part of
+   * the next multi request, waiting for its response.
+   *
+   * @param tableName
+   *          the name of the table you wish to query for facets (e.g.,
+   *          "places")
+   * @param facet
+   *          the facet query to run against <tt>table</tt>
+   * @return the response of running <tt>facet</tt> against Factual.
+   */
+  public FacetResponse fetch(String tableName, FacetQuery facet) {
+    return get(queueFetch(tableName, facet));
+  }
+
+  /**
+   * Runs a resolve <tt>query</tt> against the specified Factual table, as part
+   * of the next multi request, waiting for its response.
+   *
+   * @param tableName
+   *          the name of the table to resolve within.
+   * @param query
+   *          a Resolve query with partial attributes for an entity.
+   * @return the response from Factual for the Resolve request.
+   */
+  public ReadResponse fetch(String tableName, ResolveQuery query) {
+    return get(queueFetch(tableName, query));
+  }
+
+  /**
+   * @see Factual#resolves(ResolveQuery)
+   */
+  public ReadResponse resolves(ResolveQuery query) {
+    return fetch("places", query);
+  }
+
+  /**
+   * @see Factual#resolve(ResolveQuery)
+   */
+  public Map<String, Object> resolve(ResolveQuery query) {
+    return resolves(query).first();
+  }
+
+  /**
+   * Adds a read <tt>query</tt> to the next multi request.
+   *
+   * @return the response to <tt>query</tt>, once its multi request returns.
+   */
+  public Pending<ReadResponse> queueFetch(final String tableName, final Query query) {
+    // may read the schema, so not while holding the lock
+    factual.validate(tableName, query);
+    String key = "t/" + tableName + "?" + UrlUtil.toUrlQuery(query.toUrlParams())
+        + Projection.rows(query.getDecodedFields()).key();
+    return load(key, new Loader<ReadResponse>() {
+      @Override
+      Pending<ReadResponse> queue(Batch batch) {
+        return batch.queueValidated(tableName, query);
+      }
+    });
+  }
+
+  /**
+   * Adds a facet read to the next multi request.
+   *
+   * @return the response to <tt>facet</tt>, once its multi request returns.
+   */
+  public Pending<FacetResponse> queueFetch(final String tableName, final FacetQuery facet) {
+    factual.validate(tableName, facet);
+    String key = "facets/" + tableName + "?" + UrlUtil.toUrlQuery(facet.toUrlParams());
+    return load(key, new Loader<FacetResponse>() {
+      @Override
+      Pending<FacetResponse> queue(Batch batch) {
+        return batch.queueValidated(tableName, facet);
+      }
+    });
+  }
+
+  /**
+   * Adds a resolve query to the next multi request.
+   *
+   * @return the response to <tt>query</tt>, once its multi request returns.
+   */
+  public Pending<ReadResponse> queueFetch(final String tableName, final ResolveQuery query) {
+    String key = "resolve/" + tableName + "?" + UrlUtil.toUrlQuery(query.toUrlParams());
+    return load(key, new Loader<ReadResponse>() {
+      @Override
+      Pending<ReadResponse> queue(Batch batch) {
+        return batch.queueFetch(tableName, query);
+      }
+    });
+  }
+
+  /**
+   * Adds a read to the open batch, opening one if there is none, and sends
+   * the batch once it is full.
+   *
+   * @param key
+   *          identifies the read; a read with the same key as one in the open
+   *          batch shares its response.
+   */
+  private <T extends Response> Pending<T> load(String key, Loader<T> loader) {
+    Window full = null;
+    Pending<T> pending;
+    synchronized (this) {
+      if (window == null) {
+        window = new Window();
+        Timer.SCHEDULER.schedule(window, windowMillis, TimeUnit.MILLISECONDS);
+      }
+      @SuppressWarnings("unchecked")
+      Pending<T> queued = (Pending<T>) window.queued.get(key);
+      pending = queued;
+      if (pending == null) {
+        pending = loader.queue(window.batch);
+        window.queued.put(key, pending);
+        if (window.queued.size() >= batchSize) {
+          full = window;
+          window = null;
+        }
+      }
+    }
+    if (full != null) {
+      // the caller would wait for the response anyway
+      full.send();
+    }
+    return pending;
+  }
+
+  /**
+   * @return the response <tt>pending</tt> completes with, waiting for it.
+   */
+  private static <T extends Response> T get(Pending<T> pending) {
+    try {
+      return pending.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  /**
+   * Queues one kind of read in a batch.
+   */
+  private static abstract class Loader<T extends Response> {
+    abstract Pending<T> queue(Batch batch);
+  }
+
+  /**
+   * A batch of reads open for others to join, sent when it is full or when
+   * its window closes.
+   */
+  private class Window implements Runnable {
+    private final Batch batch = factual.newBatch();
+    private final Map<String, Pending<?>> queued = Maps.newHashMap();
+
+    /**
+     * Closes this window, sending its batch unless it was sent when full.
+     */
+    @Override
+    public void run() {
+      synchronized (AutoBatcher.this) {
+        if (window != this) {
+          return;
+        }
+        window = null;
+      }
+      Timer.SENDERS.execute(new Runnable() {
+        @Override
+        public void run() {
+          send();
+        }
+      });
+    }
+
+    private void send() {
+      if (queued.isEmpty()) {
+        return;
+      }
+      try {
+        batch.send();
+      } catch (RuntimeException e) {
+        // each pending response fails with the multi request
+      }
+    }
+  }
+
+  /**
+   * Holds the threads that close windows and send their batches, created on
+   * first use.
+   */
+  private static class Timer {
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("factual-batch-timer-%d").build());
+    private static final ExecutorService SENDERS = Executors.newCachedThreadPool(
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("factual-batch-%d").build());
+  }
+
+}
@@ -0,0 +1,150 @@
+package com.factual.driver;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.factual.driver.Factual.FacetRequest;
+import com.factual.driver.Factual.RawReadRequest;
+import com.factual.driver.Factual.ReadQuery;
+import com.factual.driver.Factual.RequestImpl;
+import com.google.common.collect.Lists;
+
+/**
+ * A batch of reads to send to Factual as one multi request, independent of
+ * any other batch of the same {@link Factual} client. Create one with
+ * {@link Factual#newBatch()} for each unit of work, so that threads sharing a
+ * client never send each other's reads.
+ * <p>
+ * Reads may be queued from several threads at once. {@link #send()} sends all
+ * reads queued since the last send.
+ *
+ * <pre>
+ * Batch batch = factual.newBatch();
+ * Pending&lt;ReadResponse&gt; coffee = batch.queueFetch(&quot;places&quot;, new Query().search(&quot;coffee&quot;));
+ * Pending&lt;ReadResponse&gt; tea = batch.queueFetch(&quot;places&quot;, new Query().search(&quot;tea&quot;));
+ * batch.send();
+ * </pre>
+ */
+public class Batch {
+  private final Factual factual;
+  private final Queue<RequestImpl> requests = new ConcurrentLinkedQueue<RequestImpl>();
+
+
+  Batch(Factual factual) {
+    this.factual = factual;
+  }
+
+  /**
+   * Queue a raw read request for inclusion in this batch.
+   *
+   * @param path
+   *          the path to run the request against
+   * @param params
+   *          the parameters to send with the request
+   * @return the response to the request, once this batch is sent.
+   */
+  public Pending<RawReadResponse> queueFetch(String path, Map<String, Object> params) {
+    return queue(new RawReadRequest(path, params), RawReadResponse.class);
+  }
+
+  /**
+   * Queue a read request for inclusion in this batch.
+   *
+   * @param table
+   *          the name of the table you wish to query (e.g., "places")
+   * @param query
+   *          the read query to run against <tt>table</tt>.
+   * @return the response to <tt>query</tt>, once this batch is sent.
+   */
+  public Pending<ReadResponse> queueFetch(String table, Query query) {
+    factual.validate(table, query);
+    return queueValidated(table, query);
+  }
+
+  /**
+   * Queues a read that was already validated against the schema cache.
+   */
+  Pending<ReadResponse> queueValidated(String table, Query query) {
+    return queue(new ReadQuery(Factual.urlForFetch(table), query.toUrlParams(),
+        Projection.rows(query.getDecodedFields())), ReadResponse.class);
+  }
+
+  /**
+   * Queue a resolve request for inclusion in this batch.
+   *
+   * @param table
+   *          the name of the table you wish to use resolve against (e.g.,
+   *          "places")
+   * @param query
+   *          the resolve query to run against <tt>table</tt>.
+   * @return the response to <tt>query</tt>, once this batch is sent.
+   */
+  public Pending<ReadResponse> queueFetch(String table, ResolveQuery query) {
+    return queue(new ReadQuery(Factual.urlForResolve(table), query.toUrlParams()), ReadResponse.class);
+  }
+
+  /**
+   * Queue a facet request for inclusion in this batch.
+   *
+   * @param table
+   *          the name of the table you wish to use a facet request against
+   *          (e.g., "places")
+   * @param query
+   *          the facet query to run against <tt>table</tt>.
+   * @return the response to <tt>query</tt>, once this batch is sent.
+   */
+  public Pending<FacetResponse> queueFetch(String table, FacetQuery query) {
+    factual.validate(table, query);
+    return queueValidated(table, query);
+  }
+
+  /**
+   * Queues a facet request that was already validated against the schema
+   * cache.
+   */
+  Pending<FacetResponse> queueValidated(String table, FacetQuery query) {
+    return queue(new FacetRequest(Factual.urlForFacets(table), query.toUrlParams()), FacetResponse.class);
+  }
+
+  public Pending<ReadResponse> queueFetch(Geocode query) {
+    return queue(new ReadQuery(Factual.urlForGeocode(), query.toUrlParams()), ReadResponse.class);
+  }
+
+  public Pending<ReadResponse> queueFetch(Geopulse query) {
+    return queue(new ReadQuery(Factual.urlForGeopulse(), query.toUrlParams(),
+        Projection.rows(query.getDecodedFields())), ReadResponse.class);
+  }
+
+  /**
+   * Sends all reads queued in this batch since the last send as a multi
+   * request.
+   *
+   * @return response for a multi request
+   */
+  public MultiResponse send() {
+    return factual.sendRequests(poll(), null);
+  }
+
+  /**
+   * @return the reads queued since the last send, in queue order, removing
+   *         them from this batch.
+   */
+  List<RequestImpl> poll() {
+    List<RequestImpl> polled = Lists.newArrayList();
+    RequestImpl request;
+    while ((request = requests.poll()) != null) {
+      polled.add(request);
+    }
+    return polled;
+  }
+
+  private <T extends Response> Pending<T> queue(RequestImpl request, Class<T> type) {
+    Pending<T> pending = new Pending<T>(type);
+    request.pending = pending;
+    requests.add(request);
+    return pending;
+  }
+
+}
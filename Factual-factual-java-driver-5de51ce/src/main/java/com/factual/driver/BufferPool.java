@@ -0,0 +1,68 @@
+package com.factual.driver;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded pool of fixed size byte buffers, shared by the requests of all
+ * threads, so that reading response bodies does not allocate fresh scratch
+ * buffers per read.
+ * <p>
+ * Buffers are taken with {@link #take()} and must be handed back with
+ * {@link #give(byte[])} once their content has been copied out. Buffers given
+ * back while the pool is full are left to the garbage collector.
+ */
+class BufferPool {
+  static final BufferPool SHARED = new BufferPool(8192, 64);
+
+  private final int bufferSize;
+  private final int maxPooled;
+  private final Queue<byte[]> buffers = new ConcurrentLinkedQueue<byte[]>();
+  private final AtomicInteger pooled = new AtomicInteger();
+
+
+  /**
+   * Constructor.
+   *
+   * @param bufferSize
+   *          the size of each buffer, in bytes.
+   * @param maxPooled
+   *          the maximum amount of idle buffers to hold on to.
+   */
+  BufferPool(int bufferSize, int maxPooled) {
+    this.bufferSize = bufferSize;
+    this.maxPooled = maxPooled;
+  }
+
+  /**
+   * @return an idle buffer, or a new one if none is idle.
+   */
+  byte[] take() {
+    byte[] buffer = buffers.poll();
+    if (buffer == null) {
+      return new byte[bufferSize];
+    }
+    pooled.decrementAndGet();
+    return buffer;
+  }
+
+  /**
+   * Hands <tt>buffer</tt>, taken from this pool, back for reuse.
+   */
+  void give(byte[] buffer) {
+    if (buffer.length == bufferSize && pooled.incrementAndGet() <= maxPooled) {
+      buffers.offer(buffer);
+    } else if (buffer.length == bufferSize) {
+      pooled.decrementAndGet();
+    }
+  }
+
+  /**
+   * @return the amount of idle buffers held.
+   */
+  int size() {
+    return pooled.get();
+  }
+
+}
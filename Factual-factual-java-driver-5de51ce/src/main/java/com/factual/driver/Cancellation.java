@@ -0,0 +1,49 @@
+package com.factual.driver;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.common.collect.Sets;
+
+/**
+ * Cancels requests to Factual from another thread. Cancelling aborts every
+ * request in flight with this Cancellation, through its
+ * {@link FactualTransport}, and makes any later request with this Cancellation
+ * fail before it is sent. A request that is cancelled fails with a
+ * {@link FactualApiException}.
+ */
+public class Cancellation {
+  private volatile boolean cancelled = false;
+  private final Set<TransportRequest> inFlight =
+      Sets.newSetFromMap(new ConcurrentHashMap<TransportRequest, Boolean>());
+
+
+  public void cancel() {
+    cancelled = true;
+    for (TransportRequest request : inFlight) {
+      request.abort();
+    }
+  }
+
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+  /**
+   * Registers <tt>request</tt> as in flight, aborting it at once if already
+   * cancelled.
+   */
+  protected void begin(TransportRequest request) {
+    inFlight.add(request);
+    if (cancelled) {
+      request.abort();
+    }
+  }
+
+  /**
+   * Registers <tt>request</tt> as no longer in flight.
+   */
+  protected void end(TransportRequest request) {
+    inFlight.remove(request);
+  }
+}
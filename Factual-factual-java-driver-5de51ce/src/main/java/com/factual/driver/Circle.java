@@ -27,6 +27,27 @@ public class Circle {
     this.meters = meters;
   }
 
+  /**
+   * @return the latitude of the center of this Circle.
+   */
+  public double getCenterLatitude() {
+    return centerLat;
+  }
+
+  /**
+   * @return the longitude of the center of this Circle.
+   */
+  public double getCenterLongitude() {
+    return centerLong;
+  }
+
+  /**
+   * @return the radius, in meters, of this Circle.
+   */
+  public int getMeters() {
+    return meters;
+  }
+
   /**
    * View this circle as a json string representation
    * 
@@ -0,0 +1,291 @@
+package com.factual.driver;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Sheds load from Factual endpoints that are failing or slow, with a circuit
+ * breaker per endpoint, such as "t/places" or "places/geocode". See
+ * {@link Factual#setCircuitBreaker(CircuitBreaker)}.
+ * <p>
+ * While an endpoint's circuit is closed, the outcomes of its last
+ * <tt>windowSize</tt> requests are recorded. A request fails when it gets no
+ * response, or is answered with <tt>429 Too Many Requests</tt> or a 5xx
+ * status; it is slow when it takes longer than the slow call duration. Once at
+ * least <tt>minimumCalls</tt> requests are recorded and either the failure
+ * rate or the slow call rate reaches its threshold, the circuit opens.
+ * <p>
+ * While open, requests to the endpoint fail at once with a
+ * {@link CircuitBreakerOpenException}, without touching the network, unless
+ * the {@link ResponseFallback} supplies a response for them. After the open
+ * duration the circuit is half open: it lets <tt>halfOpenCalls</tt> trial
+ * requests through, and closes again if their failure and slow call rates are
+ * below the thresholds, or opens again otherwise.
+ */
+public class CircuitBreaker {
+  public enum State {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  private final ConcurrentMap<String, Circuit> circuits = new ConcurrentHashMap<String, Circuit>();
+  private final AtomicLong rejectedCount = new AtomicLong();
+  private int windowSize = 50;
+  private int minimumCalls = 10;
+  private double failureRateThreshold = 0.5;
+  private double slowCallRateThreshold = 0.5;
+  private long slowCallNanos = TimeUnit.SECONDS.toNanos(5);
+  private long openNanos = TimeUnit.SECONDS.toNanos(30);
+  private int halfOpenCalls = 3;
+  private ResponseFallback fallback = null;
+
+
+  /**
+   * @param windowSize
+   *          the amount of most recent requests to compute rates over. The
+   *          default is 50.
+   * @param minimumCalls
+   *          the least amount of recorded requests to open the circuit on. The
+   *          default is 10.
+   * @return this CircuitBreaker
+   */
+  public CircuitBreaker window(int windowSize, int minimumCalls) {
+    this.windowSize = windowSize;
+    this.minimumCalls = minimumCalls;
+    return this;
+  }
+
+  /**
+   * @param failureRateThreshold
+   *          the rate of failed requests, between 0 and 1, that opens the
+   *          circuit. The default is 0.5.
+   * @return this CircuitBreaker
+   */
+  public CircuitBreaker failureRateThreshold(double failureRateThreshold) {
+    this.failureRateThreshold = failureRateThreshold;
+    return this;
+  }
+
+  /**
+   * @param slowCallRateThreshold
+   *          the rate of slow requests, between 0 and 1, that opens the
+   *          circuit. The default is 0.5.
+   * @param slowCallDuration
+   *          how long a request takes to be slow. The default is 5 seconds.
+   * @return this CircuitBreaker
+   */
+  public CircuitBreaker slowCalls(double slowCallRateThreshold, long slowCallDuration, TimeUnit unit) {
+    this.slowCallRateThreshold = slowCallRateThreshold;
+    this.slowCallNanos = unit.toNanos(slowCallDuration);
+    return this;
+  }
+
+  /**
+   * @param openDuration
+   *          how long an opened circuit stays open before letting trial
+   *          requests through. The default is 30 seconds.
+   * @param halfOpenCalls
+   *          the amount of trial requests. The default is 3.
+   * @return this CircuitBreaker
+   */
+  public CircuitBreaker open(long openDuration, TimeUnit unit, int halfOpenCalls) {
+    this.openNanos = unit.toNanos(openDuration);
+    this.halfOpenCalls = halfOpenCalls;
+    return this;
+  }
+
+  /**
+   * @param fallback
+   *          supplies responses for reads rejected while a circuit is open,
+   *          e.g. a {@link RevalidationCache} to serve stale responses; null
+   *          for none.
+   * @return this CircuitBreaker
+   */
+  public CircuitBreaker fallback(ResponseFallback fallback) {
+    this.fallback = fallback;
+    return this;
+  }
+
+  protected ResponseFallback getFallback() {
+    return fallback;
+  }
+
+  /**
+   * @return the state of the circuit for <tt>endpoint</tt>, e.g. "t/places".
+   */
+  public State getState(String endpoint) {
+    Circuit circuit = circuits.get(endpoint);
+    return circuit != null ? circuit.state() : State.CLOSED;
+  }
+
+  /**
+   * @return the amount of requests rejected while a circuit was open.
+   */
+  public long getRejectedCount() {
+    return rejectedCount.get();
+  }
+
+  /**
+   * Lets a request to <tt>endpoint</tt> through, or rejects it.
+   * 
+   * @throws CircuitBreakerOpenException
+   *           if the circuit for <tt>endpoint</tt> is open.
+   */
+  protected void acquire(String endpoint) {
+    if (!circuit(endpoint).acquire()) {
+      rejectedCount.incrementAndGet();
+      throw new CircuitBreakerOpenException(endpoint);
+    }
+  }
+
+  /**
+   * Returns the permit of a request to <tt>endpoint</tt> that was let through
+   * but not sent, or cancelled, without recording an outcome.
+   */
+  protected void release(String endpoint) {
+    circuit(endpoint).release();
+  }
+
+  /**
+   * Records the outcome of a request to <tt>endpoint</tt> that was let
+   * through.
+   */
+  protected void record(String endpoint, long latencyNanos, boolean failed) {
+    circuit(endpoint).record(failed, latencyNanos > slowCallNanos);
+  }
+
+  /**
+   * @return the current time in nanoseconds; overridable for tests.
+   */
+  protected long nanoTime() {
+    return System.nanoTime();
+  }
+
+  private Circuit circuit(String endpoint) {
+    Circuit circuit = circuits.get(endpoint);
+    if (circuit == null) {
+      Circuit created = new Circuit();
+      circuit = circuits.putIfAbsent(endpoint, created);
+      if (circuit == null) {
+        circuit = created;
+      }
+    }
+    return circuit;
+  }
+
+  /**
+   * The state of one endpoint's circuit. In the closed state, the window is a
+   * ring buffer of the latest outcomes; in the half open state, it holds the
+   * trial outcomes.
+   */
+  private class Circuit {
+    private final ReentrantLock lock = new ReentrantLock();
+    private State state = State.CLOSED;
+    private boolean[] failures = new boolean[windowSize];
+    private boolean[] slows = new boolean[windowSize];
+    private int recorded = 0;
+    private int next = 0;
+    private long openedAt = 0;
+    private int trials = 0;
+
+    private State state() {
+      lock.lock();
+      try {
+        if (state == State.OPEN && nanoTime() - openedAt >= openNanos) {
+          return State.HALF_OPEN;
+        }
+        return state;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    private boolean acquire() {
+      lock.lock();
+      try {
+        if (state == State.OPEN) {
+          if (nanoTime() - openedAt < openNanos) {
+            return false;
+          }
+          state = State.HALF_OPEN;
+          reset(halfOpenCalls);
+          trials = 0;
+        }
+        if (state == State.HALF_OPEN) {
+          if (trials >= halfOpenCalls) {
+            return false;
+          }
+          trials++;
+        }
+        return true;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    private void release() {
+      lock.lock();
+      try {
+        if (state == State.HALF_OPEN && trials > 0) {
+          trials--;
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    private void record(boolean failed, boolean slow) {
+      lock.lock();
+      try {
+        if (state == State.OPEN) {
+          // let through before the circuit opened
+          return;
+        }
+        failures[next] = failed;
+        slows[next] = slow;
+        next = (next + 1) % failures.length;
+        recorded = Math.min(recorded + 1, failures.length);
+        if (state == State.CLOSED) {
+          if (recorded >= minimumCalls && overThreshold()) {
+            trip();
+          }
+        } else if (recorded >= halfOpenCalls) {
+          if (overThreshold()) {
+            trip();
+          } else {
+            state = State.CLOSED;
+            reset(windowSize);
+          }
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    private boolean overThreshold() {
+      int failed = 0;
+      int slow = 0;
+      for (int i = 0; i < recorded; i++) {
+        failed += failures[i] ? 1 : 0;
+        slow += slows[i] ? 1 : 0;
+      }
+      return failed >= failureRateThreshold * recorded
+          || slow >= slowCallRateThreshold * recorded;
+    }
+
+    private void trip() {
+      state = State.OPEN;
+      openedAt = nanoTime();
+    }
+
+    private void reset(int size) {
+      failures = new boolean[size];
+      slows = new boolean[size];
+      recorded = 0;
+      next = 0;
+    }
+  }
+
+}
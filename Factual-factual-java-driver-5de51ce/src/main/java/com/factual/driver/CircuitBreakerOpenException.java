@@ -0,0 +1,22 @@
+package com.factual.driver;
+
+/**
+ * Raised instead of sending a request to Factual while the
+ * {@link CircuitBreaker} for its endpoint is open.
+ */
+public class CircuitBreakerOpenException extends FactualApiException {
+  private final String endpoint;
+
+
+  public CircuitBreakerOpenException(String endpoint) {
+    super("Circuit breaker open for " + endpoint);
+    this.endpoint = endpoint;
+  }
+
+  /**
+   * @return the endpoint whose circuit breaker is open, e.g. "t/places".
+   */
+  public String getEndpoint() {
+    return endpoint;
+  }
+}
@@ -0,0 +1,284 @@
+package com.factual.driver;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * A result row that holds its values in an array, indexed through a field
+ * dictionary shared by all rows of a response. Each row costs one array slot
+ * per field instead of a hash table entry, and the field names are only held
+ * once per response.
+ * <p>
+ * Rows are modifiable like the HashMaps they replace. Putting a field that is
+ * not in the dictionary keeps it in a small map of the row's own. Like those
+ * HashMaps, rows can be serialized; they are written as LinkedHashMaps, so
+ * the dictionary is not written along with every row.
+ */
+class CompactRow extends AbstractMap<String, Object> implements Serializable {
+  private static final long serialVersionUID = 1L;
+  private static final Object ABSENT = new Object();
+
+  private final Fields fields;
+  private Object[] values;
+  private int size;
+  private Map<String, Object> extra;
+
+
+  /**
+   * Constructor, for an empty row.
+   *
+   * @param fields
+   *          the dictionary shared by the rows of one response.
+   */
+  CompactRow(Fields fields) {
+    this.fields = fields;
+    this.values = new Object[fields.size()];
+    Arrays.fill(values, ABSENT);
+  }
+
+  /**
+   * Sets the value of the field at <tt>index</tt> of the dictionary.
+   *
+   * @return the previous value, or null if the field was absent.
+   */
+  Object set(int index, Object value) {
+    if (index >= values.length) {
+      int length = values.length;
+      values = Arrays.copyOf(values, Math.max(index + 1, fields.size()));
+      Arrays.fill(values, length, values.length, ABSENT);
+    }
+    Object old = values[index];
+    values[index] = value;
+    if (old == ABSENT) {
+      size++;
+      return null;
+    }
+    return old;
+  }
+
+  /**
+   * @return a LinkedHashMap of this row's fields, serialized in its place.
+   */
+  private Object writeReplace() {
+    return new LinkedHashMap<String, Object>(this);
+  }
+
+  private Object slot(int index) {
+    return index >= 0 && index < values.length ? values[index] : ABSENT;
+  }
+
+  @Override
+  public Object get(Object key) {
+    Object value = slot(fields.indexOf(key));
+    if (value != ABSENT) {
+      return value;
+    }
+    return extra != null ? extra.get(key) : null;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return slot(fields.indexOf(key)) != ABSENT || (extra != null && extra.containsKey(key));
+  }
+
+  @Override
+  public Object put(String key, Object value) {
+    int index = fields.indexOf(key);
+    if (index >= 0) {
+      return set(index, value);
+    }
+    if (extra == null) {
+      extra = Maps.newLinkedHashMap();
+    }
+    return extra.put(key, value);
+  }
+
+  @Override
+  public Object remove(Object key) {
+    int index = fields.indexOf(key);
+    Object old = slot(index);
+    if (old != ABSENT) {
+      values[index] = ABSENT;
+      size--;
+      return old;
+    }
+    return extra != null ? extra.remove(key) : null;
+  }
+
+  @Override
+  public int size() {
+    return size + (extra != null ? extra.size() : 0);
+  }
+
+  @Override
+  public Set<Map.Entry<String, Object>> entrySet() {
+    return new AbstractSet<Map.Entry<String, Object>>() {
+      @Override
+      public Iterator<Map.Entry<String, Object>> iterator() {
+        return new Entries();
+      }
+
+      @Override
+      public int size() {
+        return CompactRow.this.size();
+      }
+    };
+  }
+
+  /**
+   * Iterates the dictionary fields of a row, then its extra fields.
+   */
+  private class Entries implements Iterator<Map.Entry<String, Object>> {
+    private int next = advance(0);
+    private int current = -1;
+    private Iterator<Map.Entry<String, Object>> extras;
+
+    private int advance(int from) {
+      while (from < values.length && values[from] == ABSENT) {
+        from++;
+      }
+      return from;
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (next < values.length) {
+        return true;
+      }
+      if (extras == null && extra != null) {
+        extras = extra.entrySet().iterator();
+      }
+      return extras != null && extras.hasNext();
+    }
+
+    @Override
+    public Map.Entry<String, Object> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      if (next < values.length) {
+        current = next;
+        next = advance(next + 1);
+        return new Entry(current);
+      }
+      current = -1;
+      return extras.next();
+    }
+
+    @Override
+    public void remove() {
+      if (current >= 0) {
+        if (values[current] == ABSENT) {
+          throw new IllegalStateException();
+        }
+        values[current] = ABSENT;
+        size--;
+      } else if (extras != null) {
+        extras.remove();
+      } else {
+        throw new IllegalStateException();
+      }
+    }
+  }
+
+  /**
+   * A dictionary field of a row, writing through to the row.
+   */
+  private class Entry implements Map.Entry<String, Object> {
+    private final int index;
+
+    private Entry(int index) {
+      this.index = index;
+    }
+
+    @Override
+    public String getKey() {
+      return fields.name(index);
+    }
+
+    @Override
+    public Object getValue() {
+      Object value = values[index];
+      return value != ABSENT ? value : null;
+    }
+
+    @Override
+    public Object setValue(Object value) {
+      return set(index, value);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Map.Entry)) {
+        return false;
+      }
+      Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+      Object value = getValue();
+      return getKey().equals(e.getKey())
+          && (value == null ? e.getValue() == null : value.equals(e.getValue()));
+    }
+
+    @Override
+    public int hashCode() {
+      Object value = getValue();
+      return getKey().hashCode() ^ (value == null ? 0 : value.hashCode());
+    }
+
+    @Override
+    public String toString() {
+      return getKey() + "=" + getValue();
+    }
+  }
+
+  /**
+   * The field names of the rows of one response, in the order they were
+   * first seen. Fields are only added while the rows are decoded; the
+   * dictionary is read-only afterwards, and can be read by any thread.
+   */
+  static class Fields {
+    private final Map<String, Integer> indexes = Maps.newHashMap();
+    private final List<String> names = Lists.newArrayList();
+
+    /**
+     * @return the index of <tt>name</tt>, adding it if it is new.
+     */
+    int add(String name) {
+      Integer index = indexes.get(name);
+      if (index == null) {
+        index = names.size();
+        names.add(name);
+        indexes.put(name, index);
+      }
+      return index;
+    }
+
+    /**
+     * @return the index of <tt>name</tt>, or -1 if it is not in this
+     *         dictionary.
+     */
+    int indexOf(Object name) {
+      Integer index = indexes.get(name);
+      return index != null ? index : -1;
+    }
+
+    String name(int index) {
+      return names.get(index);
+    }
+
+    int size() {
+      return names.size();
+    }
+  }
+
+}
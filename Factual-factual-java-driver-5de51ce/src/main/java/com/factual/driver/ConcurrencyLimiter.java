@@ -0,0 +1,191 @@
+package com.factual.driver;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the amount of requests in flight to Factual, adapting the limit to
+ * observed latency with additive increase, multiplicative decrease (AIMD).
+ * See {@link Factual#setConcurrencyLimiter(ConcurrencyLimiter)}.
+ * <p>
+ * A request that takes longer than the latency threshold, fails to get a
+ * response, or is answered with <tt>429 Too Many Requests</tt> or a 5xx status
+ * is a sign of overload, and shrinks the limit by the backoff ratio. Any other
+ * request grows the limit by <tt>1/limit</tt>, so by about one per limit's
+ * worth of requests, but only while the limit is in use: a limit that is
+ * never reached is not raised further.
+ * <p>
+ * Requests over the limit wait for a request in flight to finish, up to the
+ * maximum wait, and then fail with a {@link FactualApiException}. With a
+ * maximum wait of 0 they fail at once.
+ */
+public class ConcurrencyLimiter {
+  private final int minLimit;
+  private final int maxLimit;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition available = lock.newCondition();
+  private final AtomicLong rejectedCount = new AtomicLong();
+  private double limit;
+  private int inFlight = 0;
+  private long latencyThresholdNanos = TimeUnit.SECONDS.toNanos(1);
+  private double backoffRatio = 0.9;
+  private long maxWaitNanos = TimeUnit.SECONDS.toNanos(10);
+
+
+  /**
+   * Constructor.
+   * 
+   * @param initialLimit
+   *          the limit to start with.
+   * @param minLimit
+   *          the lowest the limit can shrink to.
+   * @param maxLimit
+   *          the highest the limit can grow to.
+   */
+  public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+    if (minLimit < 1 || minLimit > initialLimit || initialLimit > maxLimit) {
+      throw new IllegalArgumentException("Limits must satisfy 1 <= min <= initial <= max");
+    }
+    this.limit = initialLimit;
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+  }
+
+  /**
+   * @param latencyThreshold
+   *          the latency above which a request is a sign of overload. The
+   *          default is 1 second.
+   * @return this ConcurrencyLimiter
+   */
+  public ConcurrencyLimiter latencyThreshold(long latencyThreshold, TimeUnit unit) {
+    this.latencyThresholdNanos = unit.toNanos(latencyThreshold);
+    return this;
+  }
+
+  /**
+   * @param backoffRatio
+   *          the factor to shrink the limit by on overload, between 0 and 1.
+   *          The default is 0.9.
+   * @return this ConcurrencyLimiter
+   */
+  public ConcurrencyLimiter backoffRatio(double backoffRatio) {
+    this.backoffRatio = backoffRatio;
+    return this;
+  }
+
+  /**
+   * @param maxWait
+   *          how long a request over the limit waits to be sent before it
+   *          fails; 0 to fail at once. The default is 10 seconds.
+   * @return this ConcurrencyLimiter
+   */
+  public ConcurrencyLimiter maxWait(long maxWait, TimeUnit unit) {
+    this.maxWaitNanos = unit.toNanos(maxWait);
+    return this;
+  }
+
+  /**
+   * @return the current limit.
+   */
+  public int getLimit() {
+    lock.lock();
+    try {
+      return (int) limit;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the amount of requests in flight.
+   */
+  public int getInFlight() {
+    lock.lock();
+    try {
+      return inFlight;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the amount of requests that failed because the limit was reached.
+   */
+  public long getRejectedCount() {
+    return rejectedCount.get();
+  }
+
+  /**
+   * Waits until a request can be sent within the limit, and counts it as in
+   * flight.
+   * 
+   * @throws FactualApiException
+   *           if the limit is still reached after the maximum wait.
+   */
+  protected void acquire() {
+    lock.lock();
+    try {
+      long remaining = maxWaitNanos;
+      while (inFlight >= (int) limit) {
+        if (remaining <= 0) {
+          rejectedCount.incrementAndGet();
+          throw new FactualApiException("Concurrency limit of " + (int) limit
+              + " requests in flight reached");
+        }
+        remaining = available.awaitNanos(remaining);
+      }
+      inFlight++;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new FactualApiException(e);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Counts a request as done without adapting the limit, for a request that
+   * was cancelled rather than answered.
+   */
+  protected void release() {
+    lock.lock();
+    try {
+      inFlight--;
+      available.signal();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Counts a request as done, adapting the limit to how it went.
+   * 
+   * @param latencyNanos
+   *          how long the request took.
+   * @param overloaded
+   *          whether the request failed in a way that signals overload.
+   */
+  protected void release(long latencyNanos, boolean overloaded) {
+    lock.lock();
+    try {
+      boolean inUse = inFlight * 2 >= limit;
+      inFlight--;
+      int before = (int) limit;
+      if (overloaded || latencyNanos > latencyThresholdNanos) {
+        limit = Math.max(minLimit, limit * backoffRatio);
+      } else if (inUse) {
+        limit = Math.min(maxLimit, limit + 1 / limit);
+      }
+      if ((int) limit > before) {
+        available.signalAll();
+      } else {
+        available.signal();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+}
@@ -10,6 +10,11 @@ public class Constants {
 	// Point
 	protected static final String POINT = "$point";
 
+	// Places
+	protected static final String FACTUAL_ID = "factual_id";
+	protected static final String LATITUDE = "latitude";
+	protected static final String LONGITUDE = "longitude";
+
 	// Response
 	protected static final String RESPONSE = "response";
 	protected static final String TOTAL_ROW_COUNT = "total_row_count";
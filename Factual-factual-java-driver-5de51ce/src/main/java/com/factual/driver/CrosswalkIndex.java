@@ -0,0 +1,422 @@
+package com.factual.driver;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * A local index of Factual's crosswalk table, mapping the ids of other
+ * namespaces (e.g. "foursquare") to <tt>factual_id</tt>s and back without a
+ * read per id. The crosswalk rows of the namespaces asked for are read in
+ * bulk, in parallel, with a {@link TableExport}, paging through each
+ * namespace by namespace id so that namespaces of any size can be read.
+ * <p>
+ * Entries are held in primitive arrays, <tt>factual_id</tt>s as two longs
+ * each, and namespace ids off the Java heap, so that millions of them take
+ * little memory and no garbage collection work. Lookups go through open
+ * addressing tables and do not lock. Loading a namespace again refreshes its
+ * entries only; lookups see the previous entries until the refresh completes.
+ *
+ * <pre>
+ * CrosswalkIndex crosswalk = new CrosswalkIndex(factual);
+ * crosswalk.load(&quot;foursquare&quot;, &quot;yelp&quot;);
+ * String factualId = crosswalk.getFactualId(&quot;foursquare&quot;, &quot;4a8f2f39f964a520471420e3&quot;);
+ * List&lt;String&gt; yelpIds = crosswalk.getNamespaceIds(factualId, &quot;yelp&quot;);
+ * </pre>
+ */
+public class CrosswalkIndex {
+  private static final String TABLE = "crosswalk";
+  private final Factual factual;
+  private volatile Table table = new Builder().build();
+  // held for a whole export, so not a monitor that would pin a virtual thread
+  private final Lock loadLock = new ReentrantLock();
+
+
+  /**
+   * Constructor. The index is empty until namespaces are loaded.
+   *
+   * @param factual
+   *          the Factual client to read the crosswalk table with.
+   */
+  public CrosswalkIndex(Factual factual) {
+    this.factual = factual;
+  }
+
+  /**
+   * Reads all crosswalk rows of <tt>namespaces</tt> into this index,
+   * replacing the entries of those namespaces that were loaded before and
+   * keeping those of other namespaces.
+   *
+   * @return the amount of crosswalk rows read. Rows without a namespace id,
+   *         which only hold a URL, are not read.
+   */
+  public long load(String... namespaces) {
+    loadLock.lock();
+    try {
+      Builder builder = new Builder();
+      table.copyTo(builder, Sets.newHashSet(namespaces));
+      // a place can have several ids in a namespace, so factual_id is not
+      // unique within a partition; the namespace id is, where there is one
+      long rows = new TableExport(factual, TABLE, new Query()
+          .field(Constants.CROSSWALK_NAMESPACE).in((Object[]) namespaces)
+          .field(Constants.CROSSWALK_NAMESPACE_ID).notBlank()
+          .only(Constants.CROSSWALK_FACTUAL_ID, Constants.CROSSWALK_NAMESPACE, Constants.CROSSWALK_NAMESPACE_ID))
+          .partitionByFacet(Constants.CROSSWALK_NAMESPACE)
+          .keysetPaging(Constants.CROSSWALK_NAMESPACE_ID)
+          .exportTo(builder);
+      table = builder.build();
+      return rows;
+    } finally {
+      loadLock.unlock();
+    }
+  }
+
+  /**
+   * @return the <tt>factual_id</tt> the id <tt>namespaceId</tt> of
+   *         <tt>namespace</tt> is crosswalked to, or null if none.
+   */
+  public String getFactualId(String namespace, String namespaceId) {
+    return table.getFactualId(namespace, namespaceId);
+  }
+
+  /**
+   * @return the ids of <tt>namespace</tt> crosswalked to <tt>factualId</tt>;
+   *         empty if none.
+   */
+  public List<String> getNamespaceIds(String factualId, String namespace) {
+    return table.getNamespaceIds(factualId, namespace);
+  }
+
+  /**
+   * @return the ids crosswalked to <tt>factualId</tt>, by namespace; empty
+   *         if none.
+   */
+  public Map<String, List<String>> getNamespaceIds(String factualId) {
+    Table current = table;
+    Map<String, List<String>> ids = Maps.newTreeMap();
+    for (String namespace : current.namespaces) {
+      List<String> nsIds = current.getNamespaceIds(factualId, namespace);
+      if (!nsIds.isEmpty()) {
+        ids.put(namespace, nsIds);
+      }
+    }
+    return ids;
+  }
+
+  /**
+   * @return the namespaces loaded.
+   */
+  public Set<String> getNamespaces() {
+    return Collections.unmodifiableSet(Sets.newTreeSet(Arrays.asList(table.namespaces)));
+  }
+
+  /**
+   * @return the amount of namespace ids in this index.
+   */
+  public int size() {
+    return table.size;
+  }
+
+  private static int spread(int h) {
+    h *= 0x9e3779b9;
+    return h ^ (h >>> 16);
+  }
+
+  private static int forwardHash(int idHash, int ns) {
+    return spread(idHash * 31 + ns);
+  }
+
+  private static int reverseHash(long hi, long lo) {
+    return spread((int) (hi ^ (hi >>> 32) ^ lo ^ (lo >>> 32)));
+  }
+
+  /**
+   * @return a power of two capacity for <tt>size</tt> entries.
+   */
+  private static int capacity(int size) {
+    int capacity = 16;
+    while (capacity * 3 / 4 < size) {
+      capacity <<= 1;
+    }
+    return capacity;
+  }
+
+  /**
+   * Collects crosswalk rows, from several threads at once, into growing
+   * arrays.
+   */
+  private static class Builder implements RowHandler {
+    private final List<String> namespaces = Lists.newArrayList();
+    private final Map<String, Integer> nsIndex = Maps.newHashMap();
+    private long[] his = new long[16];
+    private long[] los = new long[16];
+    private int[] nss = new int[16];
+    private int[] keyOffsets = new int[17];
+    private char[] keys = new char[256];
+    private int size = 0;
+    private int keyChars = 0;
+
+    @Override
+    public void handle(Map<String, Object> row) {
+      Object factualId = row.get(Constants.CROSSWALK_FACTUAL_ID);
+      Object namespace = row.get(Constants.CROSSWALK_NAMESPACE);
+      Object namespaceId = row.get(Constants.CROSSWALK_NAMESPACE_ID);
+      if (factualId == null || namespace == null || namespaceId == null) {
+        // not every crosswalk entry has an id in its namespace, e.g. only a url
+        return;
+      }
+      UUID id = UUID.fromString(factualId.toString());
+      add(id.getMostSignificantBits(), id.getLeastSignificantBits(), namespace.toString(), namespaceId.toString());
+    }
+
+    private synchronized void add(long hi, long lo, String namespace, String namespaceId) {
+      Integer ns = nsIndex.get(namespace);
+      if (ns == null) {
+        ns = namespaces.size();
+        namespaces.add(namespace);
+        nsIndex.put(namespace, ns);
+      }
+      if (size == his.length) {
+        his = Arrays.copyOf(his, size * 2);
+        los = Arrays.copyOf(los, size * 2);
+        nss = Arrays.copyOf(nss, size * 2);
+        keyOffsets = Arrays.copyOf(keyOffsets, size * 2 + 1);
+      }
+      int length = namespaceId.length();
+      if (keyChars + length > keys.length) {
+        keys = Arrays.copyOf(keys, Math.max(keys.length * 2, keyChars + length));
+      }
+      namespaceId.getChars(0, length, keys, keyChars);
+      his[size] = hi;
+      los[size] = lo;
+      nss[size] = ns;
+      keyOffsets[size] = keyChars;
+      keyChars += length;
+      size++;
+      keyOffsets[size] = keyChars;
+    }
+
+    private Table build() {
+      return new Table(this);
+    }
+  }
+
+  /**
+   * An immutable index. Each entry is a record of four adjacent longs in
+   * <tt>records</tt>, so that a lookup mostly touches one cache line: the high
+   * and low bits of its <tt>factual_id</tt>; its namespace and the offset of
+   * its id in <tt>keys</tt>; the length of its id and the next entry of the
+   * same <tt>factual_id</tt>. The forward table holds entries by namespace and
+   * id, along with the hash of the id; the reverse table holds the first entry
+   * of each <tt>factual_id</tt>. Entries are held plus one, so that 0 is none.
+   */
+  private static class Table {
+    private static final int STRIDE = 4;
+    private static final int DEAD = -1;
+    private final String[] namespaces;
+    private final Map<String, Integer> nsIndex;
+    private final long[] records;
+    private final CharBuffer keys;
+    private final long[] forward;
+    private final int[] reverse;
+    private final int size;
+
+    private Table(Builder builder) {
+      int entries = builder.size;
+      namespaces = builder.namespaces.toArray(new String[0]);
+      nsIndex = Maps.newHashMap(builder.nsIndex);
+      keys = ByteBuffer.allocateDirect(Math.max(builder.keyChars, 1) * 2).order(ByteOrder.nativeOrder())
+          .asCharBuffer();
+      keys.put(builder.keys, 0, builder.keyChars);
+      records = new long[entries * STRIDE];
+      for (int e = 0; e < entries; e++) {
+        int r = e * STRIDE;
+        records[r] = builder.his[e];
+        records[r + 1] = builder.los[e];
+        records[r + 2] = (long) builder.nss[e] << 32 | builder.keyOffsets[e];
+        records[r + 3] = (long) (builder.keyOffsets[e + 1] - builder.keyOffsets[e]) << 32;
+      }
+
+      forward = new long[capacity(entries)];
+      int live = 0;
+      for (int e = 0; e < entries; e++) {
+        int r = e * STRIDE;
+        int hash = keyHash(r);
+        int mask = forward.length - 1;
+        for (int i = forwardHash(hash, ns(r)) & mask;; i = (i + 1) & mask) {
+          int other = (int) forward[i] - 1;
+          if (other < 0) {
+            live++;
+            forward[i] = (long) hash << 32 | (e + 1);
+            break;
+          } else if ((int) (forward[i] >>> 32) == hash && ns(other * STRIDE) == ns(r)
+              && sameKey(other * STRIDE, r)) {
+            // a later row for the same id wins
+            records[other * STRIDE + 2] |= (long) DEAD << 32;
+            forward[i] = (long) hash << 32 | (e + 1);
+            break;
+          }
+        }
+      }
+      size = live;
+
+      reverse = new int[capacity(live)];
+      for (int e = entries - 1; e >= 0; e--) {
+        int r = e * STRIDE;
+        if (ns(r) == DEAD) {
+          continue;
+        }
+        int mask = reverse.length - 1;
+        for (int i = reverseHash(records[r], records[r + 1]) & mask;; i = (i + 1) & mask) {
+          int head = reverse[i] - 1;
+          if (head < 0 || records[head * STRIDE] == records[r] && records[head * STRIDE + 1] == records[r + 1]) {
+            records[r + 3] |= head + 1;
+            reverse[i] = e + 1;
+            break;
+          }
+        }
+      }
+    }
+
+    private int ns(int r) {
+      return (int) (records[r + 2] >>> 32);
+    }
+
+    private int keyOffset(int r) {
+      return (int) records[r + 2];
+    }
+
+    private int keyLength(int r) {
+      return (int) (records[r + 3] >>> 32);
+    }
+
+    /**
+     * @return the record of the next entry of the same <tt>factual_id</tt>,
+     *         or -1 if none.
+     */
+    private int next(int r) {
+      return ((int) records[r + 3] - 1) * STRIDE;
+    }
+
+    /**
+     * @return the same hash as {@link String#hashCode()} of the id of the
+     *         entry at record <tt>r</tt>.
+     */
+    private int keyHash(int r) {
+      int h = 0;
+      for (int i = keyOffset(r), end = i + keyLength(r); i < end; i++) {
+        h = 31 * h + keys.get(i);
+      }
+      return h;
+    }
+
+    private boolean sameKey(int r, int other) {
+      int length = keyLength(r);
+      if (length != keyLength(other)) {
+        return false;
+      }
+      for (int i = 0; i < length; i++) {
+        if (keys.get(keyOffset(r) + i) != keys.get(keyOffset(other) + i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private boolean keyEquals(int r, String id) {
+      int offset = keyOffset(r);
+      int length = id.length();
+      if (length != keyLength(r)) {
+        return false;
+      }
+      for (int i = 0; i < length; i++) {
+        if (keys.get(offset + i) != id.charAt(i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private String key(int r) {
+      char[] chars = new char[keyLength(r)];
+      for (int i = 0; i < chars.length; i++) {
+        chars[i] = keys.get(keyOffset(r) + i);
+      }
+      return new String(chars);
+    }
+
+    private String getFactualId(String namespace, String namespaceId) {
+      Integer ns = nsIndex.get(namespace);
+      if (ns == null) {
+        return null;
+      }
+      int hash = namespaceId.hashCode();
+      int mask = forward.length - 1;
+      for (int i = forwardHash(hash, ns) & mask;; i = (i + 1) & mask) {
+        long slot = forward[i];
+        if (slot == 0) {
+          return null;
+        }
+        int r = ((int) slot - 1) * STRIDE;
+        if ((int) (slot >>> 32) == hash && ns(r) == ns && keyEquals(r, namespaceId)) {
+          return new UUID(records[r], records[r + 1]).toString();
+        }
+      }
+    }
+
+    private List<String> getNamespaceIds(String factualId, String namespace) {
+      Integer ns = nsIndex.get(namespace);
+      if (ns == null) {
+        return Collections.emptyList();
+      }
+      UUID id;
+      try {
+        id = UUID.fromString(factualId);
+      } catch (IllegalArgumentException e) {
+        return Collections.emptyList();
+      }
+      long hi = id.getMostSignificantBits();
+      long lo = id.getLeastSignificantBits();
+      int mask = reverse.length - 1;
+      for (int i = reverseHash(hi, lo) & mask;; i = (i + 1) & mask) {
+        int head = (reverse[i] - 1) * STRIDE;
+        if (head < 0) {
+          return Collections.emptyList();
+        } else if (records[head] == hi && records[head + 1] == lo) {
+          List<String> ids = Lists.newArrayList();
+          for (int r = head; r >= 0; r = next(r)) {
+            if (ns(r) == ns) {
+              ids.add(key(r));
+            }
+          }
+          return ids;
+        }
+      }
+    }
+
+    /**
+     * Adds the live entries of namespaces other than <tt>except</tt> to
+     * <tt>builder</tt>.
+     */
+    private void copyTo(Builder builder, Set<String> except) {
+      for (int r = 0; r < records.length; r += STRIDE) {
+        if (ns(r) != DEAD && !except.contains(namespaces[ns(r)])) {
+          builder.add(records[r], records[r + 1], namespaces[ns(r)], key(r));
+        }
+      }
+    }
+  }
+
+}
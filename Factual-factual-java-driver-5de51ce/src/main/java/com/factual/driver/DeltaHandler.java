@@ -0,0 +1,30 @@
+package com.factual.driver;
+
+import java.util.Map;
+
+/**
+ * Receives the rows of a pull that differ from a {@link RowSnapshot}.
+ */
+public interface DeltaHandler {
+
+  /**
+   * Handles a row that was not in the snapshot.
+   *
+   * @param row a result row, as found in {@link ReadResponse#getData()}.
+   */
+  void inserted(Map<String, Object> row);
+
+  /**
+   * Handles a row whose content differs from the snapshot.
+   *
+   * @param row a result row, as found in {@link ReadResponse#getData()}.
+   */
+  void changed(Map<String, Object> row);
+
+  /**
+   * Handles a row that was in the snapshot but not in the pull.
+   *
+   * @param id the key of the removed row, e.g. its <tt>factual_id</tt>.
+   */
+  void removed(String id);
+}
@@ -0,0 +1,176 @@
+package com.factual.driver;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * A Subscription that reads items from Factual in chunks, such as pages of a
+ * read or batches of a multi request, reading the next chunk only once the
+ * subscriber has requested more items than are buffered. At most one chunk is
+ * buffered and at most one request is in flight at a time. Cancelling aborts
+ * the request in flight.
+ * <p>
+ * Signals to the subscriber are serialized with a work-in-progress counter, so
+ * they come from whichever thread requested, cancelled or finished a read.
+ */
+abstract class DemandSubscription<T> implements Subscription {
+  private final Subscriber<? super T> subscriber;
+  private final ExecutorService executor;
+  private final boolean ownsExecutor;
+  private final Queue<T> buffer = new ConcurrentLinkedQueue<T>();
+  private final AtomicLong demand = new AtomicLong();
+  private final AtomicInteger wip = new AtomicInteger();
+  private final Cancellation cancellation = new Cancellation();
+  private volatile boolean reading = false;
+  private volatile boolean exhausted = false;
+  private volatile Throwable error = null;
+  private boolean terminated = false;
+
+
+  /**
+   * @param ownsExecutor
+   *          whether to shut <tt>executor</tt> down once this subscription
+   *          ends.
+   */
+  protected DemandSubscription(Subscriber<? super T> subscriber,
+      ExecutorService executor, boolean ownsExecutor) {
+    this.subscriber = subscriber;
+    this.executor = executor;
+    this.ownsExecutor = ownsExecutor;
+  }
+
+  /**
+   * Reads the next chunk of items, blocking.
+   * 
+   * @return the next chunk, or null if there are no more items.
+   */
+  protected abstract List<T> readNext(Cancellation cancellation);
+
+  @Override
+  public void request(long n) {
+    if (n <= 0) {
+      error = new IllegalArgumentException("Requested " + n + " items; must request a positive amount");
+      buffer.clear();
+    } else {
+      long current;
+      long next;
+      do {
+        current = demand.get();
+        next = current + n < 0 ? Long.MAX_VALUE : current + n;
+      } while (!demand.compareAndSet(current, next));
+    }
+    drain();
+  }
+
+  @Override
+  public void cancel() {
+    cancellation.cancel();
+    drain();
+  }
+
+  private void drain() {
+    if (wip.getAndIncrement() != 0) {
+      return;
+    }
+    int missed = 1;
+    do {
+      if (!terminated) {
+        emit();
+      }
+      missed = wip.addAndGet(-missed);
+    } while (missed != 0);
+  }
+
+  private void emit() {
+    if (cancellation.isCancelled()) {
+      end();
+      return;
+    }
+    long emitted = 0;
+    long requested = demand.get();
+    while (emitted < requested && error == null) {
+      T item = buffer.poll();
+      if (item == null) {
+        break;
+      }
+      subscriber.onNext(item);
+      emitted++;
+      if (cancellation.isCancelled()) {
+        end();
+        return;
+      }
+    }
+    if (emitted > 0 && requested != Long.MAX_VALUE) {
+      demand.addAndGet(-emitted);
+    }
+    if (error != null) {
+      end();
+      subscriber.onError(error);
+    } else if (buffer.isEmpty() && !reading) {
+      if (exhausted) {
+        end();
+        subscriber.onComplete();
+      } else if (demand.get() > 0) {
+        read();
+        if (error != null) {
+          end();
+          subscriber.onError(error);
+        }
+      }
+    }
+  }
+
+  private void read() {
+    reading = true;
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            List<T> items = readNext(cancellation);
+            if (items == null) {
+              exhausted = true;
+            } else {
+              buffer.addAll(items);
+            }
+          } catch (RuntimeException e) {
+            if (!cancellation.isCancelled()) {
+              error = e;
+            }
+          } finally {
+            reading = false;
+            drain();
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      reading = false;
+      error = e;
+    }
+  }
+
+  private void end() {
+    terminated = true;
+    buffer.clear();
+    if (ownsExecutor) {
+      executor.shutdown();
+    }
+    ended();
+  }
+
+  /**
+   * Called once this subscription has ended, whether completed, failed or
+   * cancelled; a read may still be in flight.
+   */
+  protected void ended() {
+  }
+
+}
@@ -2,6 +2,7 @@ package com.factual.driver;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Represents a top level Factual facet query. Knows how to represent the facet
@@ -27,6 +28,18 @@ public class FacetQuery implements Filterable {
    */
   private final Parameters queryParams = new Parameters();
 
+  /**
+   * @return a FacetQuery of <tt>fields</tt> over the rows <tt>query</tt>
+   *         reads, with its full text search, geo filter and row filters.
+   */
+  protected static FacetQuery over(Query query, String... fields) {
+    FacetQuery facet = new FacetQuery(fields);
+    facet.queryParams.copyParam(query.queryParams, Constants.SEARCH);
+    facet.queryParams.copyParam(query.queryParams, Constants.FILTER_GEO);
+    facet.queryParams.copyParam(query.queryParams, Constants.FILTERS);
+    return facet;
+  }
+
   protected Map<String, Object> toUrlParams() {
     Parameters additional = null;
     if (includeRowCount) {
@@ -80,6 +93,35 @@ public class FacetQuery implements Filterable {
     return this;
   }
 
+  /**
+   * @return array of fields for which facets will be generated.
+   */
+  public String[] getSelectFields() {
+    return queryParams.getCommaSeparatedParam(Constants.FACET_SELECT);
+  }
+
+  /**
+   * @return the fields referenced by this FacetQuery's row filters, mapped to
+   *         the filter operators used on each.
+   */
+  protected Map<String, Set<String>> getFilterFieldOps() {
+    return queryParams.getFilterFieldOps();
+  }
+
+  /**
+   * @return true if this FacetQuery has a full text search.
+   */
+  protected boolean hasSearch() {
+    return queryParams.containsParam(Constants.SEARCH);
+  }
+
+  /**
+   * @return true if this FacetQuery has a geo filter.
+   */
+  protected boolean hasGeo() {
+    return queryParams.containsParam(Constants.FILTER_GEO);
+  }
+
   /**
    * Sets a full text search query. Factual will use this value to perform a
    * full text search against various attributes of the underlying table, such
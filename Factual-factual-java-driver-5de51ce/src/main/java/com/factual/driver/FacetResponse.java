@@ -11,7 +11,7 @@ import org.json.JSONObject;
  * @author brandon
  */
 public class FacetResponse extends Response {
-	private String json = null;
+	private ResponseBody body;
 	private Map<String, Map<String, Object>> data = null;
 
 	/**
@@ -20,9 +20,18 @@ public class FacetResponse extends Response {
 	 * @param json the JSON response String returned by Factual.
 	 */
 	public FacetResponse(String json) {
-		this.json = json;
+		this(new ResponseBody(json));
+	}
+
+	/**
+	 * Constructor, parses from a response body.
+	 * 
+	 * @param body the response body returned by Factual.
+	 */
+	FacetResponse(ResponseBody body) {
+		this.body = body;
 		try {
-			JSONObject rootJsonObj = new JSONObject(json);
+			JSONObject rootJsonObj = body.toJsonObject();
 			Response.withMeta(this, rootJsonObj);
 			parseResponse(rootJsonObj.getJSONObject(Constants.RESPONSE));
 		} catch (JSONException e) {
@@ -30,6 +39,17 @@ public class FacetResponse extends Response {
 		}
 	}
 
+	/**
+	 * Constructor, for facet data decoded from another format than Factual's
+	 * JSON. The metadata is set by the decoder, and the JSON representation
+	 * is only built if asked for.
+	 * 
+	 * @param data the facet data of this response.
+	 */
+	FacetResponse(Map<String, Map<String, Object>> data) {
+		this.data = data;
+	}
+
 	private void parseResponse(JSONObject jo) throws JSONException {
 	    data = JsonUtil.data(jo.getJSONObject(Constants.FACET_DATA));
 	}
@@ -46,6 +66,31 @@ public class FacetResponse extends Response {
 
 	@Override
 	public String getJson() {
-		return json;
+		if (body == null) {
+			body = new ResponseBody(toJson());
+		}
+		return body.toString();
+	}
+
+	private String toJson() {
+		try {
+			JSONObject facets = new JSONObject();
+			for (Map.Entry<String, Map<String, Object>> e : data.entrySet()) {
+				facets.put(e.getKey(), new JSONObject(e.getValue()));
+			}
+			JSONObject respObj = new JSONObject();
+			respObj.put(Constants.FACET_DATA, facets);
+			respObj.put(Constants.INCLUDED_ROWS, getIncludedRowCount());
+			if (getTotalRowCount() != UNDEFINED) {
+				respObj.put(Constants.TOTAL_ROW_COUNT, getTotalRowCount());
+			}
+			JSONObject rootJsonObj = new JSONObject();
+			rootJsonObj.put(Constants.VERSION, getVersion());
+			rootJsonObj.put(Constants.STATUS, getStatus());
+			rootJsonObj.put(Constants.RESPONSE, respObj);
+			return rootJsonObj.toString();
+		} catch (JSONException e) {
+			throw new RuntimeException(e);
+		}
 	}
 }
\ No newline at end of file
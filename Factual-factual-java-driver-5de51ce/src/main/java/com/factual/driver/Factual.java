@@ -1,12 +1,13 @@
 package com.factual.driver;
 
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.security.GeneralSecurityException;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
@@ -15,35 +16,45 @@ import java.util.logging.StreamHandler;
 import com.google.api.client.auth.oauth.OAuthHmacSigner;
 import com.google.api.client.auth.oauth.OAuthParameters;
 import com.google.api.client.http.GenericUrl;
-import com.google.api.client.http.HttpHeaders;
-import com.google.api.client.http.HttpRequest;
-import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpResponse;
 import com.google.api.client.http.HttpResponseException;
 import com.google.api.client.http.HttpTransport;
-import com.google.api.client.http.UrlEncodedContent;
-import com.google.api.client.http.javanet.NetHttpTransport;
-import com.google.common.collect.Lists;
+import com.google.common.base.Charsets;
 import com.google.common.collect.Maps;
-import com.google.common.io.Closeables;
+import com.google.common.io.CharStreams;
 
 /**
  * Represents the public Factual API. Supports running queries against Factual
  * and inspecting the response. Supports the same levels of authentication
  * supported by Factual's API.
+ * <p>
+ * A Factual client is thread-safe, and one client can be shared by all
+ * threads of an application. Reads queued with <tt>queueFetch</tt> on the
+ * client itself are shared too; use {@link #newBatch()} to build multi
+ * requests per thread or unit of work.
  * 
  * @author aaron
  */
 public class Factual {
   private static final String DRIVER_HEADER_TAG = "factual-java-driver-v1.5.1";
   private static final String DEFAULT_HOST_HEADER = "api.v3.factual.com";
-  private String factHome = "http://api.v3.factual.com/";
-  private String host = DEFAULT_HOST_HEADER;
+  private static final int HTTP_NOT_MODIFIED = 304;
+  private static final int HTTP_TOO_MANY_REQUESTS = 429;
+  private volatile String factHome = "http://api.v3.factual.com/";
+  private volatile String host = DEFAULT_HOST_HEADER;
   private final String key;
   private final OAuthHmacSigner signer;
-  private boolean debug = false;
+  private volatile boolean debug = false;
   private StreamHandler debugHandler = null;
+  private volatile QueryCache queryCache = null;
+  private volatile SchemaCache schemaCache = null;
+  private volatile RevalidationCache revalidationCache = null;
+  private volatile ResolveCache resolveCache = null;
+  private volatile FactualTransport transport = new GoogleHttpTransport();
+  private volatile ConcurrencyLimiter concurrencyLimiter = null;
+  private volatile CircuitBreaker circuitBreaker = null;
 
-  private final Queue<RequestImpl> fetchQueue = Lists.newLinkedList();
+  private final Batch fetchQueue = new Batch(this);
 
   /**
    * Constructor. Represents your authenticated access to Factual.
@@ -97,6 +108,115 @@ public class Factual {
     this.host = host;
   }
 
+  /**
+   * Sets the transport used to send requests to Factual. Defaults to a
+   * {@link GoogleHttpTransport}; use a {@link PooledHttpTransport} to send many
+   * concurrent requests over a few persistent connections.
+   * 
+   * @param transport
+   *          the transport to send requests with.
+   */
+  public void setTransport(FactualTransport transport) {
+    this.transport = transport;
+  }
+
+  /**
+   * Records every request sent from now on to <tt>log</tt>, with its response
+   * and latency, by sending requests through a {@link RecordingTransport}
+   * around the current transport. A {@link ReplayTransport} can later serve
+   * the recorded traffic back without a network.
+   * 
+   * @param log
+   *          the log to record to. An existing log is appended to.
+   * @return the recording transport, which is now this client's transport.
+   *         Close it to stop recording.
+   */
+  public RecordingTransport record(File log) {
+    try {
+      RecordingTransport recorder = new RecordingTransport(transport, log);
+      transport = recorder;
+      return recorder;
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Sets a limiter on the amount of requests in flight to Factual, which
+   * adapts the limit to observed latency. Requests over the limit wait, or fail
+   * with a {@link FactualApiException}.
+   * 
+   * @param concurrencyLimiter
+   *          the limiter to use, or null to not limit requests.
+   */
+  public void setConcurrencyLimiter(ConcurrencyLimiter concurrencyLimiter) {
+    this.concurrencyLimiter = concurrencyLimiter;
+  }
+
+  /**
+   * Sets a circuit breaker to shed load from failing or slow endpoints. While
+   * an endpoint's circuit is open, requests to it fail at once with a
+   * {@link CircuitBreakerOpenException}, unless the breaker's fallback
+   * supplies a response.
+   * 
+   * @param circuitBreaker
+   *          the circuit breaker to use, or null to always send requests.
+   */
+  public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+    this.circuitBreaker = circuitBreaker;
+  }
+
+  /**
+   * Sets a cache for table reads. When set, {@link #fetch(String, Query)}
+   * answers from the cache where it can, including narrower queries of a
+   * cached complete result, and caches the responses it gets from Factual.
+   * 
+   * @param queryCache
+   *          the cache to use, or null to read from Factual every time.
+   */
+  public void setQueryCache(QueryCache queryCache) {
+    this.queryCache = queryCache;
+  }
+
+  /**
+   * Sets a schema cache to validate table reads and facet queries against
+   * before they are sent. An invalid query then fails with a
+   * {@link FactualApiException} without a round trip to Factual.
+   * 
+   * @param schemaCache
+   *          the schema cache to validate with, or null to not validate.
+   */
+  public void setSchemaCache(SchemaCache schemaCache) {
+    this.schemaCache = schemaCache;
+  }
+
+  /**
+   * Sets a cache of parsed responses to revalidate with conditional requests.
+   * When set, responses to typed reads (table reads, facets, resolve, schema,
+   * geopulse, reverse geocode and monetize) are cached with their ETag and
+   * Last-Modified validators, and repeated reads send them back to Factual. If
+   * Factual answers <tt>304 Not Modified</tt>, the cached response is returned
+   * without downloading or parsing the payload again.
+   * 
+   * @param revalidationCache
+   *          the cache to use, or null to always download full responses.
+   */
+  public void setRevalidationCache(RevalidationCache revalidationCache) {
+    this.revalidationCache = revalidationCache;
+  }
+
+  /**
+   * Sets a cache for resolves. When set, resolves are answered from the cache
+   * where a resolve of the same normalized values is cached, and their
+   * responses from Factual are cached.
+   * 
+   * @param resolveCache
+   *          the cache to use, or null to resolve with Factual every time.
+   */
+  public void setResolveCache(ResolveCache resolveCache) {
+    this.resolveCache = resolveCache;
+  }
+
   /**
    * Runs a read <tt>query</tt> against the specified Factual table.
    * 
@@ -107,7 +227,28 @@ public class Factual {
    * @return the response of running <tt>query</tt> against Factual.
    */
   public ReadResponse fetch(String tableName, Query query) {
-    return new ReadResponse(get(urlForFetch(tableName), query.toUrlParams()));
+    return fetch(tableName, query, null);
+  }
+
+  /**
+   * Runs a read <tt>query</tt> against the specified Factual table, which can
+   * be cancelled through <tt>cancellation</tt>.
+   */
+  protected ReadResponse fetch(String tableName, Query query, Cancellation cancellation) {
+    validate(tableName, query);
+    QueryCache cache = queryCache;
+    if (cache != null) {
+      ReadResponse cached = cache.get(tableName, query);
+      if (cached != null) {
+        return cached;
+      }
+    }
+    ReadResponse resp = (ReadResponse) requestResponse(new ReadQuery(urlForFetch(tableName), query.toUrlParams(),
+        Projection.rows(query.getDecodedFields())), cancellation);
+    if (cache != null) {
+      cache.put(tableName, query, resp);
+    }
+    return resp;
   }
 
   protected static String urlForCrosswalk(String tableName) {
@@ -146,7 +287,8 @@ public class Factual {
    * @return the response of running <tt>geopulse</tt> against Factual.
    */
   public ReadResponse geopulse(Geopulse geopulse) {
-    return new ReadResponse(get(urlForGeopulse(), geopulse.toUrlParams()));
+    return (ReadResponse) requestResponse(new ReadQuery(urlForGeopulse(), geopulse.toUrlParams(),
+        Projection.rows(geopulse.getDecodedFields())));
   }
 
   /**
@@ -159,7 +301,7 @@ public class Factual {
    *         against Factual.
    */
   public ReadResponse reverseGeocode(Point point) {
-    return new ReadResponse(get(urlForGeocode(),
+    return (ReadResponse) requestResponse(new ReadQuery(urlForGeocode(),
         new Geocode(point).toUrlParams()));
   }
 
@@ -175,7 +317,8 @@ public class Factual {
    * @return the response of running <tt>facet</tt> against Factual.
    */
   public FacetResponse fetch(String tableName, FacetQuery facet) {
-    return new FacetResponse(get(urlForFacets(tableName), facet.toUrlParams()));
+    validate(tableName, facet);
+    return (FacetResponse) requestResponse(new FacetRequest(urlForFacets(tableName), facet.toUrlParams()));
   }
 
   /**
@@ -340,7 +483,7 @@ public class Factual {
    * @return the response of running <tt>query</tt> against Factual.
    */
   public String get(String path, Map<String, Object> params) {
-    return request(new RawReadRequest(path, params));
+    return request(new RawReadRequest(path, params)).toString();
   }
 
   /**
@@ -355,10 +498,10 @@ public class Factual {
    * @return
    */
   public String get(String path, String params) {
-    return request(new SimpleGetRequest(path, params));
+    return request(new SimpleGetRequest(path, params)).toString();
   }
 
-  private String post(String path, Map<String, Object> params,
+  private ResponseBody post(String path, Map<String, Object> params,
       Map<String, String> postData) {
     return requestPost(new RawReadRequest(path, params, postData));
   }
@@ -369,8 +512,7 @@ public class Factual {
     params.putAll(metadata.toUrlParams());
     params.putAll(submit.toUrlParams());
     // Oauth library currently doesn't support POST body content.
-    String jsonResponse = post(root, params, new HashMap<String, String>());
-    return new SubmitResponse(jsonResponse);
+    return new SubmitResponse(post(root, params, new HashMap<String, String>()));
   }
 
   private FlagResponse flagCustom(String root, String flagType,
@@ -379,8 +521,18 @@ public class Factual {
     params.putAll(metadata.toUrlParams());
     params.put("problem", flagType);
     // Oauth library currently doesn't support POST body content.
-    String jsonResponse = post(root, params, new HashMap<String, String>());
-    return new FlagResponse(jsonResponse);
+    return new FlagResponse(post(root, params, new HashMap<String, String>()));
+  }
+
+  /**
+   * Creates a batch of reads to send as one multi request, independent of the
+   * reads queued on this client and of any other batch. Use a batch per unit
+   * of work when threads share this client.
+   * 
+   * @return a new, empty batch.
+   */
+  public Batch newBatch() {
+    return new Batch(this);
   }
 
   /**
@@ -390,9 +542,11 @@ public class Factual {
    *          the path to run the request against
    * @param params
    *          the parameters to send with the request
+   * @return the response to the request, once the multi request it is sent
+   *         in returns.
    */
-  public void queueFetch(String path, Map<String, Object> params) {
-    fetchQueue.add(new RawReadRequest(path, params));
+  public Pending<RawReadResponse> queueFetch(String path, Map<String, Object> params) {
+    return fetchQueue.queueFetch(path, params);
   }
 
   /**
@@ -402,9 +556,11 @@ public class Factual {
    *          the name of the table you wish to query (e.g., "places")
    * @param query
    *          the read query to run against <tt>table</tt>.
+   * @return the response to <tt>query</tt>, once the multi request it is sent
+   *         in returns.
    */
-  public void queueFetch(String table, Query query) {
-    fetchQueue.add(new ReadQuery(urlForFetch(table), query.toUrlParams()));
+  public Pending<ReadResponse> queueFetch(String table, Query query) {
+    return fetchQueue.queueFetch(table, query);
   }
 
   /**
@@ -415,9 +571,11 @@ public class Factual {
    *          "places")
    * @param query
    *          the resolve query to run against <tt>table</tt>.
+   * @return the response to <tt>query</tt>, once the multi request it is sent
+   *         in returns.
    */
-  public void queueFetch(String table, ResolveQuery query) {
-    fetchQueue.add(new ReadQuery(urlForResolve(table), query.toUrlParams()));
+  public Pending<ReadResponse> queueFetch(String table, ResolveQuery query) {
+    return fetchQueue.queueFetch(table, query);
   }
 
   /**
@@ -428,30 +586,49 @@ public class Factual {
    *          (e.g., "places")
    * @param query
    *          the facet query to run against <tt>table</tt>.
+   * @return the response to <tt>query</tt>, once the multi request it is sent
+   *         in returns.
    */
-  public void queueFetch(String table, FacetQuery query) {
-    fetchQueue.add(new FacetRequest(urlForFacets(table), query.toUrlParams()));
+  public Pending<FacetResponse> queueFetch(String table, FacetQuery query) {
+    return fetchQueue.queueFetch(table, query);
   }
 
-  public void queueFetch(Geocode query) {
-    fetchQueue.add(new ReadQuery(urlForGeocode(), query.toUrlParams()));
+  public Pending<ReadResponse> queueFetch(Geocode query) {
+    return fetchQueue.queueFetch(query);
   }
 
-  public void queueFetch(Geopulse query) {
-    fetchQueue.add(new ReadQuery(urlForGeopulse(), query.toUrlParams()));
+  public Pending<ReadResponse> queueFetch(Geopulse query) {
+    return fetchQueue.queueFetch(query);
   }
 
   /**
-   * Use this to send all queued reads as a multi request
+   * Use this to send all queued reads as a multi request. Reads queued by
+   * other threads sharing this client are sent along; use {@link #newBatch()}
+   * to keep them apart.
    * 
    * @return response for a multi request
    */
   public MultiResponse sendRequests() {
+    return fetchQueue.send();
+  }
+
+  /**
+   * @return the reads queued since the last multi request, in queue order,
+   *         removing them from the queue.
+   */
+  protected List<RequestImpl> pollQueue() {
+    return fetchQueue.poll();
+  }
+
+  /**
+   * Sends <tt>requests</tt> as one multi request, which can be cancelled
+   * through <tt>cancellation</tt>, and completes their pending responses.
+   */
+  protected MultiResponse sendRequests(List<RequestImpl> requests, Cancellation cancellation) {
     Map<String, String> multi = Maps.newHashMap();
     int i = 0;
     Map<String, RequestImpl> requestMapping = Maps.newLinkedHashMap();
-    while (!fetchQueue.isEmpty()) {
-      RequestImpl fullQuery = fetchQueue.poll();
+    for (RequestImpl fullQuery : requests) {
       String url = "/" + fullQuery.toUrlString();
       if (url != null) {
         String multiKey = "q" + Integer.toString(i);
@@ -463,9 +640,25 @@ public class Factual {
     String json = JsonUtil.toJsonStr(multi);
     Map<String, Object> params = Maps.newHashMap();
     params.put("queries", json);
-    String jsonResponse = get("multi", params);
     MultiResponse resp = new MultiResponse(requestMapping);
-    resp.setJson(jsonResponse);
+    try {
+      resp.setBody(execute(new RawReadRequest("multi", params), "GET",
+          true, null, cancellation).body);
+    } catch (RuntimeException e) {
+      for (RequestImpl request : requestMapping.values()) {
+        if (request.pending != null) {
+          request.pending.fail(e);
+        }
+      }
+      throw e;
+    }
+    i = 0;
+    for (RequestImpl request : requestMapping.values()) {
+      if (request.pending != null) {
+        request.pending.complete(resp.getData(), i);
+      }
+      i++;
+    }
     return resp;
   }
 
@@ -477,7 +670,8 @@ public class Factual {
    * @return the response of running <tt>query</tt> against Factual.
    */
   public ReadResponse monetize(Query query) {
-    return new ReadResponse(get(urlForMonetize(), query.toUrlParams()));
+    return (ReadResponse) requestResponse(new ReadQuery(urlForMonetize(), query.toUrlParams(),
+        Projection.rows(query.getDecodedFields())));
   }
 
   /**
@@ -532,102 +726,324 @@ public class Factual {
    * @return the response from Factual for the Resolve request.
    */
   public ReadResponse fetch(String tableName, ResolveQuery query) {
-    return new ReadResponse(request(new ReadQuery(urlForResolve(tableName),
-        query.toUrlParams())));
+    ResolveCache cache = resolveCache;
+    if (cache != null) {
+      ReadResponse cached = cache.get(tableName, query);
+      if (cached != null) {
+        return cached;
+      }
+    }
+    ReadResponse resp = (ReadResponse) requestResponse(new ReadQuery(urlForResolve(tableName),
+        query.toUrlParams()));
+    if (cache != null) {
+      cache.put(tableName, query, resp);
+    }
+    return resp;
   }
 
   public SchemaResponse schema(String tableName) {
     Map<String, Object> params = Maps.newHashMap();
-    return new SchemaResponse(get(urlForSchema(tableName), params));
+    return (SchemaResponse) requestResponse(new SchemaRequest(urlForSchema(tableName), params));
   }
 
   private String urlForSchema(String tableName) {
     return "t/" + tableName + "/schema";
   }
 
-  private String request(Request query) {
+  void validate(String tableName, Query query) {
+    SchemaCache cache = schemaCache;
+    if (cache != null) {
+      try {
+        cache.validate(tableName, query);
+      } catch (FactualApiException e) {
+        throw e.requestUrl(factHome + urlForFetch(tableName)).requestMethod("GET");
+      }
+    }
+  }
+
+  void validate(String tableName, FacetQuery query) {
+    SchemaCache cache = schemaCache;
+    if (cache != null) {
+      try {
+        cache.validate(tableName, query);
+      } catch (FactualApiException e) {
+        throw e.requestUrl(factHome + urlForFacets(tableName)).requestMethod("GET");
+      }
+    }
+  }
+
+  private ResponseBody request(Request query) {
     return request(query, true);
   }
 
-  private String request(Request query, boolean useOAuth) {
+  private ResponseBody request(Request query, boolean useOAuth) {
     return request(query, "GET", useOAuth);
   }
 
-  private String requestPost(Request query) {
+  private ResponseBody requestPost(Request query) {
     return requestPost(query, true);
   }
 
-  private String requestPost(Request query, boolean useOAuth) {
+  private ResponseBody requestPost(Request query, boolean useOAuth) {
     return request(query, "POST", useOAuth);
   }
 
-  private String request(Request fullQuery, String requestMethod,
+  private ResponseBody request(Request fullQuery, String requestMethod,
       boolean useOAuth) {
-    Map<String, String> postData = fullQuery.getPostData();
+    return execute(fullQuery, requestMethod, useOAuth, null, null).body;
+  }
+
+  /**
+   * Runs a GET request and parses its response, revalidating a cached
+   * response instead when a {@link RevalidationCache} is set.
+   */
+  private Response requestResponse(Request fullQuery) {
+    return requestResponse(fullQuery, null);
+  }
+
+  private Response requestResponse(Request fullQuery, Cancellation cancellation) {
+    try {
+      return revalidate(fullQuery, cancellation);
+    } catch (CircuitBreakerOpenException e) {
+      CircuitBreaker breaker = circuitBreaker;
+      ResponseFallback fallback = breaker != null ? breaker.getFallback() : null;
+      Response resp = fallback != null ? fallback.fallback(cacheKey(fullQuery), e) : null;
+      if (resp == null) {
+        throw e;
+      }
+      return resp;
+    }
+  }
+
+  private Response revalidate(Request fullQuery, Cancellation cancellation) {
+    RevalidationCache cache = revalidationCache;
+    if (cache == null) {
+      return fullQuery.getResponse(execute(fullQuery, "GET", true, null, cancellation).body);
+    }
+    String key = cacheKey(fullQuery);
+    RevalidationCache.Entry cached = cache.get(key);
+    Result result = execute(fullQuery, "GET", true, cached, cancellation);
+    if (result.notModified) {
+      cache.notModified(cached);
+      return cached.getResponse();
+    }
+    long start = System.nanoTime();
+    Response resp = fullQuery.getResponse(result.body);
+    long parseNanos = System.nanoTime() - start;
+    if (result.etag != null || result.lastModified != null) {
+      cache.put(key, new RevalidationCache.Entry(resp, result.etag,
+          result.lastModified, result.body.length(), parseNanos));
+    } else if (cached != null) {
+      cache.remove(key);
+    }
+    return resp;
+  }
+
+  /**
+   * @return the key the response to <tt>fullQuery</tt> is cached under: its
+   *         full URL, followed by its projection, as a projected response
+   *         cannot answer the same request unprojected.
+   */
+  private String cacheKey(Request fullQuery) {
+    String key = factHome + fullQuery.toUrlString();
+    if (fullQuery instanceof RequestImpl) {
+      key += ((RequestImpl) fullQuery).projection().key();
+    }
+    return key;
+  }
+
+  private Result execute(Request fullQuery, String requestMethod,
+      boolean useOAuth, RevalidationCache.Entry cached, Cancellation cancellation) {
     String urlStr = factHome + fullQuery.toUrlString();
-    GenericUrl url = new GenericUrl(urlStr);
 
     if (debug) {
       fullQuery.printDebug();
-      Logger logger = Logger.getLogger(HttpTransport.class.getName());
-      logger.removeHandler(debugHandler);
-      logger.setLevel(Level.ALL);
-      logger.addHandler(debugHandler);
     }
 
-    // Configure OAuth request params
-    OAuthParameters params = new OAuthParameters();
-    params.consumerKey = key;
-    params.computeNonce();
-    params.computeTimestamp();
-    params.signer = signer;
+    Map<String, String> headers = Maps.newLinkedHashMap();
+    headers.put("X-Factual-Lib", DRIVER_HEADER_TAG);
+    headers.put("Host", host);
+    if (cached != null) {
+      if (cached.getETag() != null) {
+        headers.put("If-None-Match", cached.getETag());
+      }
+      if (cached.getLastModified() != null) {
+        headers.put("If-Modified-Since", cached.getLastModified());
+      }
+    }
 
-    BufferedReader br = null;
+    CircuitBreaker breaker = circuitBreaker;
+    String endpoint = endpoint(fullQuery);
+    ConcurrencyLimiter limiter = concurrencyLimiter;
     try {
-      // generate the signature
-      params.computeSignature(requestMethod, url);
+      if (breaker != null) {
+        breaker.acquire(endpoint);
+      }
+      if (limiter != null) {
+        try {
+          limiter.acquire();
+        } catch (FactualApiException e) {
+          if (breaker != null) {
+            breaker.release(endpoint);
+          }
+          throw e;
+        }
+      }
+    } catch (FactualApiException e) {
+      throw e.requestUrl(urlStr).requestMethod(requestMethod);
+    }
+    long start = System.nanoTime();
+    boolean overloaded = false;
+    boolean cancelled = false;
 
-      // make the request
-      HttpTransport transport = new NetHttpTransport();
-      HttpRequestFactory f = null;
+    TransportRequest request = null;
+    TransportResponse response = null;
+    try {
       if (useOAuth) {
-        f = transport.createRequestFactory(params);
-      } else {
-        f = transport.createRequestFactory();
+        headers.put("Authorization", authorization(requestMethod, urlStr));
       }
-      HttpRequest request = null;
-      if ("POST".equals(requestMethod))
-        if (postData == null)
-          request = f.buildPostRequest(url, null);
-        else
-          request = f.buildPostRequest(url, new UrlEncodedContent(postData));
-      else
-        request = f.buildGetRequest(url);
-      HttpHeaders headers = new HttpHeaders();
-      headers.set("X-Factual-Lib", DRIVER_HEADER_TAG);
-      headers.set("Host", host);
-      request.setHeaders(headers);
 
-      // get the response
-      br = new BufferedReader(new InputStreamReader(request.execute()
-          .getContent()));
-      String line = null;
-      StringBuffer sb = new StringBuffer();
-      while ((line = br.readLine()) != null) {
-        sb.append(line);
+      // make the request
+      request = new TransportRequest(requestMethod, urlStr,
+          headers, fullQuery.getPostData());
+      if (cancellation != null) {
+        if (cancellation.isCancelled()) {
+          cancelled = true;
+          throw new FactualApiException("Request cancelled").requestUrl(urlStr)
+              .requestMethod(requestMethod);
+        }
+        cancellation.begin(request);
+      }
+      response = transport.execute(request);
+      int status = response.getStatusCode();
+      overloaded = status == HTTP_TOO_MANY_REQUESTS || status >= 500;
+      if (cached != null && status == HTTP_NOT_MODIFIED) {
+        return new Result(null, null, null, true);
+      }
+      if (status < 200 || status >= 300) {
+        throw error(response).requestUrl(urlStr).requestMethod(requestMethod)
+            .statusCode(status);
       }
-      return sb.toString();
 
-    } catch (HttpResponseException e) {
-      throw new FactualApiException(e).requestUrl(urlStr)
-          .requestMethod(requestMethod).response(e.getResponse());
+      // get the response
+      ResponseBody body = ResponseBody.read(response.getContent(),
+          contentLength(response), BufferPool.SHARED);
+      return new Result(body, response.getHeader("ETag"),
+          response.getHeader("Last-Modified"), false);
+
     } catch (IOException e) {
+      // an aborted request says nothing about how loaded Factual is
+      cancelled = request.isAborted();
+      overloaded = !cancelled;
       throw new FactualApiException(e).requestUrl(urlStr).requestMethod(
           requestMethod);
+    } finally {
+      if (response != null) {
+        try {
+          response.close();
+        } catch (IOException e) {
+          // the response has been read; nothing left to release
+        }
+      }
+      if (cancellation != null && request != null) {
+        cancellation.end(request);
+      }
+      long latency = System.nanoTime() - start;
+      if (limiter != null) {
+        if (cancelled) {
+          limiter.release();
+        } else {
+          limiter.release(latency, overloaded);
+        }
+      }
+      if (breaker != null) {
+        if (cancelled) {
+          breaker.release(endpoint);
+        } else {
+          breaker.record(endpoint, latency, overloaded);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the endpoint of a request, its URL path relative to the Factual
+   *         home, e.g. "t/places".
+   */
+  private static String endpoint(Request fullQuery) {
+    String url = fullQuery.toUrlString();
+    int query = url.indexOf('?');
+    return query >= 0 ? url.substring(0, query) : url;
+  }
+
+  /**
+   * @return the length of the body of <tt>response</tt>, or -1 if it is
+   *         unknown or the body is decoded from a different length.
+   */
+  private static int contentLength(TransportResponse response) {
+    String length = response.getHeader("Content-Length");
+    if (length == null || response.getHeader("Content-Encoding") != null) {
+      return -1;
+    }
+    try {
+      return Integer.parseInt(length.trim());
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * @return the OAuth <tt>Authorization</tt> header value signing a request.
+   */
+  private String authorization(String requestMethod, String urlStr) {
+    OAuthParameters params = new OAuthParameters();
+    params.consumerKey = key;
+    params.computeNonce();
+    params.computeTimestamp();
+    params.signer = signer;
+    try {
+      params.computeSignature(requestMethod, new GenericUrl(urlStr));
     } catch (GeneralSecurityException e) {
       throw new RuntimeException(e);
-    } finally {
-      Closeables.closeQuietly(br);
+    }
+    return params.getAuthorizationHeader();
+  }
+
+  /**
+   * @return an exception describing an unsuccessful <tt>response</tt>,
+   *         including its body.
+   */
+  private static FactualApiException error(TransportResponse response)
+      throws IOException {
+    if (response instanceof GoogleHttpTransport.GoogleResponse) {
+      HttpResponse httpResponse = ((GoogleHttpTransport.GoogleResponse) response).getHttpResponse();
+      return new FactualApiException(new HttpResponseException(httpResponse))
+          .response(httpResponse);
+    }
+    StringBuilder msg = new StringBuilder();
+    msg.append(response.getStatusCode()).append(' ').append(response.getStatusMessage());
+    InputStream content = response.getContent();
+    if (content != null) {
+      msg.append('\n').append(CharStreams.toString(new InputStreamReader(content, Charsets.UTF_8)));
+    }
+    return new FactualApiException(msg.toString());
+  }
+
+  /**
+   * The outcome of executing one request against Factual.
+   */
+  private static class Result {
+    private final ResponseBody body;
+    private final String etag;
+    private final String lastModified;
+    private final boolean notModified;
+
+    private Result(ResponseBody body, String etag, String lastModified,
+        boolean notModified) {
+      this.body = body;
+      this.etag = etag;
+      this.lastModified = lastModified;
+      this.notModified = notModified;
     }
   }
 
@@ -637,11 +1053,21 @@ public class Factual {
    * @param debug
    *          whether or not this is in debug mode
    */
-  public void debug(boolean debug) {
+  public synchronized void debug(boolean debug) {
+    if (debug == this.debug) {
+      return;
+    }
     this.debug = debug;
-    if (debug && debugHandler == null) {
-      debugHandler = new StreamHandler(System.out, new SimpleFormatter());
-      debugHandler.setLevel(Level.ALL);
+    Logger logger = Logger.getLogger(HttpTransport.class.getName());
+    if (debug) {
+      if (debugHandler == null) {
+        debugHandler = new StreamHandler(System.out, new SimpleFormatter());
+        debugHandler.setLevel(Level.ALL);
+      }
+      logger.setLevel(Level.ALL);
+      logger.addHandler(debugHandler);
+    } else {
+      logger.removeHandler(debugHandler);
     }
   }
 
@@ -651,20 +1077,31 @@ public class Factual {
 
     public Map<String, String> getPostData();
 
-    public Response getResponse(String json);
+    public Response getResponse(ResponseBody body);
 
     public void printDebug();
   }
 
   protected static class ReadQuery extends RequestImpl {
+    private final Projection projection;
 
     public ReadQuery(String path, Map<String, Object> params) {
+      this(path, params, Projection.ALL);
+    }
+
+    ReadQuery(String path, Map<String, Object> params, Projection projection) {
       super(path, params);
+      this.projection = projection;
     }
 
     @Override
-    public Response getResponse(String json) {
-      return new ReadResponse(json);
+    public Response getResponse(ResponseBody body) {
+      return new ReadResponse(body, projection);
+    }
+
+    @Override
+    Projection projection() {
+      return projection;
     }
 
   }
@@ -680,6 +1117,7 @@ public class Factual {
     private final Map<String, Object> params;
     private final Map<String, String> postData;
     private final String path;
+    Pending<?> pending = null;
 
     public RequestImpl(String path, Map<String, Object> params) {
       this(path, params, new HashMap<String, String>());
@@ -707,7 +1145,14 @@ public class Factual {
     }
 
     @Override
-    public abstract Response getResponse(String json);
+    public abstract Response getResponse(ResponseBody body);
+
+    /**
+     * @return the parts of the response to decode.
+     */
+    Projection projection() {
+      return Projection.ALL;
+    }
 
     @Override
     public void printDebug() {
@@ -728,8 +1173,8 @@ public class Factual {
     }
 
     @Override
-    public Response getResponse(String json) {
-      return new FacetResponse(json);
+    public Response getResponse(ResponseBody body) {
+      return new FacetResponse(body);
     }
 
   }
@@ -741,8 +1186,8 @@ public class Factual {
     }
 
     @Override
-    public Response getResponse(String json) {
-      return new SchemaResponse(json);
+    public Response getResponse(ResponseBody body) {
+      return new SchemaResponse(body);
     }
 
   }
@@ -759,8 +1204,8 @@ public class Factual {
     }
 
     @Override
-    public Response getResponse(String json) {
-      return new RawReadResponse(json);
+    public Response getResponse(ResponseBody body) {
+      return new RawReadResponse(body);
     }
 
   }
@@ -785,8 +1230,8 @@ public class Factual {
     }
 
     @Override
-    public Response getResponse(String json) {
-      return new RawReadResponse(json);
+    public Response getResponse(ResponseBody body) {
+      return new RawReadResponse(body);
     }
 
     @Override
@@ -12,6 +12,7 @@ public class FactualApiException extends RuntimeException {
   private String requestUrl;
   private String requestMethod;
   private HttpResponse response;
+  private int statusCode = -1;
 
 
   public FactualApiException(Exception e) {
@@ -37,6 +38,11 @@ public class FactualApiException extends RuntimeException {
     return this;
   }
 
+  public FactualApiException statusCode(int statusCode) {
+    this.statusCode = statusCode;
+    return this;
+  }
+
   /**
    * @return the URL used to make the offending request to Factual.
    */
@@ -58,4 +64,13 @@ public class FactualApiException extends RuntimeException {
   public HttpResponse getResponse() {
     return response;
   }
+
+  /**
+   * @return the HTTP status code of the problematic response from Factual, or
+   *         -1 if there was no response. Unlike {@link #getResponse()}, this is
+   *         set whichever {@link FactualTransport} is used.
+   */
+  public int getStatusCode() {
+    return statusCode;
+  }
 }
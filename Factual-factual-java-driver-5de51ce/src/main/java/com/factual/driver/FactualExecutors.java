@@ -0,0 +1,60 @@
+package com.factual.driver;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Creates executors to run blocking Factual requests on, for
+ * {@link AsyncFactual}.
+ * <p>
+ * On a JDK with virtual threads (Java 21 and later), each request runs on its
+ * own virtual thread, so tens of thousands of requests can wait on Factual at
+ * once without a matching amount of platform threads. The driver itself is
+ * built for older JDKs, so virtual threads are looked up at runtime.
+ */
+public final class FactualExecutors {
+  private static final Method NEW_VIRTUAL_THREAD_EXECUTOR = virtualThreadExecutorFactory();
+
+
+  private FactualExecutors() {}
+
+  /**
+   * @return whether this JDK can run requests on virtual threads.
+   */
+  public static boolean isVirtualThreadSupported() {
+    return NEW_VIRTUAL_THREAD_EXECUTOR != null;
+  }
+
+  /**
+   * Creates an executor that runs each task on a new virtual thread, or, on a
+   * JDK without virtual threads, on a cached pool of daemon platform threads.
+   * 
+   * @return a new executor; shut it down when done.
+   */
+  public static ExecutorService newVirtualThreadExecutor() {
+    if (NEW_VIRTUAL_THREAD_EXECUTOR != null) {
+      try {
+        return (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invoke(null);
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    }
+    return Executors.newCachedThreadPool(
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("factual-request-%d").build());
+  }
+
+  private static Method virtualThreadExecutorFactory() {
+    try {
+      Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      // fails where virtual threads are a preview feature that is not enabled
+      ((ExecutorService) factory.invoke(null)).shutdown();
+      return factory;
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+}
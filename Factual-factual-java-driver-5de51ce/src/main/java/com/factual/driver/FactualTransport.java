@@ -0,0 +1,38 @@
+package com.factual.driver;
+
+import java.io.IOException;
+
+/**
+ * Sends HTTP requests to Factual on behalf of a {@link Factual} client. The
+ * client prepares each request completely, including its OAuth
+ * <tt>Authorization</tt> header, so a transport only has to send it and hand
+ * back the response.
+ * <p>
+ * Implementations must be safe for concurrent use. Two send requests over the
+ * network: {@link GoogleHttpTransport}, the default, and
+ * {@link PooledHttpTransport}. A {@link RecordingTransport} records the
+ * traffic of another transport, which a {@link ReplayTransport} replays.
+ * 
+ * @see Factual#setTransport(FactualTransport)
+ */
+public interface FactualTransport {
+
+  /**
+   * Sends <tt>request</tt>. Any status code, including error codes, is
+   * returned as a response rather than thrown. Implementations should register
+   * with {@link TransportRequest#onAbort(Runnable)} how to abort the request
+   * while it is sent, and while its response is read.
+   * 
+   * @param request
+   *          the request to send.
+   * @return the response to <tt>request</tt>. The caller must close it.
+   * @throws IOException
+   *           if the request could not be sent or its response not read.
+   */
+  TransportResponse execute(TransportRequest request) throws IOException;
+
+  /**
+   * Releases any connections and other resources held by this transport.
+   */
+  void shutdown() throws IOException;
+}
@@ -1,8 +1,19 @@
 package com.factual.driver;
 
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
 
-public class FieldFilter implements Filter {
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.google.common.collect.ImmutableSet;
+
+public class FieldFilter implements LocalFilter {
+  private static final Set<String> LOCAL_OPS = ImmutableSet.of("$eq", "$neq", "$in", "$nin",
+      "$bw", "$nbw", "$bwin", "$nbwin", "$blank", "$gt", "$gte", "$lt", "$lte");
   private final String fieldName;
   private final String op;
   private final Object arg;
@@ -47,4 +58,161 @@ public class FieldFilter implements Filter {
 	  };
   }
 
+  /**
+   * @return true if {@link #matches(Map)} can evaluate this filter's
+   *         operator; false for a full text search, which only Factual can
+   *         evaluate, and for any operator QueryBuilder does not build.
+   */
+  @Override
+  public boolean isLocallyEvaluable() {
+    return LOCAL_OPS.contains(op);
+  }
+
+  /**
+   * Evaluates this filter against <tt>row</tt>. Equality and prefix
+   * predicates compare strings ignoring case, as Factual does; range
+   * predicates compare them exactly. When the row value is an array,
+   * equality and prefix predicates match if any element matches.
+   */
+  @Override
+  public boolean matches(Map<String, Object> row) {
+    Object value = row.get(fieldName);
+    if ("$eq".equals(op)) {
+      return anyEqual(value, arg);
+    } else if ("$neq".equals(op)) {
+      return !anyEqual(value, arg);
+    } else if ("$in".equals(op)) {
+      return anyIn(value, args());
+    } else if ("$nin".equals(op)) {
+      return !anyIn(value, args());
+    } else if ("$bw".equals(op)) {
+      return anyBeginsWith(value, Arrays.asList(arg));
+    } else if ("$nbw".equals(op)) {
+      return !anyBeginsWith(value, Arrays.asList(arg));
+    } else if ("$bwin".equals(op)) {
+      return anyBeginsWith(value, args());
+    } else if ("$nbwin".equals(op)) {
+      return !anyBeginsWith(value, args());
+    } else if ("$blank".equals(op)) {
+      return isBlank(value) == Boolean.TRUE.equals(arg);
+    } else if ("$gt".equals(op)) {
+      Integer cmp = compare(value, arg);
+      return cmp != null && cmp > 0;
+    } else if ("$gte".equals(op)) {
+      Integer cmp = compare(value, arg);
+      return cmp != null && cmp >= 0;
+    } else if ("$lt".equals(op)) {
+      Integer cmp = compare(value, arg);
+      return cmp != null && cmp < 0;
+    } else if ("$lte".equals(op)) {
+      Integer cmp = compare(value, arg);
+      return cmp != null && cmp <= 0;
+    }
+    throw new UnsupportedOperationException("Cannot evaluate " + op + " locally");
+  }
+
+  private Collection<?> args() {
+    if (arg instanceof Object[]) {
+      return Arrays.asList((Object[]) arg);
+    } else if (arg instanceof Collection) {
+      return (Collection<?>) arg;
+    }
+    return Arrays.asList(arg);
+  }
+
+  /**
+   * Flattens a row value into its elements, so that multi-valued fields are
+   * matched element-wise.
+   */
+  private static Collection<?> elements(Object value) {
+    if (value instanceof JSONArray) {
+      JSONArray arr = (JSONArray) value;
+      Object[] elements = new Object[arr.length()];
+      for (int i = 0; i < elements.length; i++) {
+        elements[i] = arr.opt(i);
+      }
+      return Arrays.asList(elements);
+    }
+    return Arrays.asList(value);
+  }
+
+  private static boolean anyEqual(Object value, Object expected) {
+    for (Object element : elements(value)) {
+      if (valueEquals(element, expected)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean anyIn(Object value, Collection<?> candidates) {
+    for (Object candidate : candidates) {
+      if (anyEqual(value, candidate)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean anyBeginsWith(Object value, Collection<?> prefixes) {
+    for (Object element : elements(value)) {
+      if (isNull(element)) {
+        continue;
+      }
+      String str = element.toString();
+      for (Object prefix : prefixes) {
+        String start = prefix != null ? prefix.toString() : null;
+        if (start != null && str.regionMatches(true, 0, start, 0, start.length())) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static boolean isNull(Object value) {
+    return value == null || JSONObject.NULL.equals(value);
+  }
+
+  private static boolean isBlank(Object value) {
+    if (isNull(value)) {
+      return true;
+    } else if (value instanceof JSONArray) {
+      return ((JSONArray) value).length() == 0;
+    }
+    return value.toString().trim().length() == 0;
+  }
+
+  private static boolean valueEquals(Object value, Object expected) {
+    if (isNull(value) || expected == null) {
+      return isNull(value) && expected == null;
+    } else if (value instanceof Number && expected instanceof Number) {
+      return ((Number) value).doubleValue() == ((Number) expected).doubleValue();
+    }
+    return value.toString().equalsIgnoreCase(expected.toString());
+  }
+
+  /**
+   * Orders numbers numerically and everything else by its String form.
+   * 
+   * @return the comparison result, or null if the two values are unordered
+   *         (blank values never satisfy a range predicate).
+   */
+  private static Integer compare(Object value, Object bound) {
+    if (isNull(value) || bound == null) {
+      return null;
+    } else if (value instanceof Number && bound instanceof Number) {
+      return Double.compare(((Number) value).doubleValue(),
+          ((Number) bound).doubleValue());
+    } else if (value instanceof Number || bound instanceof Number) {
+      try {
+        return Double.compare(Double.parseDouble(value.toString()),
+            Double.parseDouble(bound.toString()));
+      } catch (NumberFormatException e) {
+        return null;
+      }
+    }
+    return value.toString().compareTo(bound.toString());
+  }
+
 }
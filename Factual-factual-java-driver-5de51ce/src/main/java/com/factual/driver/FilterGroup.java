@@ -2,6 +2,7 @@ package com.factual.driver;
 
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import com.google.common.collect.Lists;
 
@@ -11,7 +12,7 @@ import com.google.common.collect.Lists;
  * 
  * @author aaron
  */
-public class FilterGroup implements Filter {
+public class FilterGroup implements LocalFilter {
   private final List<Filter> filters;
   private String op = Constants.FILTER_AND;
 
@@ -82,5 +83,43 @@ public class FilterGroup implements Filter {
 	    	}
 	  };
   }
-  
+
+  /**
+   * @return true if this group is an AND or OR, and every Filter in it can be
+   *         evaluated locally.
+   */
+  @Override
+  public boolean isLocallyEvaluable() {
+    if(!Constants.FILTER_AND.equals(op) && !Constants.FILTER_OR.equals(op)) {
+      return false;
+    }
+    for(Filter f : filters) {
+      if(!(f instanceof LocalFilter) || !((LocalFilter) f).isLocallyEvaluable()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Evaluates this group's logic against <tt>row</tt>: all member Filters must
+   * match for AND, at least one for OR.
+   */
+  @Override
+  public boolean matches(Map<String, Object> row) {
+    boolean or = Constants.FILTER_OR.equals(op);
+    if(!or && !Constants.FILTER_AND.equals(op)) {
+      throw new UnsupportedOperationException("Cannot evaluate " + op + " locally");
+    }
+    for(Filter f : filters) {
+      if(!(f instanceof LocalFilter)) {
+        throw new UnsupportedOperationException("Cannot evaluate " + f.toJsonStr() + " locally");
+      }
+      if(((LocalFilter) f).matches(row) == or) {
+        return or;
+      }
+    }
+    return !or;
+  }
+
 }
@@ -9,7 +9,7 @@ import org.json.JSONObject;
  * @author brandon
  */
 public class FlagResponse extends Response {
-	private String json = null;
+	private final ResponseBody body;
 
 	/**
 	 * Constructor, parses from a JSON response String.
@@ -17,9 +17,18 @@ public class FlagResponse extends Response {
 	 * @param json the JSON response String returned by Factual.
 	 */
 	public FlagResponse(String json) {
-		this.json = json;
+		this(new ResponseBody(json));
+	}
+
+	/**
+	 * Constructor, parses from a response body.
+	 * 
+	 * @param body the response body returned by Factual.
+	 */
+	FlagResponse(ResponseBody body) {
+		this.body = body;
 		try {
-			JSONObject rootJsonObj = new JSONObject(json);
+			JSONObject rootJsonObj = body.toJsonObject();
 			Response.withMeta(this, rootJsonObj);
 		} catch (JSONException e) {
 			throw new RuntimeException(e);
@@ -28,6 +37,6 @@ public class FlagResponse extends Response {
 
 	@Override
 	public String getJson() {
-		return json;
+		return body.toString();
 	}
 }
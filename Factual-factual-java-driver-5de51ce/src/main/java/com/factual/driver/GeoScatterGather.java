@@ -0,0 +1,352 @@
+package com.factual.driver;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Reads every row of a Query within a large geographic area, which a single
+ * <tt>within(Circle)</tt> read cannot return because of Factual's paging caps.
+ * <p>
+ * The area is covered by circles that are read in parallel with the Query's
+ * other parameters. Each circle is first read with a row count; a circle
+ * holding more rows than can be paged through is split into four smaller
+ * circles covering it, and so on. Rows from overlapping circles are
+ * deduplicated by <tt>factual_id</tt>, and rows outside the requested area are
+ * dropped. A fetch either reads every row of the area or fails; it fails if
+ * a read fails, or if a circle that can no longer be split holds more rows
+ * than can be paged through.
+ * <p>
+ * Example use:
+ * 
+ * <pre>
+ * List&lt;Map&lt;String, Object&gt;&gt; rows = new GeoScatterGather(factual, "places",
+ *     new Query().field("category").beginsWith("Food"))
+ *     .parallelism(16)
+ *     .fetch(new Circle(34.06018, -118.41835, 20000));
+ * </pre>
+ * 
+ * Deduplication and area checks need the <tt>factual_id</tt>,
+ * <tt>latitude</tt> and <tt>longitude</tt> fields; rows without them are
+ * passed through as they are.
+ */
+public class GeoScatterGather {
+  private static final double EARTH_RADIUS_METERS = 6378137;
+  private static final double METERS_PER_DEGREE = EARTH_RADIUS_METERS * Math.PI / 180;
+
+  private final Factual factual;
+  private final String tableName;
+  private final Query query;
+  private int parallelism = 8;
+  private int pageSize = 50;
+  private int maxRowsPerCell = 500;
+  private int minCellMeters = 50;
+
+
+  /**
+   * Constructor.
+   * 
+   * @param factual
+   *          the Factual client to read with.
+   * @param tableName
+   *          the name of the table to read (e.g., "places").
+   * @param query
+   *          the read query to run over each part of the area. Its geo, limit
+   *          and offset are set per read.
+   */
+  public GeoScatterGather(Factual factual, String tableName, Query query) {
+    this.factual = factual;
+    this.tableName = tableName;
+    this.query = query;
+  }
+
+  /**
+   * @param parallelism
+   *          the maximum amount of concurrent reads. The default is 8.
+   * @return this GeoScatterGather
+   */
+  public GeoScatterGather parallelism(int parallelism) {
+    this.parallelism = parallelism;
+    return this;
+  }
+
+  /**
+   * @param pageSize
+   *          the limit of each read. The default is 50.
+   * @return this GeoScatterGather
+   */
+  public GeoScatterGather pageSize(int pageSize) {
+    this.pageSize = pageSize;
+    return this;
+  }
+
+  /**
+   * @param maxRowsPerCell
+   *          the maximum amount of rows that can be paged through for one
+   *          circle. A circle with more rows is split. The default is 500.
+   * @return this GeoScatterGather
+   */
+  public GeoScatterGather maxRowsPerCell(int maxRowsPerCell) {
+    this.maxRowsPerCell = maxRowsPerCell;
+    return this;
+  }
+
+  /**
+   * @param minCellMeters
+   *          the radius, in meters, below which circles are no longer split.
+   *          A circle this small that still holds more rows than can be
+   *          paged through fails the fetch with an IllegalStateException,
+   *          rather than leaving rows out. The default is 50.
+   * @return this GeoScatterGather
+   */
+  public GeoScatterGather minCellMeters(int minCellMeters) {
+    this.minCellMeters = minCellMeters;
+    return this;
+  }
+
+  /**
+   * Reads all rows within <tt>circle</tt>.
+   * 
+   * @return the merged rows, in no particular order.
+   */
+  public List<Map<String, Object>> fetch(Circle circle) {
+    final List<Map<String, Object>> rows = Lists.newArrayList();
+    fetch(circle, new RowHandler() {
+      @Override
+      public void handle(Map<String, Object> row) {
+        rows.add(row);
+      }
+    });
+    return rows;
+  }
+
+  /**
+   * Reads all rows within <tt>circle</tt>, passing each distinct row to
+   * <tt>handler</tt> as soon as it is read. Calls to <tt>handler</tt> are
+   * made one at a time.
+   */
+  public void fetch(final Circle circle, RowHandler handler) {
+    run(circle, new Area() {
+      @Override
+      public boolean contains(double lat, double lng) {
+        return distance(circle.getCenterLatitude(), circle.getCenterLongitude(), lat, lng) <= circle.getMeters();
+      }
+    }, handler);
+  }
+
+  /**
+   * Reads all rows within the bounding box with the given corners.
+   * 
+   * @return the merged rows, in no particular order.
+   */
+  public List<Map<String, Object>> fetch(Point northWest, Point southEast) {
+    final List<Map<String, Object>> rows = Lists.newArrayList();
+    fetch(northWest, southEast, new RowHandler() {
+      @Override
+      public void handle(Map<String, Object> row) {
+        rows.add(row);
+      }
+    });
+    return rows;
+  }
+
+  /**
+   * Reads all rows within the bounding box with the given corners, passing
+   * each distinct row to <tt>handler</tt> as soon as it is read. Calls to
+   * <tt>handler</tt> are made one at a time.
+   */
+  public void fetch(final Point northWest, final Point southEast, RowHandler handler) {
+    double north = northWest.getLatitude();
+    double west = northWest.getLongitude();
+    double south = southEast.getLatitude();
+    double east = southEast.getLongitude();
+    int meters = (int) Math.ceil(distance(north, west, south, east) / 2) + 1;
+    Circle cover = new Circle((north + south) / 2, (west + east) / 2, meters);
+    run(cover, new Area() {
+      @Override
+      public boolean contains(double lat, double lng) {
+        return lat <= northWest.getLatitude() && lat >= southEast.getLatitude()
+            && lng >= northWest.getLongitude() && lng <= southEast.getLongitude();
+      }
+    }, handler);
+  }
+
+  private void run(Circle cover, Area area, RowHandler handler) {
+    ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+    try {
+      Gather gather = new Gather(executor, area, handler);
+      gather.readCell(cover);
+      gather.await();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * @return the four circles covering the quadrants of <tt>circle</tt>.
+   */
+  protected static List<Circle> split(Circle circle) {
+    double lat = circle.getCenterLatitude();
+    double lng = circle.getCenterLongitude();
+    double half = circle.getMeters() / 2.0;
+    double dLat = half / METERS_PER_DEGREE;
+    double dLng = half / (METERS_PER_DEGREE * Math.cos(Math.toRadians(lat)));
+    int meters = (int) Math.ceil(circle.getMeters() / Math.sqrt(2)) + 1;
+    return Lists.newArrayList(
+        new Circle(lat + dLat, lng - dLng, meters),
+        new Circle(lat + dLat, lng + dLng, meters),
+        new Circle(lat - dLat, lng - dLng, meters),
+        new Circle(lat - dLat, lng + dLng, meters));
+  }
+
+  /**
+   * @return the great circle distance, in meters, between two points.
+   */
+  protected static double distance(double lat1, double lng1, double lat2, double lng2) {
+    double dLat = Math.toRadians(lat2 - lat1);
+    double dLng = Math.toRadians(lng2 - lng1);
+    double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+        + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+        * Math.sin(dLng / 2) * Math.sin(dLng / 2);
+    return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(a)));
+  }
+
+  private static interface Area {
+    boolean contains(double lat, double lng);
+  }
+
+  /**
+   * Tracks the reads of one fetch, until all of them are done or one fails.
+   */
+  private class Gather {
+    private final ExecutorService executor;
+    private final Area area;
+    private final RowHandler handler;
+    private final Lock handlerLock = new ReentrantLock();
+    private final ConcurrentMap<Object, Boolean> seen = new ConcurrentHashMap<Object, Boolean>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final AtomicReference<RuntimeException> error = new AtomicReference<RuntimeException>();
+
+    private Gather(ExecutorService executor, Area area, RowHandler handler) {
+      this.executor = executor;
+      this.area = area;
+      this.handler = handler;
+    }
+
+    /**
+     * Runs <tt>read</tt> on the executor, unless a read has failed already.
+     */
+    private void submit(final Runnable read) {
+      if (error.get() != null) {
+        return;
+      }
+      pending.incrementAndGet();
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            if (error.get() == null) {
+              read.run();
+            }
+          } catch (RuntimeException e) {
+            // under the handler lock, so no row is handled once fetch throws
+            handlerLock.lock();
+            try {
+              error.compareAndSet(null, e);
+            } finally {
+              handlerLock.unlock();
+            }
+            done.countDown();
+          } finally {
+            if (pending.decrementAndGet() == 0) {
+              done.countDown();
+            }
+          }
+        }
+      });
+    }
+
+    private void readCell(final Circle cell) {
+      submit(new Runnable() {
+        @Override
+        public void run() {
+          ReadResponse resp = factual.fetch(tableName,
+              query.copy().within(cell).limit(pageSize).includeRowCount());
+          int total = resp.getTotalRowCount();
+          if (total > maxRowsPerCell) {
+            if (cell.getMeters() <= minCellMeters) {
+              throw new IllegalStateException("Circle " + cell + " holds " + total
+                  + " rows, more than the " + maxRowsPerCell + " that can be paged through");
+            }
+            for (Circle sub : split(cell)) {
+              readCell(sub);
+            }
+          } else {
+            emit(resp);
+            for (int offset = pageSize; offset < total; offset += pageSize) {
+              readPage(cell, offset);
+            }
+          }
+        }
+      });
+    }
+
+    private void readPage(final Circle cell, final int offset) {
+      submit(new Runnable() {
+        @Override
+        public void run() {
+          emit(factual.fetch(tableName,
+              query.copy().within(cell).limit(pageSize).offset(offset).includeRowCount(false)));
+        }
+      });
+    }
+
+    private void emit(ReadResponse resp) {
+      for (Map<String, Object> row : resp.getData()) {
+        Object lat = row.get(Constants.LATITUDE);
+        Object lng = row.get(Constants.LONGITUDE);
+        if (lat instanceof Number && lng instanceof Number
+            && !area.contains(((Number) lat).doubleValue(), ((Number) lng).doubleValue())) {
+          continue;
+        }
+        Object id = row.get(Constants.FACTUAL_ID);
+        if (id != null && seen.putIfAbsent(id, Boolean.TRUE) != null) {
+          continue;
+        }
+        handlerLock.lock();
+        try {
+          if (error.get() != null) {
+            return;
+          }
+          handler.handle(row);
+        } finally {
+          handlerLock.unlock();
+        }
+      }
+    }
+
+    private void await() {
+      try {
+        done.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException(e);
+      }
+      if (error.get() != null) {
+        throw error.get();
+      }
+    }
+  }
+
+}
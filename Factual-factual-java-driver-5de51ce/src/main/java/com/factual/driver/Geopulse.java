@@ -1,6 +1,10 @@
 package com.factual.driver;
 
+import java.util.Arrays;
 import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.Sets;
 
 /**
  * 
@@ -16,6 +20,8 @@ public class Geopulse {
    */
   protected final Parameters queryParams = new Parameters();
 
+  private Set<String> projection;
+
   /**
    * Represents a Geopulse query against Factual
    * 
@@ -32,6 +38,31 @@ public class Geopulse {
   protected String toUrlQuery() {
 	return UrlUtil.toUrlQuery(toUrlParams());
   }
+
+  /**
+   * Sets the only top level fields of the response, such as
+   * <tt>commercial_density</tt> or <tt>demographics</tt>, to decode. The
+   * other fields are still sent by Factual, but are skipped while the
+   * response is parsed rather than built.
+   * 
+   * @param fields
+   *          the fields to decode.
+   * @return this Geopulse
+   */
+  public Geopulse project(String... fields) {
+	if (projection == null) {
+		projection = Sets.newLinkedHashSet();
+	}
+	projection.addAll(Arrays.asList(fields));
+	return this;
+  }
+
+  /**
+   * @return the fields set by project(), null if none.
+   */
+  protected Set<String> getDecodedFields() {
+	return projection;
+  }
 	
   /**
    * Sets the fields to select. This is optional; default behaviour is generally
@@ -0,0 +1,133 @@
+package com.factual.driver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Map;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.UrlEncodedContent;
+import com.google.api.client.http.javanet.NetHttpTransport;
+
+/**
+ * The default {@link FactualTransport}, sending requests through a
+ * google-http-client {@link HttpTransport}; {@link NetHttpTransport} unless
+ * another is given.
+ * <p>
+ * An aborted request stops reading its response at once, by disconnecting.
+ * Aborting a request that is still waiting for its response is not
+ * supported: the request fails only once the response arrives. Use a
+ * {@link PooledHttpTransport} where reads must be abortable at any stage.
+ */
+public class GoogleHttpTransport implements FactualTransport {
+  private final HttpTransport transport;
+
+
+  public GoogleHttpTransport() {
+    this(new NetHttpTransport());
+  }
+
+  public GoogleHttpTransport(HttpTransport transport) {
+    this.transport = transport;
+  }
+
+  @Override
+  public TransportResponse execute(TransportRequest request) throws IOException {
+    HttpRequestFactory f = transport.createRequestFactory();
+    GenericUrl url = new GenericUrl(request.getUrl());
+    HttpRequest req = null;
+    if ("POST".equals(request.getMethod()))
+      if (request.getPostData() == null)
+        req = f.buildPostRequest(url, null);
+      else
+        req = f.buildPostRequest(url, new UrlEncodedContent(request.getPostData()));
+    else
+      req = f.buildGetRequest(url);
+    HttpHeaders headers = new HttpHeaders();
+    for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+      headers.set(header.getKey(), header.getValue());
+    }
+    req.setHeaders(headers);
+    req.setThrowExceptionOnExecuteError(false);
+
+    // google-http-client gives no hold of the connection before the response
+    // arrives, so an abort until then takes effect once it has arrived
+    final HttpResponse response = req.execute();
+    request.onAbort(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          response.disconnect();
+        } catch (IOException e) {
+          // already disconnected
+        }
+      }
+    });
+    if (request.isAborted()) {
+      throw new IOException("Request aborted");
+    }
+    return new GoogleResponse(response);
+  }
+
+  @Override
+  public void shutdown() throws IOException {
+    transport.shutdown();
+  }
+
+  /**
+   * A response wrapping the google-http-client {@link HttpResponse}, which
+   * {@link FactualApiException#getResponse()} exposes for failed requests.
+   */
+  protected static class GoogleResponse implements TransportResponse {
+    private final HttpResponse response;
+
+    private GoogleResponse(HttpResponse response) {
+      this.response = response;
+    }
+
+    protected HttpResponse getHttpResponse() {
+      return response;
+    }
+
+    @Override
+    public int getStatusCode() {
+      return response.getStatusCode();
+    }
+
+    @Override
+    public String getStatusMessage() {
+      return response.getStatusMessage();
+    }
+
+    @Override
+    public String getHeader(String name) {
+      for (Map.Entry<String, Object> entry : response.getHeaders().entrySet()) {
+        if (name.equalsIgnoreCase(entry.getKey())) {
+          Object value = entry.getValue();
+          if (value instanceof Collection) {
+            Collection<?> values = (Collection<?>) value;
+            value = values.isEmpty() ? null : values.iterator().next();
+          }
+          return value != null ? value.toString() : null;
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+      return response.getContent();
+    }
+
+    @Override
+    public void close() throws IOException {
+      response.ignore();
+    }
+  }
+
+}
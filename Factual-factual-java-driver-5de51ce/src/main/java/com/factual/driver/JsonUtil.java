@@ -19,12 +19,14 @@ public class JsonUtil {
 
   /**
    * Takes a JSONArray of records, where each record is a dictionary, and
-   * returns the translated List of Maps.
+   * returns the translated List of Maps. The Maps share one dictionary of
+   * field names, and hold their values in arrays.
    */
   public static List<Map<String, Object>> data(JSONArray arr) throws JSONException {
-    List<Map<String, Object>> data = Lists.newArrayList();
+    List<Map<String, Object>> data = Lists.newArrayListWithCapacity(arr.length());
+    CompactRow.Fields fields = new CompactRow.Fields();
     for(int i=0; i<arr.length(); i++) {
-      data.add(row(arr.getJSONObject(i)));
+      data.add(row(arr.getJSONObject(i), fields));
     }
     return data;
   }
@@ -43,6 +45,16 @@ public class JsonUtil {
     return data;
   }
   
+  private static Map<String, Object> row(JSONObject jo, CompactRow.Fields fields) throws JSONException {
+    CompactRow row = new CompactRow(fields);
+    Iterator<?> iter = jo.keys();
+    while(iter.hasNext()) {
+      String key = iter.next().toString();
+      row.set(fields.add(key), jo.get(key));
+    }
+    return row;
+  }
+
   private static Map<String, Object> row(JSONObject jo) throws JSONException {
     Map<String, Object> row = Maps.newHashMap();
     Iterator<?> iter = jo.keys();
@@ -0,0 +1,30 @@
+package com.factual.driver;
+
+import java.util.Map;
+
+/**
+ * A {@link Filter} of the driver's own, which may be evaluated against result
+ * rows locally, without asking Factual. Filters implemented outside the
+ * driver are never evaluated locally.
+ */
+interface LocalFilter extends Filter {
+
+  /**
+   * Whether this filter can be evaluated against result rows locally, without
+   * asking Factual. Full text search, for example, cannot.
+   *
+   * @return true if {@link #matches(Map)} is supported by this filter
+   */
+  boolean isLocallyEvaluable();
+
+  /**
+   * Evaluates this filter against a single result row, as returned in
+   * {@link ReadResponse#getData()}.
+   *
+   * @param row the result row to evaluate against
+   * @return true if <tt>row</tt> satisfies this filter
+   * @throws UnsupportedOperationException if this filter is not locally
+   *           evaluable
+   */
+  boolean matches(Map<String, Object> row);
+}
@@ -0,0 +1,121 @@
+package com.factual.driver;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+
+import com.factual.driver.Factual.RequestImpl;
+
+/**
+ * Publishes the responses to reads queued with <tt>queueFetch</tt> as a
+ * Reactive Streams {@link Publisher}, sending them to Factual as multi
+ * requests of a batch of reads at a time. The next batch is only sent once the
+ * subscriber has requested more responses than are left of the current batch.
+ * Cancelling the subscription aborts the multi request in flight.
+ * <p>
+ * Takes over the reads queued when it is created, as
+ * {@link Factual#sendRequests()} would. Responses are published in the order
+ * their reads were queued, and each subscriber gets its own multi requests.
+ * The {@link Pending} responses <tt>queueFetch</tt> returned for those reads
+ * complete with the first subscription that sends them. When a subscription
+ * ends, by cancellation or error, before it has sent them all, those not yet
+ * sent fail with a {@link FactualApiException}. If the publisher is never
+ * subscribed to, its reads are never sent and their pending responses never
+ * complete; wait on them with a timeout, or subscribe.
+ * 
+ * <pre>
+ * factual.queueFetch(&quot;places&quot;, new Query().search(&quot;coffee&quot;));
+ * factual.queueFetch(&quot;places&quot;, new Query().search(&quot;tea&quot;));
+ * Publisher&lt;Response&gt; responses = new MultiPublisher(factual);
+ * </pre>
+ */
+public class MultiPublisher implements Publisher<Response> {
+  public static final int DEFAULT_BATCH_SIZE = 3;
+  private final Factual factual;
+  private final List<RequestImpl> requests;
+  private final ExecutorService executor;
+  private int batchSize = DEFAULT_BATCH_SIZE;
+
+
+  /**
+   * Constructor. Sends multi requests on a new
+   * {@link FactualExecutors#newVirtualThreadExecutor() virtual thread
+   * executor} per subscription.
+   * 
+   * @param factual
+   *          the Factual client whose queued reads to send.
+   */
+  public MultiPublisher(Factual factual) {
+    this(factual, null);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param executor
+   *          the executor to send multi requests on; it is not shut down.
+   */
+  public MultiPublisher(Factual factual, ExecutorService executor) {
+    this.factual = factual;
+    this.requests = factual.pollQueue();
+    this.executor = executor;
+  }
+
+  /**
+   * @param batchSize
+   *          the amount of reads to send per multi request. The default is 3.
+   * @return this MultiPublisher
+   */
+  public MultiPublisher batchSize(int batchSize) {
+    this.batchSize = batchSize;
+    return this;
+  }
+
+  @Override
+  public void subscribe(Subscriber<? super Response> subscriber) {
+    if (subscriber == null) {
+      throw new NullPointerException("subscriber");
+    }
+    ExecutorService exec = executor != null ? executor : FactualExecutors.newVirtualThreadExecutor();
+    subscriber.onSubscribe(new Batches(subscriber, exec, executor == null));
+  }
+
+  private class Batches extends DemandSubscription<Response> {
+    private final int size = batchSize;
+    private volatile int sent = 0;
+
+    private Batches(Subscriber<? super Response> subscriber,
+        ExecutorService executor, boolean ownsExecutor) {
+      super(subscriber, executor, ownsExecutor);
+    }
+
+    @Override
+    protected List<Response> readNext(Cancellation cancellation) {
+      if (sent >= requests.size()) {
+        return null;
+      }
+      List<RequestImpl> batch = requests.subList(sent, Math.min(sent + size, requests.size()));
+      sent += batch.size();
+      return factual.sendRequests(batch, cancellation).getData();
+    }
+
+    @Override
+    protected void ended() {
+      // reads in the batch in flight, if any, fail or complete with it
+      List<RequestImpl> unsent = requests.subList(Math.min(sent, requests.size()), requests.size());
+      if (unsent.isEmpty()) {
+        return;
+      }
+      FactualApiException cause = new FactualApiException(
+          "Read not sent; the MultiPublisher subscription ended first");
+      for (RequestImpl request : unsent) {
+        if (request.pending != null) {
+          request.pending.fail(cause);
+        }
+      }
+    }
+  }
+
+}
@@ -1,14 +1,22 @@
 package com.factual.driver;
 
+import java.util.AbstractList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import com.factual.driver.Factual.RequestImpl;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * Represents a Factual Multi response.
@@ -17,7 +25,13 @@ import com.google.common.collect.Lists;
  *
  */
 public class MultiResponse extends Response {
-	private String json = null;
+	/**
+	 * The body length from which responses are decoded in parallel.
+	 */
+	private static final int PARALLEL_DECODE_LENGTH = 32 * 1024;
+	private static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+	private ResponseBody body = null;
 	private List<Response> data = Lists.newArrayList();
 
 	private Map<String, RequestImpl> requestMapping = null;
@@ -30,30 +44,46 @@ public class MultiResponse extends Response {
 		this.requestMapping = requestMapping;
 	}
 
+	/**
+	 * Constructor, for responses decoded from another format than Factual's
+	 * JSON. The JSON representation is only built if asked for.
+	 * 
+	 * @param data the responses, in request order.
+	 */
+	MultiResponse(List<Response> data) {
+		this.data = data;
+	}
+
 	/**
 	 * Parses from a json response string
 	 * @param json json response string to parse from
 	 */
 	public void setJson(String json) {
-		this.json = json;
+		setBody(new ResponseBody(json));
+	}
+
+	/**
+	 * Parses from a response body. The body is scanned once, to find the
+	 * response to each request; each response is then decoded from its part
+	 * of the body when it is first accessed through {@link #getData()}.
+	 * @param body response body to parse from
+	 */
+	void setBody(ResponseBody body) {
+		this.body = body;
 		try {
-			JSONObject rootJsonObj = new JSONObject(json);
-			parseResponse(rootJsonObj);
+			Map<String, ResponseBody> members = body.members();
+			List<Part> parts = Lists.newArrayList();
+			for (Entry<String, RequestImpl> entry : requestMapping.entrySet()) {
+				ResponseBody member = members.get(entry.getKey());
+				if (member == null)
+					throw new JSONException("JSONObject[" + JSONObject.quote(entry.getKey()) + "] not found.");
+				parts.add(new Part(entry.getValue(), member));
+			}
+			data = new LazyResponses(parts);
 		} catch (JSONException e) {
 			throw new RuntimeException(e);
 		}
 	}
-	
-	private void parseResponse(JSONObject jo) throws JSONException {
-	   data.clear();
-	   for (Entry<String, RequestImpl> entry : requestMapping.entrySet()) {
-		   String responseJson = jo.getJSONObject(entry.getKey()).toString();
-		   RequestImpl query = entry.getValue();	
-		   Response resp = query.getResponse(responseJson);
-		   if (resp != null)
-			   data.add(resp);
-	   }
-	}
 
     /**
      * A collection of the responses returned by Factual for a multi query.
@@ -66,6 +96,114 @@ public class MultiResponse extends Response {
 
 	@Override
 	public String getJson() {
-		return json;
+		if (body == null && requestMapping == null) {
+			body = new ResponseBody(toJson());
+		}
+		return body != null ? body.toString() : null;
+	}
+
+	/**
+	 * The responses of a multi response, each decoded on first access. On
+	 * first access to any of them, the other responses that are large are
+	 * decoded in parallel, on other threads, as they are likely to be accessed
+	 * next.
+	 */
+	private static class LazyResponses extends AbstractList<Response> {
+		private final List<Part> parts;
+		private final AtomicBoolean accessed = new AtomicBoolean();
+
+		private LazyResponses(List<Part> parts) {
+			this.parts = parts;
+		}
+
+		@Override
+		public Response get(int index) {
+			Part part = parts.get(index);
+			if (!accessed.getAndSet(true) && PARALLELISM > 1) {
+				for (Part other : parts) {
+					if (other != part && other.body.length() >= PARALLEL_DECODE_LENGTH)
+						Decoders.EXECUTOR.execute(other.decode);
+				}
+			}
+			return part.get();
+		}
+
+		@Override
+		public Response set(int index, Response resp) {
+			Response previous = get(index);
+			parts.set(index, new Part(resp));
+			return previous;
+		}
+
+		@Override
+		public int size() {
+			return parts.size();
+		}
+	}
+
+	/**
+	 * The response to one request of a multi request, and its part of the
+	 * multi response body.
+	 */
+	private static class Part {
+		private final ResponseBody body;
+		private final FutureTask<Response> decode;
+
+		private Part(final RequestImpl request, ResponseBody body) {
+			this.body = body;
+			this.decode = new FutureTask<Response>(new Callable<Response>() {
+				@Override
+				public Response call() {
+					return request.getResponse(Part.this.body);
+				}
+			});
+		}
+
+		private Part(Response resp) {
+			this.body = null;
+			this.decode = new FutureTask<Response>(new Runnable() {
+				@Override
+				public void run() {
+				}
+			}, resp);
+			decode.run();
+		}
+
+		/**
+		 * @return the decoded response, decoding it on this thread unless
+		 *         another thread already is.
+		 */
+		private Response get() {
+			decode.run();
+			try {
+				return decode.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException)
+					throw (RuntimeException) e.getCause();
+				throw new RuntimeException(e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * Holds the threads large responses are decoded on, created on first use.
+	 */
+	private static class Decoders {
+		private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(PARALLELISM,
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("factual-decode-%d").build());
+	}
+
+	private String toJson() {
+		StringBuilder json = new StringBuilder("{");
+		for (int i = 0; i < data.size(); i++) {
+			if (i > 0) {
+				json.append(',');
+			}
+			json.append("\"q").append(i).append("\":").append(data.get(i).getJson());
+		}
+		return json.append('}').toString();
 	}
 }
@@ -1,13 +1,16 @@
 package com.factual.driver;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
 import com.google.common.base.Joiner;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 /**
  * Internal.  Holds a mapping between parameters and their values for serialization to a URL-encoded string.
@@ -32,6 +35,14 @@ public class Parameters {
 		return new Parameters(Maps.newHashMap(params));
 	}
 
+	/**
+	 * Sets parameter <tt>key</tt> to its value in <tt>other</tt>, if any.
+	 */
+	protected void copyParam(Parameters other, String key) {
+		if (other.containsParam(key))
+			params.put(key, other.getParam(key));
+	}
+
 	protected Object getParam(String key) {
 		return params.get(key);
 	}
@@ -52,10 +63,13 @@ public class Parameters {
 	/**
 	 * Set a parameter where the value will be serialized using value.toString()
 	 * @param key
-	 * @param value
+	 * @param value the value, or null to unset the parameter
 	 */
 	protected void setParam(String key, Object value) {
-		params.put(key, new SimpleData(value));
+		if (value == null)
+			params.remove(key);
+		else
+			params.put(key, new SimpleData(value));
 	}
 	
 	protected Map<String, Object> toUrlParams() {
@@ -88,6 +102,15 @@ public class Parameters {
 	    return ((CommaSeparatedData) getParam(key)).toArray(new String[]{});
 	}
 
+	/**
+	 * @return the map set with {@link #setJsonMapParam}, or null if none.
+	 */
+	protected Map<String, Object> getJsonMapParam(String key) {
+		if (!containsParam(key) || !(getParam(key) instanceof JsonData))
+			return null;
+		return ((JsonData<Map>) getParam(key)).getValue();
+	}
+
 	protected void setJsonMapParam(String key, String field, Object value) {
 		if (!containsParam(key) || !(getParam(key) instanceof JsonData))
 			setJsonParam(key, Maps.newHashMap());
@@ -106,6 +129,45 @@ public class Parameters {
 	    return null;
 	}
 	  
+	/**
+	 * Maps each field referenced by the row filters, at any level of nesting,
+	 * to the filter operators used on it. For example:
+	 * <pre>
+	 * {"name" : ["$bw", "$search"], "region" : ["$eq"]}
+	 * </pre>
+	 */
+	protected Map<String, Set<String>> getFilterFieldOps() {
+		Map<String, Set<String>> fieldOps = Maps.newHashMap();
+		List<Filter> filters = getFilterList();
+		if (filters != null) {
+			for (Filter filter : filters) {
+				collectFieldOps(filter.toJsonObject(), fieldOps);
+			}
+		}
+		return fieldOps;
+	}
+
+	private static void collectFieldOps(Object jsonObj, Map<String, Set<String>> fieldOps) {
+		if (jsonObj instanceof Map) {
+			for (Entry<?, ?> entry : ((Map<?, ?>) jsonObj).entrySet()) {
+				String key = String.valueOf(entry.getKey());
+				if (key.startsWith("$")) {
+					collectFieldOps(entry.getValue(), fieldOps);
+				} else {
+					if (!fieldOps.containsKey(key))
+						fieldOps.put(key, Sets.<String>newHashSet());
+					if (entry.getValue() instanceof Map)
+						for (Object op : ((Map<?, ?>) entry.getValue()).keySet())
+							fieldOps.get(key).add(String.valueOf(op));
+				}
+			}
+		} else if (jsonObj instanceof Collection) {
+			for (Object o : (Collection<?>) jsonObj) {
+				collectFieldOps(o, fieldOps);
+			}
+		}
+	}
+
 	/**
 	 * Pops the newest Filter from each of <tt>queries</tt>,
 	 * grouping each popped Filter into one new FilterGroup.
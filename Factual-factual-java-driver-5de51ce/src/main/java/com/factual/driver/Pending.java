@@ -0,0 +1,103 @@
+package com.factual.driver;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * The response to a read queued with <tt>queueFetch</tt>, which completes when
+ * the multi request it is sent in returns. The response is decoded from its
+ * part of the multi response on first access, on the accessing thread.
+ * <p>
+ * If the multi request fails, every read sent in it fails with the same cause.
+ * Cancelling a pending response only stops waiting for it; the read is still
+ * sent with the next multi request. A read taken over by a
+ * {@link MultiPublisher} completes only once a subscription sends it, and
+ * fails if the subscription ends before it is sent.
+ *
+ * <pre>
+ * Pending&lt;ReadResponse&gt; coffee = factual.queueFetch(&quot;places&quot;, new Query().search(&quot;coffee&quot;));
+ * Pending&lt;FacetResponse&gt; regions = factual.queueFetch(&quot;places&quot;, new FacetQuery(&quot;region&quot;));
+ * factual.sendRequests();
+ * ReadResponse resp = coffee.get();
+ * </pre>
+ *
+ * @param <T>
+ *          the type of response to the queued read.
+ */
+public class Pending<T extends Response> implements ListenableFuture<T> {
+  private final Class<T> type;
+  private final SettableFuture<List<Response>> batch = SettableFuture.create();
+  private final AtomicInteger index = new AtomicInteger(-1);
+
+  Pending(Class<T> type) {
+    this.type = type;
+  }
+
+  /**
+   * Completes this with the <tt>index</tt>th of the responses to a multi
+   * request, unless it is already done; a read sent twice keeps its first
+   * response.
+   */
+  void complete(List<Response> responses, int index) {
+    // the index is claimed before the responses are set, so it always
+    // belongs to the responses a get sees
+    if (this.index.compareAndSet(-1, index)) {
+      batch.set(responses);
+    }
+  }
+
+  /**
+   * Fails this with the cause the multi request failed with, unless it is
+   * already done.
+   */
+  void fail(Throwable cause) {
+    batch.setException(cause);
+  }
+
+  @Override
+  public T get() throws InterruptedException, ExecutionException {
+    return response(batch.get());
+  }
+
+  @Override
+  public T get(long timeout, TimeUnit unit) throws InterruptedException,
+      ExecutionException, TimeoutException {
+    return response(batch.get(timeout, unit));
+  }
+
+  private T response(List<Response> responses) throws ExecutionException {
+    try {
+      return type.cast(responses.get(index.get()));
+    } catch (RuntimeException e) {
+      throw new ExecutionException(e);
+    }
+  }
+
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    return batch.cancel(mayInterruptIfRunning);
+  }
+
+  @Override
+  public boolean isCancelled() {
+    return batch.isCancelled();
+  }
+
+  @Override
+  public boolean isDone() {
+    return batch.isDone();
+  }
+
+  @Override
+  public void addListener(Runnable listener, Executor executor) {
+    batch.addListener(listener, executor);
+  }
+
+}
@@ -24,6 +24,20 @@ public class Point {
 	    this.longitude = longitude;
 	  }
 
+	  /**
+	   * @return the latitude of this Point.
+	   */
+	  public double getLatitude() {
+	    return latitude;
+	  }
+
+	  /**
+	   * @return the longitude of this Point.
+	   */
+	  public double getLongitude() {
+	    return longitude;
+	  }
+
 	  /**
 	   * View this point as a json string representation
 	   * 
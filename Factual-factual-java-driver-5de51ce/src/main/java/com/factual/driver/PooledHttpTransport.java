@@ -0,0 +1,152 @@
+package com.factual.driver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+
+import com.google.common.collect.Lists;
+
+/**
+ * A {@link FactualTransport} for many concurrent requests, sending them over a
+ * small pool of persistent HTTP/1.1 connections with Apache HttpClient. Each
+ * connection is kept alive and reused by request after request, rather than
+ * opening a connection per request, and at most <tt>maxConnections</tt> are
+ * open at once; further concurrent requests wait for a free connection.
+ * <p>
+ * Share one instance between the {@link Factual} clients that talk to the same
+ * host, and {@link #shutdown()} it when done.
+ */
+public class PooledHttpTransport implements FactualTransport {
+  public static final int DEFAULT_MAX_CONNECTIONS = 8;
+  private final DefaultHttpClient client;
+
+
+  public PooledHttpTransport() {
+    this(DEFAULT_MAX_CONNECTIONS);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param maxConnections
+   *          the maximum amount of connections to keep open per host.
+   */
+  public PooledHttpTransport(int maxConnections) {
+    HttpParams params = new BasicHttpParams();
+    HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+    HttpConnectionParams.setTcpNoDelay(params, true);
+    ConnManagerParams.setMaxTotalConnections(params, maxConnections);
+    ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(maxConnections));
+    SchemeRegistry registry = new SchemeRegistry();
+    registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+    registry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
+    client = new DefaultHttpClient(new ThreadSafeClientConnManager(params, registry), params);
+  }
+
+  /**
+   * @return the underlying HttpClient, e.g. to tune its parameters.
+   */
+  public HttpClient getHttpClient() {
+    return client;
+  }
+
+  @Override
+  public TransportResponse execute(TransportRequest request) throws IOException {
+    HttpRequestBase req = null;
+    if ("POST".equals(request.getMethod())) {
+      HttpPost post = new HttpPost(request.getUrl());
+      if (request.getPostData() != null) {
+        List<NameValuePair> fields = Lists.newArrayList();
+        for (Map.Entry<String, String> field : request.getPostData().entrySet()) {
+          fields.add(new BasicNameValuePair(field.getKey(), field.getValue()));
+        }
+        post.setEntity(new UrlEncodedFormEntity(fields, "UTF-8"));
+      }
+      req = post;
+    } else {
+      req = new HttpGet(request.getUrl());
+    }
+    for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+      req.setHeader(header.getKey(), header.getValue());
+    }
+    final HttpRequestBase abortable = req;
+    // aborting shuts down the connection, whether sending or reading the body
+    request.onAbort(new Runnable() {
+      @Override
+      public void run() {
+        abortable.abort();
+      }
+    });
+    return new PooledResponse(client.execute(req));
+  }
+
+  @Override
+  public void shutdown() {
+    client.getConnectionManager().shutdown();
+  }
+
+  private static class PooledResponse implements TransportResponse {
+    private final HttpResponse response;
+
+    private PooledResponse(HttpResponse response) {
+      this.response = response;
+    }
+
+    @Override
+    public int getStatusCode() {
+      return response.getStatusLine().getStatusCode();
+    }
+
+    @Override
+    public String getStatusMessage() {
+      return response.getStatusLine().getReasonPhrase();
+    }
+
+    @Override
+    public String getHeader(String name) {
+      Header header = response.getFirstHeader(name);
+      return header != null ? header.getValue() : null;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+      HttpEntity entity = response.getEntity();
+      return entity != null ? entity.getContent() : null;
+    }
+
+    @Override
+    public void close() throws IOException {
+      HttpEntity entity = response.getEntity();
+      if (entity != null) {
+        // reads out the rest of the body, returning the connection to the pool
+        entity.consumeContent();
+      }
+    }
+  }
+
+}
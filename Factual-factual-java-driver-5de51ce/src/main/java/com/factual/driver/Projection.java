@@ -0,0 +1,143 @@
+package com.factual.driver;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
+
+/**
+ * Tells a decoder which parts of a JSON response to build. Members and array
+ * elements a Projection leaves out are skipped token by token while parsing,
+ * and never materialized.
+ */
+abstract class Projection {
+
+  /**
+   * Builds every value.
+   */
+  static final Projection ALL = new Projection() {
+    @Override
+    Projection member(String name) {
+      return this;
+    }
+
+    @Override
+    Projection element() {
+      return this;
+    }
+  };
+
+
+  /**
+   * @return the projection of the value of member <tt>name</tt> of an
+   *         object, or null to skip that member.
+   */
+  abstract Projection member(String name);
+
+  /**
+   * @return the projection of each element of an array.
+   */
+  abstract Projection element();
+
+  /**
+   * Builds only <tt>fields</tt> of each result row of a response, plus
+   * fields computed by Factual such as <tt>$distance</tt>. The envelope of the
+   * response is built in full.
+   *
+   * @param fields
+   *          the fields to build, or null to build all fields.
+   */
+  static Projection rows(Set<String> fields) {
+    if (fields == null) {
+      return ALL;
+    }
+    final SortedSet<String> kept = ImmutableSortedSet.copyOf(fields);
+    final Projection row = new Projection() {
+      @Override
+      Projection member(String name) {
+        return kept.contains(name) || name.startsWith("$") ? ALL : null;
+      }
+
+      @Override
+      Projection element() {
+        return ALL;
+      }
+    };
+    final Projection data = new Projection() {
+      @Override
+      Projection member(String name) {
+        // an object of rows keyed by name, as geopulse reads may return
+        return row.member(name);
+      }
+
+      @Override
+      Projection element() {
+        return row;
+      }
+    };
+    final Projection response = new Projection() {
+      @Override
+      Projection member(String name) {
+        return Constants.QUERY_DATA.equals(name) ? data : ALL;
+      }
+
+      @Override
+      Projection element() {
+        return ALL;
+      }
+    };
+    return new Projection() {
+      @Override
+      Projection member(String name) {
+        return Constants.RESPONSE.equals(name) ? response : ALL;
+      }
+
+      @Override
+      Projection element() {
+        return ALL;
+      }
+
+      @Override
+      String key() {
+        return "#fields=" + Joiner.on(',').join(kept);
+      }
+    };
+  }
+
+  /**
+   * Builds each member of an object with its own projection, such as each
+   * response of a multi response.
+   *
+   * @param members
+   *          the projection of each member; members not in this map are
+   *          built in full.
+   */
+  static Projection members(Map<String, Projection> members) {
+    final Map<String, Projection> projections = ImmutableMap.copyOf(members);
+    return new Projection() {
+      @Override
+      Projection member(String name) {
+        Projection projection = projections.get(name);
+        return projection != null ? projection : ALL;
+      }
+
+      @Override
+      Projection element() {
+        return ALL;
+      }
+    };
+  }
+
+  /**
+   * @return a key distinguishing responses decoded with this projection from
+   *         responses to the same request decoded otherwise; empty for
+   *         {@link #ALL}.
+   */
+  String key() {
+    return "";
+  }
+
+}
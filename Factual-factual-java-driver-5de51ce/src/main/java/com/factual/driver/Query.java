@@ -2,8 +2,14 @@ package com.factual.driver;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+
+import org.json.JSONObject;
+
+import com.google.common.collect.Sets;
 
 /**
  * Represents a top level Factual query. Knows how to represent the query as URL
@@ -15,11 +21,108 @@ import java.util.Map;
 public class Query implements Filterable {
 
   private boolean includeRowCount;
+  private Set<String> projection;
 
   /**
    * Holds all parameters for this Query.
    */
-  protected final Parameters queryParams = new Parameters();
+  protected final Parameters queryParams;
+
+  /**
+   * Constructor.
+   */
+  public Query() {
+    this(new Parameters());
+  }
+
+  private Query(Parameters queryParams) {
+    this.queryParams = queryParams;
+  }
+
+  /**
+   * Copies this Query. The copy shares this Query's row filters, so it is
+   * meant for varying other parameters, such as geo, limit and offset.
+   * 
+   * @return a copy of this Query.
+   */
+  protected Query copy() {
+    Query copy = new Query(queryParams.copy()).includeRowCount(includeRowCount);
+    if (projection != null) {
+      copy.projection = Sets.newLinkedHashSet(projection);
+    }
+    return copy;
+  }
+
+  /**
+   * Copies this Query along with its own list of row filters, so that filters
+   * added to the copy leave this Query unchanged.
+   * 
+   * @return a copy of this Query.
+   */
+  protected Query copyWithFilters() {
+    Query copy = copy();
+    copy.queryParams.setParam(Constants.FILTERS, null);
+    List<Filter> filters = getFilterList();
+    if (filters != null) {
+      for (Filter filter : filters) {
+        copy.add(filter);
+      }
+    }
+    return copy;
+  }
+
+  /**
+   * Copies this Query for one page of keyset paging: at most <tt>limit</tt>
+   * rows, in ascending order of <tt>keyField</tt>, from after the row whose
+   * key is <tt>lastKey</tt>. Unlike a page at an offset, each page costs the
+   * same however deep it is. <tt>keyField</tt> is selected and projected
+   * along with the fields this Query selects or projects, if any; the offset
+   * of this Query is left out.
+   * 
+   * @param lastKey
+   *          the key of the last row of the previous page, or null for the
+   *          first page.
+   * @throws IllegalStateException
+   *           if this Query sorts, as keyset pages must be sorted by their key
+   *           alone.
+   */
+  protected Query keysetPage(String keyField, Object lastKey, long limit) {
+    if (!getSortFields().isEmpty()) {
+      throw new IllegalStateException("Keyset paging sorts by " + keyField + ", but the query sorts by "
+          + getSortFields());
+    }
+    Query page = copyWithFilters().sortAsc(keyField).limit(limit).offset(0);
+    String[] select = getSelectFields();
+    if (select != null && !Arrays.asList(select).contains(keyField)) {
+      // the copy shares the list of selected fields, so it gets its own
+      page.queryParams.setParam(Constants.QUERY_SELECT, null);
+      page.only(select).only(keyField);
+    }
+    if (projection != null) {
+      page.project(keyField);
+    }
+    if (lastKey != null) {
+      page.field(keyField).greaterThan(lastKey);
+    }
+    return page;
+  }
+
+  /**
+   * @return the key of the last of <tt>rows</tt>, to read the keyset page
+   *         after them with; null if there are none.
+   * @throws IllegalStateException
+   *           if the last row has no key.
+   */
+  protected static Object lastKey(List<Map<String, Object>> rows, String keyField) {
+    if (rows.isEmpty()) {
+      return null;
+    }
+    Object key = rows.get(rows.size() - 1).get(keyField);
+    if (key == null || JSONObject.NULL.equals(key)) {
+      throw new IllegalStateException("Cannot page after a row without " + keyField);
+    }
+    return key;
+  }
 
   /**
    * Sets a full text search query. Factual will use this value to perform a
@@ -67,6 +170,61 @@ public class Query implements Filterable {
     return queryParams.getCommaSeparatedParam(Constants.QUERY_SELECT);
   }
 
+  /**
+   * Sets the only fields of each result row to decode. Unlike {@link #only},
+   * this does not change what is read from Factual: the other fields are
+   * still sent, but are skipped while the response is parsed rather than
+   * built. Fields computed by Factual, such as <tt>$distance</tt>, are always
+   * decoded.
+   * <p>
+   * Without a projection, the fields set by {@link #only} are decoded.
+   * 
+   * @param fields
+   *          the fields to decode.
+   * @return this Query
+   */
+  public Query project(String... fields) {
+    if (projection == null) {
+      projection = Sets.newLinkedHashSet();
+    }
+    projection.addAll(Arrays.asList(fields));
+    return this;
+  }
+
+  /**
+   * @return the fields set by project(), null if none.
+   */
+  public String[] getProjectedFields() {
+    return projection != null ? projection.toArray(new String[projection.size()]) : null;
+  }
+
+  /**
+   * @return the fields of each result row that are decoded: the projected
+   *         fields, else the selected fields; null for all fields.
+   */
+  protected Set<String> getDecodedFields() {
+    if (projection != null) {
+      return projection;
+    }
+    String[] select = getSelectFields();
+    return select != null ? Sets.newHashSet(select) : null;
+  }
+
+  /**
+   * @return the fields this Query sorts on, in no particular order; empty if
+   *         none.
+   */
+  public Set<String> getSortFields() {
+    Set<String> fields = Sets.newHashSet();
+    String[] sorts = queryParams.getCommaSeparatedParam(Constants.QUERY_SORT);
+    if (sorts != null) {
+      for (String sort : sorts) {
+        fields.add(sort.substring(0, sort.lastIndexOf(':')));
+      }
+    }
+    return fields;
+  }
+
   /**
    * Sets this Query to sort field in ascending order.
    * 
@@ -204,6 +362,129 @@ public class Query implements Filterable {
     return this;
   }
 
+  /**
+   * Evaluates this Query's row filters against a single result row, locally.
+   * Top level filters are implicitly AND'ed together, as they are by Factual.
+   * 
+   * @param row a result row, as returned in {@link ReadResponse#getData()}.
+   * @return true if <tt>row</tt> satisfies every row filter of this Query.
+   * @throws UnsupportedOperationException if a filter of this Query is not
+   *           locally evaluable.
+   */
+  public boolean matches(Map<String, Object> row) {
+    List<Filter> filters = getFilterList();
+    if (filters != null) {
+      for (Filter filter : filters) {
+        if (!(filter instanceof LocalFilter)) {
+          throw new UnsupportedOperationException("Cannot evaluate " + filter.toJsonStr() + " locally");
+        }
+        if (!((LocalFilter) filter).matches(row)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return true if every row filter of this Query can be evaluated locally;
+   *         filters implemented outside the driver cannot.
+   */
+  public boolean isLocallyEvaluable() {
+    List<Filter> filters = getFilterList();
+    if (filters != null) {
+      for (Filter filter : filters) {
+        if (!(filter instanceof LocalFilter) || !((LocalFilter) filter).isLocallyEvaluable()) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the fields referenced by this Query's row filters.
+   */
+  protected Set<String> getFilterFields() {
+    return queryParams.getFilterFieldOps().keySet();
+  }
+
+  /**
+   * @return the fields referenced by this Query's row filters, mapped to the
+   *         filter operators used on each.
+   */
+  protected Map<String, Set<String>> getFilterFieldOps() {
+    return queryParams.getFilterFieldOps();
+  }
+
+  /**
+   * @return true if this Query has a full text search.
+   */
+  protected boolean hasSearch() {
+    return queryParams.containsParam(Constants.SEARCH);
+  }
+
+  /**
+   * @return true if this Query has a geo filter.
+   */
+  protected boolean hasGeo() {
+    return queryParams.containsParam(Constants.FILTER_GEO);
+  }
+
+  /**
+   * @return the limit set on this Query, or 0 if none.
+   */
+  protected long getLimit() {
+    return longParam(Constants.QUERY_LIMIT);
+  }
+
+  /**
+   * @return the offset set on this Query, or 0 if none.
+   */
+  protected long getOffset() {
+    return longParam(Constants.QUERY_OFFSET);
+  }
+
+  protected boolean isIncludeRowCount() {
+    return includeRowCount;
+  }
+
+  private long longParam(String key) {
+    Object val = queryParams.getParam(key);
+    if (val == null) {
+      return 0;
+    }
+    return Long.parseLong(val.toString());
+  }
+
+  /**
+   * @return the JSON representation of each top level row filter of this
+   *         Query.
+   */
+  protected Set<String> getFilterJsonStrs() {
+    Set<String> jsonStrs = Sets.newHashSet();
+    List<Filter> filters = getFilterList();
+    if (filters != null) {
+      for (Filter filter : filters) {
+        jsonStrs.add(filter.toJsonStr());
+      }
+    }
+    return jsonStrs;
+  }
+
+  /**
+   * @return the url parameters of this Query that shape a result set other
+   *         than its row filters, paging and row count; e.g., full text
+   *         search, geo, sort and select.
+   */
+  protected Map<String, Object> toShapeParams() {
+    Map<String, Object> params = queryParams.toUrlParams();
+    params.remove(Constants.FILTERS);
+    params.remove(Constants.QUERY_LIMIT);
+    params.remove(Constants.QUERY_OFFSET);
+    return params;
+  }
+
   /**
    * Builds and returns the query string to represent this Query when talking to
    * Factual's API. Provides proper URL encoding and escaping.
@@ -0,0 +1,190 @@
+package com.factual.driver;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * Caches read responses by table and Query. Besides exact hits, answers a
+ * Query locally when it only narrows a cached Query whose cached response is
+ * known to hold every matching row. For example, once the rows for
+ * <tt>field("region").equal("CA")</tt> are cached,
+ * <tt>field("region").equal("CA").field("category").beginsWith("Food")</tt>
+ * is answered by evaluating the extra filter against the cached rows.
+ * <p>
+ * A cached Query can answer a narrower Query when they have the same full text
+ * search, geo, sort, select and projected fields, every row filter of the cached
+ * Query is also a top level row filter of the narrower Query, and all row
+ * filters of the narrower Query can be evaluated locally. A cached response is
+ * complete when it was read from offset 0 and either its total row count
+ * matches its included rows, or it returned fewer rows than its limit.
+ * <p>
+ * Local evaluation compares values as described at {@link FieldFilter#matches(Map)}.
+ */
+public class QueryCache {
+  private final Map<String, Entry> entries;
+  // not synchronized: a virtual thread blocked on a monitor pins its carrier
+  private final Lock lock = new ReentrantLock();
+
+
+  /**
+   * Constructor.
+   *
+   * @param maxEntries
+   *          the maximum amount of responses to hold. The least recently used
+   *          response is evicted first.
+   */
+  @SuppressWarnings("serial")
+  public QueryCache(final int maxEntries) {
+    entries = new LinkedHashMap<String, QueryCache.Entry>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, QueryCache.Entry> eldest) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  /**
+   * Caches <tt>resp</tt> as the response of running <tt>query</tt> against
+   * <tt>tableName</tt>.
+   */
+  public void put(String tableName, Query query, ReadResponse resp) {
+    lock.lock();
+    try {
+      entries.put(key(tableName, query), new Entry(tableName, query, resp));
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Answers <tt>query</tt> from the cache, either from an exact hit or from a
+   * complete cached response of a broader Query.
+   *
+   * @return the cached or locally derived response, or null if <tt>query</tt>
+   *         cannot be answered from the cache.
+   */
+  public ReadResponse get(String tableName, Query query) {
+    Entry broader = null;
+    lock.lock();
+    try {
+      Entry exact = entries.get(key(tableName, query));
+      if (exact != null) {
+        return exact.resp;
+      }
+      if (!query.isLocallyEvaluable()) {
+        return null;
+      }
+      Map<String, Object> shape = query.toShapeParams();
+      Set<String> filters = query.getFilterJsonStrs();
+      for (Entry entry : entries.values()) {
+        if (entry.canAnswer(tableName, shape, filters, query)) {
+          broader = entry;
+          break;
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+    return broader != null ? broader.answer(query) : null;
+  }
+
+  /**
+   * Removes all cached responses.
+   */
+  public void clear() {
+    lock.lock();
+    try {
+      entries.clear();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the amount of cached responses.
+   */
+  public int size() {
+    lock.lock();
+    try {
+      return entries.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private static String key(String tableName, Query query) {
+    return tableName + "?" + query.toUrlQuery() + Projection.rows(query.getDecodedFields()).key();
+  }
+
+  /**
+   * @return the fields projected by <tt>query</tt>, or null if none.
+   */
+  private static Set<String> projection(Query query) {
+    String[] fields = query.getProjectedFields();
+    return fields != null ? Sets.newHashSet(fields) : null;
+  }
+
+  private static class Entry {
+    private final String tableName;
+    private final Map<String, Object> shape;
+    private final Set<String> filters;
+    private final String[] selectFields;
+    private final Set<String> projection;
+    private final ReadResponse resp;
+    private final boolean complete;
+
+    private Entry(String tableName, Query query, ReadResponse resp) {
+      this.tableName = tableName;
+      this.shape = query.toShapeParams();
+      this.filters = query.getFilterJsonStrs();
+      this.selectFields = query.getSelectFields();
+      this.projection = projection(query);
+      this.resp = resp;
+      this.complete = query.getOffset() == 0
+          && ((resp.getTotalRowCount() != Response.UNDEFINED && resp.getTotalRowCount() <= resp.size())
+              || (query.getLimit() > 0 && resp.size() < query.getLimit()));
+    }
+
+    private boolean canAnswer(String tableName, Map<String, Object> shape,
+        Set<String> filters, Query query) {
+      if (!complete || !this.tableName.equals(tableName)
+          || !this.shape.equals(shape) || !filters.containsAll(this.filters)
+          || !Objects.equal(projection, projection(query))) {
+        return false;
+      }
+      if (projection != null && !projection.containsAll(query.getFilterFields())) {
+        return false;
+      }
+      if (selectFields != null) {
+        return Sets.newHashSet(selectFields).containsAll(query.getFilterFields());
+      }
+      return true;
+    }
+
+    private ReadResponse answer(Query query) {
+      long offset = query.getOffset();
+      long limit = query.getLimit();
+      List<Map<String, Object>> rows = Lists.newArrayList();
+      int matched = 0;
+      for (Map<String, Object> row : resp.getData()) {
+        if (query.matches(row)) {
+          if (matched >= offset && (limit <= 0 || rows.size() < limit)) {
+            rows.add(row);
+          }
+          matched++;
+        }
+      }
+      return new ReadResponse(resp, rows,
+          query.isIncludeRowCount() ? matched : Response.UNDEFINED);
+    }
+  }
+
+}
@@ -0,0 +1,310 @@
+package com.factual.driver;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Publishes the rows of a read query as a Reactive Streams
+ * {@link Publisher}, reading them from Factual a page at a time. The next page
+ * is only read once the subscriber has requested more rows than are left of
+ * the current page, so at most one page is held in memory however many rows
+ * the query yields. Cancelling the subscription aborts the read in flight.
+ * <p>
+ * Pages are read from the query's offset on, until a page comes back short or
+ * the query's limit, if any, is reached. Each subscriber gets its own reads.
+ * Deep reads should page by key instead, with {@link #keysetPaging(String)};
+ * reads of a known size can read several pages at once, with
+ * {@link #parallelism(int)}.
+ * 
+ * <pre>
+ * Publisher&lt;Map&lt;String, Object&gt;&gt; rows = new QueryPublisher(factual, &quot;places&quot;,
+ *     new Query().field(&quot;region&quot;).equal(&quot;CA&quot;));
+ * </pre>
+ */
+public class QueryPublisher implements Publisher<Map<String, Object>> {
+  public static final int DEFAULT_PAGE_SIZE = 50;
+  private final Factual factual;
+  private final String tableName;
+  private final Query query;
+  private final ExecutorService executor;
+  private int pageSize = DEFAULT_PAGE_SIZE;
+  private String keyField;
+  private int parallelism = 1;
+  private int pagesPerRequest = 1;
+
+
+  /**
+   * Constructor. Reads pages on a new
+   * {@link FactualExecutors#newVirtualThreadExecutor() virtual thread
+   * executor} per subscription.
+   * 
+   * @param factual
+   *          the Factual client to read with.
+   * @param tableName
+   *          the name of the table to read from.
+   * @param query
+   *          the read query to page through. Its limit and offset are set per
+   *          page.
+   */
+  public QueryPublisher(Factual factual, String tableName, Query query) {
+    this(factual, tableName, query, null);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param executor
+   *          the executor to read pages on; it is not shut down.
+   */
+  public QueryPublisher(Factual factual, String tableName, Query query,
+      ExecutorService executor) {
+    this.factual = factual;
+    this.tableName = tableName;
+    this.query = query;
+    this.executor = executor;
+  }
+
+  /**
+   * @param pageSize
+   *          the limit of each read. The default is 50.
+   * @return this QueryPublisher
+   */
+  public QueryPublisher pageSize(int pageSize) {
+    this.pageSize = pageSize;
+    return this;
+  }
+
+  /**
+   * Pages by key rather than by offset: rows are read in ascending order of
+   * <tt>keyField</tt>, a field unique to each row such as
+   * <tt>factual_id</tt>, and each page after the first is filtered to keys
+   * greater than the last key read. Each page then costs Factual the same
+   * however deep it is, and the reads are not limited by Factual's maximum
+   * offset. The query must not sort, and its offset is left out.
+   * 
+   * @return this QueryPublisher
+   */
+  public QueryPublisher keysetPaging(String keyField) {
+    this.keyField = keyField;
+    return this;
+  }
+
+  /**
+   * Reads up to <tt>parallelism</tt> requests of pages at once. The first
+   * page is read with the total row count, which gives the offset of every
+   * other page up front; the pages that follow are then read a window at a
+   * time, and their rows are published in order. A window of pages is held
+   * in memory at most. Does not apply with keyset paging, where each page
+   * depends on the one before.
+   *
+   * @param parallelism
+   *          the amount of requests in flight at once. The default is 1, to
+   *          read one page after the other.
+   * @return this QueryPublisher
+   */
+  public QueryPublisher parallelism(int parallelism) {
+    this.parallelism = Math.max(1, parallelism);
+    return this;
+  }
+
+  /**
+   * Packs the pages read at once into multi requests, so that fewer round
+   * trips read the same pages. Applies as {@link #parallelism(int)} does.
+   *
+   * @param pagesPerRequest
+   *          the amount of pages per multi request. The default is 1, for a
+   *          plain read per page.
+   * @return this QueryPublisher
+   */
+  public QueryPublisher pagesPerRequest(int pagesPerRequest) {
+    this.pagesPerRequest = Math.max(1, pagesPerRequest);
+    return this;
+  }
+
+  @Override
+  public void subscribe(Subscriber<? super Map<String, Object>> subscriber) {
+    if (subscriber == null) {
+      throw new NullPointerException("subscriber");
+    }
+    ExecutorService exec = executor != null ? executor : FactualExecutors.newVirtualThreadExecutor();
+    subscriber.onSubscribe(new Pages(subscriber, exec, executor == null));
+  }
+
+  private class Pages extends DemandSubscription<Map<String, Object>> {
+    private final int size = pageSize;
+    private final long limit = query.getLimit();
+    private final String key = keyField;
+    private final int parallel = parallelism;
+    private final int packed = pagesPerRequest;
+    private long offset = query.getOffset();
+    private Object lastKey = null;
+    private long read = 0;
+    private boolean done = false;
+    private long end = -1;
+    private volatile ExecutorService pageExecutor;
+
+    private Pages(Subscriber<? super Map<String, Object>> subscriber,
+        ExecutorService executor, boolean ownsExecutor) {
+      super(subscriber, executor, ownsExecutor);
+    }
+
+    @Override
+    protected List<Map<String, Object>> readNext(Cancellation cancellation) {
+      if (done) {
+        return null;
+      }
+      if (key == null && (parallel > 1 || packed > 1)) {
+        try {
+          List<Map<String, Object>> rows = end < 0 ? readFirst(cancellation) : readWindow(cancellation);
+          if (done && pageExecutor != null) {
+            pageExecutor.shutdown();
+          }
+          return done && rows.isEmpty() ? null : rows;
+        } catch (RuntimeException e) {
+          if (pageExecutor != null) {
+            pageExecutor.shutdownNow();
+          }
+          throw e;
+        }
+      }
+      long pageLimit = limit > 0 ? Math.min(size, limit - read) : size;
+      Query page = key != null ? query.keysetPage(key, lastKey, pageLimit)
+          : query.copy().offset(offset).limit(pageLimit);
+      List<Map<String, Object>> rows = factual.fetch(tableName, page, cancellation).getData();
+      if (key != null) {
+        lastKey = Query.lastKey(rows, key);
+      }
+      offset += rows.size();
+      read += rows.size();
+      done = rows.size() < pageLimit || (limit > 0 && read >= limit);
+      return done && rows.isEmpty() ? null : rows;
+    }
+
+    /**
+     * Stops the threads reading pages in parallel; once cancelled, their reads
+     * have been aborted.
+     */
+    @Override
+    protected void ended() {
+      ExecutorService pages = pageExecutor;
+      if (pages != null) {
+        pages.shutdown();
+      }
+    }
+
+    /**
+     * Reads the first page along with the total row count, which gives the
+     * offset past the last row to read.
+     */
+    private List<Map<String, Object>> readFirst(Cancellation cancellation) {
+      end = limit > 0 ? offset + limit : Long.MAX_VALUE;
+      Query page = query.copy().offset(offset).limit(Math.min(size, end - offset)).includeRowCount();
+      ReadResponse first = factual.fetch(tableName, page, cancellation);
+      if (first.getTotalRowCount() != Response.UNDEFINED) {
+        end = Math.min(end, first.getTotalRowCount());
+      }
+      return advance(first.getData(), page.getLimit());
+    }
+
+    /**
+     * Reads the next <tt>parallel</tt> times <tt>packed</tt> pages at once.
+     *
+     * @return the rows of those pages, in order.
+     */
+    private List<Map<String, Object>> readWindow(final Cancellation cancellation) {
+      List<Query> pages = Lists.newArrayList();
+      for (long at = offset; at < end && pages.size() < parallel * packed; at += size) {
+        pages.add(query.copy().offset(at).limit(Math.min(size, end - at)));
+      }
+      if (pageExecutor == null) {
+        pageExecutor = FactualExecutors.newVirtualThreadExecutor();
+      }
+      List<Future<List<ReadResponse>>> requests = Lists.newArrayList();
+      for (int i = 0; i < pages.size(); i += packed) {
+        final List<Query> request = pages.subList(i, Math.min(i + packed, pages.size()));
+        requests.add(pageExecutor.submit(new Callable<List<ReadResponse>>() {
+          @Override
+          public List<ReadResponse> call() {
+            return read(request, cancellation);
+          }
+        }));
+      }
+      List<Map<String, Object>> rows = Lists.newArrayList();
+      int page = 0;
+      for (Future<List<ReadResponse>> request : requests) {
+        for (ReadResponse resp : get(request)) {
+          if (!done) {
+            rows.addAll(advance(resp.getData(), pages.get(page).getLimit()));
+          }
+          page++;
+        }
+      }
+      return rows;
+    }
+
+    /**
+     * Reads <tt>pages</tt> as one request: a plain read for one page, a
+     * multi request for more.
+     */
+    private List<ReadResponse> read(List<Query> pages, Cancellation cancellation) {
+      if (pages.size() == 1) {
+        return Collections.singletonList(factual.fetch(tableName, pages.get(0), cancellation));
+      }
+      Batch batch = factual.newBatch();
+      List<Pending<ReadResponse>> pending = Lists.newArrayList();
+      for (Query page : pages) {
+        pending.add(batch.queueFetch(tableName, page));
+      }
+      factual.sendRequests(batch.poll(), cancellation);
+      List<ReadResponse> responses = Lists.newArrayList();
+      for (Pending<ReadResponse> resp : pending) {
+        responses.add(get(resp));
+      }
+      return responses;
+    }
+
+    /**
+     * Counts the <tt>rows</tt> of a page of <tt>pageLimit</tt>; a short page,
+     * or reaching the end, ends the reads.
+     *
+     * @return <tt>rows</tt>
+     */
+    private List<Map<String, Object>> advance(List<Map<String, Object>> rows, long pageLimit) {
+      offset += rows.size();
+      read += rows.size();
+      done = rows.size() < pageLimit || offset >= end;
+      return rows;
+    }
+  }
+
+  /**
+   * @return the result of <tt>future</tt>, waiting for it.
+   * @throws RuntimeException
+   *           what the future failed with, wrapped unless it is a
+   *           RuntimeException itself.
+   */
+  private static <T> T get(Future<T> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+}
@@ -5,7 +5,7 @@ import org.json.JSONObject;
 
 public class RawReadResponse extends Response {
   
-	private final String json;
+	private final ResponseBody body;
 
   /**
    * Constructor, parses from a JSON response String.
@@ -13,9 +13,18 @@ public class RawReadResponse extends Response {
    * @param json the JSON response String returned by Factual.
    */
   public RawReadResponse(String json) {
-    this.json = json;
+    this(new ResponseBody(json));
+  }
+
+  /**
+   * Constructor, parses from a response body.
+   * 
+   * @param body the response body returned by Factual.
+   */
+  RawReadResponse(ResponseBody body) {
+    this.body = body;
     try{
-      JSONObject rootJsonObj = new JSONObject(json);
+      JSONObject rootJsonObj = body.toJsonObject();
       Response.withMeta(this, rootJsonObj);
     } catch (JSONException e) {
       throw new RuntimeException(e);
@@ -24,7 +33,7 @@ public class RawReadResponse extends Response {
 
   @Override
   public String getJson() {
-	return json;
+	return body.toString();
   }
 
 }
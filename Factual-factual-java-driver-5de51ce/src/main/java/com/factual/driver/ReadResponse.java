@@ -4,6 +4,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -20,7 +21,7 @@ import com.google.common.collect.Lists;
  * @author aaron
  */
 public class ReadResponse extends Response implements Tabular {
-  private final String json;
+  private ResponseBody body;
   private List<Map<String, Object>> data = Lists.newArrayList();
 
 
@@ -30,9 +31,29 @@ public class ReadResponse extends Response implements Tabular {
    * @param json the JSON response String returned by Factual.
    */
   public ReadResponse(String json) {
-    this.json = json;
+    this(new ResponseBody(json));
+  }
+
+  /**
+   * Constructor, parses from a response body.
+   * 
+   * @param body the response body returned by Factual.
+   */
+  ReadResponse(ResponseBody body) {
+    this(body, Projection.ALL);
+  }
+
+  /**
+   * Constructor, parses the rows of a response body, building only the fields
+   * <tt>projection</tt> keeps.
+   * 
+   * @param body the response body returned by Factual.
+   * @param projection the parts of <tt>body</tt> to build.
+   */
+  ReadResponse(ResponseBody body, Projection projection) {
+    this.body = body;
     try{
-      JSONObject rootJsonObj = new JSONObject(json);
+      JSONObject rootJsonObj = body.toJsonObject(projection);
       Response.withMeta(this, rootJsonObj);
       data = JsonUtil.data(rootJsonObj.getJSONObject(Constants.RESPONSE).getJSONArray(Constants.QUERY_DATA));
     } catch (JSONException e) {
@@ -40,12 +61,61 @@ public class ReadResponse extends Response implements Tabular {
     }
   }
 
+  /**
+   * Constructor, derives a response locally from the rows of another
+   * response. The JSON representation is only built if asked for.
+   * 
+   * @param source the response <tt>data</tt> was taken from.
+   * @param data the rows of this response.
+   * @param totalRowCount the total row count, or {@link #UNDEFINED}.
+   */
+  protected ReadResponse(Response source, List<Map<String, Object>> data, int totalRowCount) {
+    this.data = data;
+    Response.withMeta(this, source, totalRowCount, data.size());
+  }
+
+  /**
+   * Constructor, for rows decoded from another format than Factual's JSON.
+   * The metadata is set by the decoder, and the JSON representation is only
+   * built if asked for.
+   * 
+   * @param data the rows of this response.
+   */
+  ReadResponse(List<Map<String, Object>> data) {
+    this.data = data;
+  }
+
   /**
    * @return The full JSON response from Factual
    */
   @Override
   public String getJson() {
-    return json;
+    if (body == null) {
+      body = new ResponseBody(toJson());
+    }
+    return body.toString();
+  }
+
+  private String toJson() {
+    try {
+      JSONArray rows = new JSONArray();
+      for (Map<String, Object> row : data) {
+        rows.put(new JSONObject(row));
+      }
+      JSONObject respObj = new JSONObject();
+      respObj.put(Constants.QUERY_DATA, rows);
+      respObj.put(Constants.INCLUDED_ROWS, size());
+      if (getTotalRowCount() != UNDEFINED) {
+        respObj.put(Constants.TOTAL_ROW_COUNT, getTotalRowCount());
+      }
+      JSONObject rootJsonObj = new JSONObject();
+      rootJsonObj.put(Constants.VERSION, getVersion());
+      rootJsonObj.put(Constants.STATUS, getStatus());
+      rootJsonObj.put(Constants.RESPONSE, respObj);
+      return rootJsonObj.toString();
+    } catch (JSONException e) {
+      throw new RuntimeException(e);
+    }
   }
 
   /**
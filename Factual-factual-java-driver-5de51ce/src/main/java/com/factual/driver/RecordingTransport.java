@@ -0,0 +1,138 @@
+package com.factual.driver;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * A {@link FactualTransport} that sends requests through another transport,
+ * and appends each request with its response and latency to a log, which a
+ * {@link ReplayTransport} can serve back offline.
+ * <p>
+ * Each response body is read whole before it is returned, so its latency
+ * covers the entire exchange. Appending a record is a single write, so a log
+ * stays readable up to its last whole record if the process dies while
+ * recording. Requests that fail without a response are not recorded.
+ *
+ * @see Factual#record(File)
+ */
+public class RecordingTransport implements FactualTransport, Closeable {
+  private final FactualTransport transport;
+  private final FileOutputStream log;
+  private final long start = System.nanoTime();
+  private final AtomicLong recordCount = new AtomicLong();
+  // guards appends and close, which block on the disk
+  private final Lock lock = new ReentrantLock();
+  private volatile boolean closed = false;
+
+
+  /**
+   * Constructor.
+   *
+   * @param transport
+   *          the transport to send requests through.
+   * @param log
+   *          the log to record to. An existing log is appended to.
+   */
+  public RecordingTransport(FactualTransport transport, File log) throws IOException {
+    this.transport = transport;
+    this.log = new FileOutputStream(log, true);
+    try {
+      if (log.length() == 0) {
+        DataOutputStream out = new DataOutputStream(this.log);
+        out.writeInt(TrafficLog.MAGIC);
+        out.flush();
+      }
+    } catch (IOException e) {
+      this.log.close();
+      throw e;
+    }
+  }
+
+  @Override
+  public TransportResponse execute(TransportRequest request) throws IOException {
+    long begin = System.nanoTime();
+    TransportResponse response = transport.execute(request);
+    if (closed) {
+      return response;
+    }
+    byte[] body = null;
+    try {
+      InputStream content = response.getContent();
+      if (content != null) {
+        body = ByteStreams.toByteArray(content);
+      }
+    } finally {
+      response.close();
+    }
+    long latency = System.nanoTime() - begin;
+
+    Map<String, String> headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+    for (String name : TrafficLog.HEADERS) {
+      String value = response.getHeader(name);
+      if (value != null) {
+        headers.put(name, value);
+      }
+    }
+    TrafficLog.Exchange exchange = new TrafficLog.Exchange(request.getMethod(),
+        TrafficLog.target(request.getUrl()), request.getPostData(),
+        begin - start, latency, response.getStatusCode(),
+        response.getStatusMessage(), headers, body);
+    append(exchange.encode());
+    return exchange.toResponse();
+  }
+
+  private void append(byte[] record) throws IOException {
+    lock.lock();
+    try {
+      if (!closed) {
+        log.write(record);
+        recordCount.incrementAndGet();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the amount of exchanges recorded so far.
+   */
+  public long getRecordCount() {
+    return recordCount.get();
+  }
+
+  /**
+   * Stops recording and closes the log. Requests are still sent afterwards,
+   * but no longer recorded.
+   */
+  @Override
+  public void close() throws IOException {
+    lock.lock();
+    try {
+      closed = true;
+      log.close();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Closes the log, and shuts down the transport requests are sent through.
+   */
+  @Override
+  public void shutdown() throws IOException {
+    close();
+    transport.shutdown();
+  }
+
+}
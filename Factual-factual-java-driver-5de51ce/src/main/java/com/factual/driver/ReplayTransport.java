@@ -0,0 +1,196 @@
+package com.factual.driver;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * A {@link FactualTransport} that answers requests from a log recorded by a
+ * {@link RecordingTransport}, without a network, for repeatable benchmarks of
+ * a workload on an offline machine.
+ * <p>
+ * Requests are matched to recorded ones by method, URL path and query, and
+ * form fields; parameter order, the host and OAuth signatures may differ. A
+ * request recorded several times is answered with its recorded responses in
+ * turn, starting over once all are used. Each response is held back for its
+ * recorded latency, divided by the {@link #speed(double) speed}. A request that
+ * was not recorded is answered with a 404.
+ */
+public class ReplayTransport implements FactualTransport {
+  private static final int HTTP_NOT_FOUND = 404;
+  private final Map<String, Replies> replies = Maps.newHashMap();
+  private final int exchangeCount;
+  private final long recordedNanos;
+  private final AtomicLong missCount = new AtomicLong();
+  private volatile double speed = 1;
+
+
+  /**
+   * Constructor. Reads the whole log into memory.
+   *
+   * @param log
+   *          a log written by a {@link RecordingTransport}.
+   */
+  public ReplayTransport(File log) throws IOException {
+    Map<String, List<TrafficLog.Exchange>> exchanges = Maps.newHashMap();
+    int count = 0;
+    long first = Long.MAX_VALUE;
+    long last = Long.MIN_VALUE;
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(log)));
+    try {
+      if (in.readInt() != TrafficLog.MAGIC) {
+        throw new IOException("Not a Factual traffic log: " + log);
+      }
+      byte[] record;
+      while ((record = readRecord(in)) != null) {
+        TrafficLog.Exchange exchange = TrafficLog.Exchange.decode(record);
+        List<TrafficLog.Exchange> list = exchanges.get(exchange.key());
+        if (list == null) {
+          list = Lists.newArrayList();
+          exchanges.put(exchange.key(), list);
+        }
+        list.add(exchange);
+        count++;
+        first = Math.min(first, exchange.offset);
+        last = Math.max(last, exchange.offset + exchange.latency);
+      }
+    } finally {
+      in.close();
+    }
+    for (Map.Entry<String, List<TrafficLog.Exchange>> entry : exchanges.entrySet()) {
+      replies.put(entry.getKey(), new Replies(entry.getValue()));
+    }
+    exchangeCount = count;
+    recordedNanos = count > 0 ? last - first : 0;
+  }
+
+  /**
+   * @return the next record, or null at the end of the log, or at a torn
+   *         record ending it.
+   */
+  private static byte[] readRecord(DataInputStream in) throws IOException {
+    try {
+      byte[] record = new byte[in.readInt()];
+      in.readFully(record);
+      return record;
+    } catch (EOFException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Sets how fast to replay responses, relative to their recorded latency: 1,
+   * the default, replays them as fast as they were recorded, 10 ten times
+   * faster. Use {@link Double#POSITIVE_INFINITY} to answer at once.
+   */
+  public ReplayTransport speed(double speed) {
+    if (!(speed > 0)) {
+      throw new IllegalArgumentException("Speed must be positive: " + speed);
+    }
+    this.speed = speed;
+    return this;
+  }
+
+  @Override
+  public TransportResponse execute(TransportRequest request) throws IOException {
+    String key = TrafficLog.key(request.getMethod(),
+        TrafficLog.target(request.getUrl()), request.getPostData());
+    Replies recorded = replies.get(key);
+    if (recorded == null) {
+      missCount.incrementAndGet();
+      return new TrafficLog.Exchange(request.getMethod(), key, null, 0, 0,
+          HTTP_NOT_FOUND, "Not Recorded", Maps.<String, String> newHashMap(),
+          ("No recorded response to " + key).getBytes(Charsets.UTF_8)).toResponse();
+    }
+    TrafficLog.Exchange exchange = recorded.next();
+    await(request, (long) (exchange.latency / speed));
+    return exchange.toResponse();
+  }
+
+  /**
+   * Waits <tt>nanos</tt>, or until <tt>request</tt> is aborted.
+   */
+  private static void await(TransportRequest request, long nanos) throws IOException {
+    if (nanos > 0) {
+      final CountDownLatch aborted = new CountDownLatch(1);
+      request.onAbort(new Runnable() {
+        @Override
+        public void run() {
+          aborted.countDown();
+        }
+      });
+      try {
+        aborted.await(nanos, TimeUnit.NANOSECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while replaying a response");
+      } finally {
+        request.onAbort(null);
+      }
+    }
+    if (request.isAborted()) {
+      throw new IOException("Request aborted");
+    }
+  }
+
+  /**
+   * @return the amount of exchanges in the log.
+   */
+  public int getExchangeCount() {
+    return exchangeCount;
+  }
+
+  /**
+   * @return the time the recording took, in nanoseconds, from the first
+   *         request recorded to the last response, for comparison with the
+   *         time a replay takes.
+   */
+  public long getRecordedNanos() {
+    return recordedNanos;
+  }
+
+  /**
+   * @return the amount of requests that had no recorded response.
+   */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /**
+   * Nothing to release; the log is read whole on construction.
+   */
+  @Override
+  public void shutdown() {}
+
+  /**
+   * The recorded responses to one request, handed out in turn.
+   */
+  private static class Replies {
+    private final TrafficLog.Exchange[] exchanges;
+    private final AtomicInteger next = new AtomicInteger();
+
+    private Replies(List<TrafficLog.Exchange> exchanges) {
+      this.exchanges = exchanges.toArray(new TrafficLog.Exchange[exchanges.size()]);
+    }
+
+    private TrafficLog.Exchange next() {
+      int i = next.getAndIncrement() & Integer.MAX_VALUE;
+      return exchanges[i % exchanges.length];
+    }
+  }
+
+}
@@ -0,0 +1,238 @@
+package com.factual.driver;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Caches resolve responses by a normalized fingerprint of the values resolved,
+ * so that variants of the same entity share one resolve call. Values are
+ * compared by their tokens, ignoring case, whitespace and punctuation; phone
+ * numbers by their digits; and coordinates rounded to a few decimals. For
+ * example, <tt>"Starbucks, Inc."</tt> at <tt>"(310) 555-1234"</tt> and
+ * <tt>"STARBUCKS INC"</tt> at <tt>"+1 310.555.1234"</tt> share a cached
+ * response. See {@link Factual#setResolveCache(ResolveCache)}.
+ * <p>
+ * Responses with a resolved match and responses without one are held for
+ * separate times, as an unresolved entity is more likely to be resolvable
+ * soon. Keeps counts of hits and misses.
+ */
+public class ResolveCache {
+  public static final int DEFAULT_COORDINATE_DECIMALS = 4;
+  private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+  private static final Pattern NON_DIGITS = Pattern.compile("[^0-9]+");
+  private final Map<String, Entry> entries;
+  private final Lock lock = new ReentrantLock();
+  private final long resolvedMillis;
+  private final long unresolvedMillis;
+  private int coordinateDecimals = DEFAULT_COORDINATE_DECIMALS;
+  private final AtomicLong resolvedHits = new AtomicLong();
+  private final AtomicLong unresolvedHits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+
+  /**
+   * Constructor.
+   *
+   * @param maxEntries
+   *          the maximum amount of responses to hold. The least recently used
+   *          response is evicted first.
+   * @param resolvedTtl
+   *          how long to hold a response that resolved its entity.
+   * @param unresolvedTtl
+   *          how long to hold a response that did not.
+   * @param unit
+   *          the unit of <tt>resolvedTtl</tt> and <tt>unresolvedTtl</tt>.
+   */
+  @SuppressWarnings("serial")
+  public ResolveCache(final int maxEntries, long resolvedTtl, long unresolvedTtl, TimeUnit unit) {
+    entries = new LinkedHashMap<String, ResolveCache.Entry>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, ResolveCache.Entry> eldest) {
+        return size() > maxEntries;
+      }
+    };
+    this.resolvedMillis = unit.toMillis(resolvedTtl);
+    this.unresolvedMillis = unit.toMillis(unresolvedTtl);
+  }
+
+  /**
+   * @param coordinateDecimals
+   *          the amount of decimals latitudes and longitudes are rounded to.
+   *          The default of 4 puts points within about 10 meters together.
+   * @return this ResolveCache
+   */
+  public ResolveCache coordinateDecimals(int coordinateDecimals) {
+    this.coordinateDecimals = coordinateDecimals;
+    return this;
+  }
+
+  /**
+   * @return the cached response to resolving <tt>query</tt>, or to a query
+   *         with the same fingerprint, within <tt>tableName</tt>; null if
+   *         none is cached or it expired.
+   */
+  public ReadResponse get(String tableName, ResolveQuery query) {
+    String key = tableName + "|" + fingerprint(query);
+    Entry entry;
+    lock.lock();
+    try {
+      entry = entries.get(key);
+      if (entry != null && now() >= entry.expiresAt) {
+        entries.remove(key);
+        entry = null;
+      }
+    } finally {
+      lock.unlock();
+    }
+    if (entry == null) {
+      misses.incrementAndGet();
+      return null;
+    }
+    (entry.resolved ? resolvedHits : unresolvedHits).incrementAndGet();
+    return entry.resp;
+  }
+
+  /**
+   * Caches <tt>resp</tt> as the response of resolving <tt>query</tt> within
+   * <tt>tableName</tt>.
+   */
+  public void put(String tableName, ResolveQuery query, ReadResponse resp) {
+    Map<String, Object> first = resp.first();
+    boolean resolved = first != null && Boolean.TRUE.equals(first.get("resolved"));
+    Entry entry = new Entry(resp, resolved, now() + (resolved ? resolvedMillis : unresolvedMillis));
+    lock.lock();
+    try {
+      entries.put(tableName + "|" + fingerprint(query), entry);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Removes all cached responses.
+   */
+  public void clear() {
+    lock.lock();
+    try {
+      entries.clear();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the amount of cached responses, including expired ones not yet
+   *         evicted.
+   */
+  public int size() {
+    lock.lock();
+    try {
+      return entries.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the amount of resolves answered from the cache.
+   */
+  public long getHitCount() {
+    return resolvedHits.get() + unresolvedHits.get();
+  }
+
+  /**
+   * @return the amount of resolves answered from the cache with a response
+   *         that did not resolve its entity.
+   */
+  public long getUnresolvedHitCount() {
+    return unresolvedHits.get();
+  }
+
+  /**
+   * @return the amount of resolves that were not cached.
+   */
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  /**
+   * @return the share of resolves answered from the cache, from 0 to 1; 0 if
+   *         there were none yet.
+   */
+  public double getHitRate() {
+    long hits = getHitCount();
+    long total = hits + misses.get();
+    return total > 0 ? (double) hits / total : 0;
+  }
+
+  /**
+   * @return the current time, in milliseconds.
+   */
+  protected long now() {
+    return System.currentTimeMillis();
+  }
+
+  /**
+   * @return the normalized values of <tt>query</tt>, by field name, as one
+   *         string; equal for queries that only differ in formatting.
+   */
+  protected String fingerprint(ResolveQuery query) {
+    SortedMap<String, String> normalized = Maps.newTreeMap();
+    for (Map.Entry<String, Object> value : query.getValues().entrySet()) {
+      String field = value.getKey().toLowerCase(Locale.US);
+      String norm = normalize(field, value.getValue());
+      if (norm.length() > 0) {
+        normalized.put(field, norm);
+      }
+    }
+    StringBuilder fingerprint = new StringBuilder();
+    for (Map.Entry<String, String> value : normalized.entrySet()) {
+      fingerprint.append(value.getKey()).append('=').append(value.getValue()).append('\n');
+    }
+    return fingerprint.toString();
+  }
+
+  private String normalize(String field, Object value) {
+    if (value == null) {
+      return "";
+    }
+    if ("latitude".equals(field) || "longitude".equals(field)) {
+      try {
+        return new BigDecimal(value.toString().trim())
+            .setScale(coordinateDecimals, RoundingMode.HALF_UP).toPlainString();
+      } catch (NumberFormatException e) {
+        // not a number; compared as text
+      }
+    }
+    if ("tel".equals(field) || "fax".equals(field) || field.endsWith("phone")) {
+      String digits = NON_DIGITS.matcher(value.toString()).replaceAll("");
+      // drop the North American country code
+      return digits.length() == 11 && digits.charAt(0) == '1' ? digits.substring(1) : digits;
+    }
+    return SEPARATORS.matcher(value.toString().toLowerCase(Locale.US)).replaceAll(" ").trim();
+  }
+
+  private static class Entry {
+    private final ReadResponse resp;
+    private final boolean resolved;
+    private final long expiresAt;
+
+    private Entry(ReadResponse resp, boolean resolved, long expiresAt) {
+      this.resp = resp;
+      this.resolved = resolved;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+}
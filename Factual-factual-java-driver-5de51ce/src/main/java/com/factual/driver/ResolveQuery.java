@@ -1,5 +1,6 @@
 package com.factual.driver;
 
+import java.util.Collections;
 import java.util.Map;
 
 
@@ -15,6 +16,14 @@ public class ResolveQuery {
 		return this;
 	}
 	
+	/**
+	 * @return the values to resolve, by field name.
+	 */
+	protected Map<String, Object> getValues() {
+		Map<String, Object> values = queryParams.getJsonMapParam(Constants.RESOLVE_VALUES);
+		return values != null ? Collections.unmodifiableMap(values) : Collections.<String, Object> emptyMap();
+	}
+
     protected Map<String, Object> toUrlParams() {
 		return queryParams.toUrlParams();
 	}
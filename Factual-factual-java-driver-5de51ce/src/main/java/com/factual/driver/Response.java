@@ -81,6 +81,31 @@ public abstract class Response {
     }
   }
 
+  /**
+   * Copies response metadata from <tt>source</tt> to <tt>resp</tt>, for
+   * responses that are derived locally rather than parsed from Factual.
+   * 
+   * @param resp the response object to which to add metadata.
+   * @param source the response from which <tt>resp</tt> was derived.
+   * @param totalRowCount the total row count of <tt>resp</tt>, or {@link #UNDEFINED}.
+   * @param includedRows the amount of result rows in <tt>resp</tt>.
+   */
+  protected static void withMeta(Response resp, Response source, int totalRowCount, int includedRows) {
+    withMeta(resp, source.version, source.status, totalRowCount, includedRows);
+  }
+
+  /**
+   * Sets the response metadata of <tt>resp</tt>, for responses that are
+   * decoded from another format than Factual's JSON.
+   */
+  protected static void withMeta(Response resp, String version, String status,
+      int totalRowCount, int includedRows) {
+    resp.version = version;
+    resp.status = status;
+    resp.totalRowCount = totalRowCount;
+    resp.includedRows = includedRows;
+  }
+
   @Override
   public String toString() {
     return getJson();
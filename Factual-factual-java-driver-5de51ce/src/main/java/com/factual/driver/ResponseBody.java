@@ -0,0 +1,272 @@
+package com.factual.driver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * The JSON body of a response from Factual.
+ * <p>
+ * A body read from the network is held as the UTF-8 bytes Factual sent, and
+ * parsed straight from those bytes. It is only decoded to a String when
+ * {@link #toString()} is asked for, e.g. by {@link Response#getJson()}.
+ */
+public final class ResponseBody {
+  private static final JsonFactory JSON = new JsonFactory();
+
+  private final byte[] bytes;
+  private final int offset;
+  private final int count;
+  private volatile String json;
+
+
+  /**
+   * Constructor, for a body that is already decoded.
+   *
+   * @param json the JSON body.
+   */
+  public ResponseBody(String json) {
+    this.bytes = null;
+    this.offset = 0;
+    this.count = json.length();
+    this.json = json;
+  }
+
+  private ResponseBody(byte[] bytes) {
+    this(bytes, 0, bytes.length);
+  }
+
+  private ResponseBody(byte[] bytes, int offset, int count) {
+    this.bytes = bytes;
+    this.offset = offset;
+    this.count = count;
+  }
+
+  /**
+   * Reads <tt>in</tt> to its end, through buffers taken from
+   * <tt>pool</tt>.
+   *
+   * @param in
+   *          the UTF-8 encoded body.
+   * @param expectedLength
+   *          the length <tt>in</tt> announced, e.g. by a
+   *          <tt>Content-Length</tt> header, or -1 if unknown. When it is
+   *          right, the body is read into an exactly sized array and not
+   *          copied.
+   */
+  static ResponseBody read(InputStream in, int expectedLength, BufferPool pool)
+      throws IOException {
+    boolean exact = expectedLength > 0;
+    byte[] buffer = exact ? new byte[expectedLength] : pool.take();
+    List<byte[]> full = Lists.newArrayList();
+    int filled = 0;
+    int total = 0;
+    try {
+      while (true) {
+        if (filled == buffer.length) {
+          if (exact && full.isEmpty()) {
+            int next = in.read();
+            if (next < 0) {
+              return new ResponseBody(buffer);
+            }
+            // longer than announced; fall back to pooled buffers
+            full.add(buffer);
+            buffer = pool.take();
+            buffer[0] = (byte) next;
+            filled = 1;
+            total++;
+            continue;
+          }
+          full.add(buffer);
+          buffer = pool.take();
+          filled = 0;
+        }
+        int n = in.read(buffer, filled, buffer.length - filled);
+        if (n < 0) {
+          break;
+        }
+        filled += n;
+        total += n;
+      }
+      byte[] bytes = new byte[total];
+      int pos = 0;
+      for (byte[] b : full) {
+        System.arraycopy(b, 0, bytes, pos, b.length);
+        pos += b.length;
+      }
+      System.arraycopy(buffer, 0, bytes, pos, filled);
+      return new ResponseBody(bytes);
+    } finally {
+      for (int i = exact ? 1 : 0; i < full.size(); i++) {
+        pool.give(full.get(i));
+      }
+      if (!exact || !full.isEmpty()) {
+        pool.give(buffer);
+      }
+    }
+  }
+
+  /**
+   * @return the size of this body: its amount of bytes when read from the
+   *         network, otherwise its amount of characters.
+   */
+  public int length() {
+    return count;
+  }
+
+  /**
+   * Parses this body.
+   *
+   * @return the top level JSON object of this body, with values as
+   *         <tt>new JSONObject(toString())</tt> would hold them.
+   */
+  public JSONObject toJsonObject() throws JSONException {
+    return toJsonObject(Projection.ALL);
+  }
+
+  /**
+   * Parses the parts of this body that <tt>projection</tt> keeps, skipping
+   * all others.
+   */
+  JSONObject toJsonObject(Projection projection) throws JSONException {
+    JsonParser parser = null;
+    try {
+      parser = parser();
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new JSONException("A JSONObject text must begin with '{'");
+      }
+      return (JSONObject) value(parser, projection);
+    } catch (IOException e) {
+      throw new JSONException(e);
+    } finally {
+      close(parser);
+    }
+  }
+
+  /**
+   * Finds the members of the top level object of this body in one pass,
+   * without decoding them.
+   *
+   * @return the body of each member, by name, in body order. Byte bodies
+   *         share the bytes of this body.
+   * @throws JSONException
+   *           if this body is not an object of objects.
+   */
+  Map<String, ResponseBody> members() throws JSONException {
+    Map<String, ResponseBody> members = Maps.newLinkedHashMap();
+    JsonParser parser = null;
+    try {
+      parser = parser();
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new JSONException("A JSONObject text must begin with '{'");
+      }
+      while (parser.nextToken() != JsonToken.END_OBJECT) {
+        String name = parser.getCurrentName();
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+          throw new JSONException("JSONObject[" + JSONObject.quote(name) + "] is not a JSONObject.");
+        }
+        // the location of the last character read: here the opening brace,
+        // and after skipping, the closing one
+        int start = (int) parser.getCurrentLocation().getCharOffset();
+        parser.skipChildren();
+        int end = (int) parser.getCurrentLocation().getCharOffset() + 1;
+        members.put(name, bytes != null ? new ResponseBody(bytes, start, end - start)
+            : new ResponseBody(json.substring(start, end)));
+      }
+      return members;
+    } catch (IOException e) {
+      throw new JSONException(e);
+    } finally {
+      close(parser);
+    }
+  }
+
+  private JsonParser parser() throws IOException {
+    return bytes != null ? JSON.createJsonParser(bytes, offset, count) : JSON.createJsonParser(json);
+  }
+
+  private static void close(JsonParser parser) {
+    if (parser != null) {
+      try {
+        parser.close();
+      } catch (IOException e) {
+        // nothing to release for in-memory input
+      }
+    }
+  }
+
+  private static Object value(JsonParser parser, Projection projection)
+      throws IOException, JSONException {
+    switch (parser.getCurrentToken()) {
+    case START_OBJECT:
+      JSONObject obj = new JSONObject();
+      while (parser.nextToken() != JsonToken.END_OBJECT) {
+        String name = parser.getCurrentName();
+        Projection member = projection.member(name);
+        parser.nextToken();
+        if (member == null) {
+          // skips nested values; scalar values are never decoded
+          parser.skipChildren();
+        } else {
+          obj.put(name, value(parser, member));
+        }
+      }
+      return obj;
+    case START_ARRAY:
+      JSONArray arr = new JSONArray();
+      Projection element = projection.element();
+      while (parser.nextToken() != JsonToken.END_ARRAY) {
+        arr.put(value(parser, element));
+      }
+      return arr;
+    case VALUE_STRING:
+      return parser.getText();
+    case VALUE_NUMBER_INT:
+      switch (parser.getNumberType()) {
+      case INT:
+        return parser.getIntValue();
+      case LONG:
+        return parser.getLongValue();
+      default:
+        // as org.json does for integers beyond a long
+        return parser.getDoubleValue();
+      }
+    case VALUE_NUMBER_FLOAT:
+      return parser.getDoubleValue();
+    case VALUE_TRUE:
+      return Boolean.TRUE;
+    case VALUE_FALSE:
+      return Boolean.FALSE;
+    case VALUE_NULL:
+      return JSONObject.NULL;
+    default:
+      throw new JSONException("Unexpected " + parser.getCurrentToken());
+    }
+  }
+
+  /**
+   * @return this body as a String, decoding it on first use.
+   */
+  @Override
+  public String toString() {
+    String s = json;
+    if (s == null) {
+      s = new String(bytes, offset, count, Charsets.UTF_8);
+      json = s;
+    }
+    return s;
+  }
+
+}
@@ -0,0 +1,536 @@
+package com.factual.driver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Encodes responses in a compact binary format, for caching them or handing
+ * them between processes without paying for a JSON parse on every load.
+ * Supports {@link ReadResponse}, {@link FacetResponse}, {@link SchemaResponse}
+ * and {@link MultiResponse} of those.
+ * <p>
+ * Each encoded response is a frame of a 4 byte magic number, a format
+ * version byte, and the 4 byte length of the payload that follows, so that
+ * frames can be written back to back on a stream. Within a payload, field
+ * names and string values are written once and referred to by index after
+ * that; numbers are written as variable length integers or 8 byte doubles.
+ * <p>
+ * Decoded responses hold the same data and metadata as the encoded ones,
+ * with the same value types. Their JSON representation is rebuilt from that
+ * data if asked for, so it may differ from Factual's original JSON in
+ * formatting and member order.
+ */
+public final class ResponseCodec {
+  private static final int MAGIC = 0x46435442; // "FCTB"
+  private static final int FORMAT_VERSION = 1;
+  private static final int HEADER_SIZE = 9;
+
+  private static final byte READ = 'R';
+  private static final byte FACET = 'F';
+  private static final byte SCHEMA = 'S';
+  private static final byte MULTI = 'M';
+
+  private static final byte NULL = 0;
+  private static final byte JSON_NULL = 1;
+  private static final byte FALSE = 2;
+  private static final byte TRUE = 3;
+  private static final byte INT = 4;
+  private static final byte LONG = 5;
+  private static final byte DOUBLE = 6;
+  private static final byte STRING = 7;
+  private static final byte OBJECT = 8;
+  private static final byte ARRAY = 9;
+
+  private ResponseCodec() {}
+
+  /**
+   * @return <tt>resp</tt> encoded as one frame.
+   * @throws IllegalArgumentException
+   *           if <tt>resp</tt>, or a value it holds, cannot be encoded.
+   */
+  public static byte[] encode(Response resp) {
+    Encoder encoder = new Encoder();
+    encoder.int32(MAGIC);
+    encoder.byte8(FORMAT_VERSION);
+    encoder.int32(0);
+    encoder.response(resp);
+    encoder.length(5, encoder.size - HEADER_SIZE);
+    return Arrays.copyOf(encoder.buf, encoder.size);
+  }
+
+  /**
+   * Writes <tt>resp</tt> to <tt>out</tt> as one frame.
+   *
+   * @throws IllegalArgumentException
+   *           if <tt>resp</tt>, or a value it holds, cannot be encoded.
+   */
+  public static void write(Response resp, OutputStream out) throws IOException {
+    out.write(encode(resp));
+  }
+
+  /**
+   * @return the response encoded in <tt>frame</tt>.
+   * @throws IllegalArgumentException
+   *           if <tt>frame</tt> is not an encoded response.
+   */
+  public static Response decode(byte[] frame) {
+    if (frame.length < HEADER_SIZE) {
+      throw new IllegalArgumentException("Not an encoded response: too short");
+    }
+    Decoder header = new Decoder(frame, 0, HEADER_SIZE);
+    int length = header(header);
+    if (length != frame.length - HEADER_SIZE) {
+      throw new IllegalArgumentException("Not an encoded response: payload of "
+          + (frame.length - HEADER_SIZE) + " bytes, expected " + length);
+    }
+    return payload(new Decoder(frame, HEADER_SIZE, frame.length));
+  }
+
+  /**
+   * Reads the next frame from <tt>in</tt>.
+   *
+   * @return the response read, or null if <tt>in</tt> ended before a frame.
+   * @throws IOException
+   *           if reading fails, or <tt>in</tt> does not hold an encoded
+   *           response.
+   */
+  public static Response read(InputStream in) throws IOException {
+    byte[] head = new byte[HEADER_SIZE];
+    int first = in.read(head);
+    if (first < 0) {
+      return null;
+    }
+    ByteStreams.readFully(in, head, first, HEADER_SIZE - first);
+    int length;
+    try {
+      length = header(new Decoder(head, 0, HEADER_SIZE));
+    } catch (IllegalArgumentException e) {
+      throw new IOException(e.getMessage());
+    }
+    byte[] payload = new byte[length];
+    ByteStreams.readFully(in, payload);
+    try {
+      return payload(new Decoder(payload, 0, length));
+    } catch (IllegalArgumentException e) {
+      throw new IOException(e.getMessage());
+    }
+  }
+
+  /**
+   * @return the payload length announced by a frame header.
+   */
+  private static int header(Decoder header) {
+    if (header.int32() != MAGIC) {
+      throw new IllegalArgumentException("Not an encoded response: bad magic number");
+    }
+    int version = header.byte8();
+    if (version != FORMAT_VERSION) {
+      throw new IllegalArgumentException("Unsupported format version " + version);
+    }
+    int length = header.int32();
+    if (length < 0) {
+      throw new IllegalArgumentException("Not an encoded response: negative length");
+    }
+    return length;
+  }
+
+  private static Response payload(Decoder decoder) {
+    try {
+      Response resp = decoder.response();
+      if (decoder.pos != decoder.end) {
+        throw new IllegalArgumentException("Not an encoded response: trailing bytes");
+      }
+      return resp;
+    } catch (ArrayIndexOutOfBoundsException e) {
+      throw new IllegalArgumentException("Not an encoded response: truncated", e);
+    } catch (JSONException e) {
+      throw new IllegalArgumentException("Not an encoded response", e);
+    }
+  }
+
+  /**
+   * Writes one payload, with its own string dictionary.
+   */
+  private static class Encoder {
+    private final Map<String, Integer> strings = Maps.newHashMap();
+    private byte[] buf = new byte[1024];
+    private int size;
+
+    private void ensure(int n) {
+      if (size + n > buf.length) {
+        buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + n));
+      }
+    }
+
+    private void byte8(int b) {
+      ensure(1);
+      buf[size++] = (byte) b;
+    }
+
+    private void int32(int v) {
+      ensure(4);
+      buf[size++] = (byte) (v >>> 24);
+      buf[size++] = (byte) (v >>> 16);
+      buf[size++] = (byte) (v >>> 8);
+      buf[size++] = (byte) v;
+    }
+
+    private void length(int at, int v) {
+      int end = size;
+      size = at;
+      int32(v);
+      size = end;
+    }
+
+    private void varint(long v) {
+      ensure(10);
+      while ((v & ~0x7FL) != 0) {
+        buf[size++] = (byte) ((v & 0x7F) | 0x80);
+        v >>>= 7;
+      }
+      buf[size++] = (byte) v;
+    }
+
+    private void zigzag(long v) {
+      varint((v << 1) ^ (v >> 63));
+    }
+
+    /**
+     * Writes null as 0, a string seen before as 2 plus its index, and a new
+     * string as 1 followed by its length and UTF-8 bytes.
+     */
+    private void string(String s) {
+      if (s == null) {
+        varint(0);
+        return;
+      }
+      Integer index = strings.get(s);
+      if (index != null) {
+        varint(index + 2L);
+        return;
+      }
+      strings.put(s, strings.size());
+      byte[] bytes = s.getBytes(Charsets.UTF_8);
+      varint(1);
+      varint(bytes.length);
+      ensure(bytes.length);
+      System.arraycopy(bytes, 0, buf, size, bytes.length);
+      size += bytes.length;
+    }
+
+    private void response(Response resp) {
+      if (resp instanceof ReadResponse) {
+        ReadResponse read = (ReadResponse) resp;
+        byte8(READ);
+        meta(resp);
+        rows(read.getData());
+      } else if (resp instanceof FacetResponse) {
+        FacetResponse facet = (FacetResponse) resp;
+        byte8(FACET);
+        meta(resp);
+        varint(facet.getData().size());
+        for (Map.Entry<String, Map<String, Object>> e : facet.getData().entrySet()) {
+          string(e.getKey());
+          value(e.getValue());
+        }
+      } else if (resp instanceof SchemaResponse) {
+        SchemaResponse schema = (SchemaResponse) resp;
+        byte8(SCHEMA);
+        meta(resp);
+        string(schema.getTitle());
+        string(schema.getDescription());
+        byte8(schema.isSearchEnabled() ? TRUE : FALSE);
+        byte8(schema.isGeoEnabled() ? TRUE : FALSE);
+        rows(schema.getData());
+      } else if (resp instanceof MultiResponse) {
+        MultiResponse multi = (MultiResponse) resp;
+        byte8(MULTI);
+        varint(multi.getData().size());
+        for (Response sub : multi.getData()) {
+          response(sub);
+        }
+      } else {
+        throw new IllegalArgumentException("Cannot encode "
+            + (resp == null ? "null" : resp.getClass().getSimpleName()));
+      }
+    }
+
+    private void meta(Response resp) {
+      string(resp.getVersion());
+      string(resp.getStatus());
+      zigzag(resp.getTotalRowCount());
+      zigzag(resp.getIncludedRowCount());
+    }
+
+    private void rows(List<Map<String, Object>> rows) {
+      varint(rows.size());
+      for (Map<String, Object> row : rows) {
+        value(row);
+      }
+    }
+
+    private void value(Object value) {
+      if (value == null) {
+        byte8(NULL);
+      } else if (value == JSONObject.NULL) {
+        byte8(JSON_NULL);
+      } else if (value instanceof Boolean) {
+        byte8((Boolean) value ? TRUE : FALSE);
+      } else if (value instanceof Integer) {
+        byte8(INT);
+        zigzag((Integer) value);
+      } else if (value instanceof Long) {
+        byte8(LONG);
+        zigzag((Long) value);
+      } else if (value instanceof Double) {
+        byte8(DOUBLE);
+        long bits = Double.doubleToRawLongBits((Double) value);
+        int32((int) (bits >>> 32));
+        int32((int) bits);
+      } else if (value instanceof String) {
+        byte8(STRING);
+        string((String) value);
+      } else if (value instanceof Map) {
+        Map<?, ?> map = (Map<?, ?>) value;
+        byte8(OBJECT);
+        varint(map.size());
+        for (Map.Entry<?, ?> e : map.entrySet()) {
+          string(e.getKey().toString());
+          value(e.getValue());
+        }
+      } else if (value instanceof JSONObject) {
+        JSONObject obj = (JSONObject) value;
+        byte8(OBJECT);
+        varint(obj.length());
+        for (Iterator<?> keys = obj.keys(); keys.hasNext();) {
+          String key = keys.next().toString();
+          string(key);
+          value(obj.opt(key));
+        }
+      } else if (value instanceof JSONArray) {
+        JSONArray arr = (JSONArray) value;
+        byte8(ARRAY);
+        varint(arr.length());
+        for (int i = 0; i < arr.length(); i++) {
+          value(arr.opt(i));
+        }
+      } else {
+        throw new IllegalArgumentException("Cannot encode value of "
+            + value.getClass().getName());
+      }
+    }
+  }
+
+  /**
+   * The metadata of a response, which is read before its data.
+   */
+  private static class Meta {
+    private final String version;
+    private final String status;
+    private final int totalRowCount;
+    private final int includedRows;
+
+    private Meta(Decoder decoder) {
+      version = decoder.string();
+      status = decoder.string();
+      totalRowCount = (int) decoder.zigzag();
+      includedRows = (int) decoder.zigzag();
+    }
+
+    private Response apply(Response resp) {
+      Response.withMeta(resp, version, status, totalRowCount, includedRows);
+      return resp;
+    }
+  }
+
+  /**
+   * Reads one payload, with its own string dictionary.
+   */
+  private static class Decoder {
+    private final List<String> strings = Lists.newArrayList();
+    private final byte[] buf;
+    private int pos;
+    private final int end;
+
+    private Decoder(byte[] buf, int pos, int end) {
+      this.buf = buf;
+      this.pos = pos;
+      this.end = end;
+    }
+
+    private int byte8() {
+      if (pos >= end) {
+        throw new ArrayIndexOutOfBoundsException(pos);
+      }
+      return buf[pos++] & 0xFF;
+    }
+
+    private int int32() {
+      return (byte8() << 24) | (byte8() << 16) | (byte8() << 8) | byte8();
+    }
+
+    private long varint() {
+      long v = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        int b = byte8();
+        v |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return v;
+        }
+      }
+      throw new IllegalArgumentException("Not an encoded response: malformed integer");
+    }
+
+    private int count() {
+      long n = varint();
+      if (n > end - pos) {
+        // every element takes at least one byte
+        throw new IllegalArgumentException("Not an encoded response: bad count " + n);
+      }
+      return (int) n;
+    }
+
+    private long zigzag() {
+      long v = varint();
+      return (v >>> 1) ^ -(v & 1);
+    }
+
+    private String string() {
+      long ref = varint();
+      if (ref == 0) {
+        return null;
+      }
+      if (ref == 1) {
+        int length = count();
+        String s = new String(buf, pos, length, Charsets.UTF_8);
+        pos += length;
+        strings.add(s);
+        return s;
+      }
+      if (ref - 2 >= strings.size()) {
+        throw new IllegalArgumentException("Not an encoded response: bad string reference");
+      }
+      return strings.get((int) (ref - 2));
+    }
+
+    private Response response() throws JSONException {
+      int type = byte8();
+      switch (type) {
+      case READ:
+        Meta meta = new Meta(this);
+        return meta.apply(new ReadResponse(rows()));
+      case FACET:
+        meta = new Meta(this);
+        int n = count();
+        Map<String, Map<String, Object>> data = Maps.newHashMap();
+        for (int i = 0; i < n; i++) {
+          String field = string();
+          Map<String, Object> counts = Maps.newHashMap();
+          objectInto(counts);
+          data.put(field, counts);
+        }
+        return meta.apply(new FacetResponse(data));
+      case SCHEMA:
+        meta = new Meta(this);
+        String title = string();
+        String description = string();
+        boolean searchEnabled = byte8() == TRUE;
+        boolean geoEnabled = byte8() == TRUE;
+        return meta.apply(new SchemaResponse(title, description, searchEnabled, geoEnabled, rows()));
+      case MULTI:
+        n = count();
+        List<Response> responses = Lists.newArrayListWithCapacity(n);
+        for (int i = 0; i < n; i++) {
+          responses.add(response());
+        }
+        return new MultiResponse(responses);
+      default:
+        throw new IllegalArgumentException("Not an encoded response: unknown type " + type);
+      }
+    }
+
+    private List<Map<String, Object>> rows() throws JSONException {
+      int n = count();
+      List<Map<String, Object>> rows = Lists.newArrayListWithCapacity(n);
+      CompactRow.Fields fields = new CompactRow.Fields();
+      for (int i = 0; i < n; i++) {
+        if (byte8() != OBJECT) {
+          throw new IllegalArgumentException("Not an encoded response: row is not an object");
+        }
+        CompactRow row = new CompactRow(fields);
+        int size = count();
+        for (int j = 0; j < size; j++) {
+          row.set(fields.add(string()), value());
+        }
+        rows.add(row);
+      }
+      return rows;
+    }
+
+    private void objectInto(Map<String, Object> map) throws JSONException {
+      if (byte8() != OBJECT) {
+        throw new IllegalArgumentException("Not an encoded response: expected an object");
+      }
+      int size = count();
+      for (int i = 0; i < size; i++) {
+        String key = string();
+        map.put(key, value());
+      }
+    }
+
+    private Object value() throws JSONException {
+      int tag = byte8();
+      switch (tag) {
+      case NULL:
+        return null;
+      case JSON_NULL:
+        return JSONObject.NULL;
+      case FALSE:
+        return Boolean.FALSE;
+      case TRUE:
+        return Boolean.TRUE;
+      case INT:
+        return (int) zigzag();
+      case LONG:
+        return zigzag();
+      case DOUBLE:
+        long bits = ((long) int32() << 32) | (int32() & 0xFFFFFFFFL);
+        return Double.longBitsToDouble(bits);
+      case STRING:
+        return string();
+      case OBJECT:
+        JSONObject obj = new JSONObject();
+        int size = count();
+        for (int i = 0; i < size; i++) {
+          String key = string();
+          obj.put(key, value());
+        }
+        return obj;
+      case ARRAY:
+        JSONArray arr = new JSONArray();
+        size = count();
+        for (int i = 0; i < size; i++) {
+          arr.put(value());
+        }
+        return arr;
+      default:
+        throw new IllegalArgumentException("Not an encoded response: unknown value tag " + tag);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,20 @@
+package com.factual.driver;
+
+/**
+ * Supplies a response for a read that could not be sent to Factual, such as a
+ * stale cached response while a {@link CircuitBreaker} is open.
+ * {@link RevalidationCache} is one.
+ */
+public interface ResponseFallback {
+
+  /**
+   * @param url
+   *          the full URL of the read, including its query string. For a read
+   *          that decodes only some fields, the URL is followed by a
+   *          <tt>#fields=</tt> fragment naming them.
+   * @param cause
+   *          why the read could not be sent.
+   * @return the response to use instead, or null to fail with <tt>cause</tt>.
+   */
+  Response fallback(String url, FactualApiException cause);
+}
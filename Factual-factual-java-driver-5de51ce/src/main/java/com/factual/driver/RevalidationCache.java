@@ -0,0 +1,185 @@
+package com.factual.driver;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Caches parsed responses along with their HTTP validators (ETag and
+ * Last-Modified), so that repeated reads can be revalidated with conditional
+ * requests. When Factual answers <tt>304 Not Modified</tt>, the cached,
+ * already parsed response is reused. See
+ * {@link Factual#setRevalidationCache(RevalidationCache)}.
+ * <p>
+ * Keeps counts of revalidated responses, and of the payload and parse time
+ * they saved.
+ */
+public class RevalidationCache implements ResponseFallback {
+  private final Map<String, Entry> entries;
+  private final Lock lock = new ReentrantLock();
+  private final AtomicLong notModifiedCount = new AtomicLong();
+  private final AtomicLong savedBytes = new AtomicLong();
+  private final AtomicLong savedParseNanos = new AtomicLong();
+
+
+  /**
+   * Constructor.
+   *
+   * @param maxEntries
+   *          the maximum amount of responses to hold. The least recently used
+   *          response is evicted first.
+   */
+  @SuppressWarnings("serial")
+  public RevalidationCache(final int maxEntries) {
+    entries = new LinkedHashMap<String, RevalidationCache.Entry>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, RevalidationCache.Entry> eldest) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  /**
+   * @return the cached entry for the request URL <tt>url</tt>, or null.
+   */
+  public Entry get(String url) {
+    lock.lock();
+    try {
+      return entries.get(url);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public void put(String url, Entry entry) {
+    lock.lock();
+    try {
+      entries.put(url, entry);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public void remove(String url) {
+    lock.lock();
+    try {
+      entries.remove(url);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Removes all cached responses.
+   */
+  public void clear() {
+    lock.lock();
+    try {
+      entries.clear();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the amount of cached responses.
+   */
+  public int size() {
+    lock.lock();
+    try {
+      return entries.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Serves the cached response for <tt>url</tt>, however stale, as the
+   * fallback for a read that could not be sent, e.g. while a
+   * {@link CircuitBreaker} is open.
+   * 
+   * @return the cached response for <tt>url</tt>, or null if none is cached.
+   */
+  @Override
+  public Response fallback(String url, FactualApiException cause) {
+    Entry entry = get(url);
+    return entry != null ? entry.getResponse() : null;
+  }
+
+  /**
+   * Records that <tt>entry</tt> was revalidated by a <tt>304 Not Modified</tt>.
+   */
+  protected void notModified(Entry entry) {
+    notModifiedCount.incrementAndGet();
+    savedBytes.addAndGet(entry.size);
+    savedParseNanos.addAndGet(entry.parseNanos);
+  }
+
+  /**
+   * @return the amount of reads answered by <tt>304 Not Modified</tt>.
+   */
+  public long getNotModifiedCount() {
+    return notModifiedCount.get();
+  }
+
+  /**
+   * @return the total size of the payloads that did not have to be downloaded
+   *         because of <tt>304 Not Modified</tt> responses.
+   */
+  public long getSavedBytes() {
+    return savedBytes.get();
+  }
+
+  /**
+   * @return the total time, in nanoseconds, the reused responses originally
+   *         took to parse.
+   */
+  public long getSavedParseNanos() {
+    return savedParseNanos.get();
+  }
+
+  /**
+   * A parsed response with its validators.
+   */
+  public static class Entry {
+    private final Response response;
+    private final String etag;
+    private final String lastModified;
+    private final long size;
+    private final long parseNanos;
+
+    /**
+     * Constructor.
+     *
+     * @param response the parsed response.
+     * @param etag the ETag Factual sent with the response, or null.
+     * @param lastModified the Last-Modified date Factual sent with the
+     *          response, or null.
+     * @param size the size of the response payload.
+     * @param parseNanos the time it took to parse the response.
+     */
+    public Entry(Response response, String etag, String lastModified,
+        long size, long parseNanos) {
+      this.response = response;
+      this.etag = etag;
+      this.lastModified = lastModified;
+      this.size = size;
+      this.parseNanos = parseNanos;
+    }
+
+    public Response getResponse() {
+      return response;
+    }
+
+    public String getETag() {
+      return etag;
+    }
+
+    public String getLastModified() {
+      return lastModified;
+    }
+  }
+
+}
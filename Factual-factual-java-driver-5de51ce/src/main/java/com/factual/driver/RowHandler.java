@@ -0,0 +1,16 @@
+package com.factual.driver;
+
+import java.util.Map;
+
+/**
+ * Receives result rows one at a time, as they are read from Factual.
+ */
+public interface RowHandler {
+
+  /**
+   * Handles one result row.
+   * 
+   * @param row a result row, as found in {@link ReadResponse#getData()}.
+   */
+  void handle(Map<String, Object> row);
+}
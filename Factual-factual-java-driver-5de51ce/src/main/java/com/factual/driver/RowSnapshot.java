@@ -0,0 +1,565 @@
+package com.factual.driver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Remembers the content of the rows of a table slice, so that a later pull of
+ * the same slice can pass on only the rows that were inserted, changed or
+ * removed since. Only a 64 bit hash of each row's content is kept, keyed by
+ * <tt>factual_id</tt>; ids in Factual's UUID form are held as two longs rather
+ * than as Strings.
+ * <p>
+ * Example use:
+ *
+ * <pre>
+ * RowSnapshot snapshot = RowSnapshot.load(file);
+ * RowSnapshot.Pull pull = snapshot.pull(deltaHandler);
+ * new GeoScatterGather(factual, "places", query).fetch(circle, pull);
+ * pull.finish();
+ * snapshot.save(file);
+ * </pre>
+ *
+ * Fields computed by Factual for a read, such as <tt>$distance</tt>, are not
+ * part of a row's content.
+ */
+public class RowSnapshot {
+  private static final int MAGIC = 0x46435253;
+  private static final int FORMAT_VERSION = 1;
+  private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+  private static final String ZERO_UUID = new UUID(0, 0).toString();
+
+  private final String keyField;
+  private volatile Table rows = new Table(0);
+
+
+  /**
+   * Constructor, for an empty snapshot of rows keyed by
+   * <tt>factual_id</tt>.
+   */
+  public RowSnapshot() {
+    this(Constants.FACTUAL_ID);
+  }
+
+  /**
+   * Constructor, for an empty snapshot.
+   *
+   * @param keyField
+   *          the field that identifies each row.
+   */
+  public RowSnapshot(String keyField) {
+    this.keyField = keyField;
+  }
+
+  /**
+   * @return the amount of rows in this snapshot.
+   */
+  public int size() {
+    return rows.size();
+  }
+
+  /**
+   * Starts a pull of the rows this snapshot holds. Rows passed to the pull
+   * are compared with this snapshot, and those that were inserted or changed
+   * are passed on to <tt>handler</tt> straight away. Once every row has been
+   * passed, {@link Pull#finish()} passes on the removed rows and makes the
+   * pulled rows the content of this snapshot.
+   * <p>
+   * Pulls of one snapshot should not overlap.
+   */
+  public Pull pull(DeltaHandler handler) {
+    return new Pull(handler);
+  }
+
+  /**
+   * Receives the rows of one pull. Rows may be passed from many threads at
+   * once; <tt>handler</tt> is then called from those threads, and must be
+   * thread safe. A row passed again in the same pull is ignored.
+   */
+  public class Pull implements RowHandler {
+    private final DeltaHandler handler;
+    private final Table previous = rows;
+    private final Table pulled = new Table(rows.size());
+    private final AtomicInteger inserted = new AtomicInteger();
+    private final AtomicInteger changed = new AtomicInteger();
+    private int removed;
+
+    private Pull(DeltaHandler handler) {
+      this.handler = handler;
+    }
+
+    /**
+     * Compares <tt>row</tt> with the snapshot.
+     *
+     * @throws IllegalArgumentException
+     *           if <tt>row</tt> has no key.
+     */
+    @Override
+    public void handle(Map<String, Object> row) {
+      Object key = row.get(keyField);
+      if (key == null || JSONObject.NULL.equals(key)) {
+        throw new IllegalArgumentException("Row has no " + keyField + ": " + row);
+      }
+      String id = key.toString();
+      long hash = hash(row);
+      Long before;
+      if (isUuid(id)) {
+        long hi = bits(id, 0, 18);
+        long lo = bits(id, 19, 36);
+        if (!pulled.putIfAbsent(hi, lo, hash)) {
+          return;
+        }
+        before = previous.get(hi, lo);
+      } else {
+        if (!pulled.putIfAbsent(id, hash)) {
+          return;
+        }
+        before = previous.get(id);
+      }
+      if (before == null) {
+        inserted.incrementAndGet();
+        handler.inserted(row);
+      } else if (before.longValue() != hash) {
+        changed.incrementAndGet();
+        handler.changed(row);
+      }
+    }
+
+    /**
+     * Passes each row of the snapshot that was not pulled to
+     * {@link DeltaHandler#removed}, then replaces the snapshot's rows with the
+     * pulled rows.
+     */
+    public void finish() {
+      for (Shard shard : previous.shards) {
+        long[] slots = shard.slots;
+        for (int i = 0; i < slots.length; i += 3) {
+          if (!Shard.isEmpty(slots, i) && pulled.get(slots[i], slots[i + 1]) == null) {
+            removed++;
+            handler.removed(new UUID(slots[i], slots[i + 1]).toString());
+          }
+        }
+        for (String id : shard.others.keySet()) {
+          if (pulled.get(id) == null) {
+            removed++;
+            handler.removed(id);
+          }
+        }
+      }
+      rows = pulled;
+    }
+
+    /**
+     * @return the amount of inserted rows passed on so far.
+     */
+    public int getInserted() {
+      return inserted.get();
+    }
+
+    /**
+     * @return the amount of changed rows passed on so far.
+     */
+    public int getChanged() {
+      return changed.get();
+    }
+
+    /**
+     * @return the amount of removed rows passed on by {@link #finish()}.
+     */
+    public int getRemoved() {
+      return removed;
+    }
+  }
+
+  /**
+   * Writes this snapshot to <tt>file</tt>. It is written to a temporary file
+   * next to it first, and renamed into place once whole, so a crash while
+   * saving leaves the previous snapshot intact.
+   */
+  public void save(File file) throws IOException {
+    Table table = rows;
+    File tmp = new File(file.getPath() + ".part");
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024));
+    try {
+      out.writeInt(MAGIC);
+      out.writeByte(FORMAT_VERSION);
+      out.writeUTF(keyField);
+      out.writeInt(table.size());
+      for (Shard shard : table.shards) {
+        long[] slots = shard.slots;
+        for (int i = 0; i < slots.length; i += 3) {
+          if (!Shard.isEmpty(slots, i)) {
+            out.writeByte(0);
+            out.writeLong(slots[i]);
+            out.writeLong(slots[i + 1]);
+            out.writeLong(slots[i + 2]);
+          }
+        }
+        for (Map.Entry<String, Long> e : shard.others.entrySet()) {
+          out.writeByte(1);
+          out.writeUTF(e.getKey());
+          out.writeLong(e.getValue());
+        }
+      }
+    } finally {
+      out.close();
+    }
+    TableExport.replace(tmp, file);
+  }
+
+  /**
+   * Reads a snapshot written by {@link #save(File)}.
+   *
+   * @return the snapshot, or an empty snapshot of rows keyed by
+   *         <tt>factual_id</tt> if <tt>file</tt> does not exist.
+   * @throws IOException
+   *           if <tt>file</tt> cannot be read or is not a snapshot.
+   */
+  public static RowSnapshot load(File file) throws IOException {
+    if (!file.exists()) {
+      return new RowSnapshot();
+    }
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+    try {
+      if (in.readInt() != MAGIC || in.readByte() != FORMAT_VERSION) {
+        throw new IOException(file + " is not a row snapshot");
+      }
+      RowSnapshot snapshot = new RowSnapshot(in.readUTF());
+      int size = in.readInt();
+      Table table = new Table(size);
+      for (int i = 0; i < size; i++) {
+        if (in.readByte() == 0) {
+          long hi = in.readLong();
+          long lo = in.readLong();
+          table.shard(hi ^ lo).putUuid(hi, lo, in.readLong());
+        } else {
+          String id = in.readUTF();
+          table.shard(id.hashCode()).others.put(id, in.readLong());
+        }
+      }
+      snapshot.rows = table;
+      return snapshot;
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * @return a 64 bit hash of the content of <tt>row</tt>, which does not
+   *         depend on the order of its fields. Numbers are hashed by value,
+   *         so that 1 and 1.0 hash alike.
+   */
+  protected static long hash(Map<String, Object> row) {
+    // fields are hashed one by one and summed, so that their order does not
+    // matter and no sorting is needed
+    long sum = 0;
+    int n = 0;
+    for (Map.Entry<String, Object> e : row.entrySet()) {
+      if (!e.getKey().startsWith("$")) {
+        sum += mix(hashValue(hashString(FNV_OFFSET, e.getKey()), e.getValue()));
+        n++;
+      }
+    }
+    return mix(step(sum, n));
+  }
+
+  @SuppressWarnings("unchecked")
+  private static long hashValue(long h, Object value) {
+    if (value == null || JSONObject.NULL.equals(value)) {
+      return step(h, 'n');
+    } else if (value instanceof String) {
+      return hashString(h, (String) value);
+    } else if (value instanceof Boolean) {
+      return step(step(h, 'b'), ((Boolean) value) ? 1 : 0);
+    } else if (value instanceof Number) {
+      return hashNumber(h, (Number) value);
+    } else if (value instanceof JSONArray) {
+      JSONArray arr = (JSONArray) value;
+      h = step(step(h, 'a'), arr.length());
+      for (int i = 0; i < arr.length(); i++) {
+        h = hashValue(h, arr.opt(i));
+      }
+      return h;
+    } else if (value instanceof Collection) {
+      h = step(step(h, 'a'), ((Collection<?>) value).size());
+      for (Object element : (Collection<?>) value) {
+        h = hashValue(h, element);
+      }
+      return h;
+    } else if (value instanceof JSONObject) {
+      JSONObject jo = (JSONObject) value;
+      long sum = 0;
+      for (Iterator<?> it = jo.keys(); it.hasNext();) {
+        String key = it.next().toString();
+        sum += mix(hashValue(hashString(FNV_OFFSET, key), jo.opt(key)));
+      }
+      return step(step(step(h, 'o'), jo.length()), sum);
+    } else if (value instanceof Map) {
+      long sum = 0;
+      for (Map.Entry<Object, Object> e : ((Map<Object, Object>) value).entrySet()) {
+        sum += mix(hashValue(hashString(FNV_OFFSET, e.getKey().toString()), e.getValue()));
+      }
+      return step(step(step(h, 'o'), ((Map<?, ?>) value).size()), sum);
+    }
+    return hashString(step(h, 'x'), value.toString());
+  }
+
+  private static long hashNumber(long h, Number number) {
+    if (number instanceof Integer || number instanceof Long || number instanceof Short || number instanceof Byte) {
+      return step(step(h, 'i'), number.longValue());
+    }
+    double d = number.doubleValue();
+    if (d == Math.rint(d) && Math.abs(d) < 0x1p63) {
+      return step(step(h, 'i'), (long) d);
+    }
+    return step(step(h, 'd'), Double.doubleToLongBits(d));
+  }
+
+  private static long hashString(long h, String str) {
+    int length = str.length();
+    h = step(step(h, 's'), length);
+    int i = 0;
+    for (; i + 1 < length; i += 2) {
+      h = (h ^ (str.charAt(i) << 16 | str.charAt(i + 1))) * FNV_PRIME;
+    }
+    if (i < length) {
+      h = (h ^ str.charAt(i)) * FNV_PRIME;
+    }
+    return h;
+  }
+
+  private static long step(long h, long bits) {
+    h = (h ^ bits) * FNV_PRIME;
+    return h ^ (h >>> 29);
+  }
+
+  /**
+   * Spreads the bits of <tt>h</tt>, as the finalizer of MurmurHash3 does.
+   */
+  private static long mix(long h) {
+    h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+    h = (h ^ (h >>> 33)) * 0xc4ceb93fe53e87c3L;
+    return h ^ (h >>> 33);
+  }
+
+  /**
+   * @return true if <tt>id</tt> is a UUID in the lowercase form
+   *         {@link UUID#toString()} gives, so that it can be held as two
+   *         longs and given back as it was.
+   */
+  static boolean isUuid(String id) {
+    if (id.length() != 36) {
+      return false;
+    }
+    for (int i = 0; i < 36; i++) {
+      char c = id.charAt(i);
+      if (i == 8 || i == 13 || i == 18 || i == 23) {
+        if (c != '-') {
+          return false;
+        }
+      } else if (!(c >= '0' && c <= '9' || c >= 'a' && c <= 'f')) {
+        return false;
+      }
+    }
+    // the all zero UUID marks empty slots
+    return !id.equals(ZERO_UUID);
+  }
+
+  static long bits(String id, int start, int end) {
+    long bits = 0;
+    for (int i = start; i < end; i++) {
+      char c = id.charAt(i);
+      if (c != '-') {
+        bits = bits << 4 | Character.digit(c, 16);
+      }
+    }
+    return bits;
+  }
+
+  /**
+   * Row hashes by id, in lock striped shards.
+   */
+  private static class Table {
+    private static final int SHARDS = 64;
+    private final Shard[] shards = new Shard[SHARDS];
+
+    private Table(int expectedSize) {
+      for (int i = 0; i < SHARDS; i++) {
+        shards[i] = new Shard(expectedSize / SHARDS);
+      }
+    }
+
+    private Shard shard(long bits) {
+      int h = (int) (bits ^ (bits >>> 32));
+      return shards[(h ^ (h >>> 16)) & (SHARDS - 1)];
+    }
+
+    private int size() {
+      int size = 0;
+      for (Shard shard : shards) {
+        size += shard.size + shard.others.size();
+      }
+      return size;
+    }
+
+    /**
+     * Adds the hash of an id of another form than a UUID.
+     *
+     * @return false if <tt>id</tt> already has a hash, which is kept.
+     */
+    private boolean putIfAbsent(String id, long hash) {
+      Shard shard = shard(id.hashCode());
+      shard.lock.lock();
+      try {
+        if (shard.others.containsKey(id)) {
+          return false;
+        }
+        shard.others.put(id, hash);
+        return true;
+      } finally {
+        shard.lock.unlock();
+      }
+    }
+
+    /**
+     * Adds the hash of the UUID id with the given bits.
+     *
+     * @return false if the id already has a hash, which is kept.
+     */
+    private boolean putIfAbsent(long hi, long lo, long hash) {
+      Shard shard = shard(hi ^ lo);
+      shard.lock.lock();
+      try {
+        return shard.find(hi, lo) < 0 && shard.putUuid(hi, lo, hash);
+      } finally {
+        shard.lock.unlock();
+      }
+    }
+
+    /**
+     * @return the hash of an id of another form than a UUID, or null if none.
+     */
+    private Long get(String id) {
+      Shard shard = shard(id.hashCode());
+      shard.lock.lock();
+      try {
+        return shard.others.get(id);
+      } finally {
+        shard.lock.unlock();
+      }
+    }
+
+    /**
+     * @return the hash of the UUID id with the given bits, or null if none.
+     */
+    private Long get(long hi, long lo) {
+      Shard shard = shard(hi ^ lo);
+      shard.lock.lock();
+      try {
+        int slot = shard.find(hi, lo);
+        return slot >= 0 ? shard.slots[slot + 2] : null;
+      } finally {
+        shard.lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * An open addressing table of UUID ids and their row hashes, plus a map
+   * for ids of other forms. Each slot is three adjacent longs: the high and
+   * low bits of the id, then the hash, so that a lookup mostly touches one
+   * cache line.
+   */
+  private static class Shard {
+    private final Lock lock = new ReentrantLock();
+    private final Map<String, Long> others = Maps.newHashMap();
+    private long[] slots;
+    private int size;
+
+    private Shard(int expectedSize) {
+      int capacity = 16;
+      while (capacity * 3 / 4 < expectedSize) {
+        capacity <<= 1;
+      }
+      slots = new long[capacity * 3];
+    }
+
+    private static boolean isEmpty(long[] slots, int i) {
+      return slots[i] == 0 && slots[i + 1] == 0;
+    }
+
+    private int capacity() {
+      return slots.length / 3;
+    }
+
+    private int slot(long hi, long lo) {
+      long h = (hi ^ lo) * 0x9e3779b97f4a7c15L;
+      return ((int) (h >>> 40) & (capacity() - 1)) * 3;
+    }
+
+    private int next(int i) {
+      i += 3;
+      return i < slots.length ? i : 0;
+    }
+
+    /**
+     * @return the index of the slot of the id, or -1 if none.
+     */
+    private int find(long hi, long lo) {
+      for (int i = slot(hi, lo);; i = next(i)) {
+        if (isEmpty(slots, i)) {
+          return -1;
+        } else if (slots[i] == hi && slots[i + 1] == lo) {
+          return i;
+        }
+      }
+    }
+
+    /**
+     * Adds an id known not to be in this shard.
+     *
+     * @return true
+     */
+    private boolean putUuid(long hi, long lo, long hash) {
+      if ((size + 1) * 4 > capacity() * 3) {
+        long[] old = slots;
+        slots = new long[old.length * 2];
+        size = 0;
+        for (int i = 0; i < old.length; i += 3) {
+          if (!isEmpty(old, i)) {
+            putUuid(old[i], old[i + 1], old[i + 2]);
+          }
+        }
+      }
+      int i = slot(hi, lo);
+      while (!isEmpty(slots, i)) {
+        i = next(i);
+      }
+      slots[i] = hi;
+      slots[i + 1] = lo;
+      slots[i + 2] = hash;
+      size++;
+      return true;
+    }
+  }
+
+}
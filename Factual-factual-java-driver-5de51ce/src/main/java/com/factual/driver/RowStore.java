@@ -0,0 +1,908 @@
+package com.factual.driver;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Holds result rows outside the Java heap, as binary records in direct memory
+ * or in a memory mapped file, indexed by <tt>factual_id</tt>. Millions of rows
+ * then cost the garbage collector nothing but their index, which holds ids in
+ * Factual's UUID form as two longs. Rows are read through {@link Row} views
+ * over their records, which give single fields without building a Map for the
+ * row.
+ * <p>
+ * A store is a {@link RowHandler}, so it can be loaded by a
+ * {@link TableExport} or a {@link GeoScatterGather}; it also loads the rows of
+ * a {@link ReadResponse} or of a {@link QueryPublisher}. Putting a row with the
+ * id of a row already held replaces it; the space of the replaced record is
+ * not reused. Rows may be put from many threads at once, and read while
+ * others are put.
+ *
+ * <pre>
+ * RowStore store = new RowStore();
+ * new TableExport(factual, &quot;places&quot;, query).partitionByFacet(&quot;region&quot;)
+ *     .keysetPaging(&quot;factual_id&quot;).exportTo(store);
+ * RowStore.Row row = store.get(&quot;03c26917-5d66-4de9-96bc-b13066173c65&quot;);
+ * String name = row.getString(&quot;name&quot;);
+ * double latitude = row.getDouble(&quot;latitude&quot;, Double.NaN);
+ * </pre>
+ */
+public class RowStore implements RowHandler, Closeable {
+  public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+  private static final byte NULL = 0;
+  private static final byte JSON_NULL = 1;
+  private static final byte FALSE = 2;
+  private static final byte TRUE = 3;
+  private static final byte INT = 4;
+  private static final byte LONG = 5;
+  private static final byte DOUBLE = 6;
+  private static final byte LATIN1 = 7;
+  private static final byte UTF16 = 8;
+  private static final byte ARRAY = 9;
+  private static final byte OBJECT = 10;
+
+  // a record starts with its length, a flags byte and its amount of fields,
+  // followed by the id and value offset of each field
+  private static final int HEADER_SIZE = 7;
+  private static final int FIELD_SIZE = 6;
+  private static final byte REPLACED = 1;
+  private static final int MAX_FIELDS = Character.MAX_VALUE;
+
+  private final String keyField;
+  private final int segmentSize;
+  private final RandomAccessFile file;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final List<ByteBuffer> segments = Lists.newArrayList();
+  private int position;
+  private long byteCount;
+  private final Index index = new Index();
+  private final ConcurrentMap<String, Integer> fieldIds = new ConcurrentHashMap<String, Integer>();
+  private volatile String[] fieldNames = new String[0];
+  private final ThreadLocal<Encoder> encoders = new ThreadLocal<Encoder>() {
+    @Override
+    protected Encoder initialValue() {
+      return new Encoder();
+    }
+  };
+
+
+  /**
+   * Constructor, for an empty store of rows keyed by <tt>factual_id</tt>, in
+   * direct memory.
+   */
+  public RowStore() {
+    this(Constants.FACTUAL_ID, DEFAULT_SEGMENT_SIZE);
+  }
+
+  /**
+   * Constructor, for an empty store in direct memory.
+   *
+   * @param keyField
+   *          the field that identifies each row.
+   * @param segmentSize
+   *          the size of each block of memory records are put in, in bytes.
+   *          No record can be larger.
+   */
+  public RowStore(String keyField, int segmentSize) {
+    this(keyField, segmentSize, null);
+  }
+
+  /**
+   * Constructor, for an empty store of rows keyed by <tt>factual_id</tt>,
+   * mapped to <tt>file</tt>.
+   *
+   * @param file
+   *          the file to hold the records in. It is emptied first; it is
+   *          scratch space, which is not read back by later stores.
+   */
+  public RowStore(File file) throws IOException {
+    this(Constants.FACTUAL_ID, file, DEFAULT_SEGMENT_SIZE);
+  }
+
+  /**
+   * Constructor, for an empty store mapped to <tt>file</tt>.
+   */
+  public RowStore(String keyField, File file, int segmentSize) throws IOException {
+    this(keyField, segmentSize, open(file));
+  }
+
+  private RowStore(String keyField, int segmentSize, RandomAccessFile file) {
+    this.keyField = keyField;
+    this.segmentSize = segmentSize;
+    this.file = file;
+  }
+
+  private static RandomAccessFile open(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    raf.setLength(0);
+    return raf;
+  }
+
+  /**
+   * Adds <tt>row</tt> to the store, replacing the row with the same id if
+   * any. Values are held with the types Factual's JSON gives them; other
+   * values are held as their String form.
+   *
+   * @throws IllegalArgumentException
+   *           if <tt>row</tt> has no key, or is larger than a segment.
+   */
+  public void put(Map<String, Object> row) {
+    Object key = row.get(keyField);
+    if (key == null || JSONObject.NULL.equals(key)) {
+      throw new IllegalArgumentException("Row has no " + keyField + ": " + row);
+    }
+    Encoder encoder = encoders.get();
+    encoder.record(row);
+    if (encoder.size > segmentSize) {
+      throw new IllegalArgumentException("Row of " + encoder.size
+          + " bytes is larger than the segment size: " + key);
+    }
+    String id = key.toString();
+    boolean uuid = RowSnapshot.isUuid(id);
+    long hi = uuid ? RowSnapshot.bits(id, 0, 18) : 0;
+    long lo = uuid ? RowSnapshot.bits(id, 19, 36) : 0;
+
+    lock.writeLock().lock();
+    try {
+      long address = append(encoder);
+      long previous = uuid ? index.put(hi, lo, address) : index.put(id, address);
+      if (previous >= 0) {
+        segment(previous).put(offset(previous) + 4, REPLACED);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Same as {@link #put(Map)}.
+   */
+  @Override
+  public void handle(Map<String, Object> row) {
+    put(row);
+  }
+
+  /**
+   * Puts the rows of <tt>resp</tt>.
+   *
+   * @return the amount of rows put.
+   */
+  public long load(ReadResponse resp) {
+    for (Map<String, Object> row : resp.getData()) {
+      put(row);
+    }
+    return resp.getData().size();
+  }
+
+  /**
+   * Puts every row <tt>rows</tt> publishes, and waits until it completes.
+   * Rows are requested as fast as they are put.
+   *
+   * @return the amount of rows put.
+   * @throws RuntimeException
+   *           the error <tt>rows</tt> signalled, wrapped unless it is a
+   *           RuntimeException itself.
+   */
+  public long load(Publisher<Map<String, Object>> rows) {
+    Loader loader = new Loader();
+    rows.subscribe(loader);
+    return loader.await();
+  }
+
+  /**
+   * @return a view of the row with the given id, or null if none.
+   */
+  public Row get(String id) {
+    return get(id, null);
+  }
+
+  /**
+   * Looks up the row with the given id, into <tt>reuse</tt> if it is not
+   * null, so that looking up many rows needs no new views.
+   *
+   * @return the view of the row, or null if none.
+   */
+  public Row get(String id, Row reuse) {
+    long address;
+    ByteBuffer segment;
+    lock.readLock().lock();
+    try {
+      address = RowSnapshot.isUuid(id)
+          ? index.get(RowSnapshot.bits(id, 0, 18), RowSnapshot.bits(id, 19, 36)) : index.get(id);
+      if (address < 0) {
+        return null;
+      }
+      segment = segment(address);
+    } finally {
+      lock.readLock().unlock();
+    }
+    Row row = reuse != null ? reuse : new Row();
+    row.at(segment, offset(address));
+    return row;
+  }
+
+  /**
+   * @return true if the store holds a row with the given id.
+   */
+  public boolean contains(String id) {
+    return get(id, null) != null;
+  }
+
+  /**
+   * @return a cursor over the rows held now, in the order they were put.
+   *         Rows put later are not visited.
+   */
+  public Cursor cursor() {
+    lock.readLock().lock();
+    try {
+      return new Cursor(Lists.newArrayList(segments), position);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * @return the amount of rows in the store.
+   */
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return index.size + index.others.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * @return the amount of bytes of records put, including those of replaced
+   *         rows.
+   */
+  public long getByteCount() {
+    lock.readLock().lock();
+    try {
+      return byteCount;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Removes all rows, and closes the file of a mapped store. The memory of
+   * the records is freed once no view refers to it any more.
+   */
+  @Override
+  public void close() throws IOException {
+    lock.writeLock().lock();
+    try {
+      segments.clear();
+      index.clear();
+      position = 0;
+      byteCount = 0;
+      if (file != null) {
+        file.close();
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Copies the record <tt>encoder</tt> holds to the end of the last segment,
+   * starting a new segment if it does not fit.
+   *
+   * @return the address of the record: the index of its segment in the high
+   *         bits and its offset in the low bits.
+   */
+  private long append(Encoder encoder) {
+    if (segments.isEmpty() || position + encoder.size > segmentSize) {
+      segments.add(newSegment());
+      position = 0;
+    }
+    ByteBuffer segment = segments.get(segments.size() - 1).duplicate();
+    segment.position(position);
+    segment.put(encoder.buf, 0, encoder.size);
+    long address = (long) (segments.size() - 1) << 32 | position;
+    position += encoder.size;
+    byteCount += encoder.size;
+    return address;
+  }
+
+  private ByteBuffer newSegment() {
+    if (file == null) {
+      return ByteBuffer.allocateDirect(segmentSize);
+    }
+    try {
+      return file.getChannel().map(FileChannel.MapMode.READ_WRITE, (long) segments.size() * segmentSize,
+          segmentSize);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private ByteBuffer segment(long address) {
+    return segments.get((int) (address >>> 32));
+  }
+
+  private static int offset(long address) {
+    return (int) address;
+  }
+
+  private int fieldId(String name) {
+    Integer id = fieldIds.get(name);
+    if (id != null) {
+      return id;
+    }
+    synchronized (fieldIds) {
+      id = fieldIds.get(name);
+      if (id == null) {
+        String[] names = fieldNames;
+        if (names.length == MAX_FIELDS) {
+          throw new IllegalStateException("More than " + MAX_FIELDS + " fields");
+        }
+        id = names.length;
+        names = Arrays.copyOf(names, id + 1);
+        names[id] = name;
+        fieldNames = names;
+        fieldIds.put(name, id);
+      }
+      return id;
+    }
+  }
+
+  /**
+   * A view of the record of one row. Reads one field at a time straight from
+   * the record; only {@link #get(String)}, {@link #getString(String)} and
+   * {@link #toMap()} build objects, for the values they return.
+   * <p>
+   * Views are not thread safe, but many views may read the same store at
+   * once.
+   */
+  public class Row {
+    private ByteBuffer segment;
+    private int base;
+
+    private Row() {}
+
+    void at(ByteBuffer segment, int base) {
+      this.segment = segment;
+      this.base = base;
+    }
+
+    /**
+     * @return the id of this row.
+     */
+    public String getKey() {
+      return getString(keyField);
+    }
+
+    /**
+     * @return true if this row has a value for <tt>field</tt> other than null.
+     */
+    public boolean has(String field) {
+      int at = find(field);
+      return at >= 0 && segment.get(at) > JSON_NULL;
+    }
+
+    /**
+     * @return the value of <tt>field</tt> as a String, or null if it is
+     *         absent or null. Values other than Strings are given in their
+     *         JSON form.
+     */
+    public String getString(String field) {
+      int at = find(field);
+      if (at < 0) {
+        return null;
+      }
+      byte tag = segment.get(at);
+      switch (tag) {
+      case NULL:
+      case JSON_NULL:
+        return null;
+      case LATIN1:
+      case UTF16:
+      case ARRAY:
+      case OBJECT:
+        return string(at);
+      default:
+        return String.valueOf(value(at));
+      }
+    }
+
+    /**
+     * @return true if <tt>field</tt> holds the String <tt>value</tt>;
+     *         compares the record without building a String.
+     */
+    public boolean stringEquals(String field, String value) {
+      int at = find(field);
+      if (at < 0) {
+        return false;
+      }
+      byte tag = segment.get(at);
+      if (tag != LATIN1 && tag != UTF16) {
+        return false;
+      }
+      int length = segment.getInt(at + 1);
+      if (length != value.length()) {
+        return false;
+      }
+      int chars = at + 5;
+      for (int i = 0; i < length; i++) {
+        char c = tag == LATIN1 ? (char) (segment.get(chars + i) & 0xFF) : segment.getChar(chars + 2 * i);
+        if (c != value.charAt(i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * @return the value of <tt>field</tt> as a long, or <tt>missing</tt> if
+     *         it is absent or not a number.
+     */
+    public long getLong(String field, long missing) {
+      int at = find(field);
+      if (at < 0) {
+        return missing;
+      }
+      switch (segment.get(at)) {
+      case INT:
+        return segment.getInt(at + 1);
+      case LONG:
+        return segment.getLong(at + 1);
+      case DOUBLE:
+        return (long) segment.getDouble(at + 1);
+      default:
+        return missing;
+      }
+    }
+
+    /**
+     * @return the value of <tt>field</tt> as a double, or <tt>missing</tt>
+     *         if it is absent or not a number.
+     */
+    public double getDouble(String field, double missing) {
+      int at = find(field);
+      if (at < 0) {
+        return missing;
+      }
+      switch (segment.get(at)) {
+      case INT:
+        return segment.getInt(at + 1);
+      case LONG:
+        return segment.getLong(at + 1);
+      case DOUBLE:
+        return segment.getDouble(at + 1);
+      default:
+        return missing;
+      }
+    }
+
+    /**
+     * @return true if <tt>field</tt> holds true.
+     */
+    public boolean getBoolean(String field) {
+      int at = find(field);
+      return at >= 0 && segment.get(at) == TRUE;
+    }
+
+    /**
+     * @return the value of <tt>field</tt>, as it was put, with arrays and
+     *         objects as JSONArray and JSONObject; null if it is absent.
+     */
+    public Object get(String field) {
+      int at = find(field);
+      return at >= 0 ? value(at) : null;
+    }
+
+    /**
+     * @return a new Map of all fields of this row.
+     */
+    public Map<String, Object> toMap() {
+      String[] names = fieldNames;
+      int n = segment.getChar(base + 5);
+      Map<String, Object> row = Maps.newLinkedHashMap();
+      for (int i = 0; i < n; i++) {
+        int entry = base + HEADER_SIZE + i * FIELD_SIZE;
+        row.put(names[segment.getChar(entry)], value(base + segment.getInt(entry + 2)));
+      }
+      return row;
+    }
+
+    @Override
+    public String toString() {
+      return toMap().toString();
+    }
+
+    /**
+     * @return the position of the value of <tt>field</tt>, or -1 if this row
+     *         does not have it.
+     */
+    private int find(String field) {
+      Integer id = fieldIds.get(field);
+      if (id == null) {
+        return -1;
+      }
+      int n = segment.getChar(base + 5);
+      for (int entry = base + HEADER_SIZE, end = entry + n * FIELD_SIZE; entry < end; entry += FIELD_SIZE) {
+        if (segment.getChar(entry) == id) {
+          return base + segment.getInt(entry + 2);
+        }
+      }
+      return -1;
+    }
+
+    private Object value(int at) {
+      try {
+        switch (segment.get(at)) {
+        case NULL:
+          return null;
+        case JSON_NULL:
+          return JSONObject.NULL;
+        case FALSE:
+          return Boolean.FALSE;
+        case TRUE:
+          return Boolean.TRUE;
+        case INT:
+          return segment.getInt(at + 1);
+        case LONG:
+          return segment.getLong(at + 1);
+        case DOUBLE:
+          return segment.getDouble(at + 1);
+        case ARRAY:
+          return new JSONArray(string(at));
+        case OBJECT:
+          return new JSONObject(string(at));
+        default:
+          return string(at);
+        }
+      } catch (JSONException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    /**
+     * @return the String held at <tt>at</tt>; arrays and objects are held as
+     *         their JSON text.
+     */
+    private String string(int at) {
+      byte tag = segment.get(at);
+      if (tag == ARRAY || tag == OBJECT) {
+        at++;
+        tag = segment.get(at);
+      }
+      int length = segment.getInt(at + 1);
+      char[] chars = new char[length];
+      int start = at + 5;
+      for (int i = 0; i < length; i++) {
+        chars[i] = tag == LATIN1 ? (char) (segment.get(start + i) & 0xFF) : segment.getChar(start + 2 * i);
+      }
+      return new String(chars);
+    }
+  }
+
+  /**
+   * A view that moves over the rows of a store, skipping replaced rows.
+   *
+   * <pre>
+   * RowStore.Cursor cursor = store.cursor();
+   * while (cursor.next()) {
+   *   total += cursor.getLong(&quot;employees&quot;, 0);
+   * }
+   * </pre>
+   */
+  public class Cursor extends Row {
+    private final List<ByteBuffer> segments;
+    private final int end;
+    private int segmentIndex;
+    private int next;
+
+    private Cursor(List<ByteBuffer> segments, int end) {
+      this.segments = segments;
+      this.end = end;
+    }
+
+    /**
+     * Moves to the next row.
+     *
+     * @return false if there are no more rows.
+     */
+    public boolean next() {
+      while (segmentIndex < segments.size()) {
+        ByteBuffer segment = segments.get(segmentIndex);
+        int limit = segmentIndex == segments.size() - 1 ? end : segment.capacity();
+        // the unused end of a segment is zeroes, so a length of 0 ends it
+        int length = next + 4 <= limit ? segment.getInt(next) : 0;
+        if (length > 0) {
+          int record = next;
+          next += length;
+          if (segment.get(record + 4) != REPLACED) {
+            at(segment, record);
+            return true;
+          }
+        } else {
+          segmentIndex++;
+          next = 0;
+        }
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Writes the record of one row into a reused buffer.
+   */
+  private class Encoder {
+    private byte[] buf = new byte[1024];
+    private ByteBuffer out = ByteBuffer.wrap(buf);
+    private int size;
+
+    private void record(Map<String, Object> row) {
+      int n = row.size();
+      if (n > MAX_FIELDS) {
+        throw new IllegalArgumentException("Row has more than " + MAX_FIELDS + " fields");
+      }
+      size = HEADER_SIZE + n * FIELD_SIZE;
+      ensure(0);
+      out.put(4, (byte) 0);
+      out.putChar(5, (char) n);
+      int entry = HEADER_SIZE;
+      for (Map.Entry<String, Object> e : row.entrySet()) {
+        out.putChar(entry, (char) fieldId(e.getKey()));
+        out.putInt(entry + 2, size);
+        entry += FIELD_SIZE;
+        value(e.getValue());
+      }
+      out.putInt(0, size);
+    }
+
+    private void ensure(int n) {
+      if (size + n > buf.length) {
+        buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + n));
+        out = ByteBuffer.wrap(buf);
+      }
+    }
+
+    private void tag(byte tag) {
+      ensure(1);
+      buf[size++] = tag;
+    }
+
+    private void value(Object value) {
+      if (value == null) {
+        tag(NULL);
+      } else if (value == JSONObject.NULL) {
+        tag(JSON_NULL);
+      } else if (value instanceof Boolean) {
+        tag((Boolean) value ? TRUE : FALSE);
+      } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+        tag(INT);
+        ensure(4);
+        out.putInt(size, ((Number) value).intValue());
+        size += 4;
+      } else if (value instanceof Long) {
+        tag(LONG);
+        ensure(8);
+        out.putLong(size, (Long) value);
+        size += 8;
+      } else if (value instanceof Double || value instanceof Float) {
+        tag(DOUBLE);
+        ensure(8);
+        out.putDouble(size, ((Number) value).doubleValue());
+        size += 8;
+      } else if (value instanceof JSONArray) {
+        tag(ARRAY);
+        string(value.toString());
+      } else if (value instanceof JSONObject) {
+        tag(OBJECT);
+        string(value.toString());
+      } else if (value instanceof Collection) {
+        tag(ARRAY);
+        string(new JSONArray((Collection<?>) value).toString());
+      } else if (value instanceof Map) {
+        tag(OBJECT);
+        string(new JSONObject((Map<?, ?>) value).toString());
+      } else {
+        string(value.toString());
+      }
+    }
+
+    /**
+     * Writes <tt>s</tt> one byte per char if it can, two otherwise.
+     */
+    private void string(String s) {
+      int length = s.length();
+      boolean latin1 = true;
+      for (int i = 0; i < length && latin1; i++) {
+        latin1 = s.charAt(i) <= 0xFF;
+      }
+      tag(latin1 ? LATIN1 : UTF16);
+      ensure(4 + length * (latin1 ? 1 : 2));
+      out.putInt(size, length);
+      size += 4;
+      for (int i = 0; i < length; i++) {
+        if (latin1) {
+          buf[size++] = (byte) s.charAt(i);
+        } else {
+          out.putChar(size, s.charAt(i));
+          size += 2;
+        }
+      }
+    }
+  }
+
+  /**
+   * Record addresses by id: an open addressing table of UUID ids, each slot
+   * three adjacent longs of the high and low bits of the id and the address,
+   * plus a map for ids of other forms. Guarded by the store's lock.
+   */
+  private static class Index {
+    private final Map<String, Long> others = Maps.newHashMap();
+    private long[] slots = new long[16 * 3];
+    private int size;
+
+    private void clear() {
+      others.clear();
+      slots = new long[16 * 3];
+      size = 0;
+    }
+
+    private int capacity() {
+      return slots.length / 3;
+    }
+
+    private int slot(long hi, long lo) {
+      long h = (hi ^ lo) * 0x9e3779b97f4a7c15L;
+      return ((int) (h >>> 40) & (capacity() - 1)) * 3;
+    }
+
+    /**
+     * @return the index of the slot of the id, or -1 minus the index of the
+     *         empty slot it would go in.
+     */
+    private int find(long hi, long lo) {
+      for (int i = slot(hi, lo);; i = (i + 3) % slots.length) {
+        if (slots[i] == 0 && slots[i + 1] == 0) {
+          return -1 - i;
+        } else if (slots[i] == hi && slots[i + 1] == lo) {
+          return i;
+        }
+      }
+    }
+
+    /**
+     * @return the address of the UUID id with the given bits, or -1 if none.
+     */
+    private long get(long hi, long lo) {
+      int i = find(hi, lo);
+      return i >= 0 ? slots[i + 2] : -1;
+    }
+
+    /**
+     * @return the address of an id of another form than a UUID, or -1 if
+     *         none.
+     */
+    private long get(String id) {
+      Long address = others.get(id);
+      return address != null ? address : -1;
+    }
+
+    /**
+     * @return the address the id had before, or -1 if none.
+     */
+    private long put(long hi, long lo, long address) {
+      int i = find(hi, lo);
+      if (i >= 0) {
+        long previous = slots[i + 2];
+        slots[i + 2] = address;
+        return previous;
+      }
+      if ((size + 1) * 4 > capacity() * 3) {
+        long[] old = slots;
+        slots = new long[old.length * 2];
+        for (int j = 0; j < old.length; j += 3) {
+          if (old[j] != 0 || old[j + 1] != 0) {
+            System.arraycopy(old, j, slots, -1 - find(old[j], old[j + 1]), 3);
+          }
+        }
+        i = find(hi, lo);
+      }
+      i = -1 - i;
+      slots[i] = hi;
+      slots[i + 1] = lo;
+      slots[i + 2] = address;
+      size++;
+      return -1;
+    }
+
+    private long put(String id, long address) {
+      Long previous = others.put(id, address);
+      return previous != null ? previous : -1;
+    }
+  }
+
+  /**
+   * Puts the rows a publisher signals.
+   */
+  private class Loader implements Subscriber<Map<String, Object>> {
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile Subscription subscription;
+    private volatile Throwable error;
+    private long count;
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+      this.subscription = subscription;
+      subscription.request(Long.MAX_VALUE);
+    }
+
+    @Override
+    public void onNext(Map<String, Object> row) {
+      if (error != null) {
+        return;
+      }
+      try {
+        put(row);
+        count++;
+      } catch (RuntimeException e) {
+        subscription.cancel();
+        onError(e);
+      }
+    }
+
+    @Override
+    public void onError(Throwable error) {
+      if (this.error == null) {
+        this.error = error;
+      }
+      done.countDown();
+    }
+
+    @Override
+    public void onComplete() {
+      done.countDown();
+    }
+
+    private long await() {
+      try {
+        done.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        if (subscription != null) {
+          subscription.cancel();
+        }
+        throw new RuntimeException(e);
+      }
+      if (error instanceof RuntimeException) {
+        throw (RuntimeException) error;
+      } else if (error != null) {
+        throw new RuntimeException(error);
+      }
+      return count;
+    }
+  }
+
+}
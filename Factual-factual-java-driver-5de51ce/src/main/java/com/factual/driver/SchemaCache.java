@@ -0,0 +1,203 @@
+package com.factual.driver;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Caches table schemas, and validates queries against them before they are
+ * sent, so that an invalid query fails without a round trip to Factual.
+ * <p>
+ * A table's schema is read the first time it is needed. Once it is older than
+ * the refresh interval, the cached schema keeps being used while a fresh one
+ * is read in the background. If a schema cannot be read, queries against that
+ * table are sent unvalidated until the next refresh.
+ * <p>
+ * Validation checks that selected and filtered fields exist, that sort fields
+ * are sortable, that facet fields are faceted, that field searches are on
+ * searchable fields, and that full text search and geo filters are only used
+ * on tables that support them. Invalid queries raise a
+ * {@link FactualApiException}, as Factual would.
+ */
+public class SchemaCache {
+  private final Factual factual;
+  private final long refreshMillis;
+  private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+  private final ExecutorService refresher = Executors.newSingleThreadExecutor(
+      new ThreadFactoryBuilder().setDaemon(true).setNameFormat("factual-schema-refresh-%d").build());
+
+
+  /**
+   * Constructor.
+   *
+   * @param factual
+   *          the Factual client to read schemas with.
+   * @param refreshInterval
+   *          how long a schema is used before it is refreshed.
+   * @param unit
+   *          the unit of <tt>refreshInterval</tt>.
+   */
+  public SchemaCache(Factual factual, long refreshInterval, TimeUnit unit) {
+    this.factual = factual;
+    this.refreshMillis = unit.toMillis(refreshInterval);
+  }
+
+  /**
+   * @return the cached schema of <tt>tableName</tt>, reading it if it is not
+   *         cached yet; null if it could not be read.
+   */
+  public SchemaResponse get(String tableName) {
+    Entry entry = entries.get(tableName);
+    if (entry == null) {
+      entry = load(tableName);
+      Entry existing = entries.putIfAbsent(tableName, entry);
+      return existing != null ? existing.schema : entry.schema;
+    }
+    if (System.currentTimeMillis() - entry.loadedAt > refreshMillis
+        && entry.refreshing.compareAndSet(false, true)) {
+      refresh(tableName);
+    }
+    return entry.schema;
+  }
+
+  /**
+   * Drops all cached schemas, and stops background refreshes.
+   */
+  public void close() {
+    refresher.shutdownNow();
+    entries.clear();
+  }
+
+  /**
+   * Validates <tt>query</tt> against the schema of <tt>tableName</tt>.
+   *
+   * @throws FactualApiException
+   *           if <tt>query</tt> is invalid for <tt>tableName</tt>.
+   */
+  public void validate(String tableName, Query query) {
+    SchemaResponse schema = get(tableName);
+    if (schema == null) {
+      return;
+    }
+    String[] select = query.getSelectFields();
+    if (select != null) {
+      for (String field : select) {
+        column(tableName, schema, Constants.QUERY_SELECT, field);
+      }
+    }
+    for (String field : query.getSortFields()) {
+      ColumnSchema column = column(tableName, schema, Constants.QUERY_SORT, field);
+      if (column != null && !column.sortable) {
+        throw invalid(tableName, Constants.QUERY_SORT + " field '" + field + "' is not sortable");
+      }
+    }
+    validateFilters(tableName, schema, query.getFilterFieldOps(), query.hasSearch(), query.hasGeo());
+  }
+
+  /**
+   * Validates <tt>query</tt> against the schema of <tt>tableName</tt>.
+   *
+   * @throws FactualApiException
+   *           if <tt>query</tt> is invalid for <tt>tableName</tt>.
+   */
+  public void validate(String tableName, FacetQuery query) {
+    SchemaResponse schema = get(tableName);
+    if (schema == null) {
+      return;
+    }
+    String[] select = query.getSelectFields();
+    if (select != null) {
+      for (String field : select) {
+        ColumnSchema column = column(tableName, schema, Constants.FACET_SELECT, field);
+        if (column != null && !column.faceted) {
+          throw invalid(tableName, Constants.FACET_SELECT + " field '" + field + "' is not faceted");
+        }
+      }
+    }
+    validateFilters(tableName, schema, query.getFilterFieldOps(), query.hasSearch(), query.hasGeo());
+  }
+
+  private void validateFilters(String tableName, SchemaResponse schema,
+      Map<String, Set<String>> fieldOps, boolean search, boolean geo) {
+    for (Map.Entry<String, Set<String>> e : fieldOps.entrySet()) {
+      ColumnSchema column = column(tableName, schema, Constants.FILTERS, e.getKey());
+      if (column != null && e.getValue().contains("$search") && !column.searchable) {
+        throw invalid(tableName, Constants.FILTERS + " field '" + e.getKey() + "' is not searchable");
+      }
+    }
+    if (search && !schema.isSearchEnabled()) {
+      throw invalid(tableName, "full text search is not enabled");
+    }
+    if (geo && !schema.isGeoEnabled()) {
+      throw invalid(tableName, Constants.FILTER_GEO + " filters are not enabled");
+    }
+  }
+
+  /**
+   * @return the schema of <tt>field</tt>, or null for a special field such as
+   *         <tt>$distance</tt>.
+   * @throws FactualApiException
+   *           if <tt>field</tt> is not in <tt>schema</tt>.
+   */
+  private ColumnSchema column(String tableName, SchemaResponse schema, String param, String field) {
+    if (field.startsWith("$")) {
+      return null;
+    }
+    ColumnSchema column = schema.getColumnSchema(field);
+    if (column == null) {
+      throw invalid(tableName, param + " contains unknown field '" + field + "'");
+    }
+    return column;
+  }
+
+  private FactualApiException invalid(String tableName, String msg) {
+    return new FactualApiException("Invalid query against table " + tableName + ": " + msg);
+  }
+
+  private Entry load(String tableName) {
+    SchemaResponse schema = null;
+    try {
+      schema = factual.schema(tableName);
+    } catch (RuntimeException e) {
+      // validate nothing until the next refresh
+    }
+    return new Entry(schema);
+  }
+
+  private void refresh(final String tableName) {
+    try {
+      refresher.execute(new Runnable() {
+        @Override
+        public void run() {
+          Entry fresh = load(tableName);
+          Entry stale = entries.get(tableName);
+          if (fresh.schema == null && stale != null) {
+            // keep the stale schema until the next refresh
+            fresh = new Entry(stale.schema);
+          }
+          entries.put(tableName, fresh);
+        }
+      });
+    } catch (RuntimeException e) {
+      // closed; keep the cached schema
+    }
+  }
+
+  private static class Entry {
+    private final SchemaResponse schema;
+    private final long loadedAt = System.currentTimeMillis();
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    private Entry(SchemaResponse schema) {
+      this.schema = schema;
+    }
+  }
+
+}
@@ -3,6 +3,7 @@ package com.factual.driver;
 import java.util.List;
 import java.util.Map;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -16,7 +17,7 @@ import com.google.common.collect.Maps;
  * @author aaron
  */
 public class SchemaResponse extends Response implements Tabular {
-  private final String json;
+  private ResponseBody body;
   private final Map<String, ColumnSchema> columnSchemas;
   private final String title;
   private final boolean searchEnabled;
@@ -31,9 +32,18 @@ public class SchemaResponse extends Response implements Tabular {
    * @param json the JSON response String returned by Factual.
    */
   public SchemaResponse(String json) {
-    this.json = json;
+    this(new ResponseBody(json));
+  }
+
+  /**
+   * Constructor, parses from a response body.
+   * 
+   * @param body the response body returned by Factual.
+   */
+  SchemaResponse(ResponseBody body) {
+    this.body = body;
     try{
-      JSONObject rootJsonObj = new JSONObject(json);
+      JSONObject rootJsonObj = body.toJsonObject();
       Response.withMeta(this, rootJsonObj);
       JSONObject respObj = rootJsonObj.getJSONObject(Constants.RESPONSE);
       JSONObject view = respObj.getJSONObject(Constants.SCHEMA_VIEW);
@@ -48,6 +58,23 @@ public class SchemaResponse extends Response implements Tabular {
     }
   }
 
+  /**
+   * Constructor, for a schema decoded from another format than Factual's
+   * JSON. The metadata is set by the decoder, and the JSON representation is
+   * only built if asked for.
+   * 
+   * @param data the column schemas, one row per column.
+   */
+  SchemaResponse(String title, String description, boolean searchEnabled,
+      boolean geoEnabled, List<Map<String, Object>> data) {
+    this.title = title;
+    this.description = description;
+    this.searchEnabled = searchEnabled;
+    this.geoEnabled = geoEnabled;
+    this.data = data;
+    this.columnSchemas = makeColumnSchemas(data);
+  }
+
   private Map<String, ColumnSchema> makeColumnSchemas(List<Map<String, Object>> data) {
     Map<String, ColumnSchema> schemas = Maps.newHashMap();
     for(Map<String, Object> smap : data) {
@@ -77,7 +104,34 @@ public class SchemaResponse extends Response implements Tabular {
    */
   @Override
   public String getJson() {
-    return json;
+    if (body == null) {
+      body = new ResponseBody(toJson());
+    }
+    return body.toString();
+  }
+
+  private String toJson() {
+    try {
+      JSONArray fields = new JSONArray();
+      for (Map<String, Object> column : data) {
+        fields.put(new JSONObject(column));
+      }
+      JSONObject view = new JSONObject();
+      view.put(Constants.SCHEMA_TITLE, title);
+      view.put(Constants.SCHEMA_DESCRIPTION, description);
+      view.put(Constants.SCHEMA_SEARCH_ENABLED, searchEnabled);
+      view.put(Constants.SCHEMA_GEO_ENABLED, geoEnabled);
+      view.put(Constants.SCHEMA_FIELDS, fields);
+      JSONObject respObj = new JSONObject();
+      respObj.put(Constants.SCHEMA_VIEW, view);
+      JSONObject rootJsonObj = new JSONObject();
+      rootJsonObj.put(Constants.VERSION, getVersion());
+      rootJsonObj.put(Constants.STATUS, getStatus());
+      rootJsonObj.put(Constants.RESPONSE, respObj);
+      return rootJsonObj.toString();
+    } catch (JSONException e) {
+      throw new RuntimeException(e);
+    }
   }
 
   /**
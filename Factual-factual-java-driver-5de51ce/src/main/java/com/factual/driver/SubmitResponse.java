@@ -9,7 +9,7 @@ import org.json.JSONObject;
  * @author brandon
  */
 public class SubmitResponse extends Response {
-	private String json = null;
+	private final ResponseBody body;
 	private String factualId;
 	private boolean newEntity;
 	
@@ -19,9 +19,18 @@ public class SubmitResponse extends Response {
 	 * @param json the JSON response String returned by Factual.
 	 */
 	public SubmitResponse(String json) {
-		this.json = json;
+		this(new ResponseBody(json));
+	}
+
+	/**
+	 * Constructor, parses from a response body.
+	 * 
+	 * @param body the response body returned by Factual.
+	 */
+	SubmitResponse(ResponseBody body) {
+		this.body = body;
 		try {
-			JSONObject rootJsonObj = new JSONObject(json);
+			JSONObject rootJsonObj = body.toJsonObject();
 			Response.withMeta(this, rootJsonObj);
 			parseResponse(rootJsonObj.getJSONObject(Constants.RESPONSE));
 		} catch (JSONException e) {
@@ -50,6 +59,6 @@ public class SubmitResponse extends Response {
 	
 	@Override
 	public String getJson() {
-		return json;
+		return body.toString();
 	}
 }
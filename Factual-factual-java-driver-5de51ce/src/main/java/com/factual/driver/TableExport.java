@@ -0,0 +1,698 @@
+package com.factual.driver;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * Exports every row of a Query to files, reading disjoint parts of the result
+ * set in parallel. A single Query can only be paged through so far, so the
+ * rows are split into partitions that each can be:
+ * <ul>
+ * <li>by the values of a field, found with a facet read, plus one partition
+ * for all other values of that field, including blank ones;</li>
+ * <li>by a grid of latitude and longitude ranges over an area. A cell holding
+ * more rows than can be paged through is split into four, and so on.</li>
+ * </ul>
+ * Both can be combined. With {@link #keysetPaging(String) keyset paging}, a
+ * partition can be read through however many rows it holds, so partitions
+ * only serve to read in parallel. Each partition is written to its own file in the
+ * export directory, as newline delimited JSON or as CSV, and recorded in a
+ * manifest there once complete. Exporting to a directory again skips the
+ * partitions its manifest records, so an interrupted export resumes where it
+ * stopped. Rows can instead be passed to a {@link RowHandler} as they are
+ * read, with {@link #exportTo(RowHandler)}.
+ * <p>
+ * Example use:
+ *
+ * <pre>
+ * long rows = new TableExport(factual, "places",
+ *     new Query().field("category").beginsWith("Food"))
+ *     .partitionByFacet("region")
+ *     .partitionByArea(new Point(49.4, -125), new Point(24.5, -66.9), 8)
+ *     .csv("factual_id", "name", "latitude", "longitude")
+ *     .exportTo(new File("food"));
+ * </pre>
+ *
+ * Facet partitions should be on a single valued field, since a row with many
+ * values for it would be exported once for each. Area partitions leave out
+ * rows without a <tt>latitude</tt> and <tt>longitude</tt>.
+ */
+public class TableExport {
+  /**
+   * The name of the manifest file in an export directory.
+   */
+  public static final String MANIFEST = "manifest.ndjson";
+  private static final int WRITE_BUFFER_CHARS = 64 * 1024;
+
+  private final Factual factual;
+  private final String tableName;
+  private final Query query;
+  private int parallelism = 8;
+  private int pageSize = 50;
+  private int maxRowsPerPartition = 500;
+  private String keyField;
+  private String facetField;
+  private int maxFacetValues = 250;
+  private Box area;
+  private int cellsPerSide;
+  private double minCellDegrees = 0.0005;
+  private boolean csv;
+  private String[] columns;
+
+
+  /**
+   * Constructor.
+   *
+   * @param factual
+   *          the Factual client to read with.
+   * @param tableName
+   *          the name of the table to export (e.g., "places").
+   * @param query
+   *          the read query whose rows to export. Its limit and offset are set
+   *          per read.
+   */
+  public TableExport(Factual factual, String tableName, Query query) {
+    this.factual = factual;
+    this.tableName = tableName;
+    this.query = query;
+  }
+
+  /**
+   * @param parallelism
+   *          the maximum amount of partitions read at once. The default is 8.
+   * @return this TableExport
+   */
+  public TableExport parallelism(int parallelism) {
+    this.parallelism = parallelism;
+    return this;
+  }
+
+  /**
+   * @param pageSize
+   *          the limit of each read. The default is 50.
+   * @return this TableExport
+   */
+  public TableExport pageSize(int pageSize) {
+    this.pageSize = pageSize;
+    return this;
+  }
+
+  /**
+   * @param maxRowsPerPartition
+   *          the maximum amount of rows that can be paged through for one
+   *          partition. An area cell with more rows is split; any other
+   *          partition with more rows fails the export. The default is 500.
+   *          Does not apply with {@link #keysetPaging(String) keyset paging}.
+   * @return this TableExport
+   */
+  public TableExport maxRowsPerPartition(int maxRowsPerPartition) {
+    this.maxRowsPerPartition = maxRowsPerPartition;
+    return this;
+  }
+
+  /**
+   * Pages through each partition by key rather than by offset: rows are read
+   * in ascending order of <tt>keyField</tt>, a field unique to each row such
+   * as <tt>factual_id</tt>, and each page after the first is filtered to keys
+   * greater than the last key read. Every page then costs Factual the same,
+   * and partitions of any size can be read through without splitting them.
+   * The query must not sort.
+   *
+   * @return this TableExport
+   */
+  public TableExport keysetPaging(String keyField) {
+    this.keyField = keyField;
+    return this;
+  }
+
+  /**
+   * Partitions the rows by the values of <tt>field</tt>, at most 250 of
+   * them.
+   *
+   * @return this TableExport
+   */
+  public TableExport partitionByFacet(String field) {
+    return partitionByFacet(field, 250);
+  }
+
+  /**
+   * Partitions the rows by the values of <tt>field</tt>.
+   *
+   * @param maxValues
+   *          the maximum amount of values to partition by, from 1 to 250. Rows
+   *          with other values share one partition.
+   * @return this TableExport
+   */
+  public TableExport partitionByFacet(String field, int maxValues) {
+    this.facetField = field;
+    this.maxFacetValues = maxValues;
+    return this;
+  }
+
+  /**
+   * Partitions the rows by a grid of <tt>cellsPerSide</tt> by
+   * <tt>cellsPerSide</tt> latitude and longitude ranges over the bounding box
+   * with the given corners. Rows outside the box are not exported.
+   *
+   * @return this TableExport
+   */
+  public TableExport partitionByArea(Point northWest, Point southEast, int cellsPerSide) {
+    this.area = new Box(southEast.getLatitude(), northWest.getLongitude(),
+        northWest.getLatitude(), southEast.getLongitude(), true, true);
+    this.cellsPerSide = Math.max(1, cellsPerSide);
+    return this;
+  }
+
+  /**
+   * @param minCellDegrees
+   *          the height, in degrees of latitude, below which area cells are no
+   *          longer split, even if they overflow. The default is 0.0005,
+   *          about 50 meters.
+   * @return this TableExport
+   */
+  public TableExport minCellDegrees(double minCellDegrees) {
+    this.minCellDegrees = minCellDegrees;
+    return this;
+  }
+
+  /**
+   * Writes rows as CSV with a header line, rather than as newline delimited
+   * JSON. Array and object values are written as JSON.
+   *
+   * @param columns
+   *          the fields to write, in order; if none, the fields the Query
+   *          selects with <tt>only</tt>.
+   * @return this TableExport
+   */
+  public TableExport csv(String... columns) {
+    this.csv = true;
+    this.columns = columns.length > 0 ? columns : null;
+    return this;
+  }
+
+  /**
+   * Exports the rows of each partition not yet recorded in the manifest of
+   * <tt>dir</tt>, creating <tt>dir</tt> if needed. Partitions are written as
+   * they complete, so rows are in no particular order across files.
+   *
+   * @return the amount of rows written by this export, not counting those
+   *         of partitions exported before.
+   * @throws IOException
+   *           if a file cannot be read or written. Partitions completed before
+   *           the failure stay recorded in the manifest.
+   */
+  public long exportTo(File dir) throws IOException {
+    String[] header = null;
+    if (csv) {
+      header = columns != null ? columns : query.getSelectFields();
+      if (header == null) {
+        throw new IllegalStateException("CSV exports need columns, or a Query that selects fields");
+      }
+    }
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Cannot create " + dir);
+    }
+    Manifest manifest = new Manifest(new File(dir, MANIFEST));
+    ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+    try {
+      Export export = new Export(executor, dir, manifest, header);
+      for (Partition partition : partitions()) {
+        export.exportPartition(partition);
+      }
+      return export.await();
+    } finally {
+      executor.shutdownNow();
+      manifest.close();
+    }
+  }
+
+  /**
+   * Passes every row to <tt>handler</tt> instead of writing files, reading
+   * partitions in parallel. Nothing is recorded, so an interrupted export
+   * cannot be resumed.
+   *
+   * @param handler
+   *          receives the rows, from several threads at once.
+   * @return the amount of rows passed to <tt>handler</tt>.
+   */
+  public long exportTo(RowHandler handler) {
+    ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+    try {
+      Export export = new Export(executor, handler);
+      for (Partition partition : partitions()) {
+        export.exportPartition(partition);
+      }
+      return export.await();
+    } catch (IOException e) {
+      // no files are written
+      throw new RuntimeException(e);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * @return the top level partitions of the export.
+   */
+  protected List<Partition> partitions() {
+    List<Partition> partitions = Lists.newArrayList();
+    if (facetField == null) {
+      partitions.add(new Partition("", query.copyWithFilters(), null));
+    } else {
+      FacetResponse facets = factual.fetch(tableName,
+          FacetQuery.over(query, facetField).maxValuesPerFacet(maxFacetValues));
+      Map<String, Object> counts = facets.getData().get(facetField);
+      SortedSet<String> values = Sets.newTreeSet();
+      if (counts != null) {
+        values.addAll(counts.keySet());
+      }
+      for (String value : values) {
+        partitions.add(new Partition(facetField + "=" + value,
+            query.copyWithFilters().field(facetField).equal(value), null));
+      }
+      Query others = query.copyWithFilters();
+      if (!values.isEmpty()) {
+        others.or(new Query().field(facetField).notIn(values.toArray()),
+            new Query().field(facetField).blank());
+      }
+      // the key changes with the values, as the rows this partition holds do
+      partitions.add(new Partition(facetField + "!=#" + Integer.toHexString(values.hashCode()), others, null));
+    }
+    if (area == null) {
+      return partitions;
+    }
+    List<Partition> cells = Lists.newArrayList();
+    for (Partition partition : partitions) {
+      for (Box cell : area.grid(cellsPerSide)) {
+        cells.add(partition.within(cell));
+      }
+    }
+    return cells;
+  }
+
+  /**
+   * A disjoint part of the exported rows.
+   */
+  protected static class Partition {
+    private final String key;
+    private final Query base;
+    private final Box box;
+
+    private Partition(String key, Query base, Box box) {
+      this.key = key;
+      this.base = base;
+      this.box = box;
+    }
+
+    /**
+     * @return the rows of this partition within <tt>cell</tt>.
+     */
+    private Partition within(Box cell) {
+      return new Partition(key, base, cell);
+    }
+
+    /**
+     * @return a key identifying this partition across exports.
+     */
+    protected String getKey() {
+      return box != null ? (key.length() > 0 ? key + ";" : "") + box : key.length() > 0 ? key : "all";
+    }
+
+    private Query query() {
+      Query query = base.copyWithFilters();
+      if (box != null) {
+        box.filter(query);
+      }
+      return query;
+    }
+
+    private String fileName(String extension) {
+      String key = getKey();
+      String name = key.replaceAll("[^A-Za-z0-9.=_-]+", "_");
+      if (name.length() > 80) {
+        name = name.substring(0, 80);
+      }
+      return name + "-" + Integer.toHexString(key.hashCode()) + extension;
+    }
+  }
+
+  /**
+   * A range of latitudes and longitudes. The south and west edges are
+   * inclusive; the north and east edges are only inclusive on the outside of
+   * the exported area, so that neighboring cells are disjoint.
+   */
+  private static class Box {
+    private final double south;
+    private final double west;
+    private final double north;
+    private final double east;
+    private final boolean closedNorth;
+    private final boolean closedEast;
+
+    private Box(double south, double west, double north, double east, boolean closedNorth, boolean closedEast) {
+      this.south = south;
+      this.west = west;
+      this.north = north;
+      this.east = east;
+      this.closedNorth = closedNorth;
+      this.closedEast = closedEast;
+    }
+
+    private List<Box> grid(int cells) {
+      List<Box> grid = Lists.newArrayList();
+      double height = (north - south) / cells;
+      double width = (east - west) / cells;
+      for (int i = 0; i < cells; i++) {
+        for (int j = 0; j < cells; j++) {
+          boolean top = i == cells - 1;
+          boolean right = j == cells - 1;
+          grid.add(new Box(south + i * height, west + j * width,
+              top ? north : south + (i + 1) * height, right ? east : west + (j + 1) * width,
+              top && closedNorth, right && closedEast));
+        }
+      }
+      return grid;
+    }
+
+    private void filter(Query query) {
+      query.field(Constants.LATITUDE).greaterThanOrEqual(south);
+      if (closedNorth) {
+        query.field(Constants.LATITUDE).lessThanOrEqual(north);
+      } else {
+        query.field(Constants.LATITUDE).lessThan(north);
+      }
+      query.field(Constants.LONGITUDE).greaterThanOrEqual(west);
+      if (closedEast) {
+        query.field(Constants.LONGITUDE).lessThanOrEqual(east);
+      } else {
+        query.field(Constants.LONGITUDE).lessThan(east);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "box=" + south + "," + west + "," + north + "," + east;
+    }
+  }
+
+  /**
+   * Records the partitions completed in an export directory, one JSON object
+   * per line.
+   */
+  private static class Manifest {
+    private final Set<String> completed = Sets.newHashSet();
+    private final Lock lock = new ReentrantLock();
+    private final Writer writer;
+
+    private Manifest(File file) throws IOException {
+      List<String> lines = Lists.newArrayList();
+      if (file.exists()) {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), Charsets.UTF_8));
+        try {
+          for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+            try {
+              completed.add(new JSONObject(line).getString("partition"));
+              lines.add(line);
+            } catch (JSONException e) {
+              // a line torn by an interrupted export; its partition is redone
+            }
+          }
+        } finally {
+          reader.close();
+        }
+      }
+      // rewrite without torn lines before appending
+      File tmp = new File(file.getPath() + ".tmp");
+      Writer rewrite = new OutputStreamWriter(new FileOutputStream(tmp), Charsets.UTF_8);
+      try {
+        for (String line : lines) {
+          rewrite.write(line);
+          rewrite.write('\n');
+        }
+      } finally {
+        rewrite.close();
+      }
+      replace(tmp, file);
+      writer = new OutputStreamWriter(new FileOutputStream(file, true), Charsets.UTF_8);
+    }
+
+    private boolean isCompleted(String key) {
+      lock.lock();
+      try {
+        return completed.contains(key);
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    private void complete(String key, String fileName, long rows) throws IOException {
+      JSONObject entry = new JSONObject();
+      try {
+        entry.put("partition", key);
+        entry.put("file", fileName);
+        entry.put("rows", rows);
+      } catch (JSONException e) {
+        throw new RuntimeException(e);
+      }
+      lock.lock();
+      try {
+        writer.write(entry.toString());
+        writer.write('\n');
+        writer.flush();
+        completed.add(key);
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    private void close() throws IOException {
+      writer.close();
+    }
+  }
+
+  /**
+   * Moves <tt>from</tt> over <tt>to</tt>. Renaming replaces <tt>to</tt>
+   * atomically where the file system allows it, so a crash leaves either
+   * file whole; only where it does not, e.g. on Windows, is <tt>to</tt>
+   * deleted first.
+   */
+  static void replace(File from, File to) throws IOException {
+    if (from.renameTo(to)) {
+      return;
+    }
+    if (to.exists() && !to.delete() || !from.renameTo(to)) {
+      throw new IOException("Cannot rename " + from + " to " + to);
+    }
+  }
+
+  /**
+   * Tracks the partitions of one export, until all of them are done or one
+   * fails.
+   */
+  private class Export {
+    private final ExecutorService executor;
+    private final File dir;
+    private final Manifest manifest;
+    private final String[] header;
+    private final RowHandler handler;
+    private final AtomicLong rows = new AtomicLong();
+    private final Set<String> started = Sets.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final AtomicInteger pending = new AtomicInteger(1);
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final AtomicReference<Exception> error = new AtomicReference<Exception>();
+
+    private Export(ExecutorService executor, File dir, Manifest manifest, String[] header) {
+      this.executor = executor;
+      this.dir = dir;
+      this.manifest = manifest;
+      this.header = header;
+      this.handler = null;
+    }
+
+    private Export(ExecutorService executor, RowHandler handler) {
+      this.executor = executor;
+      this.dir = null;
+      this.manifest = null;
+      this.header = null;
+      this.handler = handler;
+    }
+
+    private void exportPartition(final Partition partition) {
+      if (manifest != null && manifest.isCompleted(partition.getKey()) || !started.add(partition.getKey())) {
+        return;
+      }
+      pending.incrementAndGet();
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            export(partition);
+          } catch (Exception e) {
+            error.compareAndSet(null, e);
+            done.countDown();
+          } finally {
+            finish();
+          }
+        }
+      });
+    }
+
+    private void finish() {
+      if (pending.decrementAndGet() == 0) {
+        done.countDown();
+      }
+    }
+
+    private void export(Partition partition) throws IOException {
+      Query query = partition.query();
+      Query firstPage = keyField != null ? query.keysetPage(keyField, null, pageSize)
+          : query.copy().limit(pageSize);
+      ReadResponse first = factual.fetch(tableName, firstPage.includeRowCount());
+      int total = first.getTotalRowCount();
+      if (keyField == null && total > maxRowsPerPartition) {
+        Box box = partition.box;
+        if (box == null || box.north - box.south <= minCellDegrees) {
+          throw new IllegalStateException("Partition " + partition.getKey() + " holds " + total
+              + " rows, more than the " + maxRowsPerPartition + " that can be paged through");
+        }
+        double lat = (box.south + box.north) / 2;
+        double lng = (box.west + box.east) / 2;
+        exportPartition(partition.within(new Box(lat, box.west, box.north, lng, box.closedNorth, false)));
+        exportPartition(partition.within(new Box(lat, lng, box.north, box.east, box.closedNorth, box.closedEast)));
+        exportPartition(partition.within(new Box(box.south, box.west, lat, lng, false, false)));
+        exportPartition(partition.within(new Box(box.south, lng, lat, box.east, false, box.closedEast)));
+        return;
+      }
+      if (handler != null) {
+        rows.addAndGet(read(query, first, total, null));
+        return;
+      }
+
+      String fileName = partition.fileName(csv ? ".csv" : ".ndjson");
+      File tmp = new File(dir, fileName + ".part");
+      Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), Charsets.UTF_8),
+          WRITE_BUFFER_CHARS);
+      long written;
+      try {
+        if (header != null) {
+          writeCsvLine(writer, header, null);
+        }
+        written = read(query, first, total, writer);
+      } finally {
+        writer.close();
+      }
+      replace(tmp, new File(dir, fileName));
+      manifest.complete(partition.getKey(), fileName, written);
+      rows.addAndGet(written);
+    }
+
+    /**
+     * Pages through the rows of a partition from its <tt>first</tt> page on,
+     * writing them to <tt>writer</tt>, or passing them to the handler if
+     * <tt>writer</tt> is null.
+     *
+     * @return the amount of rows read.
+     */
+    private long read(Query query, ReadResponse first, int total, Writer writer) throws IOException {
+      long read = 0;
+      int end = total >= 0 ? total : maxRowsPerPartition;
+      ReadResponse page = first;
+      for (int offset = pageSize;; offset += pageSize) {
+        for (Map<String, Object> row : page.getData()) {
+          if (writer != null) {
+            write(writer, row);
+          } else {
+            handler.handle(row);
+          }
+        }
+        read += page.getData().size();
+        if (page.getData().size() < pageSize || keyField == null && offset >= end) {
+          return read;
+        }
+        Query next = keyField != null ? query.keysetPage(keyField, Query.lastKey(page.getData(), keyField), pageSize)
+            : query.copy().limit(pageSize).offset(offset);
+        page = factual.fetch(tableName, next.includeRowCount(false));
+      }
+    }
+
+    private void write(Writer writer, Map<String, Object> row) throws IOException {
+      if (header != null) {
+        writeCsvLine(writer, header, row);
+      } else {
+        writer.write(new JSONObject(row).toString());
+        writer.write('\n');
+      }
+    }
+
+    private long await() throws IOException {
+      // the count held for submitting the top level partitions
+      finish();
+      try {
+        done.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException(e);
+      }
+      Exception e = error.get();
+      if (e instanceof IOException) {
+        throw (IOException) e;
+      } else if (e != null) {
+        throw (RuntimeException) e;
+      }
+      return rows.get();
+    }
+  }
+
+  /**
+   * Writes the values of <tt>columns</tt> in <tt>row</tt> as a CSV line, or
+   * the column names if <tt>row</tt> is null.
+   */
+  private static void writeCsvLine(Writer writer, String[] columns, Map<String, Object> row) throws IOException {
+    for (int i = 0; i < columns.length; i++) {
+      if (i > 0) {
+        writer.write(',');
+      }
+      Object value = row != null ? row.get(columns[i]) : columns[i];
+      if (value == null || JSONObject.NULL.equals(value)) {
+        continue;
+      }
+      String str = value.toString();
+      if (str.indexOf(',') >= 0 || str.indexOf('"') >= 0 || str.indexOf('\n') >= 0 || str.indexOf('\r') >= 0) {
+        writer.write('"');
+        writer.write(str.replace("\"", "\"\""));
+        writer.write('"');
+      } else {
+        writer.write(str);
+      }
+    }
+    writer.write('\n');
+  }
+
+}
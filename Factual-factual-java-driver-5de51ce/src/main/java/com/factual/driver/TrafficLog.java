@@ -0,0 +1,254 @@
+package com.factual.driver;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+
+/**
+ * The log of Factual traffic written by a {@link RecordingTransport} and read
+ * by a {@link ReplayTransport}. It starts with {@link #MAGIC}, followed by one
+ * record per exchange, in the order their responses completed. Each record is
+ * its length as an int, then:
+ * <ul>
+ * <li>the request method, its URL path and query relative to the host, and its
+ * form fields, if any;
+ * <li>when the request was sent, relative to the start of the recording, and
+ * how long it took until its whole response was read, both in nanoseconds;
+ * <li>the response status, the headers in {@link #HEADERS}, and the body,
+ * deflated.
+ * </ul>
+ * The OAuth <tt>Authorization</tt> header is not recorded, so a log holds no
+ * secrets and matches requests however they were signed. A record torn by a
+ * crash while it was appended ends the log.
+ */
+class TrafficLog {
+  static final int MAGIC = 0x46544c01;
+  static final String[] HEADERS = { "Content-Type", "ETag", "Last-Modified" };
+
+  private TrafficLog() {}
+
+  /**
+   * @return the path and query of <tt>url</tt>, without its scheme and host.
+   */
+  static String target(String url) {
+    int scheme = url.indexOf("://");
+    int path = url.indexOf('/', scheme < 0 ? 0 : scheme + 3);
+    return path < 0 ? "/" : url.substring(path);
+  }
+
+  /**
+   * @return the key requests are matched by: their method, target and form
+   *         fields, with query parameters and fields in sorted order.
+   */
+  static String key(String method, String target, Map<String, String> postData) {
+    StringBuilder key = new StringBuilder(method).append(' ');
+    int query = target.indexOf('?');
+    if (query < 0) {
+      key.append(target);
+    } else {
+      String[] params = target.substring(query + 1).split("&");
+      Arrays.sort(params);
+      key.append(target, 0, query + 1);
+      for (int i = 0; i < params.length; i++) {
+        key.append(i > 0 ? "&" : "").append(params[i]);
+      }
+    }
+    if (postData != null) {
+      for (Map.Entry<String, String> field : new TreeMap<String, String>(postData).entrySet()) {
+        key.append('\n').append(field.getKey()).append('=').append(field.getValue());
+      }
+    }
+    return key.toString();
+  }
+
+  /**
+   * A request and its recorded response.
+   */
+  static class Exchange {
+    final String method;
+    final String target;
+    final Map<String, String> postData;
+    final long offset;
+    final long latency;
+    final int status;
+    final String message;
+    final Map<String, String> headers;
+    final byte[] body;
+
+    Exchange(String method, String target, Map<String, String> postData,
+        long offset, long latency, int status, String message,
+        Map<String, String> headers, byte[] body) {
+      this.method = method;
+      this.target = target;
+      this.postData = postData;
+      this.offset = offset;
+      this.latency = latency;
+      this.status = status;
+      this.message = message;
+      this.headers = headers;
+      this.body = body;
+    }
+
+    String key() {
+      return TrafficLog.key(method, target, postData);
+    }
+
+    /**
+     * @return this record, including its length prefix.
+     */
+    byte[] encode() throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(256 + (body != null ? body.length / 4 : 0));
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(0);
+      out.writeUTF(method);
+      writeString(out, target);
+      out.writeInt(postData != null ? postData.size() : -1);
+      if (postData != null) {
+        for (Map.Entry<String, String> field : postData.entrySet()) {
+          out.writeUTF(field.getKey());
+          writeString(out, field.getValue());
+        }
+      }
+      out.writeLong(offset);
+      out.writeLong(latency);
+      out.writeShort(status);
+      out.writeUTF(message != null ? message : "");
+      out.writeByte(headers.size());
+      for (Map.Entry<String, String> header : headers.entrySet()) {
+        out.writeUTF(header.getKey());
+        out.writeUTF(header.getValue());
+      }
+      out.writeInt(body != null ? body.length : -1);
+      if (body != null) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(body);
+        deflater.finish();
+        byte[] buf = new byte[8192];
+        while (!deflater.finished()) {
+          out.write(buf, 0, deflater.deflate(buf));
+        }
+        deflater.end();
+      }
+      out.flush();
+      byte[] record = bytes.toByteArray();
+      int length = record.length - 4;
+      record[0] = (byte) (length >>> 24);
+      record[1] = (byte) (length >>> 16);
+      record[2] = (byte) (length >>> 8);
+      record[3] = (byte) length;
+      return record;
+    }
+
+    /**
+     * Decodes a record, without its length prefix.
+     */
+    static Exchange decode(byte[] record) throws IOException {
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+      String method = in.readUTF();
+      String target = readString(in);
+      int fields = in.readInt();
+      Map<String, String> postData = null;
+      if (fields >= 0) {
+        postData = Maps.newLinkedHashMap();
+        for (int i = 0; i < fields; i++) {
+          postData.put(in.readUTF(), readString(in));
+        }
+      }
+      long offset = in.readLong();
+      long latency = in.readLong();
+      int status = in.readUnsignedShort();
+      String message = in.readUTF();
+      Map<String, String> headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+      for (int i = in.readUnsignedByte(); i > 0; i--) {
+        headers.put(in.readUTF(), in.readUTF());
+      }
+      int length = in.readInt();
+      byte[] body = null;
+      if (length == 0) {
+        body = new byte[0];
+      } else if (length > 0) {
+        body = new byte[length];
+        int start = record.length - in.available();
+        Inflater inflater = new Inflater();
+        inflater.setInput(record, start, record.length - start);
+        try {
+          if (inflater.inflate(body) != length || !inflater.finished()) {
+            throw new IOException("Truncated body in traffic log record");
+          }
+        } catch (DataFormatException e) {
+          throw new IOException(e.getMessage());
+        } finally {
+          inflater.end();
+        }
+      }
+      return new Exchange(method, target, postData, offset, latency, status,
+          message, headers, body);
+    }
+
+    /**
+     * @return a response serving the recorded status, headers and body.
+     */
+    TransportResponse toResponse() {
+      return new RecordedResponse(this);
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    byte[] bytes = s.getBytes(Charsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, Charsets.UTF_8);
+  }
+
+  private static class RecordedResponse implements TransportResponse {
+    private final Exchange exchange;
+
+    private RecordedResponse(Exchange exchange) {
+      this.exchange = exchange;
+    }
+
+    @Override
+    public int getStatusCode() {
+      return exchange.status;
+    }
+
+    @Override
+    public String getStatusMessage() {
+      return exchange.message;
+    }
+
+    @Override
+    public String getHeader(String name) {
+      if ("Content-Length".equalsIgnoreCase(name)) {
+        return exchange.body != null ? String.valueOf(exchange.body.length) : null;
+      }
+      return exchange.headers.get(name);
+    }
+
+    @Override
+    public InputStream getContent() {
+      return exchange.body != null ? new ByteArrayInputStream(exchange.body) : null;
+    }
+
+    @Override
+    public void close() {}
+  }
+
+}
@@ -0,0 +1,84 @@
+package com.factual.driver;
+
+import java.util.Map;
+
+/**
+ * An HTTP request to be sent by a {@link FactualTransport}.
+ */
+public class TransportRequest {
+  private final String method;
+  private final String url;
+  private final Map<String, String> headers;
+  private final Map<String, String> postData;
+  private volatile boolean aborted = false;
+  private volatile Runnable abortAction = null;
+
+
+  /**
+   * Constructor.
+   * 
+   * @param method
+   *          the request method, "GET" or "POST".
+   * @param url
+   *          the full request URL, including its encoded query string.
+   * @param headers
+   *          the request headers to send, by name.
+   * @param postData
+   *          the form fields to send as the body of a POST; may be null.
+   */
+  public TransportRequest(String method, String url,
+      Map<String, String> headers, Map<String, String> postData) {
+    this.method = method;
+    this.url = url;
+    this.headers = headers;
+    this.postData = postData;
+  }
+
+  public String getMethod() {
+    return method;
+  }
+
+  public String getUrl() {
+    return url;
+  }
+
+  public Map<String, String> getHeaders() {
+    return headers;
+  }
+
+  /**
+   * @return the form fields to send as the body of a POST, or null if there is
+   *         no body.
+   */
+  public Map<String, String> getPostData() {
+    return postData;
+  }
+
+  /**
+   * Aborts this request from any thread, if it is in flight; the thread
+   * executing it then fails with an IOException.
+   */
+  public void abort() {
+    aborted = true;
+    Runnable action = abortAction;
+    if (action != null) {
+      action.run();
+    }
+  }
+
+  public boolean isAborted() {
+    return aborted;
+  }
+
+  /**
+   * Called by a {@link FactualTransport} with how to abort this request at its
+   * current stage, replacing any previous action. Runs <tt>action</tt> at once
+   * if this request was already aborted.
+   */
+  public void onAbort(Runnable action) {
+    abortAction = action;
+    if (aborted && action != null) {
+      action.run();
+    }
+  }
+}
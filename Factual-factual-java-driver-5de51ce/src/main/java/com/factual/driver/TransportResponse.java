@@ -0,0 +1,32 @@
+package com.factual.driver;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An HTTP response received by a {@link FactualTransport}. The body is
+ * streamed, not buffered; it is read through {@link #getContent()}, and the
+ * response must be closed once done with so its connection can be reused.
+ */
+public interface TransportResponse {
+
+  int getStatusCode();
+
+  String getStatusMessage();
+
+  /**
+   * @return the first value of the named response header, matching its name
+   *         case insensitively; null if absent.
+   */
+  String getHeader(String name);
+
+  /**
+   * @return a stream over the response body, or null if there is no body.
+   */
+  InputStream getContent() throws IOException;
+
+  /**
+   * Releases this response, discarding any unread body.
+   */
+  void close() throws IOException;
+}
@@ -0,0 +1,95 @@
+package com.factual.driver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+
+
+/**
+ * Tests running requests asynchronously, against a {@link StandInServer}.
+ */
+public class AsyncFactualTest {
+  private static final String DATA = "{\"version\":3,\"status\":\"ok\",\"response\":{\"data\":["
+      + "{\"factual_id\":\"03c26917-5d66-4de9-96bc-b13066173c65\",\"name\":\"Starbucks\",\"region\":\"CA\"}"
+      + "],\"included_rows\":1}}";
+
+  private StandInServer server;
+  private AsyncFactual async;
+
+  @Before
+  public void setup() throws Exception {
+    server = new StandInServer().respond("/t/places", DATA);
+    Factual factual = new Factual("key", "secret");
+    factual.setFactHome(server.getFactHome());
+    async = new AsyncFactual(factual);
+  }
+
+  @After
+  public void teardown() {
+    async.shutdown();
+    server.stop();
+  }
+
+  @Test
+  public void testConcurrentDelayedFetches() throws Exception {
+    server.delay(200);
+    List<ListenableFuture<ReadResponse>> responses = Lists.newArrayList();
+    long start = System.nanoTime();
+    for (int i = 0; i < 200; i++) {
+      responses.add(async.fetch("places", new Query().offset(i)));
+    }
+    for (ListenableFuture<ReadResponse> resp : responses) {
+      assertEquals("Starbucks", resp.get().first().get("name"));
+    }
+    // the calls wait on the server together rather than one after another
+    assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 200 * 20);
+    assertEquals(200, server.getRequestCount("/t/places"));
+  }
+
+  @Test
+  public void testFailedFetch() throws Exception {
+    try {
+      async.fetch("nowhere", new Query()).get();
+      fail("expected the fetch to fail");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof FactualApiException);
+      assertEquals(404, ((FactualApiException) e.getCause()).getStatusCode());
+    }
+  }
+
+  @Test
+  public void testVirtualThreadExecutor() throws Exception {
+    ExecutorService executor = FactualExecutors.newVirtualThreadExecutor();
+    try {
+      Thread thread = executor.submit(new Callable<Thread>() {
+        @Override
+        public Thread call() {
+          return Thread.currentThread();
+        }
+      }).get();
+      boolean virtual = false;
+      try {
+        virtual = (Boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+      } catch (NoSuchMethodException e) {
+        // no virtual threads on this JDK
+      }
+      assertEquals(FactualExecutors.isVirtualThreadSupported(), virtual);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+}
@@ -0,0 +1,157 @@
+package com.factual.driver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+
+/**
+ * Tests collecting single reads from many threads into multi requests.
+ */
+public class AutoBatcherTest {
+  private StandInServer server;
+  private Factual factual;
+
+  @Before
+  public void setUp() throws Exception {
+    List<Map<String, Object>> rows = Lists.newArrayList();
+    for (int i = 0; i < 50; i++) {
+      Map<String, Object> row = Maps.newLinkedHashMap();
+      row.put("factual_id", "id-" + i);
+      row.put("name", "Place " + i);
+      rows.add(row);
+    }
+    server = new StandInServer().respondRows("/t/places", rows);
+    factual = new Factual("key", "secret");
+    factual.setFactHome(server.getFactHome());
+  }
+
+  @After
+  public void tearDown() {
+    server.stop();
+  }
+
+  @Test
+  public void testBatchesReadsFromManyThreads() throws Exception {
+    final AutoBatcher batcher = new AutoBatcher(factual).windowMillis(200).batchSize(4);
+    ExecutorService executor = Executors.newFixedThreadPool(24);
+    try {
+      List<Future<Object>> ids = Lists.newArrayList();
+      for (int i = 0; i < 24; i++) {
+        final int id = i;
+        ids.add(executor.submit(new Callable<Object>() {
+          @Override
+          public Object call() {
+            return batcher.fetch("places", byId(id)).first().get("factual_id");
+          }
+        }));
+      }
+      for (int i = 0; i < 24; i++) {
+        assertEquals("id-" + i, ids.get(i).get(30, TimeUnit.SECONDS));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(0, server.getRequestCount("/t/places"));
+    assertTrue(server.getRequestCount("/multi") < 24);
+  }
+
+  @Test
+  public void testSendsWhenWindowCloses() throws Exception {
+    AutoBatcher batcher = new AutoBatcher(factual).windowMillis(300).batchSize(10);
+    Pending<ReadResponse> first = batcher.queueFetch("places", byId(1));
+    Pending<ReadResponse> second = batcher.queueFetch("places", byId(2));
+    assertFalse(first.isDone());
+    assertEquals("id-1", first.get(10, TimeUnit.SECONDS).first().get("factual_id"));
+    assertEquals("id-2", second.get(10, TimeUnit.SECONDS).first().get("factual_id"));
+
+    assertEquals("id-3", batcher.fetch("places", byId(3)).first().get("factual_id"));
+  }
+
+  @Test
+  public void testSharesIdenticalReads() throws Exception {
+    AutoBatcher batcher = new AutoBatcher(factual).windowMillis(10000).batchSize(2);
+    Pending<ReadResponse> first = batcher.queueFetch("places", byId(1));
+    Pending<ReadResponse> again = batcher.queueFetch("places", byId(1));
+    assertSame(first, again);
+    assertFalse(first == batcher.queueFetch("places", byId(1).only("name")));
+    assertTrue(first.isDone());
+    assertEquals("id-1", first.get().first().get("factual_id"));
+  }
+
+  @Test
+  public void testFailsEachCallerWithTheirMulti() throws Exception {
+    server.respond("/multi", 503, "{\"version\":3,\"status\":\"error\"}");
+    AutoBatcher batcher = new AutoBatcher(factual).windowMillis(10);
+    try {
+      batcher.fetch("places", byId(1));
+      fail();
+    } catch (FactualApiException e) {
+      assertEquals(503, e.getStatusCode());
+    }
+  }
+
+  @Test
+  public void testValidatesOutsideTheLock() throws Exception {
+    final CountDownLatch schemaRead = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    // stands in for a slow schema read of the "slow" table
+    factual.setSchemaCache(new SchemaCache(factual, 1, TimeUnit.HOURS) {
+      @Override
+      public void validate(String tableName, Query query) {
+        if ("slow".equals(tableName)) {
+          schemaRead.countDown();
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      }
+    });
+    final AutoBatcher batcher = new AutoBatcher(factual).windowMillis(10000).batchSize(10);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      executor.submit(new Callable<Object>() {
+        @Override
+        public Object call() {
+          return batcher.queueFetch("slow", byId(1));
+        }
+      });
+      assertTrue(schemaRead.await(5, TimeUnit.SECONDS));
+      Future<Pending<ReadResponse>> other = executor.submit(new Callable<Pending<ReadResponse>>() {
+        @Override
+        public Pending<ReadResponse> call() {
+          return batcher.queueFetch("places", byId(2));
+        }
+      });
+      assertFalse(other.get(5, TimeUnit.SECONDS).isDone());
+    } finally {
+      release.countDown();
+      executor.shutdownNow();
+    }
+  }
+
+  private static Query byId(int id) {
+    return new Query().field("factual_id").equal("id-" + id).limit(1);
+  }
+
+}
@@ -0,0 +1,171 @@
+package com.factual.driver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.factual.driver.CircuitBreaker.State;
+
+
+/**
+ * Tests moving circuits through their states, and shedding requests while
+ * open.
+ */
+public class CircuitBreakerTest {
+  private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+  private static final long SLOW = TimeUnit.SECONDS.toNanos(10);
+  private static final String DATA = "{\"version\":3,\"status\":\"ok\",\"response\":{\"data\":["
+      + "{\"factual_id\":\"03c26917-5d66-4de9-96bc-b13066173c65\",\"name\":\"Starbucks\",\"region\":\"CA\"}"
+      + "],\"included_rows\":1}}";
+  private static final String OUTAGE = "{\"version\":3,\"status\":\"error\",\"error_type\":\"ServiceUnavailable\"}";
+
+  @Test
+  public void testOpensOnFailureRate() {
+    ClockedBreaker breaker = new ClockedBreaker();
+    for (int i = 0; i < 3; i++) {
+      call(breaker, "t/places", FAST, i % 2 == 0);
+    }
+    assertEquals(State.CLOSED, breaker.getState("t/places"));
+    call(breaker, "t/places", FAST, true);
+    assertEquals(State.OPEN, breaker.getState("t/places"));
+    assertRejected(breaker, "t/places");
+    assertEquals(1, breaker.getRejectedCount());
+    // other endpoints are unaffected
+    assertEquals(State.CLOSED, breaker.getState("places/geocode"));
+    breaker.acquire("places/geocode");
+  }
+
+  @Test
+  public void testOpensOnSlowCallRate() {
+    ClockedBreaker breaker = new ClockedBreaker();
+    for (int i = 0; i < 4; i++) {
+      call(breaker, "t/places", i == 0 ? FAST : SLOW, false);
+    }
+    assertEquals(State.OPEN, breaker.getState("t/places"));
+  }
+
+  @Test
+  public void testClosesAfterSuccessfulTrials() {
+    ClockedBreaker breaker = trippedBreaker();
+    breaker.now += TimeUnit.SECONDS.toNanos(30);
+    assertEquals(State.HALF_OPEN, breaker.getState("t/places"));
+    breaker.acquire("t/places");
+    breaker.acquire("t/places");
+    assertRejected(breaker, "t/places");
+    breaker.record("t/places", FAST, false);
+    breaker.record("t/places", FAST, false);
+    assertEquals(State.CLOSED, breaker.getState("t/places"));
+    breaker.acquire("t/places");
+  }
+
+  @Test
+  public void testReopensAfterFailedTrials() {
+    ClockedBreaker breaker = trippedBreaker();
+    breaker.now += TimeUnit.SECONDS.toNanos(30);
+    breaker.acquire("t/places");
+    breaker.acquire("t/places");
+    breaker.record("t/places", FAST, false);
+    breaker.record("t/places", FAST, true);
+    assertEquals(State.OPEN, breaker.getState("t/places"));
+    assertRejected(breaker, "t/places");
+  }
+
+  @Test
+  public void testUnsentTrialIsReturned() {
+    ClockedBreaker breaker = trippedBreaker();
+    breaker.now += TimeUnit.SECONDS.toNanos(30);
+    breaker.acquire("t/places");
+    breaker.acquire("t/places");
+    breaker.release("t/places");
+    breaker.acquire("t/places");
+  }
+
+  @Test
+  public void testShedsLoadAndFallsBackToStaleResponse() throws Exception {
+    StandInServer server = new StandInServer().respond("/t/places", DATA);
+    try {
+      Factual factual = new Factual("key", "secret");
+      factual.setFactHome(server.getFactHome());
+      RevalidationCache cache = new RevalidationCache(10);
+      factual.setRevalidationCache(cache);
+      CircuitBreaker breaker = new CircuitBreaker().window(10, 4).fallback(cache);
+      factual.setCircuitBreaker(breaker);
+      Query cached = new Query().field("region").equal("CA");
+      ReadResponse stale = factual.fetch("places", cached);
+      ReadResponse staleProjected = factual.fetch("places",
+          new Query().field("region").equal("CA").project("name"));
+
+      // with the two successful reads, two failures make a 50% failure rate
+      server.respond("/t/places", 503, OUTAGE);
+      for (int i = 0; i < 2; i++) {
+        try {
+          factual.fetch("places", new Query().offset(i + 1));
+          fail("expected the outage to fail the read");
+        } catch (FactualApiException e) {
+          assertEquals(503, e.getStatusCode());
+        }
+      }
+      assertEquals(State.OPEN, breaker.getState("t/places"));
+      int sent = server.getRequestCount("/t/places");
+
+      try {
+        factual.fetch("places", new Query().offset(10));
+        fail("expected the open circuit to reject the read");
+      } catch (CircuitBreakerOpenException e) {
+        assertEquals("t/places", e.getEndpoint());
+      }
+      assertSame(stale, factual.fetch("places", cached));
+      assertSame(staleProjected, factual.fetch("places",
+          new Query().field("region").equal("CA").project("name")));
+      assertEquals(sent, server.getRequestCount("/t/places"));
+    } finally {
+      server.stop();
+    }
+  }
+
+  private static ClockedBreaker trippedBreaker() {
+    ClockedBreaker breaker = new ClockedBreaker();
+    for (int i = 0; i < 4; i++) {
+      call(breaker, "t/places", FAST, true);
+    }
+    assertEquals(State.OPEN, breaker.getState("t/places"));
+    return breaker;
+  }
+
+  private static void call(CircuitBreaker breaker, String endpoint, long latency, boolean failed) {
+    breaker.acquire(endpoint);
+    breaker.record(endpoint, latency, failed);
+  }
+
+  private static void assertRejected(CircuitBreaker breaker, String endpoint) {
+    try {
+      breaker.acquire(endpoint);
+      fail("expected the circuit to reject the request");
+    } catch (CircuitBreakerOpenException e) {
+      assertEquals(endpoint, e.getEndpoint());
+    }
+  }
+
+  /**
+   * A breaker on a clock the test moves.
+   */
+  private static class ClockedBreaker extends CircuitBreaker {
+    private long now = 0;
+
+    private ClockedBreaker() {
+      window(10, 4);
+      open(30, TimeUnit.SECONDS, 2);
+    }
+
+    @Override
+    protected long nanoTime() {
+      return now;
+    }
+  }
+
+}
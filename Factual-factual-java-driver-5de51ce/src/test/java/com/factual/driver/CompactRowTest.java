@@ -0,0 +1,124 @@
+package com.factual.driver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+
+/**
+ * Tests that compact rows behave like the HashMaps they replace.
+ */
+public class CompactRowTest {
+  private static final String ROWS = "["
+      + "{\"factual_id\":\"a\",\"name\":\"Starbucks\",\"rank\":1,\"tel\":null},"
+      + "{\"factual_id\":\"b\",\"name\":\"Peet's\",\"website\":\"http://peets.com\"},"
+      + "{}]";
+
+  @Test
+  public void testMatchesHashMaps() throws Exception {
+    JSONArray arr = new JSONArray(ROWS);
+    List<Map<String, Object>> rows = JsonUtil.data(arr);
+    assertEquals(3, rows.size());
+    for (int i = 0; i < rows.size(); i++) {
+      Map<String, Object> expected = hashMap(arr.getJSONObject(i));
+      Map<String, Object> row = rows.get(i);
+      assertTrue(row instanceof CompactRow);
+      assertEquals(expected, row);
+      assertEquals(row, expected);
+      assertEquals(expected.hashCode(), row.hashCode());
+      assertEquals(expected.size(), row.size());
+      assertEquals(expected.keySet(), row.keySet());
+    }
+    Map<String, Object> first = rows.get(0);
+    assertEquals(JSONObject.NULL, first.get("tel"));
+    assertNull(first.get("website"));
+    assertFalse(first.containsKey("website"));
+    assertTrue(rows.get(1).containsKey("website"));
+    assertTrue(rows.get(2).isEmpty());
+  }
+
+  @Test
+  public void testSerializesAsLinkedHashMap() throws Exception {
+    Map<String, Object> row = JsonUtil.data(new JSONArray(ROWS)).get(1);
+    row.put("distance", 12.5);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(row);
+    out.close();
+    Object copy = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+    assertTrue(copy instanceof LinkedHashMap);
+    assertEquals(row, copy);
+    assertEquals(Lists.newArrayList(row.keySet()), Lists.newArrayList(((Map<?, ?>) copy).keySet()));
+  }
+
+  @Test
+  public void testModifiable() throws Exception {
+    List<Map<String, Object>> rows = JsonUtil.data(new JSONArray(ROWS));
+    Map<String, Object> row = rows.get(0);
+    assertEquals("Starbucks", row.put("name", "Starbucks Coffee"));
+    assertEquals("Starbucks Coffee", row.get("name"));
+    assertNull(row.put("website", "http://starbucks.com"));
+    assertNull(row.put("distance", 12.5));
+    assertEquals(6, row.size());
+    assertEquals(12.5, row.get("distance"));
+    assertEquals(1, row.remove("rank"));
+    assertNull(row.remove("rank"));
+    assertFalse(row.containsKey("rank"));
+    assertNull(row.put("nullable", null));
+    assertTrue(row.containsKey("nullable"));
+    assertEquals(6, row.size());
+
+    // other rows sharing the dictionary are unaffected
+    assertEquals("Peet's", rows.get(1).get("name"));
+    assertFalse(rows.get(1).containsKey("distance"));
+    assertTrue(rows.get(2).isEmpty());
+
+    for (Iterator<Map.Entry<String, Object>> it = row.entrySet().iterator(); it.hasNext();) {
+      Map.Entry<String, Object> e = it.next();
+      if (e.getKey().equals("factual_id")) {
+        e.setValue("c");
+      } else if (e.getKey().equals("tel") || e.getKey().equals("distance")) {
+        it.remove();
+      }
+    }
+    assertEquals("c", row.get("factual_id"));
+    assertFalse(row.containsKey("tel"));
+    assertFalse(row.containsKey("distance"));
+    assertEquals(4, row.size());
+    row.clear();
+    assertTrue(row.isEmpty());
+  }
+
+  @Test
+  public void testSerializesAsJson() throws Exception {
+    Map<String, Object> row = JsonUtil.data(new JSONArray(ROWS)).get(1);
+    assertEquals(row, hashMap(new JSONObject(new JSONObject(row).toString())));
+  }
+
+  private static Map<String, Object> hashMap(JSONObject jo) throws Exception {
+    Map<String, Object> map = Maps.newHashMap();
+    for (Iterator<?> it = jo.keys(); it.hasNext();) {
+      String key = it.next().toString();
+      map.put(key, jo.get(key));
+    }
+    return map;
+  }
+
+}
@@ -0,0 +1,208 @@
+package com.factual.driver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+
+
+/**
+ * Tests adapting and enforcing the concurrency limit.
+ */
+public class ConcurrencyLimiterTest {
+  private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+  private static final long SLOW = TimeUnit.SECONDS.toNanos(5);
+
+  @Test
+  public void testFailFastOverLimit() {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 1, 10).maxWait(0, TimeUnit.SECONDS);
+    limiter.acquire();
+    limiter.acquire();
+    assertEquals(2, limiter.getInFlight());
+    try {
+      limiter.acquire();
+      fail("expected the limit to be enforced");
+    } catch (FactualApiException e) {
+      assertTrue(e.getMessage().contains("limit of 2"));
+    }
+    assertEquals(1, limiter.getRejectedCount());
+    limiter.release(FAST, false);
+    limiter.acquire();
+    assertEquals(2, limiter.getInFlight());
+  }
+
+  @Test
+  public void testWaitForRelease() throws Exception {
+    final ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 10).maxWait(5, TimeUnit.SECONDS);
+    limiter.acquire();
+    Thread releaser = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(100);
+        } catch (InterruptedException e) {
+          return;
+        }
+        limiter.release(FAST, false);
+      }
+    };
+    releaser.start();
+    limiter.acquire();
+    assertEquals(1, limiter.getInFlight());
+    assertEquals(0, limiter.getRejectedCount());
+    releaser.join();
+  }
+
+  @Test
+  public void testAdditiveIncreaseWhileInUse() {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, 1, 10);
+    for (int i = 0; i < 40; i++) {
+      int used = limiter.getLimit();
+      for (int j = 0; j < used; j++) {
+        limiter.acquire();
+      }
+      for (int j = 0; j < used; j++) {
+        limiter.release(FAST, false);
+      }
+    }
+    assertTrue(limiter.getLimit() > 4);
+    assertTrue(limiter.getLimit() <= 10);
+  }
+
+  @Test
+  public void testNoIncreaseWhenUnused() {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 1, 100);
+    for (int i = 0; i < 100; i++) {
+      limiter.acquire();
+      limiter.release(FAST, false);
+    }
+    assertEquals(10, limiter.getLimit());
+  }
+
+  @Test
+  public void testMultiplicativeDecrease() {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(20, 2, 100).backoffRatio(0.5);
+    limiter.acquire();
+    limiter.release(SLOW, false);
+    assertEquals(10, limiter.getLimit());
+    limiter.acquire();
+    limiter.release(FAST, true);
+    assertEquals(5, limiter.getLimit());
+    for (int i = 0; i < 10; i++) {
+      limiter.acquire();
+      limiter.release(SLOW, false);
+    }
+    assertEquals(2, limiter.getLimit());
+  }
+
+  @Test
+  public void testFactualRequestsOverLimit() throws Exception {
+    StandInServer server = new StandInServer().delay(500).respond("/t/places",
+        "{\"version\":3,\"status\":\"ok\",\"response\":{\"data\":[],\"included_rows\":0}}");
+    Factual factual = new Factual("key", "secret");
+    factual.setFactHome(server.getFactHome());
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 1, 2).maxWait(0, TimeUnit.SECONDS);
+    factual.setConcurrencyLimiter(limiter);
+    AsyncFactual async = new AsyncFactual(factual);
+    try {
+      List<ListenableFuture<ReadResponse>> responses = Lists.newArrayList();
+      for (int i = 0; i < 6; i++) {
+        responses.add(async.fetch("places", new Query().offset(i)));
+      }
+      int rejected = 0;
+      for (ListenableFuture<ReadResponse> resp : responses) {
+        try {
+          resp.get();
+        } catch (ExecutionException e) {
+          assertTrue(e.getCause().getMessage().contains("Concurrency limit"));
+          rejected++;
+        }
+      }
+      assertEquals(4, rejected);
+      assertEquals(4, limiter.getRejectedCount());
+      assertEquals(2, server.getRequestCount("/t/places"));
+      assertEquals(0, limiter.getInFlight());
+    } finally {
+      async.shutdown();
+      server.stop();
+    }
+  }
+
+  @Test
+  public void testCancelledRequestsLeaveLimitAlone() throws Exception {
+    final CountDownLatch sent = new CountDownLatch(1);
+    Factual factual = new Factual("key", "secret");
+    factual.setTransport(new FactualTransport() {
+      @Override
+      public TransportResponse execute(TransportRequest request) throws IOException {
+        final CountDownLatch aborted = new CountDownLatch(1);
+        request.onAbort(new Runnable() {
+          @Override
+          public void run() {
+            aborted.countDown();
+          }
+        });
+        sent.countDown();
+        try {
+          aborted.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        throw new IOException("Request aborted");
+      }
+
+      @Override
+      public void shutdown() {}
+    });
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, 1, 4);
+    factual.setConcurrencyLimiter(limiter);
+    CircuitBreaker breaker = new CircuitBreaker().window(2, 1);
+    factual.setCircuitBreaker(breaker);
+
+    Cancellation cancellation = new Cancellation();
+    Thread canceller = cancelWhenSent(sent, cancellation);
+    try {
+      factual.fetch("places", new Query(), cancellation);
+      fail("Expected the request to be cancelled");
+    } catch (FactualApiException e) {
+      // expected
+    }
+    canceller.join();
+    try {
+      factual.fetch("places", new Query(), cancellation);
+      fail("Expected the request to be cancelled");
+    } catch (FactualApiException e) {
+      assertTrue(e.getMessage().contains("Request cancelled"));
+    }
+    assertEquals(4, limiter.getLimit());
+    assertEquals(0, limiter.getInFlight());
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState("t/places"));
+  }
+
+  private static Thread cancelWhenSent(final CountDownLatch sent, final Cancellation cancellation) {
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        try {
+          sent.await();
+          cancellation.cancel();
+        } catch (InterruptedException e) {
+          // the test is over
+        }
+      }
+    };
+    thread.start();
+    return thread;
+  }
+
+}
@@ -0,0 +1,138 @@
+package com.factual.driver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+
+/**
+ * Tests looking up crosswalk ids in a local index.
+ */
+public class CrosswalkIndexTest {
+  private static final String FACETS = "{\"version\":3,\"status\":\"ok\",\"response\":{\"data\":"
+      + "{\"namespace\":{\"foursquare\":300,\"yelp\":150}},\"included_rows\":1}}";
+
+  private StandInServer server;
+  private Factual factual;
+
+  @Before
+  public void setUp() throws Exception {
+    server = new StandInServer()
+        .respondRows("/t/crosswalk", crosswalk(0))
+        .respond("/t/crosswalk/facets", FACETS);
+    factual = new Factual("key", "secret");
+    factual.setFactHome(server.getFactHome());
+  }
+
+  @After
+  public void tearDown() {
+    server.stop();
+  }
+
+  @Test
+  public void testMapsBothWays() {
+    CrosswalkIndex index = new CrosswalkIndex(factual);
+    assertEquals(450, index.load("foursquare", "yelp"));
+    assertEquals(450, index.size());
+    assertEquals(Sets.newHashSet("foursquare", "yelp"), index.getNamespaces());
+
+    for (int i = 0; i < 300; i++) {
+      assertEquals(id(i), index.getFactualId("foursquare", "4sq-" + i));
+    }
+    assertEquals(id(7), index.getFactualId("yelp", "yelp-7-b"));
+    assertNull(index.getFactualId("yelp", "4sq-1"));
+    assertNull(index.getFactualId("yelp", "yelp-400"));
+    assertNull(index.getFactualId("google", "4sq-1"));
+
+    assertEquals(Lists.newArrayList("yelp-7-a", "yelp-7-b"), sorted(index.getNamespaceIds(id(7), "yelp")));
+    assertEquals(Lists.newArrayList("4sq-7"), index.getNamespaceIds(id(7), "foursquare"));
+    assertEquals(Lists.newArrayList("4sq-7"), index.getNamespaceIds(id(7).toUpperCase(), "foursquare"));
+    Map<String, List<String>> all = index.getNamespaceIds(id(7));
+    assertEquals(Sets.newHashSet("foursquare", "yelp"), all.keySet());
+    assertTrue(index.getNamespaceIds(id(299), "yelp").isEmpty());
+    assertTrue(index.getNamespaceIds("not-an-id", "yelp").isEmpty());
+  }
+
+  @Test
+  public void testRefreshesNamespaces() {
+    CrosswalkIndex index = new CrosswalkIndex(factual);
+    index.load("foursquare", "yelp");
+    server.respondRows("/t/crosswalk", crosswalk(1000));
+    index.load("yelp");
+    assertEquals(id(5), index.getFactualId("foursquare", "4sq-5"));
+    assertEquals(id(1005), index.getFactualId("yelp", "yelp-5-a"));
+    assertTrue(index.getNamespaceIds(id(5), "yelp").isEmpty());
+    assertEquals(Lists.newArrayList("yelp-5-a", "yelp-5-b"), sorted(index.getNamespaceIds(id(1005), "yelp")));
+    assertEquals(450, index.size());
+  }
+
+  @Test
+  public void testPagesThroughLargeNamespaces() {
+    List<Map<String, Object>> rows = Lists.newArrayList();
+    for (int i = 0; i < 1200; i++) {
+      // two ids for each place
+      rows.add(row(id(i / 2), "foursquare", "4sq-" + i));
+    }
+    server.respondRows("/t/crosswalk", rows)
+        .respond("/t/crosswalk/facets", FACETS.replace("300", "1200"))
+        .maxOffset(200);
+    CrosswalkIndex index = new CrosswalkIndex(factual);
+    assertEquals(1200, index.load("foursquare"));
+    assertEquals(1200, index.size());
+    assertEquals(id(599), index.getFactualId("foursquare", "4sq-1199"));
+    assertEquals(Lists.newArrayList("4sq-20", "4sq-21"), sorted(index.getNamespaceIds(id(10), "foursquare")));
+  }
+
+  /**
+   * @return crosswalk rows mapping 300 foursquare ids and 150 yelp ids, two
+   *         for each of 75 places. Factual ids start from <tt>base</tt>.
+   */
+  private static List<Map<String, Object>> crosswalk(int base) {
+    List<Map<String, Object>> rows = Lists.newArrayList();
+    for (int i = 0; i < 300; i++) {
+      rows.add(row(id(i), "foursquare", "4sq-" + i));
+    }
+    for (int i = 0; i < 75; i++) {
+      rows.add(row(id(base + i), "yelp", "yelp-" + i + "-a"));
+      rows.add(row(id(base + i), "yelp", "yelp-" + i + "-b"));
+    }
+    // a url only entry
+    rows.add(row(id(0), "yelp", null));
+    return rows;
+  }
+
+  private static Map<String, Object> row(String factualId, String namespace, String namespaceId) {
+    Map<String, Object> row = Maps.newLinkedHashMap();
+    row.put("factual_id", factualId);
+    row.put("namespace", namespace);
+    if (namespaceId != null) {
+      row.put("namespace_id", namespaceId);
+    }
+    row.put("url", "http://example.com/" + namespaceId);
+    return row;
+  }
+
+  private static String id(int i) {
+    return new UUID(0x03c269175d664de9L + i, 0x96bcb13066173c65L * (i + 1)).toString();
+  }
+
+  private static List<String> sorted(List<String> ids) {
+    String[] array = ids.toArray(new String[0]);
+    Arrays.sort(array);
+    return Arrays.asList(array);
+  }
+
+}
@@ -0,0 +1,182 @@
+package com.factual.driver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+
+/**
+ * Tests sharing one Factual client between many threads.
+ */
+public class FactualConcurrencyTest {
+  private static final int THREADS = 16;
+  private static final int ROWS = 200;
+
+  private StandInServer server;
+  private Factual factual;
+
+  @Before
+  public void setUp() throws Exception {
+    List<Map<String, Object>> rows = Lists.newArrayList();
+    for (int i = 0; i < ROWS; i++) {
+      Map<String, Object> row = Maps.newLinkedHashMap();
+      row.put("factual_id", "id-" + i);
+      row.put("name", "Place " + i);
+      rows.add(row);
+    }
+    server = new StandInServer().respondRows("/t/places", rows);
+    factual = new Factual("key", "secret");
+    factual.setFactHome(server.getFactHome());
+  }
+
+  @After
+  public void tearDown() {
+    server.stop();
+  }
+
+  @Test
+  public void testBatchesFromManyThreads() throws Exception {
+    runConcurrently(new Work() {
+      @Override
+      public void run(int thread) throws Exception {
+        for (int n = 0; n < 10; n++) {
+          Batch batch = factual.newBatch();
+          List<Pending<ReadResponse>> pending = Lists.newArrayList();
+          for (int i = 0; i < 3; i++) {
+            pending.add(batch.queueFetch("places", byId(id(thread, n, i))));
+          }
+          MultiResponse multi = batch.send();
+          assertEquals(3, multi.getData().size());
+          for (int i = 0; i < 3; i++) {
+            assertEquals("id-" + id(thread, n, i), pending.get(i).get().first().get("factual_id"));
+          }
+        }
+      }
+    });
+  }
+
+  @Test
+  public void testSharedQueueFromManyThreads() throws Exception {
+    final List<List<Pending<ReadResponse>>> queued = Lists.newArrayList();
+    for (int t = 0; t < THREADS; t++) {
+      queued.add(Lists.<Pending<ReadResponse>> newArrayList());
+    }
+    runConcurrently(new Work() {
+      @Override
+      public void run(int thread) throws Exception {
+        for (int n = 0; n < 10; n++) {
+          queued.get(thread).add(factual.queueFetch("places", byId(id(thread, n, 0))));
+          queued.get(thread).add(factual.queueFetch("places", byId(id(thread, n, 1))));
+          factual.sendRequests();
+        }
+      }
+    });
+    factual.sendRequests();
+    for (int t = 0; t < THREADS; t++) {
+      for (int n = 0; n < 10; n++) {
+        for (int i = 0; i < 2; i++) {
+          Pending<ReadResponse> pending = queued.get(t).get(n * 2 + i);
+          assertTrue(pending.isDone());
+          assertEquals("id-" + id(t, n, i), pending.get().first().get("factual_id"));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testFetchesWhileReconfigured() throws Exception {
+    final String home = server.getFactHome();
+    runConcurrently(new Work() {
+      @Override
+      public void run(int thread) throws Exception {
+        for (int n = 0; n < 20; n++) {
+          if (thread == 0) {
+            factual.setFactHome(home);
+            factual.setRevalidationCache(n % 2 == 0 ? new RevalidationCache(100) : null);
+            factual.setConcurrencyLimiter(n % 3 == 0 ? new ConcurrencyLimiter(8, 1, 32) : null);
+          }
+          int id = id(thread, n, 0);
+          assertEquals("id-" + id, factual.fetch("places", byId(id)).first().get("factual_id"));
+        }
+      }
+    });
+  }
+
+  @Test
+  public void testRegistersDebugLoggingOnce() throws Exception {
+    Logger logger = Logger.getLogger(HttpTransport.class.getName());
+    int handlers = logger.getHandlers().length;
+    factual.debug(true);
+    try {
+      runConcurrently(new Work() {
+        @Override
+        public void run(int thread) throws Exception {
+          factual.debug(true);
+          factual.fetch("places", byId(thread));
+        }
+      });
+      assertEquals(handlers + 1, logger.getHandlers().length);
+    } finally {
+      factual.debug(false);
+    }
+    assertEquals(handlers, logger.getHandlers().length);
+  }
+
+  private static Query byId(int id) {
+    return new Query().field("factual_id").equal("id-" + id).limit(1);
+  }
+
+  /**
+   * @return the id of the <tt>i</tt>th row read by <tt>thread</tt> in round <tt>n</tt>.
+   */
+  private static int id(int thread, int n, int i) {
+    return (thread * 31 + n * 7 + i) % ROWS;
+  }
+
+  /**
+   * Runs <tt>work</tt> on {@link #THREADS} threads at once, failing with the
+   * first failure of any of them.
+   */
+  private static void runConcurrently(final Work work) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    try {
+      List<Future<Void>> done = Lists.newArrayList();
+      for (int t = 0; t < THREADS; t++) {
+        final int thread = t;
+        done.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            work.run(thread);
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> future : done) {
+        future.get(60, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private interface Work {
+    void run(int thread) throws Exception;
+  }
+
+}
@@ -0,0 +1,223 @@
+package com.factual.driver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+
+/**
+ * Unit tests for GeoScatterGather.
+ */
+public class GeoScatterGatherTest {
+  private static final double LAT = 34.06;
+  private static final double LNG = -118.41;
+
+  private StandInServer server;
+  private Factual factual;
+  private List<Map<String, Object>> grid;
+
+  @Before
+  public void setUp() throws Exception {
+    // 400 places, about 100 meters apart
+    grid = Lists.newArrayList();
+    for (int i = 0; i < 20; i++) {
+      for (int j = 0; j < 20; j++) {
+        grid.add(place("p" + i + "-" + j, LAT + (i - 10) * 0.001, LNG + (j - 10) * 0.001));
+      }
+    }
+    server = new StandInServer().respondRows("/t/places", grid)
+        .respond("/t/broken", 500, "{\"version\":3,\"status\":\"error\"}");
+    factual = new Factual("key", "secret");
+    factual.setFactHome(server.getFactHome());
+  }
+
+  @After
+  public void tearDown() {
+    server.stop();
+  }
+
+  @Test
+  public void testDistance() {
+    // roughly 1 degree of latitude
+    double d = GeoScatterGather.distance(34, -118, 35, -118);
+    assertEquals(111320, d, 100);
+  }
+
+  /**
+   * Every point of a circle must lie within one of the circles it is split
+   * into.
+   */
+  @Test
+  public void testSplitCoversCircle() {
+    Circle circle = new Circle(34.06018, -118.41835, 20000);
+    List<Circle> quadrants = GeoScatterGather.split(circle);
+    assertEquals(4, quadrants.size());
+    for (double dLat = -0.18; dLat <= 0.18; dLat += 0.01) {
+      for (double dLng = -0.22; dLng <= 0.22; dLng += 0.01) {
+        double lat = circle.getCenterLatitude() + dLat;
+        double lng = circle.getCenterLongitude() + dLng;
+        if (GeoScatterGather.distance(circle.getCenterLatitude(), circle.getCenterLongitude(), lat, lng) > circle.getMeters()) {
+          continue;
+        }
+        boolean covered = false;
+        for (Circle q : quadrants) {
+          covered |= GeoScatterGather.distance(q.getCenterLatitude(), q.getCenterLongitude(), lat, lng) <= q.getMeters();
+        }
+        assertTrue(lat + "," + lng, covered);
+      }
+    }
+  }
+
+  @Test
+  public void testSplitsCellsAndDeduplicates() {
+    Circle circle = new Circle(LAT, LNG, 800);
+    List<Map<String, Object>> rows = new GeoScatterGather(factual, "places", new Query())
+        .pageSize(20).maxRowsPerCell(40).parallelism(4)
+        .fetch(circle);
+
+    Set<Object> expected = Sets.newHashSet();
+    for (Map<String, Object> place : grid) {
+      if (GeoScatterGather.distance(LAT, LNG, (Double) place.get("latitude"), (Double) place.get("longitude")) <= 800) {
+        expected.add(place.get("factual_id"));
+      }
+    }
+    assertTrue(expected.size() > 40);
+    assertEquals(expected, ids(rows));
+    // split circles overlap, but every place is handled once
+    assertEquals(expected.size(), rows.size());
+    assertTrue(server.getRequestCount("/t/places") > 4);
+  }
+
+  @Test
+  public void testDropsRowsOutsideBoundingBox() {
+    List<Map<String, Object>> rows = new GeoScatterGather(factual, "places", new Query())
+        .maxRowsPerCell(1000)
+        .fetch(new Point(LAT + 0.0025, LNG - 0.0035), new Point(LAT - 0.0035, LNG + 0.0045));
+
+    Set<Object> expected = Sets.newHashSet();
+    for (int i = 7; i <= 12; i++) {
+      for (int j = 7; j <= 14; j++) {
+        expected.add("p" + i + "-" + j);
+      }
+    }
+    assertEquals(expected, ids(rows));
+  }
+
+  @Test
+  public void testFailsRatherThanTruncatingCells() {
+    List<Map<String, Object>> stacked = Lists.newArrayList();
+    for (int i = 0; i < 30; i++) {
+      stacked.add(place("s" + i, LAT, LNG));
+    }
+    server.respondRows("/t/places", stacked);
+    try {
+      new GeoScatterGather(factual, "places", new Query())
+          .pageSize(10).maxRowsPerCell(10)
+          .fetch(new Circle(LAT, LNG, 1000));
+      fail("Expected a circle that cannot be split further to fail the fetch");
+    } catch (IllegalStateException e) {
+      assertTrue(e.getMessage().contains("30 rows"));
+    }
+  }
+
+  @Test
+  public void testPropagatesReadErrors() {
+    try {
+      new GeoScatterGather(factual, "broken", new Query()).fetch(new Circle(LAT, LNG, 1000));
+      fail("Expected the failed read to fail the fetch");
+    } catch (FactualApiException e) {
+      assertEquals(500, e.getStatusCode());
+    }
+  }
+
+  @Test
+  public void testStopsHandlingRowsOnceFailed() throws Exception {
+    final GoogleHttpTransport http = new GoogleHttpTransport();
+    final AtomicInteger requests = new AtomicInteger();
+    // the circle and its first quadrant are answered at once, the other
+    // quadrants only after the first has failed the fetch
+    factual.setTransport(new FactualTransport() {
+      @Override
+      public TransportResponse execute(TransportRequest request) throws IOException {
+        if (requests.incrementAndGet() > 2) {
+          sleepUninterruptibly(300);
+        }
+        return http.execute(request);
+      }
+
+      @Override
+      public void shutdown() throws IOException {
+        http.shutdown();
+      }
+    });
+    final AtomicBoolean failed = new AtomicBoolean();
+    final AtomicInteger lateRows = new AtomicInteger();
+    try {
+      new GeoScatterGather(factual, "places", new Query())
+          .pageSize(200).maxRowsPerCell(150).parallelism(4)
+          .fetch(new Circle(LAT, LNG, 800), new RowHandler() {
+            @Override
+            public void handle(Map<String, Object> row) {
+              if (failed.get()) {
+                lateRows.incrementAndGet();
+              }
+              throw new IllegalArgumentException("Bad row " + row.get("factual_id"));
+            }
+          });
+      fail("Expected the handler's failure to fail the fetch");
+    } catch (IllegalArgumentException e) {
+      failed.set(true);
+    }
+    // reads still in flight must not reach the handler
+    Thread.sleep(600);
+    assertEquals(5, requests.get());
+    assertEquals(0, lateRows.get());
+  }
+
+  private static void sleepUninterruptibly(long millis) {
+    long end = System.currentTimeMillis() + millis;
+    boolean interrupted = false;
+    for (long left = millis; left > 0; left = end - System.currentTimeMillis()) {
+      try {
+        Thread.sleep(left);
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static Map<String, Object> place(String id, double latitude, double longitude) {
+    Map<String, Object> row = Maps.newLinkedHashMap();
+    row.put("factual_id", id);
+    row.put("latitude", latitude);
+    row.put("longitude", longitude);
+    return row;
+  }
+
+  private static Set<Object> ids(List<Map<String, Object>> rows) {
+    Set<Object> ids = Sets.newHashSet();
+    for (Map<String, Object> row : rows) {
+      ids.add(row.get("factual_id"));
+    }
+    return ids;
+  }
+
+}
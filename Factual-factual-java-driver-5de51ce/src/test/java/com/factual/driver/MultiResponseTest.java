@@ -0,0 +1,186 @@
+package com.factual.driver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.factual.driver.Factual.RequestImpl;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+
+/**
+ * Tests finding and decoding the responses of a multi response.
+ */
+public class MultiResponseTest {
+  private static final String READ = "{\"version\":3,\"status\":\"ok\",\"response\":{\"data\":["
+      + "{\"name\":\"Café \\\"Bleu\\\"\",\"tel\":null,\"rank\":1}],\"included_rows\":1}}";
+  private static final String FACETS = "{\"version\":3,\"status\":\"ok\",\"response\":{\"data\":"
+      + "{\"region\":{\"CA\":12}},\"included_rows\":1}}";
+  private static final String MULTI = "{\"q0\":" + READ + ", \"q1\" : " + FACETS + ",\n\"q2\":" + READ + "}";
+
+  @Test
+  public void testDecodesOnAccess() {
+    Map<String, RequestImpl> requests = Maps.newLinkedHashMap();
+    AtomicInteger decoded = new AtomicInteger();
+    requests.put("q0", new CountingRead(decoded));
+    requests.put("q1", new Factual.FacetRequest("t/places/facets", null));
+    requests.put("q2", new CountingRead(decoded));
+    MultiResponse multi = new MultiResponse(requests);
+    multi.setJson(MULTI);
+    List<Response> data = multi.getData();
+    assertEquals(3, data.size());
+    assertEquals(0, decoded.get());
+
+    ReadResponse last = (ReadResponse) data.get(2);
+    assertEquals(1, decoded.get());
+    assertSame(last, data.get(2));
+    assertEquals(1, decoded.get());
+    assertEquals("Café \"Bleu\"", last.first().get("name"));
+    assertEquals(12, ((FacetResponse) data.get(1)).getData().get("region").get("CA"));
+  }
+
+  @Test
+  public void testKeepsEachResponseAsSent() throws Exception {
+    byte[] bytes = MULTI.getBytes(Charsets.UTF_8);
+    ResponseBody body = ResponseBody.read(new ByteArrayInputStream(bytes), bytes.length, BufferPool.SHARED);
+    Map<String, ResponseBody> members = body.members();
+    assertEquals(READ, members.get("q0").toString());
+    assertEquals(FACETS, members.get("q1").toString());
+    assertEquals(READ, members.get("q2").toString());
+    assertEquals(READ.getBytes(Charsets.UTF_8).length, members.get("q0").length());
+    assertEquals(READ, new ResponseBody(MULTI).members().get("q2").toString());
+
+    MultiResponse multi = new MultiResponse(reads("q0", "q1", "q2"));
+    multi.setBody(new ResponseBody("{\"q0\":" + READ + ",\"q1\":" + READ + ",\"q2\":" + READ + "}"));
+    for (Response resp : multi.getData()) {
+      assertEquals(READ, resp.getJson());
+    }
+  }
+
+  @Test
+  public void testDecodesLargeResponsesInParallel() {
+    StringBuilder rows = new StringBuilder();
+    for (int i = 0; i < 2000; i++) {
+      rows.append(i > 0 ? "," : "").append("{\"factual_id\":\"").append(i).append("\",\"name\":\"Place ")
+          .append(i).append("\"}");
+    }
+    String read = "{\"version\":3,\"status\":\"ok\",\"response\":{\"data\":[" + rows + "],\"included_rows\":2000}}";
+    assertTrue(read.length() > 64 * 1024);
+    StringBuilder json = new StringBuilder("{");
+    for (int i = 0; i < 4; i++) {
+      json.append(i > 0 ? "," : "").append("\"q").append(i).append("\":").append(read);
+    }
+    MultiResponse multi = new MultiResponse(reads("q0", "q1", "q2", "q3"));
+    multi.setJson(json.append('}').toString());
+    for (Response resp : multi.getData()) {
+      assertEquals(2000, ((ReadResponse) resp).size());
+      assertEquals("Place 1999", ((ReadResponse) resp).getData().get(1999).get("name"));
+    }
+  }
+
+  @Test
+  public void testFailsOnMissingResponses() {
+    MultiResponse multi = new MultiResponse(reads("q0", "q1"));
+    try {
+      multi.setJson("{\"q0\":" + READ + "}");
+      fail();
+    } catch (RuntimeException e) {
+      assertTrue(e.getMessage().contains("q1"));
+    }
+  }
+
+  @Test
+  public void testCompletesPendingResponses() throws Exception {
+    StandInServer server = new StandInServer().respond("/multi", "{\"q0\":" + READ + ",\"q1\":" + FACETS + "}");
+    try {
+      Factual factual = new Factual("key", "secret");
+      factual.setFactHome(server.getFactHome());
+      Pending<ReadResponse> read = factual.queueFetch("places", new Query());
+      Pending<FacetResponse> facets = factual.queueFetch("places", new FacetQuery("region"));
+      final CountDownLatch listened = new CountDownLatch(1);
+      facets.addListener(new Runnable() {
+        @Override
+        public void run() {
+          listened.countDown();
+        }
+      }, Executors.newSingleThreadExecutor());
+      assertFalse(read.isDone());
+
+      MultiResponse multi = factual.sendRequests();
+      assertTrue(read.isDone());
+      assertTrue(listened.await(5, TimeUnit.SECONDS));
+      assertEquals("Café \"Bleu\"", read.get().first().get("name"));
+      assertSame(multi.getData().get(0), read.get());
+      assertEquals(12, facets.get().getData().get("region").get("CA"));
+    } finally {
+      server.stop();
+    }
+  }
+
+  @Test
+  public void testFailsPendingResponsesWithTheirMulti() throws Exception {
+    StandInServer server = new StandInServer().respond("/multi", 400,
+        "{\"version\":3,\"status\":\"error\",\"error_type\":\"InvalidArgument\",\"message\":\"bad\"}");
+    try {
+      Factual factual = new Factual("key", "secret");
+      factual.setFactHome(server.getFactHome());
+      Pending<ReadResponse> first = factual.queueFetch("places", new Query());
+      Pending<ReadResponse> second = factual.queueFetch("places", new Query().limit(1));
+      try {
+        factual.sendRequests();
+        fail();
+      } catch (FactualApiException e) {
+        // expected
+      }
+      for (Pending<ReadResponse> pending : Lists.newArrayList(first, second)) {
+        try {
+          pending.get();
+          fail();
+        } catch (ExecutionException e) {
+          assertTrue(e.getCause() instanceof FactualApiException);
+        }
+      }
+    } finally {
+      server.stop();
+    }
+  }
+
+  private static Map<String, RequestImpl> reads(String... keys) {
+    Map<String, RequestImpl> requests = Maps.newLinkedHashMap();
+    for (String key : keys) {
+      requests.put(key, new Factual.ReadQuery("t/places", null));
+    }
+    return requests;
+  }
+
+  private static class CountingRead extends Factual.ReadQuery {
+    private final AtomicInteger decoded;
+
+    private CountingRead(AtomicInteger decoded) {
+      super("t/places", null);
+      this.decoded = decoded;
+    }
+
+    @Override
+    public Response getResponse(ResponseBody body) {
+      decoded.incrementAndGet();
+      return super.getResponse(body);
+    }
+  }
+
+}
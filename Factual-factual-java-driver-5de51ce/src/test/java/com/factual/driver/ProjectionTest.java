@@ -0,0 +1,127 @@
+package com.factual.driver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+
+
+/**
+ * Tests decoding only the projected fields of responses.
+ */
+public class ProjectionTest {
+  private static final String ROW = "{\"factual_id\":\"03c26917-5d66-4de9-96bc-b13066173c65\","
+      + "\"name\":\"Starbucks\",\"region\":\"CA\",\"latitude\":34.06,\"longitude\":-118.41,"
+      + "\"category_labels\":[[\"Social\",\"Food and Dining\",\"Cafes\"]],"
+      + "\"hours\":{\"monday\":[[\"6:00\",\"21:00\"]],\"tuesday\":[[\"6:00\",\"21:00\"]]},"
+      + "\"$distance\":12.5}";
+  private static final String READ = "{\"version\":3,\"status\":\"ok\",\"response\":{\"data\":["
+      + ROW + "," + ROW + "],\"included_rows\":2,\"total_row_count\":2}}";
+  private static final String GEOPULSE = "{\"version\":3,\"status\":\"ok\",\"response\":{\"data\":[{"
+      + "\"commercial_density\":0.69,\"demographics\":{\"income\":{\"median_income\":{\"amount\":56000}}},"
+      + "\"commercial_profile\":{\"Food\":{\"pct\":0.3}}}],\"included_rows\":1}}";
+
+  private StandInServer server;
+  private Factual factual;
+
+  @Before
+  public void setUp() throws Exception {
+    server = new StandInServer()
+        .respond("/t/places", READ)
+        .respond("/places/geopulse", GEOPULSE)
+        .respond("/multi", "{\"q0\":" + READ + ",\"q1\":" + READ + "}");
+    factual = new Factual("key", "secret");
+    factual.setFactHome(server.getFactHome());
+  }
+
+  @After
+  public void tearDown() {
+    server.stop();
+  }
+
+  @Test
+  public void testSkipsUnprojectedFields() throws Exception {
+    JSONObject root = new ResponseBody(READ).toJsonObject(
+        Projection.rows(Sets.newHashSet("name", "latitude")));
+    assertEquals("ok", root.getString("status"));
+    assertEquals(2, root.getJSONObject("response").getInt("included_rows"));
+    JSONObject row = root.getJSONObject("response").getJSONArray("data").getJSONObject(0);
+    assertEquals(Sets.newHashSet("name", "latitude", "$distance"), Sets.newHashSet(JSONObject.getNames(row)));
+  }
+
+  @Test
+  public void testProjectedRead() {
+    ReadResponse resp = factual.fetch("places", new Query().project("factual_id", "hours"));
+    assertEquals(2, resp.size());
+    Map<String, Object> row = resp.first();
+    assertEquals(Sets.newHashSet("factual_id", "hours", "$distance"), row.keySet());
+    assertEquals(READ, resp.getJson());
+  }
+
+  @Test
+  public void testDecodesSelectedFields() {
+    Map<String, Object> row = factual.fetch("places", new Query().only("name")).first();
+    assertEquals(Sets.newHashSet("name", "$distance"), row.keySet());
+    assertEquals(Sets.newHashSet("region", "$distance"),
+        factual.fetch("places", new Query().only("name").project("region")).first().keySet());
+    assertTrue(factual.fetch("places", new Query()).first().containsKey("hours"));
+  }
+
+  @Test
+  public void testCopiesOwnTheirProjection() {
+    Query query = new Query().project("name");
+    Query copy = query.copy().project("region");
+    assertEquals(Sets.newHashSet("name"), Sets.newHashSet(query.getProjectedFields()));
+    assertEquals(Sets.newHashSet("name", "region"), Sets.newHashSet(copy.getProjectedFields()));
+    Query page = query.keysetPage("factual_id", null, 10);
+    assertEquals(Sets.newHashSet("name"), Sets.newHashSet(query.getProjectedFields()));
+    assertEquals(Sets.newHashSet("name", "factual_id"), Sets.newHashSet(page.getProjectedFields()));
+  }
+
+  @Test
+  public void testProjectedGeopulse() {
+    Map<String, Object> pulse = factual.geopulse(new Geopulse(new Point(34.06, -118.41))
+        .project("commercial_density")).first();
+    assertEquals(Sets.newHashSet("commercial_density"), pulse.keySet());
+    assertEquals(3, factual.geopulse(new Geopulse(new Point(34.06, -118.41))).first().size());
+  }
+
+  @Test
+  public void testProjectedMultiResponses() {
+    factual.queueFetch("places", new Query().project("name"));
+    factual.queueFetch("places", new Query());
+    MultiResponse multi = factual.sendRequests();
+    assertEquals(Sets.newHashSet("name", "$distance"),
+        ((ReadResponse) multi.getData().get(0)).first().keySet());
+    assertTrue(((ReadResponse) multi.getData().get(1)).first().containsKey("hours"));
+  }
+
+  @Test
+  public void testCachesKeepProjectionsApart() {
+    QueryCache queryCache = new QueryCache(10);
+    factual.setQueryCache(queryCache);
+    ReadResponse projected = factual.fetch("places", new Query().project("name"));
+    ReadResponse full = factual.fetch("places", new Query());
+    assertNotSame(projected, full);
+    assertTrue(full.first().containsKey("hours"));
+    assertSame(projected, factual.fetch("places", new Query().project("name")));
+
+    factual.setQueryCache(null);
+    factual.setRevalidationCache(new RevalidationCache(10));
+    projected = factual.fetch("places", new Query().project("name"));
+    full = factual.fetch("places", new Query());
+    assertFalse(full.first().keySet().equals(projected.first().keySet()));
+    assertSame(projected, factual.fetch("places", new Query().project("name")));
+  }
+
+}
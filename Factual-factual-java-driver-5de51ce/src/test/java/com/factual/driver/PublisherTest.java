@@ -0,0 +1,391 @@
+package com.factual.driver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+
+/**
+ * Tests publishing reads and multi responses with backpressure, against a
+ * {@link StandInServer}.
+ */
+public class PublisherTest {
+  private static final String READ = "{\"version\":3,\"status\":\"ok\",\"response\":{\"data\":["
+      + "{\"factual_id\":\"03c26917-5d66-4de9-96bc-b13066173c65\",\"name\":\"Starbucks\",\"region\":\"CA\"}"
+      + "],\"included_rows\":1}}";
+
+  private StandInServer server;
+  private Factual factual;
+
+  @Before
+  public void setup() throws Exception {
+    server = new StandInServer().respondRows("/t/places", rows(120))
+        .respond("/multi", "{\"q0\":" + READ + ",\"q1\":" + READ + ",\"q2\":" + READ + "}");
+    factual = new Factual("key", "secret");
+    factual.setFactHome(server.getFactHome());
+  }
+
+  @After
+  public void teardown() {
+    server.stop();
+  }
+
+  @Test
+  public void testPagesOnDemand() throws Exception {
+    Recorder<Map<String, Object>> rows = new Recorder<Map<String, Object>>();
+    new QueryPublisher(factual, "places", new Query()).subscribe(rows);
+
+    rows.request(10);
+    rows.awaitItems(10);
+    assertEquals(1, server.getRequestCount("/t/places"));
+
+    rows.request(40);
+    rows.awaitItems(50);
+    assertEquals(1, server.getRequestCount("/t/places"));
+
+    rows.request(1);
+    rows.awaitItems(51);
+    assertEquals(2, server.getRequestCount("/t/places"));
+
+    rows.request(Long.MAX_VALUE);
+    rows.awaitDone();
+    assertEquals(120, rows.items.size());
+    assertEquals("row 119", rows.items.get(119).get("name"));
+    assertNull(rows.error);
+    assertEquals(3, server.getRequestCount("/t/places"));
+  }
+
+  @Test
+  public void testQueryLimitAndOffset() throws Exception {
+    Recorder<Map<String, Object>> rows = new Recorder<Map<String, Object>>();
+    new QueryPublisher(factual, "places", new Query().offset(5).limit(60)).pageSize(25).subscribe(rows);
+    rows.request(Long.MAX_VALUE);
+    rows.awaitDone();
+
+    assertEquals(60, rows.items.size());
+    assertEquals("row 5", rows.items.get(0).get("name"));
+    assertEquals("row 64", rows.items.get(59).get("name"));
+    assertEquals(3, server.getRequestCount("/t/places"));
+  }
+
+  @Test
+  public void testReadsPagesInParallelInOrder() throws Exception {
+    Recorder<Map<String, Object>> rows = new Recorder<Map<String, Object>>();
+    new QueryPublisher(factual, "places", new Query().offset(5).limit(100)).pageSize(10).parallelism(4)
+        .subscribe(rows);
+    rows.request(Long.MAX_VALUE);
+    rows.awaitDone();
+    assertNull(rows.error);
+    assertEquals(100, rows.items.size());
+    for (int i = 0; i < 100; i++) {
+      assertEquals("row " + (i + 5), rows.items.get(i).get("name"));
+    }
+    assertEquals(0, server.getRequestCount("/multi"));
+  }
+
+  @Test
+  public void testPacksParallelPagesIntoMultiRequests() throws Exception {
+    // this server answers multi requests from its rows, as none is canned
+    StandInServer rowServer = new StandInServer().respondRows("/t/places", rows(120));
+    try {
+      Factual rowFactual = new Factual("key", "secret");
+      rowFactual.setFactHome(rowServer.getFactHome());
+      Recorder<Map<String, Object>> rows = new Recorder<Map<String, Object>>();
+      new QueryPublisher(rowFactual, "places", new Query()).pageSize(7).parallelism(2).pagesPerRequest(3)
+          .subscribe(rows);
+      rows.request(Long.MAX_VALUE);
+      rows.awaitDone();
+      assertNull(rows.error);
+      assertEquals(120, rows.items.size());
+      for (int i = 0; i < 120; i++) {
+        assertEquals("row " + i, rows.items.get(i).get("name"));
+      }
+      assertTrue(rowServer.getRequestCount("/multi") > 0);
+    } finally {
+      rowServer.stop();
+    }
+  }
+
+  @Test
+  public void testKeysetPagingReadsPastMaxOffset() throws Exception {
+    server.maxOffset(50);
+    Recorder<Map<String, Object>> rows = new Recorder<Map<String, Object>>();
+    new QueryPublisher(factual, "places", new Query()).pageSize(25).subscribe(rows);
+    rows.request(Long.MAX_VALUE);
+    rows.awaitDone();
+    assertEquals(400, ((FactualApiException) rows.error).getStatusCode());
+
+    rows = new Recorder<Map<String, Object>>();
+    new QueryPublisher(factual, "places", new Query().only("name")).pageSize(25).keysetPaging("factual_id")
+        .subscribe(rows);
+    rows.request(Long.MAX_VALUE);
+    rows.awaitDone();
+    assertNull(rows.error);
+    assertEquals(120, rows.items.size());
+    Set<Object> keys = Sets.newHashSet();
+    for (int i = 0; i < rows.items.size(); i++) {
+      Object key = rows.items.get(i).get("factual_id");
+      assertTrue(keys.add(key));
+      if (i > 0) {
+        assertTrue(key.toString().compareTo(rows.items.get(i - 1).get("factual_id").toString()) > 0);
+      }
+    }
+  }
+
+  @Test
+  public void testCancelAbortsReadInFlight() throws Exception {
+    server.delay(TimeUnit.SECONDS.toMillis(30));
+    PooledHttpTransport transport = new PooledHttpTransport();
+    factual.setTransport(transport);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Recorder<Map<String, Object>> rows = new Recorder<Map<String, Object>>();
+      new QueryPublisher(factual, "places", new Query(), executor).subscribe(rows);
+      rows.request(1);
+      long deadline = System.currentTimeMillis() + 5000;
+      while (server.getRequestCount("/t/places") == 0 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      rows.subscription.cancel();
+
+      // the executor's only thread is free again once the read is aborted
+      final CountDownLatch free = new CountDownLatch(1);
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          free.countDown();
+        }
+      });
+      assertTrue(free.await(5, TimeUnit.SECONDS));
+      assertTrue(rows.items.isEmpty());
+      assertNull(rows.error);
+      assertFalse(rows.completed);
+    } finally {
+      executor.shutdownNow();
+      transport.shutdown();
+    }
+  }
+
+  @Test
+  public void testCancelAbortsParallelPagesInFlight() throws Exception {
+    final PooledHttpTransport pooled = new PooledHttpTransport();
+    final CountDownLatch sent = new CountDownLatch(4);
+    final CountDownLatch aborted = new CountDownLatch(4);
+    factual.setTransport(new FactualTransport() {
+      @Override
+      public TransportResponse execute(TransportRequest request) throws IOException {
+        if (sent.getCount() == 4 && server.getRequestCount("/t/places") == 0) {
+          // the first page, which holds the row count, is answered at once
+          TransportResponse first = pooled.execute(request);
+          server.delay(TimeUnit.SECONDS.toMillis(30));
+          return first;
+        }
+        sent.countDown();
+        try {
+          return pooled.execute(request);
+        } finally {
+          aborted.countDown();
+        }
+      }
+
+      @Override
+      public void shutdown() throws IOException {
+        pooled.shutdown();
+      }
+    });
+    try {
+      Recorder<Map<String, Object>> rows = new Recorder<Map<String, Object>>();
+      new QueryPublisher(factual, "places", new Query()).pageSize(10).parallelism(4).subscribe(rows);
+      rows.request(Long.MAX_VALUE);
+      assertTrue(sent.await(5, TimeUnit.SECONDS));
+      rows.subscription.cancel();
+      assertTrue(aborted.await(5, TimeUnit.SECONDS));
+      assertEquals(10, rows.items.size());
+      assertNull(rows.error);
+      assertFalse(rows.completed);
+    } finally {
+      pooled.shutdown();
+    }
+  }
+
+  @Test
+  public void testNonPositiveRequestFails() throws Exception {
+    Recorder<Map<String, Object>> rows = new Recorder<Map<String, Object>>();
+    new QueryPublisher(factual, "places", new Query()).subscribe(rows);
+    rows.request(0);
+    rows.awaitDone();
+    assertTrue(rows.error instanceof IllegalArgumentException);
+    assertEquals(0, server.getRequestCount("/t/places"));
+  }
+
+  @Test
+  public void testMultiBatchesOnDemand() throws Exception {
+    for (int i = 0; i < 5; i++) {
+      factual.queueFetch("places", new Query().search("coffee " + i));
+    }
+    Recorder<Response> responses = new Recorder<Response>();
+    new MultiPublisher(factual).subscribe(responses);
+
+    responses.request(2);
+    responses.awaitItems(2);
+    assertEquals(1, server.getRequestCount("/multi"));
+
+    responses.request(10);
+    responses.awaitDone();
+    assertEquals(5, responses.items.size());
+    assertEquals("Starbucks", ((ReadResponse) responses.items.get(4)).first().get("name"));
+    assertEquals(2, server.getRequestCount("/multi"));
+  }
+
+  @Test
+  public void testCancelFailsUnsentReads() throws Exception {
+    List<Pending<ReadResponse>> pending = Lists.newArrayList();
+    for (int i = 0; i < 5; i++) {
+      pending.add(factual.queueFetch("places", new Query().search("coffee " + i)));
+    }
+    Recorder<Response> responses = new Recorder<Response>();
+    new MultiPublisher(factual).batchSize(2).subscribe(responses);
+    responses.request(2);
+    responses.awaitItems(2);
+    responses.subscription.cancel();
+
+    assertEquals("Starbucks", pending.get(1).get(5, TimeUnit.SECONDS).first().get("name"));
+    for (int i = 2; i < 5; i++) {
+      try {
+        pending.get(i).get(5, TimeUnit.SECONDS);
+        fail("Expected the unsent read to fail");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof FactualApiException);
+      }
+    }
+  }
+
+  @Test
+  public void testReadSentTwiceKeepsFirstResponse() throws Exception {
+    StandInServer tables = new StandInServer()
+        .respondRows("/t/first", Lists.newArrayList(named("first")))
+        .respondRows("/t/second", Lists.newArrayList(named("second")));
+    try {
+      factual.setFactHome(tables.getFactHome());
+      factual.queueFetch("first", new Query());
+      Pending<ReadResponse> second = factual.queueFetch("second", new Query());
+      MultiPublisher publisher = new MultiPublisher(factual).batchSize(2);
+      Recorder<Response> once = new Recorder<Response>();
+      publisher.subscribe(once);
+      once.request(10);
+      once.awaitDone();
+      assertEquals("second", second.get().first().get("name"));
+
+      // sent again, in a batch of its own
+      Recorder<Response> again = new Recorder<Response>();
+      publisher.batchSize(1).subscribe(again);
+      again.request(10);
+      again.awaitDone();
+      assertEquals(2, again.items.size());
+      assertEquals("second", second.get().first().get("name"));
+    } finally {
+      tables.stop();
+    }
+  }
+
+  @Test
+  public void testReadErrorIsSignalled() throws Exception {
+    Recorder<Map<String, Object>> rows = new Recorder<Map<String, Object>>();
+    new QueryPublisher(factual, "nowhere", new Query()).subscribe(rows);
+    rows.request(1);
+    rows.awaitDone();
+    assertEquals(404, ((FactualApiException) rows.error).getStatusCode());
+  }
+
+  private static Map<String, Object> named(String name) {
+    Map<String, Object> row = Maps.newHashMap();
+    row.put("name", name);
+    return row;
+  }
+
+  private static List<Map<String, Object>> rows(int n) {
+    List<Map<String, Object>> rows = Lists.newArrayList();
+    for (int i = 0; i < n; i++) {
+      Map<String, Object> row = Maps.newHashMap();
+      row.put("factual_id", "id-" + i);
+      row.put("name", "row " + i);
+      rows.add(row);
+    }
+    return rows;
+  }
+
+  /**
+   * Records the signals it receives.
+   */
+  private static class Recorder<T> implements Subscriber<T> {
+    private final List<T> items = new CopyOnWriteArrayList<T>();
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile Subscription subscription;
+    private volatile Throwable error;
+    private volatile boolean completed;
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+      this.subscription = subscription;
+    }
+
+    @Override
+    public void onNext(T item) {
+      items.add(item);
+    }
+
+    @Override
+    public void onError(Throwable error) {
+      this.error = error;
+      done.countDown();
+    }
+
+    @Override
+    public void onComplete() {
+      completed = true;
+      done.countDown();
+    }
+
+    private void request(long n) {
+      subscription.request(n);
+    }
+
+    private void awaitItems(int n) throws InterruptedException {
+      long deadline = System.currentTimeMillis() + 5000;
+      while (items.size() < n && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      assertEquals(String.valueOf(error), n, items.size());
+      // let any read the items triggered reach the server
+      Thread.sleep(100);
+    }
+
+    private void awaitDone() throws InterruptedException {
+      assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+  }
+
+}
@@ -0,0 +1,73 @@
+package com.factual.driver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+
+/**
+ * Unit tests for QueryCache.
+ */
+public class QueryCacheTest {
+  private static final String JSON = "{\"version\":3,\"status\":\"ok\",\"response\":{\"data\":["
+      + "{\"name\":\"Food Co\",\"region\":\"CA\",\"category\":\"Food & Beverage\"},"
+      + "{\"name\":\"Toys Inc\",\"region\":\"CA\",\"category\":\"Shopping\"},"
+      + "{\"name\":\"Foodies\",\"region\":\"CA\",\"category\":\"Food & Beverage > Restaurants\"}"
+      + "],\"included_rows\":3,\"total_row_count\":3}}";
+
+  @Test
+  public void testExactHit() {
+    QueryCache cache = new QueryCache(10);
+    ReadResponse resp = new ReadResponse(JSON);
+    cache.put("places", new Query().field("region").equal("CA").includeRowCount(), resp);
+
+    assertSame(resp, cache.get("places", new Query().field("region").equal("CA").includeRowCount()));
+    assertNull(cache.get("restaurants-us", new Query().field("region").equal("CA").includeRowCount()));
+  }
+
+  @Test
+  public void testAnswersNarrowerQuery() {
+    QueryCache cache = new QueryCache(10);
+    cache.put("places", new Query().field("region").equal("CA").includeRowCount(), new ReadResponse(JSON));
+
+    ReadResponse narrowed = cache.get("places", new Query()
+        .field("region").equal("CA")
+        .field("category").beginsWith("Food")
+        .includeRowCount());
+    assertEquals(2, narrowed.size());
+    assertEquals(2, narrowed.getTotalRowCount());
+    assertEquals("Food Co", narrowed.first().get("name"));
+    assertEquals(narrowed.getJson(), new ReadResponse(narrowed.getJson()).getJson());
+
+    ReadResponse paged = cache.get("places", new Query()
+        .field("region").equal("CA")
+        .field("category").beginsWith("Food")
+        .offset(1).limit(5));
+    assertEquals(1, paged.size());
+    assertEquals("Foodies", paged.first().get("name"));
+  }
+
+  @Test
+  public void testDoesNotAnswerFromIncompleteOrBroaderQuery() {
+    QueryCache cache = new QueryCache(10);
+    cache.put("places", new Query().field("region").equal("CA").limit(3),
+        new ReadResponse(JSON.replace(",\"total_row_count\":3", "")));
+
+    // the cached response may have been cut off by its limit
+    assertNull(cache.get("places", new Query().field("region").equal("CA").field("name").beginsWith("Food")));
+
+    cache.put("places", new Query().field("region").equal("CA").includeRowCount(), new ReadResponse(JSON));
+    // broader than the cached query
+    assertNull(cache.get("places", new Query().field("category").beginsWith("Food")));
+    // different full text search
+    assertNull(cache.get("places", new Query().search("food").field("region").equal("CA")));
+    // not locally evaluable
+    assertNull(cache.get("places", new Query().field("region").equal("CA").field("name").search("food")));
+    Query includes = new Query().field("region").equal("CA");
+    includes.add(new FieldFilter("$includes", "category_ids", 338));
+    assertNull(cache.get("places", includes));
+  }
+
+}
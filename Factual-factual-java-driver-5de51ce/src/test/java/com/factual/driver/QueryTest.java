@@ -1,12 +1,22 @@
 package com.factual.driver;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
+import java.util.Map;
+import java.util.Set;
+
+import org.json.JSONArray;
 
 import org.junit.Test;
 
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
 
 /**
  * Unit tests for Query.
@@ -111,4 +121,93 @@ public class QueryTest {
     assertEquals("sort=$distance:desc,name:asc", decoded);
   }
 
+  @Test
+  public void testMatches() {
+    Map<String, Object> row = Maps.newHashMap();
+    row.put("name", "Starbucks");
+    row.put("region", "CA");
+    row.put("rating", 7.5);
+    row.put("category_ids", new JSONArray().put(312).put(338));
+    row.put("tel", "");
+
+    assertTrue(new Query().field("region").equal("CA").matches(row));
+    assertFalse(new Query().field("region").notEqual("CA").matches(row));
+    assertTrue(new Query().field("region").in("MA", "CA").matches(row));
+    assertFalse(new Query().field("region").notIn("MA", "CA").matches(row));
+    assertTrue(new Query().field("name").beginsWith("Star").matches(row));
+    assertTrue(new Query().field("name").beginsWith("star").matches(row));
+    assertFalse(new Query().field("name").beginsWith("stars").matches(row));
+    assertTrue(new Query().field("region").equal("ca").matches(row));
+    assertFalse(new Query().field("region").notIn("ma", "ca").matches(row));
+    assertTrue(new Query().field("name").beginsWithAny("Coffee", "Star").matches(row));
+    assertTrue(new Query().field("tel").blank().matches(row));
+    assertFalse(new Query().field("tel").notBlank().matches(row));
+    assertTrue(new Query().field("fax").blank().matches(row));
+    assertTrue(new Query().field("rating").greaterThan(7).matches(row));
+    assertTrue(new Query().field("rating").greaterThanOrEqual(7.5).matches(row));
+    assertFalse(new Query().field("rating").lessThan(7.5).matches(row));
+    assertFalse(new Query().field("fax").lessThan(7.5).matches(row));
+    assertTrue(new Query().field("category_ids").equal(338).matches(row));
+    assertTrue(new Query().field("category_ids").in(1, 312).matches(row));
+  }
+
+  @Test
+  public void testMatches_nestedFilterLogic() {
+    Map<String, Object> row = Maps.newHashMap();
+    row.put("first_name", "Chun");
+    row.put("region", "MA");
+
+    Query q = new Query()
+    .field("region").in("MA", "VT", "NH");
+    q.or(
+        q.field("first_name").equal("Chun"),
+        q.field("last_name").equal("Kok")
+    );
+    assertTrue(q.matches(row));
+    assertTrue(q.isLocallyEvaluable());
+
+    row.put("region", "CA");
+    assertFalse(q.matches(row));
+
+    assertFalse(new Query().field("name").search("coffee").isLocallyEvaluable());
+    Query includes = new Query();
+    includes.add(new FieldFilter("$includes", "category_ids", 338));
+    assertFalse(includes.isLocallyEvaluable());
+
+    // filters implemented outside the driver are left to Factual
+    Query custom = new Query();
+    custom.add(new Filter() {
+      @Override
+      public String toJsonStr() {
+        return "{\"name\":{\"$eq\":\"Chun\"}}";
+      }
+
+      @Override
+      public Object toJsonObject() {
+        return null;
+      }
+    });
+    assertFalse(custom.isLocallyEvaluable());
+  }
+
+  @Test
+  public void testKeysetPage() throws UnsupportedEncodingException {
+    Query q = new Query().field("region").equal("CA").only("name").offset(40);
+    Query page = q.keysetPage("factual_id", "id-9", 25);
+
+    assertEquals(Sets.newHashSet("filters={\"$and\":[{\"region\":{\"$eq\":\"CA\"}},{\"factual_id\":{\"$gt\":\"id-9\"}}]}",
+        "limit=25", "select=name,factual_id", "sort=factual_id:asc"), params(page));
+    assertEquals(Sets.newHashSet("filters={\"region\":{\"$eq\":\"CA\"}}", "offset=40", "select=name"), params(q));
+    try {
+      q.sortAsc("name").keysetPage("factual_id", null, 25);
+      fail();
+    } catch (IllegalStateException e) {
+      // keyset pages sort by their key alone
+    }
+  }
+
+  private static Set<String> params(Query query) throws UnsupportedEncodingException {
+    return Sets.newHashSet(URLDecoder.decode(query.toUrlQuery(), "UTF-8").split("&"));
+  }
+
 }
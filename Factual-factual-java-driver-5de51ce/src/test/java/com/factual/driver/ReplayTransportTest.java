@@ -0,0 +1,129 @@
+package com.factual.driver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests recording traffic to Factual and replaying it offline.
+ */
+public class ReplayTransportTest {
+  private static final String DATA = "{\"version\":3,\"status\":\"ok\",\"response\":{\"data\":["
+      + "{\"factual_id\":\"03c26917-5d66-4de9-96bc-b13066173c65\",\"name\":\"Starbucks\",\"region\":\"CA\"}"
+      + "],\"included_rows\":1}}";
+  private static final String OFFLINE = "http://localhost:1/";
+
+  private StandInServer server;
+  private File log;
+
+  @Before
+  public void setUp() throws Exception {
+    server = new StandInServer()
+        .respond("/t/places", DATA)
+        .respond("/t/broken", 500, "{\"status\":\"error\"}");
+    log = File.createTempFile("traffic", ".log");
+    log.delete();
+  }
+
+  @After
+  public void tearDown() {
+    server.stop();
+    log.delete();
+  }
+
+  @Test
+  public void testReplaysRecordedTrafficOffline() throws Exception {
+    Factual factual = new Factual("key", "secret");
+    factual.setFactHome(server.getFactHome());
+    RecordingTransport recorder = factual.record(log);
+    assertEquals("Starbucks", factual.fetch("places", new Query().field("region").equal("CA"))
+        .first().get("name"));
+    readTwice(factual);
+    assertBroken(factual);
+    assertEquals(4, recorder.getRecordCount());
+    recorder.shutdown();
+
+    // a record torn while it was appended
+    FileOutputStream out = new FileOutputStream(log, true);
+    out.write(new byte[] { 0, 0, 1, 0, 42 });
+    out.close();
+
+    ReplayTransport replay = new ReplayTransport(log).speed(Double.POSITIVE_INFINITY);
+    assertEquals(4, replay.getExchangeCount());
+    Factual offline = new Factual("other", "secret");
+    offline.setFactHome(OFFLINE);
+    offline.setTransport(replay);
+    for (int i = 0; i < 3; i++) {
+      assertEquals("Starbucks", offline.fetch("places", new Query().field("region").equal("CA"))
+          .first().get("name"));
+    }
+    readTwice(offline);
+    assertBroken(offline);
+    try {
+      offline.fetch("places", new Query().search("tea"));
+      fail("Expected an unrecorded read to fail");
+    } catch (FactualApiException e) {
+      assertEquals(404, e.getStatusCode());
+      assertTrue(e.getMessage().contains("No recorded response"));
+    }
+    assertEquals(1, replay.getMissCount());
+  }
+
+  @Test
+  public void testReplaysAtRecordedOrScaledSpeed() throws Exception {
+    server.delay(200);
+    Factual factual = new Factual("key", "secret");
+    factual.setFactHome(server.getFactHome());
+    factual.record(log).close();
+    RecordingTransport recorder = factual.record(log);
+    factual.fetch("places", new Query().limit(1));
+    recorder.close();
+    factual.fetch("places", new Query().limit(2));
+
+    ReplayTransport replay = new ReplayTransport(log);
+    assertEquals(1, replay.getExchangeCount());
+    assertTrue(replay.getRecordedNanos() >= 200 * 1000000L);
+    Factual offline = new Factual("key", "secret");
+    offline.setFactHome(OFFLINE);
+    offline.setTransport(replay);
+    assertTrue(elapsedMillis(offline) >= 190);
+    replay.speed(10);
+    assertTrue(elapsedMillis(offline) < 150);
+  }
+
+  /**
+   * Reads the same query twice through a revalidation cache; the second read
+   * is answered with 304 Not Modified.
+   */
+  private static void readTwice(Factual factual) {
+    factual.setRevalidationCache(new RevalidationCache(10));
+    ReadResponse first = factual.fetch("places", new Query().limit(1));
+    assertSame(first, factual.fetch("places", new Query().limit(1)));
+    factual.setRevalidationCache(null);
+  }
+
+  private static void assertBroken(Factual factual) {
+    try {
+      factual.fetch("broken", new Query());
+      fail("Expected a server error");
+    } catch (FactualApiException e) {
+      assertEquals(500, e.getStatusCode());
+    }
+  }
+
+  private static long elapsedMillis(Factual factual) {
+    long start = System.nanoTime();
+    factual.fetch("places", new Query().limit(1));
+    return (System.nanoTime() - start) / 1000000;
+  }
+
+}
@@ -0,0 +1,116 @@
+package com.factual.driver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests caching resolve responses by normalized values.
+ */
+public class ResolveCacheTest {
+  private static final String RESOLVED = "{\"version\":3,\"status\":\"ok\",\"response\":{\"data\":["
+      + "{\"factual_id\":\"03c26917-5d66-4de9-96bc-b13066173c65\",\"name\":\"Starbucks\",\"resolved\":true}],"
+      + "\"included_rows\":1}}";
+  private static final String UNRESOLVED = "{\"version\":3,\"status\":\"ok\",\"response\":{\"data\":["
+      + "{\"factual_id\":\"03c26917-5d66-4de9-96bc-b13066173c65\",\"name\":\"Starbucks\",\"resolved\":false}],"
+      + "\"included_rows\":1}}";
+
+  private StandInServer server;
+  private Factual factual;
+
+  @Before
+  public void setUp() throws Exception {
+    server = new StandInServer().respond("/places/resolve", RESOLVED);
+    factual = new Factual("key", "secret");
+    factual.setFactHome(server.getFactHome());
+  }
+
+  @After
+  public void tearDown() {
+    server.stop();
+  }
+
+  @Test
+  public void testFingerprintsIgnoreFormatting() {
+    ResolveCache cache = new ResolveCache(10, 1, 1, TimeUnit.HOURS);
+    String fingerprint = cache.fingerprint(starbucks("Starbucks, Inc.", "(310) 555-1234", 34.06018, -118.41835));
+    assertEquals(fingerprint, cache.fingerprint(starbucks("  STARBUCKS   inc ", "+1 310.555.1234", 34.060184, -118.41835)));
+    assertEquals(fingerprint, cache.fingerprint(new ResolveQuery()
+        .add("Longitude", "-118.41835").add("latitude", 34.06018).add("tel", "310 555 1234")
+        .add("address", "1 Main St.").add("name", "starbucks-inc").add("region", null)));
+    assertFalse(fingerprint.equals(cache.fingerprint(starbucks("Starbucks Inc", "310 555 1235", 34.06018, -118.41835))));
+    assertFalse(fingerprint.equals(cache.fingerprint(starbucks("Starbucks Inc", "310 555 1234", 34.062, -118.41835))));
+    assertFalse(fingerprint.equals(cache.fingerprint(starbucks("Starbuck Inc", "310 555 1234", 34.06018, -118.41835))));
+  }
+
+  @Test
+  public void testResolvesVariantsOnce() {
+    ResolveCache cache = new ResolveCache(10, 1, 1, TimeUnit.HOURS);
+    factual.setResolveCache(cache);
+    ReadResponse resp = factual.resolves(starbucks("Starbucks, Inc.", "(310) 555-1234", 34.06018, -118.41835));
+    assertSame(resp, factual.resolves(starbucks("STARBUCKS INC", "310.555.1234", 34.06018, -118.41835)));
+    assertSame(resp, factual.resolves(starbucks("starbucks inc", "13105551234", 34.06018, -118.41835)));
+    assertEquals(Boolean.TRUE, factual.resolve(starbucks("Starbucks Inc", "3105551234", 34.06018, -118.41835))
+        .get("resolved"));
+    assertEquals(3, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+    assertEquals(0.75, cache.getHitRate(), 0.0001);
+  }
+
+  @Test
+  public void testExpiresUnresolvedSooner() {
+    server.respond("/places/resolve", UNRESOLVED);
+    ManualClockCache cache = new ManualClockCache();
+    factual.setResolveCache(cache);
+    ResolveQuery unresolved = starbucks("Starbucks", "310 555 1234", 34.06, -118.41);
+    ReadResponse resp = factual.resolves(unresolved);
+    assertSame(resp, factual.resolves(unresolved));
+    assertEquals(1, cache.getUnresolvedHitCount());
+    cache.now = 61 * 1000;
+    assertNull(cache.get("places", unresolved));
+
+    server.respond("/places/resolve", RESOLVED);
+    ResolveQuery resolved = starbucks("Starbucks", "310 555 1234", 34.06, -118.41);
+    resp = factual.resolves(resolved);
+    cache.now += 59 * 60 * 1000;
+    assertSame(resp, factual.resolves(resolved));
+    cache.now += 2 * 60 * 1000;
+    assertNull(cache.get("places", resolved));
+    assertEquals(2, cache.getHitCount());
+  }
+
+  private static ResolveQuery starbucks(String name, String tel, double latitude, double longitude) {
+    return new ResolveQuery()
+        .add("name", name)
+        .add("address", "1 Main St")
+        .add("tel", tel)
+        .add("latitude", latitude)
+        .add("longitude", longitude);
+  }
+
+  /**
+   * Holds resolved responses for an hour and unresolved ones for a minute,
+   * on a clock set by the test.
+   */
+  private static class ManualClockCache extends ResolveCache {
+    private long now = 0;
+
+    private ManualClockCache() {
+      super(10, 60, 1, TimeUnit.MINUTES);
+    }
+
+    @Override
+    protected long now() {
+      return now;
+    }
+  }
+
+}
@@ -0,0 +1,98 @@
+package com.factual.driver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+
+/**
+ * Tests reading response bodies through pooled buffers, and parsing them
+ * from bytes.
+ */
+public class ResponseBodyTest {
+  private static final String JSON = "{\"version\":3,\"status\":\"ok\",\"response\":{\"data\":["
+      + "{\"name\":\"Café 東京 \\\"quoted\\\"\",\"rank\":7,\"visits\":12345678901,"
+      + "\"huge\":123456789012345678901234,\"rating\":4.5,\"exp\":1e3,\"open\":true,"
+      + "\"closed\":false,\"tel\":null,\"category_ids\":[1,2],\"hours\":{\"monday\":[[\"9:00\",\"17:00\"]]}}"
+      + "],\"included_rows\":1}}";
+
+  @Test
+  public void testReadsAcrossPooledBuffers() throws IOException {
+    BufferPool pool = new BufferPool(16, 4);
+    ResponseBody body = ResponseBody.read(stream(JSON), -1, pool);
+    assertEquals(JSON, body.toString());
+    assertEquals(bytes(JSON).length, body.length());
+    assertEquals(4, pool.size());
+
+    // idle buffers are capped
+    ResponseBody.read(stream(JSON + JSON), -1, pool);
+    assertEquals(4, pool.size());
+  }
+
+  @Test
+  public void testReadsAnnouncedLength() throws IOException {
+    BufferPool pool = new BufferPool(16, 4);
+    int length = bytes(JSON).length;
+    assertEquals(JSON, ResponseBody.read(stream(JSON), length, pool).toString());
+    assertEquals(0, pool.size());
+    // a wrong announcement still reads the whole body
+    assertEquals(JSON, ResponseBody.read(stream(JSON), length - 20, pool).toString());
+    assertEquals(JSON, ResponseBody.read(stream(JSON), length + 20, pool).toString());
+    assertEquals("", ResponseBody.read(stream(""), -1, pool).toString());
+  }
+
+  @Test
+  public void testParsesAsOrgJsonWould() throws Exception {
+    JSONObject expected = new JSONObject(JSON);
+    JSONObject parsed = ResponseBody.read(stream(JSON), -1, BufferPool.SHARED).toJsonObject();
+    assertEquals(expected.toString(), parsed.toString());
+
+    JSONObject row = parsed.getJSONObject("response").getJSONArray("data").getJSONObject(0);
+    JSONObject expectedRow = expected.getJSONObject("response").getJSONArray("data").getJSONObject(0);
+    for (String field : new String[] {"name", "rank", "visits", "huge", "rating", "exp", "open", "tel"}) {
+      assertEquals(field, expectedRow.get(field), row.get(field));
+      assertSame(field, expectedRow.get(field).getClass(), row.get(field).getClass());
+    }
+    assertEquals(parsed.toString(), new ResponseBody(JSON).toJsonObject().toString());
+  }
+
+  @Test
+  public void testResponsesParseBodies() throws IOException {
+    ReadResponse resp = new ReadResponse(ResponseBody.read(stream(JSON), -1, BufferPool.SHARED));
+    assertEquals("ok", resp.getStatus());
+    assertEquals(1, resp.getIncludedRowCount());
+    assertEquals("Café 東京 \"quoted\"", resp.first().get("name"));
+    assertEquals(JSON, resp.getJson());
+  }
+
+  @Test
+  public void testRejectsInvalidJson() throws IOException {
+    for (String json : new String[] {"[1,2]", "{\"a\":", "<html>"}) {
+      try {
+        ResponseBody.read(stream(json), -1, BufferPool.SHARED).toJsonObject();
+        fail("expected " + json + " to be rejected");
+      } catch (JSONException e) {
+        assertTrue(e.getMessage() != null);
+      }
+    }
+  }
+
+  private static byte[] bytes(String s) {
+    return s.getBytes(Charsets.UTF_8);
+  }
+
+  private static ByteArrayInputStream stream(String s) {
+    return new ByteArrayInputStream(bytes(s));
+  }
+
+}
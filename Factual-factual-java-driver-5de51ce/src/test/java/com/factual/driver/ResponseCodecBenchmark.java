@@ -0,0 +1,82 @@
+package com.factual.driver;
+
+import com.google.common.base.Charsets;
+
+
+/**
+ * Compares storing and loading read responses as JSON with the binary
+ * encoding of {@link ResponseCodec}. Run with:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *   -Dexec.mainClass=com.factual.driver.ResponseCodecBenchmark \
+ *   -Dexec.args="[rows] [iterations]"
+ * </pre>
+ */
+public class ResponseCodecBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    int rows = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+    int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+    ReadResponse resp = new ReadResponse(page(rows));
+
+    // warm up both before measuring
+    runJson(resp, iterations / 5);
+    runBinary(resp, iterations / 5);
+    report("JSON", resp.getJson().getBytes(Charsets.UTF_8).length, runJson(resp, iterations), iterations);
+    report("binary", ResponseCodec.encode(resp).length, runBinary(resp, iterations), iterations);
+  }
+
+  /**
+   * @return the nanoseconds spent storing and loading, in that order.
+   */
+  private static long[] runJson(ReadResponse resp, int iterations) {
+    long[] nanos = new long[2];
+    for (int i = 0; i < iterations; i++) {
+      long start = System.nanoTime();
+      // a fresh response, so that its JSON is built rather than reused
+      byte[] stored = new ReadResponse(resp, resp.getData(), resp.getTotalRowCount()).getJson()
+          .getBytes(Charsets.UTF_8);
+      long mid = System.nanoTime();
+      new ReadResponse(new String(stored, Charsets.UTF_8));
+      nanos[0] += mid - start;
+      nanos[1] += System.nanoTime() - mid;
+    }
+    return nanos;
+  }
+
+  private static long[] runBinary(ReadResponse resp, int iterations) {
+    long[] nanos = new long[2];
+    for (int i = 0; i < iterations; i++) {
+      long start = System.nanoTime();
+      byte[] stored = ResponseCodec.encode(resp);
+      long mid = System.nanoTime();
+      ResponseCodec.decode(stored);
+      nanos[0] += mid - start;
+      nanos[1] += System.nanoTime() - mid;
+    }
+    return nanos;
+  }
+
+  private static void report(String name, int bytes, long[] nanos, int iterations) {
+    System.out.println(String.format("%-7s %7d bytes, store %6.1f us, load %6.1f us",
+        name, bytes, nanos[0] / 1000.0 / iterations, nanos[1] / 1000.0 / iterations));
+  }
+
+  private static String page(int rows) {
+    StringBuilder json = new StringBuilder("{\"version\":3,\"status\":\"ok\",\"response\":{\"data\":[");
+    for (int i = 0; i < rows; i++) {
+      json.append(i > 0 ? "," : "")
+          .append("{\"factual_id\":\"03c26917-5d66-4de9-96bc-").append(String.format("%012d", i))
+          .append("\",\"name\":\"Starbucks ").append(i)
+          .append("\",\"address\":\"").append(100 + i).append(" Main St\",\"locality\":\"Los Angeles\",")
+          .append("\"region\":\"CA\",\"postcode\":\"90025\",\"country\":\"us\",\"tel\":\"(310) 555-0100\",")
+          .append("\"latitude\":").append(34 + i / 1000.0).append(",\"longitude\":").append(-118 - i / 1000.0)
+          .append(",\"category_ids\":[338],\"category_labels\":[[\"Social\",\"Food and Dining\",\"Cafes\"]],")
+          .append("\"hours\":{\"monday\":[[\"6:00\",\"21:00\"]],\"tuesday\":[[\"6:00\",\"21:00\"]]},")
+          .append("\"existence\":0.98}");
+    }
+    return json.append("],\"included_rows\":").append(rows).append("}}").toString();
+  }
+
+}
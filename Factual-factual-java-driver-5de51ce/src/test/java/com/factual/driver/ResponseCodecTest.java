@@ -0,0 +1,234 @@
+package com.factual.driver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import com.factual.driver.Factual.RequestImpl;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+
+/**
+ * Tests round-tripping responses through the binary encoding.
+ */
+public class ResponseCodecTest {
+  private static final String READ = "{\"version\":3,\"status\":\"ok\",\"response\":{\"data\":["
+      + "{\"factual_id\":\"a\",\"name\":\"Starbucks\",\"region\":\"CA\",\"rank\":7,"
+      + "\"visits\":12345678901,\"latitude\":34.06,\"open\":true,\"tel\":null,"
+      + "\"category_labels\":[[\"Social\",\"Food and Dining\",\"Cafes\"]],"
+      + "\"hours\":{\"monday\":[[\"6:00\",\"21:00\"]]},\"note\":\"Caf\\u00e9 \\u6771\\u4eac\"},"
+      + "{\"factual_id\":\"b\",\"name\":\"Peet's\",\"region\":\"CA\",\"rank\":-3,\"latitude\":-0.5}"
+      + "],\"included_rows\":2,\"total_row_count\":120}}";
+  private static final String FACET = "{\"version\":3,\"status\":\"ok\",\"response\":{\"data\":{"
+      + "\"region\":{\"ca\":120,\"ny\":80},\"locality\":{\"los angeles\":60}},\"included_rows\":2}}";
+  private static final String SCHEMA = "{\"version\":3,\"status\":\"ok\",\"response\":{\"view\":{"
+      + "\"title\":\"Places\",\"description\":\"Global places\",\"search_enabled\":true,"
+      + "\"geo_enabled\":false,\"fields\":["
+      + "{\"name\":\"name\",\"datatype\":\"String\",\"faceted\":false,\"sortable\":true,\"searchable\":true},"
+      + "{\"name\":\"region\",\"datatype\":\"String\",\"faceted\":true,\"sortable\":true,\"searchable\":false}"
+      + "]}}}";
+
+  @Test
+  public void testReadResponse() {
+    ReadResponse resp = new ReadResponse(READ);
+    ReadResponse decoded = (ReadResponse) roundTrip(resp);
+    assertMeta(resp, decoded);
+    assertEquals(normalize(resp.getData()), normalize(decoded.getData()));
+    assertEquals(Integer.class, decoded.first().get("rank").getClass());
+    assertEquals(Long.class, decoded.first().get("visits").getClass());
+    assertEquals(JSONObject.NULL, decoded.first().get("tel"));
+    assertEquals(normalize(resp.getData()), normalize(new ReadResponse(decoded.getJson()).getData()));
+  }
+
+  @Test
+  public void testModifiedRows() {
+    ReadResponse resp = new ReadResponse(READ);
+    resp.first().put("$distance", 12.5);
+    resp.first().put("missing", null);
+    ReadResponse decoded = (ReadResponse) roundTrip(resp);
+    assertEquals(12.5, decoded.first().get("$distance"));
+    assertTrue(decoded.first().containsKey("missing"));
+    assertNull(decoded.first().get("missing"));
+
+    resp.first().put("unsupported", new Object());
+    try {
+      ResponseCodec.encode(resp);
+      fail("expected an unsupported value to be rejected");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("java.lang.Object"));
+    }
+  }
+
+  @Test
+  public void testFacetResponse() {
+    FacetResponse resp = new FacetResponse(FACET);
+    FacetResponse decoded = (FacetResponse) roundTrip(resp);
+    assertMeta(resp, decoded);
+    assertEquals(resp.getData(), decoded.getData());
+    assertEquals(resp.getData(), new FacetResponse(decoded.getJson()).getData());
+  }
+
+  @Test
+  public void testSchemaResponse() {
+    SchemaResponse resp = new SchemaResponse(SCHEMA);
+    SchemaResponse decoded = (SchemaResponse) roundTrip(resp);
+    assertMeta(resp, decoded);
+    assertEquals("Places", decoded.getTitle());
+    assertEquals("Global places", decoded.getDescription());
+    assertTrue(decoded.isSearchEnabled());
+    assertTrue(!decoded.isGeoEnabled());
+    assertEquals(normalize(resp.getData()), normalize(decoded.getData()));
+    assertTrue(decoded.getColumnSchema("region").faceted);
+    assertEquals(normalize(resp.getData()), normalize(new SchemaResponse(decoded.getJson()).getData()));
+  }
+
+  @Test
+  public void testMultiResponse() throws Exception {
+    Map<String, RequestImpl> requests = Maps.newLinkedHashMap();
+    requests.put("q0", new Factual.ReadQuery("t/places", Maps.<String, Object>newHashMap()));
+    requests.put("q1", new Factual.FacetRequest("t/places/facets", Maps.<String, Object>newHashMap()));
+    MultiResponse resp = new MultiResponse(requests);
+    resp.setJson("{\"q0\":" + READ + ",\"q1\":" + FACET + "}");
+    MultiResponse decoded = (MultiResponse) roundTrip(resp);
+    assertEquals(2, decoded.getData().size());
+    assertEquals(normalize(((ReadResponse) resp.getData().get(0)).getData()),
+        normalize(((ReadResponse) decoded.getData().get(0)).getData()));
+    assertEquals(((FacetResponse) resp.getData().get(1)).getData(),
+        ((FacetResponse) decoded.getData().get(1)).getData());
+    JSONObject json = new JSONObject(decoded.getJson());
+    assertEquals(normalize(((ReadResponse) resp.getData().get(0)).getData()),
+        normalize(new ReadResponse(json.getJSONObject("q0").toString()).getData()));
+    assertEquals(((FacetResponse) resp.getData().get(1)).getData(),
+        new FacetResponse(json.getJSONObject("q1").toString()).getData());
+  }
+
+  @Test
+  public void testCompactAndFramed() throws IOException {
+    StringBuilder page = new StringBuilder("{\"version\":3,\"status\":\"ok\",\"response\":{\"data\":[");
+    for (int i = 0; i < 50; i++) {
+      page.append(i > 0 ? "," : "").append("{\"factual_id\":\"03c26917-5d66-4de9-96bc-b13066173c").append(10 + i)
+          .append("\",\"name\":\"Starbucks\",\"locality\":\"Los Angeles\",\"region\":\"CA\",\"rank\":").append(i)
+          .append(",\"latitude\":34.06,\"category_labels\":[[\"Social\",\"Food and Dining\",\"Cafes\"]]}");
+    }
+    String json = page.append("],\"included_rows\":50}}").toString();
+    assertTrue(ResponseCodec.encode(new ReadResponse(json)).length < json.length() / 2);
+
+    ReadResponse resp = new ReadResponse(READ);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ResponseCodec.write(resp, out);
+    ResponseCodec.write(new FacetResponse(FACET), out);
+    ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+    assertTrue(ResponseCodec.read(in) instanceof ReadResponse);
+    assertTrue(ResponseCodec.read(in) instanceof FacetResponse);
+    assertNull(ResponseCodec.read(in));
+  }
+
+  @Test
+  public void testRejectsCorruptFrames() {
+    byte[] frame = ResponseCodec.encode(new ReadResponse(READ));
+    for (int length : new int[] {0, 5, 9, frame.length / 2, frame.length - 1}) {
+      assertRejected(Arrays.copyOf(frame, length));
+    }
+    byte[] badMagic = frame.clone();
+    badMagic[0] = 'X';
+    assertRejected(badMagic);
+    byte[] badType = frame.clone();
+    badType[9] = 'Z';
+    assertRejected(badType);
+    try {
+      ResponseCodec.read(new ByteArrayInputStream(Arrays.copyOf(frame, 20)));
+      fail("expected a truncated stream to be rejected");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testRejectsUnsupportedResponses() {
+    try {
+      ResponseCodec.encode(new RawReadResponse(READ));
+      fail("expected a raw response to be rejected");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("RawReadResponse"));
+    }
+  }
+
+  private static void assertRejected(byte[] frame) {
+    try {
+      ResponseCodec.decode(frame);
+      fail("expected a corrupt frame of " + frame.length + " bytes to be rejected");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  private static Response roundTrip(Response resp) {
+    return ResponseCodec.decode(ResponseCodec.encode(resp));
+  }
+
+  private static void assertMeta(Response expected, Response actual) {
+    assertEquals(expected.getVersion(), actual.getVersion());
+    assertEquals(expected.getStatus(), actual.getStatus());
+    assertEquals(expected.getTotalRowCount(), actual.getTotalRowCount());
+    assertEquals(expected.getIncludedRowCount(), actual.getIncludedRowCount());
+  }
+
+  /**
+   * @return <tt>value</tt> with JSON objects and arrays as comparable Maps
+   *         and Lists.
+   */
+  private static Object normalize(Object value) {
+    try {
+      if (value instanceof JSONObject) {
+        JSONObject obj = (JSONObject) value;
+        Map<String, Object> map = Maps.newHashMap();
+        for (Iterator<?> keys = obj.keys(); keys.hasNext();) {
+          String key = keys.next().toString();
+          map.put(key, normalize(obj.get(key)));
+        }
+        return map;
+      }
+      if (value instanceof JSONArray) {
+        JSONArray arr = (JSONArray) value;
+        List<Object> list = Lists.newArrayList();
+        for (int i = 0; i < arr.length(); i++) {
+          list.add(normalize(arr.get(i)));
+        }
+        return list;
+      }
+      if (value instanceof Map) {
+        Map<String, Object> map = Maps.newHashMap();
+        for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+          map.put(e.getKey().toString(), normalize(e.getValue()));
+        }
+        return map;
+      }
+      if (value instanceof List) {
+        List<Object> list = Lists.newArrayList();
+        for (Object element : (List<?>) value) {
+          list.add(normalize(element));
+        }
+        return list;
+      }
+      return value;
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+}
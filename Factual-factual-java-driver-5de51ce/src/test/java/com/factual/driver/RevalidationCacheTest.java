@@ -0,0 +1,66 @@
+package com.factual.driver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests revalidating cached responses with conditional requests, run against
+ * a {@link StandInServer}.
+ */
+public class RevalidationCacheTest {
+  private static final String DATA = "{\"version\":3,\"status\":\"ok\",\"response\":{\"data\":["
+      + "{\"factual_id\":\"03c26917-5d66-4de9-96bc-b13066173c65\",\"name\":\"Starbucks\",\"region\":\"CA\"}"
+      + "],\"included_rows\":1}}";
+
+  private StandInServer server;
+  private Factual factual;
+  private RevalidationCache cache;
+
+  @Before
+  public void setup() throws Exception {
+    server = new StandInServer().respond("/t/places", DATA);
+    factual = new Factual("key", "secret");
+    factual.setFactHome(server.getFactHome());
+    cache = new RevalidationCache(100);
+    factual.setRevalidationCache(cache);
+  }
+
+  @After
+  public void teardown() {
+    server.stop();
+  }
+
+  @Test
+  public void testNotModifiedReusesParsedResponse() {
+    Query query = new Query().field("region").equal("CA");
+    ReadResponse first = factual.fetch("places", query);
+    long bytesSent = server.getBytesSent();
+    ReadResponse second = factual.fetch("places", query);
+
+    assertSame(first, second);
+    assertEquals(2, server.getRequestCount("/t/places"));
+    assertEquals(bytesSent, server.getBytesSent());
+    assertEquals(1, cache.getNotModifiedCount());
+    assertTrue(cache.getSavedBytes() > 0);
+  }
+
+  @Test
+  public void testChangedResponseIsDownloaded() {
+    Query query = new Query().field("region").equal("CA");
+    ReadResponse first = factual.fetch("places", query);
+    server.respond("/t/places", DATA.replace("Starbucks", "Peet's"));
+    ReadResponse second = factual.fetch("places", query);
+
+    assertNotSame(first, second);
+    assertEquals("Peet's", second.first().get("name"));
+    assertEquals(0, cache.getNotModifiedCount());
+  }
+
+}
@@ -0,0 +1,236 @@
+package com.factual.driver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+
+/**
+ * Tests detecting the rows that changed between pulls.
+ */
+public class RowSnapshotTest {
+
+  @Test
+  public void testHashesContent() throws Exception {
+    Map<String, Object> row = row(id(1), "Starbucks", 1);
+    Map<String, Object> reordered = Maps.newLinkedHashMap();
+    reordered.put("rank", 1.0);
+    reordered.put("name", "Starbucks");
+    reordered.put("factual_id", id(1));
+    reordered.put("$distance", 12.5);
+    assertEquals(RowSnapshot.hash(row), RowSnapshot.hash(reordered));
+    assertFalse(RowSnapshot.hash(row) == RowSnapshot.hash(row(id(1), "Starbucks", 2)));
+
+    row.put("hours", new JSONObject("{\"monday\":[[\"6:00\",\"21:00\"]],\"tuesday\":null}"));
+    reordered.put("hours", new JSONObject("{\"tuesday\":null,\"monday\":[[\"6:00\",\"21:00\"]]}"));
+    assertEquals(RowSnapshot.hash(row), RowSnapshot.hash(reordered));
+    reordered.put("hours", new JSONObject("{\"tuesday\":null,\"monday\":[[\"6:00\",\"22:00\"]]}"));
+    assertFalse(RowSnapshot.hash(row) == RowSnapshot.hash(reordered));
+    assertFalse(RowSnapshot.hash(row(id(1), "ab", 1)) == RowSnapshot.hash(row(id(1), "a", 1)));
+  }
+
+  @Test
+  public void testPassesOnDeltas() throws Exception {
+    RowSnapshot snapshot = new RowSnapshot();
+    Recorder first = new Recorder();
+    RowSnapshot.Pull pull = snapshot.pull(first);
+    for (int i = 0; i < 100; i++) {
+      pull.handle(row(id(i), "Place " + i, i));
+    }
+    pull.handle(row("not-a-uuid", "Other", 0));
+    pull.handle(row(id(0), "Place 0", 0));
+    pull.finish();
+    assertEquals(101, first.inserted.size());
+    assertEquals(101, pull.getInserted());
+    assertEquals(101, snapshot.size());
+
+    Recorder second = new Recorder();
+    pull = snapshot.pull(second);
+    for (int i = 0; i < 100; i++) {
+      if (i == 7) {
+        continue;
+      }
+      pull.handle(row(id(i), "Place " + i, i == 3 ? 30 : i));
+    }
+    pull.handle(row(id(100), "Place 100", 100));
+    pull.finish();
+    assertEquals(Sets.newHashSet(id(100)), second.inserted);
+    assertEquals(Sets.newHashSet(id(3)), second.changed);
+    assertEquals(Sets.newHashSet(id(7), "not-a-uuid"), second.removed);
+    assertEquals(2, pull.getRemoved());
+    assertEquals(100, snapshot.size());
+  }
+
+  @Test
+  public void testSavesAndLoads() throws Exception {
+    RowSnapshot snapshot = new RowSnapshot();
+    RowSnapshot.Pull pull = snapshot.pull(new Recorder());
+    for (int i = 0; i < 1000; i++) {
+      pull.handle(row(i % 10 == 0 ? "id " + i : id(i), "Place " + i, i));
+    }
+    pull.finish();
+    File file = File.createTempFile("rows", ".snapshot");
+    try {
+      snapshot.save(file);
+      RowSnapshot loaded = RowSnapshot.load(file);
+      assertEquals(1000, loaded.size());
+
+      Recorder deltas = new Recorder();
+      pull = loaded.pull(deltas);
+      for (int i = 1; i < 1000; i++) {
+        pull.handle(row(i % 10 == 0 ? "id " + i : id(i), "Place " + i, i == 500 ? -1 : i));
+      }
+      pull.finish();
+      assertTrue(deltas.inserted.isEmpty());
+      assertEquals(Sets.newHashSet("id 500"), deltas.changed);
+      assertEquals(Sets.newHashSet("id 0"), deltas.removed);
+    } finally {
+      file.delete();
+    }
+    assertEquals(0, RowSnapshot.load(file).size());
+  }
+
+  @Test
+  public void testFailedSaveKeepsPreviousSnapshot() throws Exception {
+    RowSnapshot snapshot = new RowSnapshot();
+    RowSnapshot.Pull pull = snapshot.pull(new Recorder());
+    for (int i = 0; i < 10; i++) {
+      pull.handle(row(id(i), "Place " + i, i));
+    }
+    pull.finish();
+    File file = File.createTempFile("rows", ".snapshot");
+    File part = new File(file.getPath() + ".part");
+    try {
+      snapshot.save(file);
+      assertFalse(part.exists());
+
+      pull = snapshot.pull(new Recorder());
+      pull.handle(row(id(0), "Place 0", 0));
+      pull.finish();
+      // the temporary file cannot be written
+      assertTrue(part.mkdir());
+      try {
+        snapshot.save(file);
+        fail("Expected the save to fail");
+      } catch (IOException e) {
+        // expected
+      }
+      assertEquals(10, RowSnapshot.load(file).size());
+    } finally {
+      part.delete();
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testPullsFromManyThreads() throws Exception {
+    final RowSnapshot snapshot = new RowSnapshot();
+    RowSnapshot.Pull pull = snapshot.pull(new Recorder());
+    pullConcurrently(pull, 20000, 0);
+    pull.finish();
+    assertEquals(20000, snapshot.size());
+
+    Recorder deltas = new Recorder();
+    pull = snapshot.pull(deltas);
+    pullConcurrently(pull, 20000, 97);
+    pull.finish();
+    assertTrue(deltas.inserted.isEmpty());
+    assertEquals(20000 / 97 + 1, deltas.changed.size());
+    assertTrue(deltas.removed.isEmpty());
+  }
+
+  @Test
+  public void testRejectsRowsWithoutKey() {
+    try {
+      new RowSnapshot().pull(new Recorder()).handle(row(null, "Starbucks", 1));
+      fail();
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  /**
+   * Passes rows from 8 threads, changing every <tt>changeEvery</tt>th one.
+   */
+  private static void pullConcurrently(final RowSnapshot.Pull pull, int rows, final int changeEvery)
+      throws Exception {
+    final List<Map<String, Object>> all = Lists.newArrayList();
+    for (int i = 0; i < rows; i++) {
+      Map<String, Object> row = row(id(i), "Place " + i, i);
+      if (changeEvery > 0 && i % changeEvery == 0) {
+        row.put("tags", new JSONArray("[\"new\"]"));
+      }
+      all.add(row);
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    for (int t = 0; t < 8; t++) {
+      final int thread = t;
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          for (int i = thread; i < all.size(); i += 8) {
+            pull.handle(all.get(i));
+          }
+        }
+      });
+    }
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+  }
+
+  private static String id(int i) {
+    return new UUID(0x03c269175d664de9L + i, 0x96bcb13066173c65L * (i + 1)).toString();
+  }
+
+  private static Map<String, Object> row(String id, String name, int rank) {
+    Map<String, Object> row = Maps.newLinkedHashMap();
+    if (id != null) {
+      row.put("factual_id", id);
+    }
+    row.put("name", name);
+    row.put("rank", rank);
+    return row;
+  }
+
+  private static class Recorder implements DeltaHandler {
+    private final Set<String> inserted = Sets.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Set<String> changed = Sets.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Set<String> removed = Sets.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    @Override
+    public void inserted(Map<String, Object> row) {
+      inserted.add(row.get("factual_id").toString());
+    }
+
+    @Override
+    public void changed(Map<String, Object> row) {
+      changed.add(row.get("factual_id").toString());
+    }
+
+    @Override
+    public void removed(String id) {
+      removed.add(id);
+    }
+  }
+
+}
@@ -0,0 +1,152 @@
+package com.factual.driver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.json.JSONArray;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+
+/**
+ * Tests holding rows off the Java heap.
+ */
+public class RowStoreTest {
+  private StandInServer server;
+  private Factual factual;
+  private List<Map<String, Object>> rows;
+
+  @Before
+  public void setUp() throws Exception {
+    rows = Lists.newArrayList();
+    for (int i = 0; i < 120; i++) {
+      rows.add(place(i, "Place " + i));
+    }
+    server = new StandInServer().respondRows("/t/places", rows);
+    factual = new Factual("key", "secret");
+    factual.setFactHome(server.getFactHome());
+  }
+
+  @After
+  public void tearDown() {
+    server.stop();
+  }
+
+  @Test
+  public void testReadsFieldsFromRecords() throws Exception {
+    RowStore store = new RowStore();
+    assertEquals(120, store.load(factual.fetch("places", new Query().limit(120))));
+    assertEquals(120, store.size());
+
+    RowStore.Row row = store.get(id(7));
+    assertEquals(id(7), row.getKey());
+    assertEquals("Place 7", row.getString("name"));
+    assertTrue(row.stringEquals("name", "Place 7"));
+    assertFalse(row.stringEquals("name", "Place 8"));
+    assertEquals("Zürich 7", row.getString("locality"));
+    assertTrue(row.stringEquals("tel", "東京 7"));
+    assertEquals(34.07, row.getDouble("latitude", Double.NaN), 0);
+    assertEquals(7, row.getLong("employees", -1));
+    assertEquals(-1, row.getLong("name", -1));
+    assertTrue(row.getBoolean("open"));
+    assertFalse(store.get(id(8)).getBoolean("open"));
+    assertEquals("[\"cafe\",7]", row.getString("category_labels"));
+    assertEquals(7, ((JSONArray) row.get("category_labels")).getInt(1));
+    assertFalse(row.has("fax"));
+    assertTrue(row.has("name"));
+    assertNull(row.getString("nowhere"));
+    assertNull(store.get(id(500)));
+
+    Map<String, Object> map = store.get(id(3)).toMap();
+    assertEquals(rows.get(3).keySet(), map.keySet());
+    assertEquals("Place 3", map.get("name"));
+    assertTrue(map.containsKey("fax"));
+    assertEquals(3, map.get("employees"));
+
+    RowStore.Row reused = store.get(id(9), row);
+    assertSame(row, reused);
+    assertEquals("Place 9", row.getString("name"));
+  }
+
+  @Test
+  public void testReplacesRowsAcrossSegments() throws Exception {
+    File file = File.createTempFile("rows", ".bin");
+    RowStore store = new RowStore("factual_id", file, 512);
+    try {
+      for (Map<String, Object> row : rows) {
+        store.put(row);
+      }
+      store.put(place(5, "Renamed"));
+      Map<String, Object> other = Maps.newLinkedHashMap();
+      other.put("factual_id", "not-a-uuid");
+      other.put("name", "Other");
+      store.put(other);
+
+      assertTrue(file.length() > 512);
+      assertEquals(121, store.size());
+      assertEquals("Renamed", store.get(id(5)).getString("name"));
+      assertEquals("Other", store.get("not-a-uuid").getString("name"));
+
+      Set<String> seen = Sets.newHashSet();
+      RowStore.Cursor cursor = store.cursor();
+      store.put(place(500, "Put later"));
+      while (cursor.next()) {
+        assertTrue(seen.add(cursor.getKey()));
+        if (cursor.getKey().equals(id(5))) {
+          assertEquals("Renamed", cursor.getString("name"));
+        }
+      }
+      assertEquals(121, seen.size());
+    } finally {
+      store.close();
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testLoadsFromPagesAndExports() throws Exception {
+    RowStore store = new RowStore();
+    assertEquals(120, store.load(new QueryPublisher(factual, "places", new Query()).pageSize(50)));
+    assertEquals(120, store.size());
+    assertEquals("Place 119", store.get(id(119)).getString("name"));
+
+    RowStore exported = new RowStore();
+    assertEquals(120, new TableExport(factual, "places", new Query()).exportTo(exported));
+    assertEquals(120, exported.size());
+    assertEquals(store.get(id(42)).toMap().toString(), exported.get(id(42)).toMap().toString());
+  }
+
+  private static Map<String, Object> place(int i, String name) {
+    Map<String, Object> row = Maps.newLinkedHashMap();
+    row.put("factual_id", id(i));
+    row.put("name", name);
+    row.put("locality", "Zürich " + i);
+    row.put("tel", "東京 " + i);
+    row.put("latitude", 34.0 + i * 0.01);
+    row.put("employees", i);
+    row.put("open", i % 2 == 1);
+    row.put("fax", null);
+    row.put("category_labels", Arrays.asList("cafe", i));
+    return row;
+  }
+
+  private static String id(int i) {
+    return new UUID(0x03c269175d664de9L + i, 0x96bcb13066173c65L * (i + 1)).toString();
+  }
+
+}
@@ -0,0 +1,125 @@
+package com.factual.driver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests pre-flight query validation against cached schemas, run against a
+ * {@link StandInServer}.
+ */
+public class SchemaCacheTest {
+  private static final String SCHEMA = "{\"version\":3,\"status\":\"ok\",\"response\":{\"view\":{"
+      + "\"title\":\"Places\",\"description\":\"Global places\",\"search_enabled\":true,\"geo_enabled\":true,"
+      + "\"fields\":["
+      + field("factual_id", false, false, false) + ","
+      + field("name", false, true, true) + ","
+      + field("region", true, true, false) + ","
+      + field("tel", false, false, false)
+      + "]}}}";
+  private static final String DATA = "{\"version\":3,\"status\":\"ok\",\"response\":{\"data\":[],\"included_rows\":0}}";
+
+  private StandInServer server;
+  private Factual factual;
+  private SchemaCache schemaCache;
+
+  @Before
+  public void setup() throws Exception {
+    server = new StandInServer()
+        .respond("/t/places/schema", SCHEMA)
+        .respond("/t/places", DATA);
+    factual = new Factual("key", "secret");
+    factual.setFactHome(server.getFactHome());
+    schemaCache = new SchemaCache(factual, 1, TimeUnit.HOURS);
+    factual.setSchemaCache(schemaCache);
+  }
+
+  @After
+  public void teardown() {
+    schemaCache.close();
+    server.stop();
+  }
+
+  @Test
+  public void testValidQuery() {
+    assertNotNull(factual.fetch("places", new Query()
+        .field("region").equal("CA")
+        .field("name").search("coffee")
+        .only("name", "tel")
+        .sortAsc("name")
+        .sortDesc("$distance")
+        .search("starbucks")));
+    assertEquals(1, server.getRequestCount("/t/places/schema"));
+    assertEquals(1, server.getRequestCount("/t/places"));
+  }
+
+  @Test
+  public void testBadSelectField() {
+    assertInvalid(new Query().field("region").equal("CA").only("hours"), "select", "unknown field");
+  }
+
+  @Test
+  public void testUnsortableField() {
+    assertInvalid(new Query().sortAsc("tel"), "sort", "not sortable");
+  }
+
+  @Test
+  public void testUnknownFilterField() {
+    Query q = new Query();
+    q.or(
+        q.field("region").equal("CA"),
+        q.field("hours").blank());
+    assertInvalid(q, "filters", "unknown field");
+  }
+
+  @Test
+  public void testUnsearchableField() {
+    assertInvalid(new Query().field("region").search("CA"), "filters", "not searchable");
+  }
+
+  @Test
+  public void testUnfacetedField() {
+    try {
+      factual.fetch("places", new FacetQuery("name"));
+      fail("Expected to catch a FactualApiException");
+    } catch (FactualApiException e) {
+      assertTrue(e.getMessage().contains("not faceted"));
+      assertTrue(e.getRequestUrl().startsWith(server.getFactHome() + "t/places/facets"));
+    }
+  }
+
+  @Test
+  public void testMalformedSchemaValidatesNothing() {
+    server.respond("/t/odd/schema", "{\"version\":3,\"status\":\"ok\",\"response\":{}}")
+        .respond("/t/odd", DATA);
+    assertNotNull(factual.fetch("odd", new Query().field("anything").equal("x")));
+    assertEquals(1, server.getRequestCount("/t/odd/schema"));
+    assertEquals(1, server.getRequestCount("/t/odd"));
+  }
+
+  private void assertInvalid(Query query, String param, String problem) {
+    try {
+      factual.fetch("places", query);
+      fail("Expected to catch a FactualApiException");
+    } catch (FactualApiException e) {
+      assertTrue(e.getMessage().contains(param));
+      assertTrue(e.getMessage().contains(problem));
+      assertTrue(e.getRequestUrl().startsWith(server.getFactHome() + "t/places"));
+    }
+    assertEquals(0, server.getRequestCount("/t/places"));
+  }
+
+  private static String field(String name, boolean faceted, boolean sortable, boolean searchable) {
+    return "{\"name\":\"" + name + "\",\"description\":\"\",\"label\":\"" + name + "\",\"datatype\":\"string\""
+        + ",\"faceted\":" + faceted + ",\"sortable\":" + sortable + ",\"searchable\":" + searchable + "}";
+  }
+
+}
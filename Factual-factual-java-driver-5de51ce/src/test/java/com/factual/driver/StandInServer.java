@@ -0,0 +1,404 @@
+package com.factual.driver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local stand-in for Factual's API, serving canned JSON responses by path.
+ * Lets tests and benchmarks run the driver end to end without a key, secret or
+ * network.
+ * <p>
+ * Like Factual, it sends ETag and Last-Modified validators with each response,
+ * and answers conditional requests for unchanged responses with
+ * <tt>304 Not Modified</tt>. Multi requests are answered query by query,
+ * unless a response is canned for "/multi". Point a driver at it with:
+ * 
+ * <pre>
+ * factual.setFactHome(server.getFactHome());
+ * </pre>
+ */
+public class StandInServer {
+  static {
+    // send headers and body without waiting on delayed ACKs, which would add
+    // ~40ms to every response on a kept-alive connection
+    System.setProperty("sun.net.httpserver.nodelay", "true");
+  }
+
+  private final HttpServer server;
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private final ScheduledExecutorService delayer = Executors.newScheduledThreadPool(4);
+  private volatile long delayMillis = 0;
+  private volatile int maxOffset = Integer.MAX_VALUE;
+  private final Map<String, Canned> responses = new ConcurrentHashMap<String, Canned>();
+  private final Map<String, List<Map<String, Object>>> tables = new ConcurrentHashMap<String, List<Map<String, Object>>>();
+  private final Map<String, AtomicInteger> requestCounts = new ConcurrentHashMap<String, AtomicInteger>();
+  private final AtomicLong bytesSent = new AtomicLong();
+
+
+  /**
+   * Starts a stand-in server on a free local port.
+   */
+  public StandInServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 4096);
+    server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(final HttpExchange exchange) throws IOException {
+        if (delayMillis <= 0) {
+          serve(exchange);
+          return;
+        }
+        // respond later without holding a server thread, so many requests
+        // can be in flight at once
+        delayer.schedule(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              serve(exchange);
+            } catch (IOException e) {
+              exchange.close();
+            }
+          }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+      }
+    });
+    server.setExecutor(executor);
+    server.start();
+  }
+
+  /**
+   * @return the base URL to pass to {@link Factual#setFactHome(String)}.
+   */
+  public String getFactHome() {
+    return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+  }
+
+  /**
+   * Serves <tt>json</tt> for every request to <tt>path</tt>, e.g.
+   * "/t/places".
+   * 
+   * @return this StandInServer
+   */
+  public StandInServer respond(String path, String json) {
+    return respond(path, 200, json);
+  }
+
+  /**
+   * Serves <tt>json</tt> with HTTP status <tt>status</tt> for every request to
+   * <tt>path</tt>, e.g. to stand in for an outage with 503.
+   * 
+   * @return this StandInServer
+   */
+  public StandInServer respond(String path, int status, String json) {
+    responses.put(path, new Canned(status, json));
+    return this;
+  }
+
+  /**
+   * Serves <tt>rows</tt> for reads of <tt>path</tt>, e.g. "/t/places", a page
+   * at a time as Factual would: from the <tt>offset</tt> parameter on, at most
+   * <tt>limit</tt> rows (20 by default), with a total row count if
+   * <tt>include_count</tt> is true. Row filters are applied as
+   * {@link Query#matches} would apply them, a <tt>$circle</tt> geo filter
+   * keeps the rows whose latitude and longitude lie within the circle, and
+   * rows are sorted by a single <tt>sort</tt> field, compared as Strings.
+   * 
+   * @return this StandInServer
+   */
+  public StandInServer respondRows(String path, List<Map<String, Object>> rows) {
+    tables.put(path, rows);
+    return this;
+  }
+
+  /**
+   * Rejects reads with an <tt>offset</tt> past <tt>maxOffset</tt>, as Factual
+   * does past its own limit.
+   * 
+   * @return this StandInServer
+   */
+  public StandInServer maxOffset(int maxOffset) {
+    this.maxOffset = maxOffset;
+    return this;
+  }
+
+  /**
+   * Delays every response by <tt>millis</tt>, standing in for Factual's
+   * latency.
+   * 
+   * @return this StandInServer
+   */
+  public StandInServer delay(long millis) {
+    this.delayMillis = millis;
+    return this;
+  }
+
+  /**
+   * @return the amount of requests received for <tt>path</tt>.
+   */
+  public int getRequestCount(String path) {
+    AtomicInteger count = requestCounts.get(path);
+    return count != null ? count.get() : 0;
+  }
+
+  /**
+   * @return the total amount of response body bytes sent.
+   */
+  public long getBytesSent() {
+    return bytesSent.get();
+  }
+
+  public void stop() {
+    server.stop(0);
+    delayer.shutdownNow();
+    executor.shutdownNow();
+  }
+
+  private void serve(HttpExchange exchange) throws IOException {
+    String path = exchange.getRequestURI().getPath();
+    synchronized (requestCounts) {
+      if (!requestCounts.containsKey(path)) {
+        requestCounts.put(path, new AtomicInteger());
+      }
+    }
+    requestCounts.get(path).incrementAndGet();
+
+    List<Map<String, Object>> rows = tables.get(path);
+    if (rows != null) {
+      Map<String, String> params = params(exchange.getRequestURI().getRawQuery());
+      if (params.containsKey("offset") && Integer.parseInt(params.get("offset")) > maxOffset) {
+        send(exchange, 400, "{\"version\":3,\"status\":\"error\",\"error_type\":\"InvalidArgument\","
+            + "\"message\":\"offset is limited to " + maxOffset + "\"}");
+        return;
+      }
+      send(exchange, 200, page(rows, params));
+      return;
+    }
+    Canned canned = responses.get(path);
+    if (canned == null && "/multi".equals(path)) {
+      send(exchange, 200, multi(params(exchange.getRequestURI().getRawQuery()).get("queries")));
+      return;
+    }
+    if (canned == null) {
+      send(exchange, 404, "{\"version\":3,\"status\":\"error\",\"error_type\":\"NotFound\",\"message\":\"No stand-in response for " + path + "\"}");
+      return;
+    }
+    exchange.getResponseHeaders().set("ETag", canned.etag);
+    exchange.getResponseHeaders().set("Last-Modified", canned.lastModified);
+    if (canned.isNotModified(exchange)) {
+      exchange.sendResponseHeaders(304, -1);
+      exchange.close();
+      return;
+    }
+    send(exchange, canned.status, canned.json);
+  }
+
+  private void send(HttpExchange exchange, int status, String json) throws IOException {
+    byte[] body = json.getBytes("UTF-8");
+    exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+    exchange.sendResponseHeaders(status, body.length);
+    // counted before sending, so the count is current once a client has read it
+    bytesSent.addAndGet(body.length);
+    OutputStream out = exchange.getResponseBody();
+    try {
+      out.write(body);
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * @return a multi response answering each of the <tt>queries</tt> as a
+   *         request to its own path would be answered.
+   */
+  private String multi(String queries) throws IOException {
+    try {
+      JSONObject urls = new JSONObject(queries);
+      StringBuilder json = new StringBuilder("{");
+      for (Iterator<?> it = urls.keys(); it.hasNext();) {
+        String key = it.next().toString();
+        String url = urls.getString(key);
+        int query = url.indexOf('?');
+        String path = query >= 0 ? url.substring(0, query) : url;
+        List<Map<String, Object>> rows = tables.get(path);
+        Canned canned = responses.get(path);
+        String resp = rows != null ? page(rows, params(query >= 0 ? url.substring(query + 1) : null))
+            : canned != null ? canned.json
+            : "{\"version\":3,\"status\":\"error\",\"error_type\":\"NotFound\"}";
+        json.append(json.length() > 1 ? "," : "").append(JSONObject.quote(key)).append(':').append(resp);
+      }
+      return json.append('}').toString();
+    } catch (JSONException e) {
+      throw new IOException(e.getMessage());
+    }
+  }
+
+  private static String page(List<Map<String, Object>> rows, Map<String, String> params) {
+    if (params.containsKey("filters")) {
+      try {
+        LocalFilter filter = filter(new JSONObject(params.get("filters")));
+        List<Map<String, Object>> matching = Lists.newArrayList();
+        for (Map<String, Object> row : rows) {
+          if (filter.matches(row)) {
+            matching.add(row);
+          }
+        }
+        rows = matching;
+      } catch (JSONException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    if (params.containsKey("geo")) {
+      try {
+        JSONObject circle = new JSONObject(params.get("geo")).getJSONObject("$circle");
+        JSONArray center = circle.getJSONArray("$center");
+        double meters = circle.getDouble("$meters");
+        List<Map<String, Object>> within = Lists.newArrayList();
+        for (Map<String, Object> row : rows) {
+          Object lat = row.get("latitude");
+          Object lng = row.get("longitude");
+          if (lat instanceof Number && lng instanceof Number
+              && GeoScatterGather.distance(center.getDouble(0), center.getDouble(1),
+                  ((Number) lat).doubleValue(), ((Number) lng).doubleValue()) <= meters) {
+            within.add(row);
+          }
+        }
+        rows = within;
+      } catch (JSONException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    if (params.containsKey("sort")) {
+      String sort = params.get("sort");
+      final String field = sort.substring(0, sort.lastIndexOf(':'));
+      final int order = sort.endsWith(":desc") ? -1 : 1;
+      rows = Lists.newArrayList(rows);
+      Collections.sort(rows, new Comparator<Map<String, Object>>() {
+        @Override
+        public int compare(Map<String, Object> a, Map<String, Object> b) {
+          return order * String.valueOf(a.get(field)).compareTo(String.valueOf(b.get(field)));
+        }
+      });
+    }
+    int offset = params.containsKey("offset") ? Integer.parseInt(params.get("offset")) : 0;
+    int limit = params.containsKey("limit") ? Integer.parseInt(params.get("limit")) : 20;
+    List<Map<String, Object>> data = rows.subList(Math.min(offset, rows.size()),
+        Math.min(offset + limit, rows.size()));
+    Map<String, Object> response = Maps.newLinkedHashMap();
+    response.put("data", data);
+    response.put("included_rows", data.size());
+    if ("true".equals(params.get("include_count"))) {
+      response.put("total_row_count", rows.size());
+    }
+    Map<String, Object> root = Maps.newLinkedHashMap();
+    root.put("version", 3);
+    root.put("status", "ok");
+    root.put("response", response);
+    return JsonUtil.toJsonStr(root);
+  }
+
+  /**
+   * @return the Filter the JSON row filter <tt>jo</tt> stands for.
+   */
+  private static LocalFilter filter(JSONObject jo) throws JSONException {
+    FilterGroup group = new FilterGroup();
+    for (Iterator<?> it = jo.keys(); it.hasNext();) {
+      String key = it.next().toString();
+      if (key.startsWith("$")) {
+        FilterGroup nested = new FilterGroup().op(key);
+        JSONArray arr = jo.getJSONArray(key);
+        for (int i = 0; i < arr.length(); i++) {
+          nested.add(filter(arr.getJSONObject(i)));
+        }
+        group.add(nested);
+      } else {
+        JSONObject ops = jo.getJSONObject(key);
+        for (Iterator<?> opIt = ops.keys(); opIt.hasNext();) {
+          String op = opIt.next().toString();
+          Object arg = ops.get(op);
+          if (arg instanceof JSONArray) {
+            List<Object> args = Lists.newArrayList();
+            for (int i = 0; i < ((JSONArray) arg).length(); i++) {
+              args.add(((JSONArray) arg).get(i));
+            }
+            arg = args;
+          }
+          group.add(new FieldFilter(op, key, arg));
+        }
+      }
+    }
+    return group;
+  }
+
+  private static Map<String, String> params(String query) throws IOException {
+    Map<String, String> params = Maps.newHashMap();
+    if (query != null) {
+      for (String pair : query.split("&")) {
+        int eq = pair.indexOf('=');
+        if (eq > 0) {
+          params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+              URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+        }
+      }
+    }
+    return params;
+  }
+
+  private static String httpDate(Date date) {
+    SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+    format.setTimeZone(TimeZone.getTimeZone("GMT"));
+    return format.format(date);
+  }
+
+  /**
+   * A canned response and its validators.
+   */
+  private static class Canned {
+    private final int status;
+    private final String json;
+    private final String etag;
+    private final String lastModified;
+
+    private Canned(int status, String json) {
+      this.status = status;
+      this.json = json;
+      this.etag = "\"" + Integer.toHexString(json.hashCode()) + "\"";
+      this.lastModified = httpDate(new Date());
+    }
+
+    private boolean isNotModified(HttpExchange exchange) {
+      String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+      if (ifNoneMatch != null) {
+        return ifNoneMatch.equals(etag);
+      }
+      return lastModified.equals(exchange.getRequestHeaders().getFirst("If-Modified-Since"));
+    }
+  }
+
+}
@@ -0,0 +1,193 @@
+package com.factual.driver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+
+
+/**
+ * Tests exporting partitioned tables to files.
+ */
+public class TableExportTest {
+  private static final String[] REGIONS = { "CA", "NY", "TX", null };
+  private static final String FACETS = "{\"version\":3,\"status\":\"ok\",\"response\":{\"data\":"
+      + "{\"region\":{\"CA\":30,\"NY\":30}},\"included_rows\":1}}";
+
+  private StandInServer server;
+  private Factual factual;
+  private File dir;
+  private Set<String> ids;
+
+  @Before
+  public void setUp() throws Exception {
+    List<Map<String, Object>> rows = Lists.newArrayList();
+    ids = Sets.newHashSet();
+    for (int i = 0; i < 120; i++) {
+      Map<String, Object> row = Maps.newLinkedHashMap();
+      row.put("factual_id", "id-" + i);
+      row.put("name", i % 10 == 0 ? "Cafe \"" + i + "\", Inc." : "Place " + i);
+      if (REGIONS[i % 4] != null) {
+        row.put("region", REGIONS[i % 4]);
+      }
+      row.put("latitude", 34.0 + (i % 12) * 0.01);
+      row.put("longitude", -118.5 + (i / 12) * 0.01);
+      rows.add(row);
+      ids.add("id-" + i);
+    }
+    // outside the exported area
+    Map<String, Object> far = Maps.newLinkedHashMap();
+    far.put("factual_id", "far");
+    far.put("latitude", 40.7);
+    far.put("longitude", -74.0);
+    rows.add(far);
+
+    server = new StandInServer()
+        .respondRows("/t/places", rows)
+        .respond("/t/places/facets", FACETS);
+    factual = new Factual("key", "secret");
+    factual.setFactHome(server.getFactHome());
+    dir = Files.createTempDir();
+  }
+
+  @After
+  public void tearDown() {
+    server.stop();
+    for (File file : dir.listFiles()) {
+      file.delete();
+    }
+    dir.delete();
+  }
+
+  @Test
+  public void testFacetPartitionsExportEveryRowOnce() throws Exception {
+    long rows = new TableExport(factual, "places", new Query())
+        .partitionByFacet("region").pageSize(7).exportTo(dir);
+    assertEquals(121, rows);
+    List<String> exported = exportedIds();
+    assertEquals(121, exported.size());
+    assertEquals(121, Sets.newHashSet(exported).size());
+    // CA, NY and every other region, including none
+    assertEquals(3, manifest().size());
+  }
+
+  @Test
+  public void testSplitsAreaCellsUntilPageable() throws Exception {
+    long rows = new TableExport(factual, "places", new Query())
+        .partitionByArea(new Point(34.2, -118.5), new Point(34.0, -118.3), 1)
+        .maxRowsPerPartition(30).pageSize(10).exportTo(dir);
+    assertEquals(120, rows);
+    assertEquals(ids, Sets.newHashSet(exportedIds()));
+    assertEquals(120, exportedIds().size());
+    assertTrue(manifest().size() > 4);
+  }
+
+  @Test
+  public void testKeysetPagingReadsLargePartitionsWhole() throws Exception {
+    server.maxOffset(30);
+    long rows = new TableExport(factual, "places", new Query())
+        .partitionByArea(new Point(34.2, -118.5), new Point(34.0, -118.3), 1)
+        .maxRowsPerPartition(30).pageSize(10).keysetPaging("factual_id").exportTo(dir);
+    assertEquals(120, rows);
+    assertEquals(ids, Sets.newHashSet(exportedIds()));
+    assertEquals(120, exportedIds().size());
+    assertEquals(1, manifest().size());
+  }
+
+  @Test
+  public void testCombinesFacetAndAreaPartitions() throws Exception {
+    new TableExport(factual, "places", new Query())
+        .partitionByFacet("region")
+        .partitionByArea(new Point(34.2, -118.5), new Point(34.0, -118.3), 2)
+        .exportTo(dir);
+    assertEquals(ids, Sets.newHashSet(exportedIds()));
+    assertEquals(120, exportedIds().size());
+    assertEquals(12, manifest().size());
+  }
+
+  @Test
+  public void testResumesFromManifest() throws Exception {
+    TableExport export = new TableExport(factual, "places", new Query()).partitionByFacet("region");
+    export.exportTo(dir);
+
+    // as if interrupted while the last partition was being written
+    List<JSONObject> entries = manifest();
+    JSONObject last = entries.remove(entries.size() - 1);
+    new File(dir, last.getString("file")).delete();
+    Writer writer = new OutputStreamWriter(new FileOutputStream(new File(dir, TableExport.MANIFEST)), Charsets.UTF_8);
+    for (JSONObject entry : entries) {
+      writer.write(entry.toString() + "\n");
+      // marks the files of completed partitions, to show they are not rewritten
+      assertTrue(new File(dir, entry.getString("file")).setLastModified(0));
+    }
+    writer.write("{\"partition\":\"reg");
+    writer.close();
+
+    assertEquals(last.getLong("rows"), export.exportTo(dir));
+    for (JSONObject entry : entries) {
+      assertEquals(0, new File(dir, entry.getString("file")).lastModified());
+    }
+    assertEquals(121, exportedIds().size());
+    assertEquals(3, manifest().size());
+    assertEquals(0, export.exportTo(dir));
+  }
+
+  @Test
+  public void testWritesCsv() throws Exception {
+    new TableExport(factual, "places", new Query().field("region").equal("CA"))
+        .csv("factual_id", "name", "region").exportTo(dir);
+    List<String> lines = Files.readLines(new File(dir, manifest().get(0).getString("file")), Charsets.UTF_8);
+    assertEquals("factual_id,name,region", lines.get(0));
+    assertEquals(31, lines.size());
+    assertEquals("id-0,\"Cafe \"\"0\"\", Inc.\",CA", lines.get(1));
+    assertEquals("id-4,Place 4,CA", lines.get(2));
+  }
+
+  @Test
+  public void testFailsOnPartitionsTooLargeToPage() throws Exception {
+    try {
+      new TableExport(factual, "places", new Query()).maxRowsPerPartition(100).exportTo(dir);
+      fail();
+    } catch (IllegalStateException e) {
+      assertTrue(e.getMessage().contains("121 rows"));
+    }
+    assertEquals(0, manifest().size());
+  }
+
+  private List<JSONObject> manifest() throws Exception {
+    List<JSONObject> entries = Lists.newArrayList();
+    for (String line : Files.readLines(new File(dir, TableExport.MANIFEST), Charsets.UTF_8)) {
+      entries.add(new JSONObject(line));
+    }
+    return entries;
+  }
+
+  private List<String> exportedIds() throws Exception {
+    List<String> exported = Lists.newArrayList();
+    for (JSONObject entry : manifest()) {
+      for (String line : Files.readLines(new File(dir, entry.getString("file")), Charsets.UTF_8)) {
+        exported.add(new JSONObject(line).getString("factual_id"));
+      }
+    }
+    return exported;
+  }
+
+}
@@ -0,0 +1,76 @@
+package com.factual.driver;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Compares the throughput of each {@link FactualTransport} for concurrent
+ * reads against a {@link StandInServer}. Run with:
+ * 
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *   -Dexec.mainClass=com.factual.driver.TransportBenchmark \
+ *   -Dexec.args="[threads] [requests]"
+ * </pre>
+ */
+public class TransportBenchmark {
+  private static final String DATA = "{\"version\":3,\"status\":\"ok\",\"response\":{\"data\":["
+      + "{\"factual_id\":\"03c26917-5d66-4de9-96bc-b13066173c65\",\"name\":\"Starbucks\",\"region\":\"CA\"}"
+      + "],\"included_rows\":1}}";
+
+  public static void main(String[] args) throws Exception {
+    int threads = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+    int requests = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+    StandInServer server = new StandInServer().respond("/t/places", DATA);
+    try {
+      // warm up both before measuring
+      run(server, new GoogleHttpTransport(), threads, requests / 10);
+      run(server, new PooledHttpTransport(), threads, requests / 10);
+      report("GoogleHttpTransport", run(server, new GoogleHttpTransport(), threads, requests), requests);
+      report("PooledHttpTransport", run(server, new PooledHttpTransport(), threads, requests), requests);
+    } finally {
+      server.stop();
+    }
+  }
+
+  private static long run(StandInServer server, FactualTransport transport,
+      int threads, final int requests) throws Exception {
+    final Factual factual = new Factual("key", "secret");
+    factual.setFactHome(server.getFactHome());
+    factual.setTransport(transport);
+    final AtomicInteger next = new AtomicInteger();
+    final CountDownLatch done = new CountDownLatch(threads);
+    ExecutorService exec = Executors.newFixedThreadPool(threads);
+    long start = System.nanoTime();
+    for (int t = 0; t < threads; t++) {
+      exec.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            while (next.getAndIncrement() < requests) {
+              factual.fetch("places", new Query().field("region").equal("CA"));
+            }
+          } finally {
+            done.countDown();
+          }
+        }
+      });
+    }
+    done.await();
+    long nanos = System.nanoTime() - start;
+    exec.shutdown();
+    transport.shutdown();
+    return nanos;
+  }
+
+  private static void report(String name, long nanos, int requests) {
+    long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+    System.out.println(name + ": " + requests + " requests in " + millis + "ms ("
+        + (requests * 1000L / Math.max(1, millis)) + " requests/s)");
+  }
+
+}
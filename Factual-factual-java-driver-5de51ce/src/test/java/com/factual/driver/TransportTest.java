@@ -0,0 +1,184 @@
+package com.factual.driver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+
+/**
+ * Runs the same reads through each {@link FactualTransport} against a
+ * {@link StandInServer}.
+ */
+public class TransportTest {
+  private static final String DATA = "{\"version\":3,\"status\":\"ok\",\"response\":{\"data\":["
+      + "{\"factual_id\":\"03c26917-5d66-4de9-96bc-b13066173c65\",\"name\":\"Starbucks\",\"region\":\"CA\"}"
+      + "],\"included_rows\":1}}";
+
+  private StandInServer server;
+
+  @Before
+  public void setup() throws Exception {
+    server = new StandInServer().respond("/t/places", DATA);
+  }
+
+  @After
+  public void teardown() {
+    server.stop();
+  }
+
+  @Test
+  public void testGoogleHttpTransport() throws Exception {
+    assertTransport(new GoogleHttpTransport());
+  }
+
+  @Test
+  public void testPooledHttpTransport() throws Exception {
+    assertTransport(new PooledHttpTransport(4));
+  }
+
+  private void assertTransport(FactualTransport transport) throws Exception {
+    try {
+      assertRead(factual(transport));
+      assertRevalidated(factual(transport));
+      assertError(factual(transport));
+      assertConcurrentReads(factual(transport));
+    } finally {
+      transport.shutdown();
+    }
+  }
+
+  private Factual factual(FactualTransport transport) {
+    Factual factual = new Factual("key", "secret");
+    factual.setFactHome(server.getFactHome());
+    factual.setTransport(transport);
+    return factual;
+  }
+
+  private void assertRead(Factual factual) {
+    ReadResponse resp = factual.fetch("places", new Query().field("region").equal("CA"));
+    assertEquals(1, resp.size());
+    assertEquals("Starbucks", resp.first().get("name"));
+  }
+
+  private void assertRevalidated(Factual factual) {
+    RevalidationCache cache = new RevalidationCache(10);
+    factual.setRevalidationCache(cache);
+    Query query = new Query().limit(1);
+    ReadResponse first = factual.fetch("places", query);
+    assertSame(first, factual.fetch("places", query));
+    assertEquals(1, cache.getNotModifiedCount());
+  }
+
+  private void assertError(Factual factual) {
+    try {
+      factual.fetch("nowhere", new Query());
+      fail("expected a FactualApiException");
+    } catch (FactualApiException e) {
+      assertEquals(404, e.getStatusCode());
+      assertTrue(e.getMessage().contains("No stand-in response"));
+      assertTrue(e.getRequestUrl().startsWith(server.getFactHome() + "t/nowhere"));
+      assertEquals("GET", e.getRequestMethod());
+    }
+  }
+
+  private void assertConcurrentReads(final Factual factual) throws Exception {
+    ExecutorService exec = Executors.newFixedThreadPool(16);
+    try {
+      List<Future<ReadResponse>> results = Lists.newArrayList();
+      for (int i = 0; i < 64; i++) {
+        final Query query = new Query().offset(i);
+        results.add(exec.submit(new Callable<ReadResponse>() {
+          @Override
+          public ReadResponse call() {
+            return factual.fetch("places", query);
+          }
+        }));
+      }
+      for (Future<ReadResponse> result : results) {
+        assertEquals("Starbucks", result.get().first().get("name"));
+      }
+    } finally {
+      exec.shutdown();
+    }
+  }
+
+  @Test
+  public void testCancelAbortsEveryRequestInFlight() throws Exception {
+    server.delay(5000);
+    final PooledHttpTransport pooled = new PooledHttpTransport(4);
+    final CountDownLatch sent = new CountDownLatch(3);
+    final Factual factual = factual(new FactualTransport() {
+      @Override
+      public TransportResponse execute(TransportRequest request) throws IOException {
+        sent.countDown();
+        return pooled.execute(request);
+      }
+
+      @Override
+      public void shutdown() throws IOException {
+        pooled.shutdown();
+      }
+    });
+    final Cancellation cancellation = new Cancellation();
+    ExecutorService exec = Executors.newFixedThreadPool(3);
+    try {
+      List<Future<ReadResponse>> results = Lists.newArrayList();
+      for (int i = 0; i < 3; i++) {
+        final Query query = new Query().offset(i);
+        results.add(exec.submit(new Callable<ReadResponse>() {
+          @Override
+          public ReadResponse call() {
+            return factual.fetch("places", query, cancellation);
+          }
+        }));
+      }
+      sent.await();
+      long start = System.nanoTime();
+      cancellation.cancel();
+      for (Future<ReadResponse> result : results) {
+        try {
+          result.get();
+          fail("expected the read to be aborted");
+        } catch (ExecutionException e) {
+          assertTrue(e.getCause() instanceof FactualApiException);
+        }
+      }
+      assertTrue(System.nanoTime() - start < 2000 * 1000000L);
+    } finally {
+      exec.shutdown();
+      pooled.shutdown();
+    }
+  }
+
+  @Test
+  public void testPostThroughPooledHttpTransport() throws Exception {
+    server.respond("/t/places/submit", "{\"version\":3,\"status\":\"ok\",\"response\":{\"new_entity\":true,\"factual_id\":\"1\"}}");
+    PooledHttpTransport transport = new PooledHttpTransport();
+    try {
+      Factual factual = factual(transport);
+      SubmitResponse resp = factual.submit("places",
+          new Submit().setValue("name", "Starbucks"), new Metadata().user("test"));
+      assertTrue(resp.isNewEntity());
+      assertEquals(1, server.getRequestCount("/t/places/submit"));
+    } finally {
+      transport.shutdown();
+    }
+  }
+
+}
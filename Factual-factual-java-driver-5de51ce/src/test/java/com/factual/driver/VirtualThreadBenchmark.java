@@ -0,0 +1,114 @@
+package com.factual.driver;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+
+/**
+ * Shows how many blocking reads can be in flight at once on virtual threads,
+ * compared with a fixed pool of platform threads, against a
+ * {@link StandInServer} that answers each read after a delay. Both send reads
+ * through the same {@link PooledHttpTransport}. Needs a JDK with virtual
+ * threads (21 or later) to show the difference. Run with:
+ * 
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *   -Dexec.mainClass=com.factual.driver.VirtualThreadBenchmark \
+ *   -Dexec.args="[calls] [delayMillis] [connections] [platformThreads]"
+ * </pre>
+ */
+public class VirtualThreadBenchmark {
+  private static final String DATA = "{\"version\":3,\"status\":\"ok\",\"response\":{\"data\":["
+      + "{\"factual_id\":\"03c26917-5d66-4de9-96bc-b13066173c65\",\"name\":\"Starbucks\",\"region\":\"CA\"}"
+      + "],\"included_rows\":1}}";
+
+  public static void main(String[] args) throws Exception {
+    int calls = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+    int delayMillis = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+    int connections = args.length > 2 ? Integer.parseInt(args[2]) : 4000;
+    int platformThreads = args.length > 3 ? Integer.parseInt(args[3]) : 200;
+    System.out.println("virtual threads supported: " + FactualExecutors.isVirtualThreadSupported());
+
+    StandInServer server = new StandInServer().respond("/t/places", DATA).delay(delayMillis);
+    try {
+      run("platform threads (" + platformThreads + ")", server,
+          Executors.newFixedThreadPool(platformThreads), calls, connections);
+      run("virtual threads", server,
+          FactualExecutors.newVirtualThreadExecutor(), calls, connections);
+    } finally {
+      server.stop();
+    }
+  }
+
+  private static void run(String name, StandInServer server, ExecutorService executor,
+      int calls, int connections) throws Exception {
+    PooledHttpTransport transport = new PooledHttpTransport(connections);
+    CountingFactual factual = new CountingFactual();
+    factual.setFactHome(server.getFactHome());
+    factual.setTransport(transport);
+    AsyncFactual async = new AsyncFactual(factual, executor);
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    threads.resetPeakThreadCount();
+
+    final AtomicInteger failed = new AtomicInteger();
+    final CountDownLatch done = new CountDownLatch(calls);
+    long start = System.nanoTime();
+    for (int i = 0; i < calls; i++) {
+      final ListenableFuture<ReadResponse> resp = async.fetch("places", new Query().offset(i));
+      resp.addListener(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            resp.get();
+          } catch (Exception e) {
+            failed.incrementAndGet();
+          }
+          done.countDown();
+        }
+      }, MoreExecutors.sameThreadExecutor());
+    }
+    done.await();
+    long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    async.shutdown();
+    transport.shutdown();
+    System.out.println(name + ": " + calls + " calls in " + millis + "ms ("
+        + (calls * 1000L / Math.max(1, millis)) + " calls/s), max in flight "
+        + factual.maxInFlight.get() + ", peak platform threads " + threads.getPeakThreadCount()
+        + (failed.get() > 0 ? ", " + failed.get() + " failed" : ""));
+  }
+
+  /**
+   * Counts the blocking fetches running at once.
+   */
+  private static class CountingFactual extends Factual {
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    private CountingFactual() {
+      super("key", "secret");
+    }
+
+    @Override
+    public ReadResponse fetch(String tableName, Query query) {
+      int now = inFlight.incrementAndGet();
+      int max = maxInFlight.get();
+      while (now > max && !maxInFlight.compareAndSet(max, now)) {
+        max = maxInFlight.get();
+      }
+      try {
+        return super.fetch(tableName, query);
+      } finally {
+        inFlight.decrementAndGet();
+      }
+    }
+  }
+
+}